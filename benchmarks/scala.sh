@@ -0,0 +1,10 @@
+#!/bin/sh
+# Misura BorsaConcorrenteBenchmark con 1, 2, 4 e 8 thread (o con i numeri passati come argomenti)
+# e salva un risultato JSON di JMH per ciascuno in risultati/, con il numero di processori della macchina nel nome.
+# Va eseguito da questa cartella dopo "mvn -B package".
+set -e
+cpu=$(getconf _NPROCESSORS_ONLN)
+mkdir -p risultati
+for t in ${*:-1 2 4 8}; do
+    java -jar target/benchmarks.jar BorsaConcorrenteBenchmark -t "$t" -rf json -rff "risultati/concorrente-${cpu}cpu-t$t.json"
+done
@@ -0,0 +1,118 @@
+package benchmarks;
+
+import borsanova.Azienda;
+import borsanova.Borsa;
+import borsanova.Operatore;
+import borsanova.managerOperazioni.ManagerOperazioni;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe {@code BorsaConcorrenteBenchmark} misura con JMH il throughput delle richieste di acquisto e vendita
+ * eseguite da più thread sulla stessa {@link Borsa}.
+ * <p>
+ * Tutti i thread usano una borsa con {@code aziende} aziende quotate, e ciascuno ha il suo operatore; ogni operazione
+ * riguarda un'azienda scelta a caso ed è eseguita attraverso {@link ManagerOperazioni#operazione(Operatore, String, Borsa, Azienda, int)}.
+ * Le operazioni su azioni diverse procedono in parallelo, quindi il throughput cresce con il numero di core
+ * finché le aziende quotate sono abbastanza da rendere rara la contesa sulla stessa azione.
+ * Il numero di thread è per default quello dei processori e si cambia con l'opzione {@code -t} di JMH, ad esempio:
+ * {@code java -jar target/benchmarks.jar BorsaConcorrenteBenchmark -t 4 -rf json -rff concorrente.json}.
+ * <p>
+ * {@code ./scala.sh} ripete la misura con 1, 2, 4 e 8 thread e salva un JSON per ciascuna in {@code risultati/},
+ * con il numero di processori nel nome del file: la crescita con i core si legge confrontando i risultati di una macchina con più processori.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class BorsaConcorrenteBenchmark {
+
+    /**Azioni quotate per ciascuna azienda, abbastanza da non esaurirsi durante la misura*/
+    private static final int NUMERO_QUOTATO = 1_000_000_000;
+    /**Azioni comprate o vendute da ciascuna operazione*/
+    private static final int LOTTO = 10;
+    /**Numero delle borse create, per dare un nome nuovo a ciascuna*/
+    private static final AtomicInteger BORSE = new AtomicInteger();
+
+    /**
+     * La borsa condivisa da tutti i thread
+     */
+    @State(Scope.Benchmark)
+    public static class Mercato {
+        /**Aziende quotate*/
+        @Param({"1000"})
+        public int aziende;
+
+        /**Borsa condivisa*/
+        Borsa borsa;
+        /**Aziende quotate nella borsa*/
+        Azienda[] quotate;
+        /**Operatori creati, per dare un nome nuovo a ciascuno*/
+        final AtomicInteger operatori = new AtomicInteger();
+
+        /**
+         * Crea la borsa e vi quota le aziende
+         */
+        @Setup
+        public void prepara() {
+            borsa = Borsa.of("BenchConcorrente" + BORSE.getAndIncrement());
+            borsa.setPoliticaCostante(1, -1);
+            quotate = new Azienda[aziende];
+            for (int i = 0; i < aziende; i++) {
+                quotate[i] = Azienda.of("BenchAzienda" + i);
+                quotate[i].quotazione(borsa, NUMERO_QUOTATO, 10);
+            }
+        }
+    }
+
+    /**
+     * L'operatore di un thread e i suoi numeri casuali
+     */
+    @State(Scope.Thread)
+    public static class Lavoratore {
+        /**Operatore del thread*/
+        Operatore op;
+        /**Scelta delle aziende*/
+        SplittableRandom random;
+
+        /**
+         * Crea l'operatore del thread
+         * @param m mercato condiviso
+         */
+        @Setup
+        public void prepara(Mercato m) {
+            int numero = m.operatori.getAndIncrement();
+            op = Operatore.of(m.borsa.getName() + "_Operatore" + numero, Integer.MAX_VALUE / 2);
+            random = new SplittableRandom(numero);
+        }
+    }
+
+    @Benchmark
+    public int operazione(Mercato m, Lavoratore l) {
+        Azienda azienda = m.quotate[l.random.nextInt(m.quotate.length)];
+        if (m.borsa.getNumeroAzioniOp(l.op, azienda) >= LOTTO) {
+            ManagerOperazioni.operazione(l.op, "s", m.borsa, azienda, LOTTO);
+        } else {
+            int prezzo = m.borsa.getAzione(azienda, m.borsa).getPrezzo();
+            ManagerOperazioni.operazione(l.op, "b", m.borsa, azienda, prezzo * (LOTTO + 1));
+        }
+        return m.borsa.getNumeroAzioniOp(l.op, azienda);
+    }
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import borsanova.Azienda;
+import borsanova.Borsa;
+import borsanova.Operatore;
+import borsanova.managerOperazioni.ManagerOperazioni;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe {@code OrdiniLottoBenchmark} confronta con JMH la riesecuzione di una sequenza di ordini uno alla volta,
+ * attraverso {@link ManagerOperazioni#operazione(Operatore, String, Borsa, Azienda, int)}, con la stessa sequenza
+ * eseguita a lotti da {@link Borsa#eseguiOrdini(List)}.
+ * <p>
+ * Ogni iterazione esegue la sequenza una sola volta su una borsa nuova con le stesse aziende, e la sequenza di ordini è sempre la stessa
+ * (acquisti e vendite alternati sulle stesse aziende), quindi le due modalità partono dallo stesso stato e arrivano allo stesso stato.
+ * Il risultato è il tempo dell'intera sequenza di {@code ordini} ordini su {@code aziende} aziende quotate, ad esempio:
+ * {@code java -jar target/benchmarks.jar OrdiniLottoBenchmark -p ordini=100000 -rf json -rff lotto.json}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrdiniLottoBenchmark {
+
+    /**Azioni quotate per ciascuna azienda, abbastanza da non esaurirsi durante la misura*/
+    private static final int NUMERO_QUOTATO = 1_000_000_000;
+    /**Azioni comprate e poi vendute da ciascuna coppia di ordini*/
+    private static final int LOTTO = 10;
+    /**Numero delle borse create, per dare un nome nuovo a ciascuna*/
+    private static final AtomicInteger BORSE = new AtomicInteger();
+
+    /**Aziende quotate*/
+    @Param({"1000"})
+    public int aziende;
+    /**Ordini della sequenza*/
+    @Param({"1000000"})
+    public int ordini;
+
+    /**Borsa nuova dell'iterazione*/
+    private Borsa borsa;
+    /**Sequenza di ordini dell'iterazione*/
+    private List<Borsa.Ordine> sequenza;
+
+    /**
+     * Crea una borsa nuova, vi quota le aziende e prepara la sequenza di ordini: ogni acquisto di {@code LOTTO} azioni
+     * è seguito dalla vendita delle stesse azioni, così le vendite trovano sempre le azioni possedute
+     */
+    @Setup(Level.Iteration)
+    public void prepara() {
+        String nome = "BenchLotto" + BORSE.getAndIncrement();
+        borsa = Borsa.of(nome);
+        borsa.setPoliticaCostante(1, -1);
+        Azienda[] quotate = new Azienda[aziende];
+        for (int i = 0; i < aziende; i++) {
+            quotate[i] = Azienda.of("BenchAzienda" + i);
+            quotate[i].quotazione(borsa, NUMERO_QUOTATO, 10);
+        }
+        Operatore op = Operatore.of(nome + "_Operatore", Integer.MAX_VALUE / 2);
+        SplittableRandom random = new SplittableRandom(0);
+        sequenza = new ArrayList<>(ordini);
+        while (sequenza.size() + 1 < ordini) {
+            Azienda azienda = quotate[random.nextInt(aziende)];
+            sequenza.add(Borsa.Ordine.acquisto(op, azienda, 10 * LOTTO));
+            sequenza.add(Borsa.Ordine.vendita(op, azienda, LOTTO));
+        }
+    }
+
+    @Benchmark
+    public long[] lotto() {
+        return borsa.eseguiOrdini(sequenza);
+    }
+
+    @Benchmark
+    public Borsa singoli() {
+        for (Borsa.Ordine ordine : sequenza) {
+            ManagerOperazioni.operazione(ordine.getOperatore(), ordine.isAcquisto() ? "b" : "s",
+                    borsa, ordine.getAzienda(), ordine.getNumero());
+        }
+        return borsa;
+    }
+}
@@ -0,0 +1,235 @@
+package benchmarks;
+
+import borsanova.Azienda;
+import borsanova.Borsa;
+import borsanova.FunzionePrezzo;
+import borsanova.Operatore;
+import borsanova.PoliticaComposta;
+import borsanova.PoliticaEspressione;
+import borsanova.PoliticaPrezzo;
+import borsanova.VariazioneCostante;
+import borsanova.VariazioneSoglia;
+import borsanova.VariazioneVocali;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe {@code PercorsiCaldiBenchmark} misura con JMH i percorsi più usati durante le contrattazioni:
+ * <ul>
+ * <li> {@link Borsa#richiestaAcquisto(Operatore, int, Borsa.Azione)} e {@link Borsa#richiestaVendita(Operatore, int, Azienda)}
+ * <li> {@link Borsa#getAzione(Azienda, Borsa)} e {@link Borsa#getAzioneOp(Operatore, Azienda, Borsa)}
+ * <li> {@link Operatore#getValoreAzioni()}
+ * <li> acquisto e vendita di ciascuna implementazione di {@link PoliticaPrezzo} e di una {@link PoliticaComposta}, anche già legata alle azioni {@link PoliticaPrezzo#lega(Borsa.Azione)};
+ *      {@link PoliticaEspressione} compilata da {@code "prezzo + 1"} e {@code "prezzo - 1"} è confrontata con {@link VariazioneCostante}
+ * </ul>
+ * Ogni caso è ripetuto per ogni combinazione dei parametri {@code aziende} (aziende quotate), {@code operatori}
+ * e {@code posizioni} (azioni diverse possedute da ciascun operatore), e i casi delle politiche anche per ogni {@code politica};
+ * gli operandi di ogni invocazione sono scelti a caso in anticipo, così la misura non comprende la generazione dei numeri casuali.
+ * <p>
+ * I parametri si cambiano dalla linea di comando di JMH e i risultati si salvano in JSON per confrontare esecuzioni diverse, ad esempio:
+ * {@code java -jar target/benchmarks.jar PercorsiCaldiBenchmark -p aziende=1000,100000 -p posizioni=10 -rf json -rff caldi.json}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class PercorsiCaldiBenchmark {
+
+    /**Azioni quotate per ciascuna azienda, abbastanza da non esaurirsi durante la misura*/
+    private static final int NUMERO_QUOTATO = 1_000_000_000;
+    /**Azioni di ciascuna posizione iniziale degli operatori*/
+    private static final int NUMERO_POSSEDUTO = 10_000_000;
+    /**Numero di operandi preparati per ciascun caso (potenza di due)*/
+    private static final int OPERANDI = 1 << 16;
+    /**Maschera per scorrere gli operandi in cerchio*/
+    private static final int MASCHERA = OPERANDI - 1;
+    /**Numero dei mercati preparati, per dare nomi nuovi a borse, aziende e operatori di ciascuno*/
+    private static final AtomicInteger MERCATI = new AtomicInteger();
+
+    /**
+     * Il mercato su cui vengono misurati i casi: una borsa con {@code aziende} aziende quotate e {@code operatori} operatori,
+     * ciascuno con {@code posizioni} posizioni, preparato una volta per ogni combinazione dei parametri
+     */
+    @State(Scope.Benchmark)
+    public static class Mercato {
+        /**Aziende quotate*/
+        @Param({"1000", "10000"})
+        public int aziende;
+        /**Operatori*/
+        @Param({"100"})
+        public int operatori;
+        /**Azioni diverse possedute da ciascun operatore (non più delle aziende quotate)*/
+        @Param({"10", "100"})
+        public int posizioni;
+
+        /**Borsa del mercato*/
+        Borsa borsa;
+        /**Aziende quotate*/
+        Azienda[] azienda;
+        /**Azioni quotate, nello stesso ordine delle aziende*/
+        Borsa.Azione[] azione;
+        /**Operatori del mercato*/
+        Operatore[] operatore;
+        /**Operatore di ciascuna invocazione*/
+        int[] scelto;
+        /**Azienda posseduta dall'operatore di ciascuna invocazione*/
+        int[] posseduta;
+        /**Azienda qualsiasi di ciascuna invocazione*/
+        int[] qualsiasi;
+        /**Invocazioni eseguite, usate per scegliere gli operandi*/
+        int invocazione;
+
+        /**
+         * Quota le aziende, crea gli operatori con le loro posizioni e sceglie gli operandi
+         * @throws IllegalArgumentException se le posizioni per operatore superano le aziende quotate
+         */
+        @Setup
+        public void prepara() {
+            if (posizioni > aziende) {
+                throw new IllegalArgumentException("le posizioni per operatore non possono superare le aziende quotate");
+            }
+            String nome = "BenchCaldo" + MERCATI.getAndIncrement();
+            SplittableRandom random = new SplittableRandom(42);
+            borsa = Borsa.of(nome);
+            azienda = new Azienda[aziende];
+            azione = new Borsa.Azione[aziende];
+            for (int i = 0; i < aziende; i++) {
+                azienda[i] = Azienda.of(nome + "_Azienda" + i);
+                azienda[i].quotazione(borsa, NUMERO_QUOTATO, 10);
+                azione[i] = borsa.getAzione(azienda[i], borsa);
+            }
+            operatore = new Operatore[operatori];
+            int[][] possedute = new int[operatori][posizioni];
+            for (int o = 0; o < operatori; o++) {
+                operatore[o] = Operatore.of(nome + "_Operatore" + o, 1_000);
+                operatore[o].acquistaAzione(borsa, 10, azione[0]);
+                int primo = random.nextInt(aziende);
+                for (int p = 0; p < posizioni; p++) {
+                    possedute[o][p] = (primo + p) % aziende;
+                    borsa.richiestaAcquisto(operatore[o], NUMERO_POSSEDUTO, azione[possedute[o][p]]);
+                }
+            }
+            scelto = new int[OPERANDI];
+            posseduta = new int[OPERANDI];
+            qualsiasi = new int[OPERANDI];
+            for (int i = 0; i < OPERANDI; i++) {
+                scelto[i] = random.nextInt(operatori);
+                posseduta[i] = possedute[scelto[i]][random.nextInt(posizioni)];
+                qualsiasi[i] = random.nextInt(aziende);
+            }
+        }
+
+        /**
+         * Passa agli operandi dell'invocazione successiva
+         * @return l'indice degli operandi
+         */
+        int prossima() {
+            return invocazione++ & MASCHERA;
+        }
+    }
+
+    /**
+     * Il mercato con una politica di prezzo, applicata direttamente e già legata a ciascuna azione quotata
+     */
+    @State(Scope.Benchmark)
+    public static class Politica extends Mercato {
+        /**Politica misurata*/
+        @Param({"VariazioneCostante", "PoliticaEspressione", "VariazioneSoglia", "VariazioneVocali", "PoliticaComposta"})
+        public String politica;
+
+        /**Politica creata dal parametro*/
+        PoliticaPrezzo applicata;
+        /**Funzione di prezzo legata a ciascuna azione quotata, nello stesso ordine delle aziende*/
+        FunzionePrezzo[] legata;
+
+        /**
+         * Crea la politica e la lega alle azioni del mercato, già preparato da {@link Mercato#prepara()}
+         * @throws IllegalArgumentException se il nome della politica non è riconosciuto
+         */
+        @Setup
+        public void lega() {
+            applicata = switch (politica) {
+                case "VariazioneCostante" -> new VariazioneCostante(1, -1);
+                case "PoliticaEspressione" -> new PoliticaEspressione("prezzo + 1", "prezzo - 1");
+                case "VariazioneSoglia" -> new VariazioneSoglia(5);
+                case "VariazioneVocali" -> new VariazioneVocali("e");
+                case "PoliticaComposta" -> PoliticaComposta.limitata(PoliticaComposta.catena(
+                        PoliticaComposta.seQuantitaOltre(5, new VariazioneSoglia(0), new VariazioneCostante(1, -1)),
+                        new VariazioneVocali("e")), 1, 1000);
+                default -> throw new IllegalArgumentException("politica sconosciuta: " + politica);
+            };
+            legata = new FunzionePrezzo[azione.length];
+            for (int a = 0; a < azione.length; a++) {
+                legata[a] = applicata.lega(azione[a]);
+            }
+        }
+    }
+
+    @Benchmark
+    public int getAzione(Mercato m) {
+        int k = m.prossima();
+        return m.borsa.getAzione(m.azienda[m.qualsiasi[k]], m.borsa).getNumero();
+    }
+
+    @Benchmark
+    public int getAzioneOp(Mercato m) {
+        int k = m.prossima();
+        return m.borsa.getAzioneOp(m.operatore[m.scelto[k]], m.azienda[m.posseduta[k]], m.borsa).getNumero();
+    }
+
+    @Benchmark
+    public long getValoreAzioni(Mercato m) {
+        return m.operatore[m.scelto[m.prossima()]].getValoreAzioni();
+    }
+
+    @Benchmark
+    public int richiestaAcquisto(Mercato m) {
+        int k = m.prossima();
+        return m.borsa.richiestaAcquisto(m.operatore[m.scelto[k]], 1, m.azione[m.posseduta[k]]);
+    }
+
+    @Benchmark
+    public int richiestaVendita(Mercato m) {
+        int k = m.prossima();
+        return m.borsa.richiestaVendita(m.operatore[m.scelto[k]], 1, m.azienda[m.posseduta[k]]);
+    }
+
+    @Benchmark
+    public int applicaPoliticaAcquisto(Politica p) {
+        int k = p.prossima();
+        return p.applicata.applicaPoliticaAcquisto(p.azione[p.qualsiasi[k]], 10 + (k & 7), 1 + (k & 15));
+    }
+
+    @Benchmark
+    public int applicaPoliticaVendita(Politica p) {
+        int k = p.prossima();
+        return p.applicata.applicaPoliticaVendita(p.azione[p.qualsiasi[k]], 10 + (k & 7), 1 + (k & 15));
+    }
+
+    @Benchmark
+    public int legataDopoAcquisto(Politica p) {
+        int k = p.prossima();
+        return p.legata[p.qualsiasi[k]].dopoAcquisto(10 + (k & 7), 1 + (k & 15));
+    }
+
+    @Benchmark
+    public int legataDopoVendita(Politica p) {
+        int k = p.prossima();
+        return p.legata[p.qualsiasi[k]].dopoVendita(10 + (k & 7), 1 + (k & 15));
+    }
+}
@@ -3,6 +3,7 @@ package borsanova;
 import borsanova.Quotazioni.Quotazione;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 
 /**
@@ -22,10 +23,14 @@ public class Azienda implements Comparable<Azienda> {
 
     /**Mappa delle istanze dell'azienda*/
     private static final SortedMap<String, Azienda> INSTANCES = new TreeMap<>();
+    /**Istanze indicizzate per identificativo, scritte sotto il lock della classe e lette senza lock {@link #daId(int)}*/
+    private static volatile Azienda[] perId = new Azienda[16];
     /**Lista delle {@link Borsa} in cui l'azienda è quotata*/
-    private final SortedSet<Borsa> borse = new TreeSet<>();
+    private final SortedSet<Borsa> borse = new ConcurrentSkipListSet<>();
     /**Nome dell'azienda (la sua unicità)*/
     private final String name;
+    /**Identificativo denso dell'azienda, la sua posizione in ordine di creazione*/
+    private final int id;
 
     /*
      * AF:
@@ -33,11 +38,13 @@ public class Azienda implements Comparable<Azienda> {
      *   - "INSTANCES" --> Una mappa, tiene traccia di tutte le istanze esistenti di "Azienda", garantendo l'unicità per nome.
      *   - "borse" --> Un elenco, contiene le borse in cui l'azienda è attualmente quotata.
      *   - "name" --> Nome dell'azienda, la sua unicità.
+     *   - "id" --> identificativo denso, perId[id] è l'azienda stessa.
      *
      * RI:
      *   - "name" --> non è null e non è vuoto.
      *   - "borse" --> non contiene elementi null e mantiene l'ordine naturale.
      *   - "INSTANCES" --> contiene tutte le istanze create della classe "Azienda".
+     *   - "id" --> compreso tra 0 e INSTANCES.size() - 1, diverso per ogni istanza.
      */
 
 
@@ -50,22 +57,67 @@ public class Azienda implements Comparable<Azienda> {
      * @throws IllegalArgumentException se il nome è vuoto
 
      */
-    public static Azienda of(String name) {
+    public static synchronized Azienda of(String name) {
         if (Objects.requireNonNull(name, "Name must not be null.").isBlank())
             throw new IllegalArgumentException("Name must not be empty.");
-        if (!INSTANCES.containsKey(name)) INSTANCES.put(name, new Azienda(name));
+        if (!INSTANCES.containsKey(name)) {
+            Azienda azienda = new Azienda(name, INSTANCES.size());
+            INSTANCES.put(name, azienda);
+            registra(azienda);
+            Giornale.aziendaCreata(azienda);
+        }
         return INSTANCES.get(name);
     }
 
+    /**
+     * Estrae tutte le istanze esistenti, in ordine di nome (usato per salvare il mercato {@link Istantanea})
+     * @return copia dell'elenco delle istanze
+     */
+    static synchronized List<Azienda> istanze() {
+        return new ArrayList<>(INSTANCES.values());
+    }
+
+    /**
+     * Estrae l'istanza con un certo identificativo, senza lock: un identificativo si ottiene solo da un'istanza già creata,
+     * quindi la scrittura nella tabella è sempre visibile a chi la cerca.
+     * Pubblico per i protocolli che indicano le entità con il loro identificativo, come gli ordini binari
+     * {@link borsanova.managerOperazioni.OrdineBinario}
+     * @param id identificativo {@link #getId()}
+     * @return l'azienda
+     * @throws ArrayIndexOutOfBoundsException se nessuna istanza ha quell'identificativo
+     */
+    public static Azienda daId(int id) {
+        Azienda istanza = perId[id];
+        if (istanza == null) {
+            throw new ArrayIndexOutOfBoundsException(id);
+        }
+        return istanza;
+    }
+
+    /**
+     * Registra una nuova istanza nella tabella per identificativo, raddoppiandola se è piena (chiamato sotto il lock della classe)
+     * @param istanza azienda appena creata
+     */
+    private static void registra(Azienda istanza) {
+        Azienda[] tabella = perId;
+        if (istanza.id == tabella.length) {
+            tabella = Arrays.copyOf(tabella, tabella.length * 2);
+        }
+        tabella[istanza.id] = istanza;
+        perId = tabella;
+    }
+
     /**
      * Costruttore privato della classe {@link Azienda}.
      * <p>
      * Questo costruttore viene utilizzato internamente dal metodo statico {@link #of(String)} per garantire che
      * ogni azienda abbia un nome unico e che tutte le istanze siano gestite tramite la mappa {@link #INSTANCES}.
      * @param input nome dell'azienda (non null e non vuoto)
+     * @param id identificativo denso dell'azienda
      */
-    private Azienda(String input) {
+    private Azienda(String input, int id) {
        name = input;
+       this.id = id;
    }
 
     /**
@@ -94,8 +146,17 @@ public class Azienda implements Comparable<Azienda> {
        }
        this.borse.add(Objects.requireNonNull(borsa, "Il parametro della borsa non può essere null"));
        borsa.azioneQuotata(this, numero, prezzo);
+       Giornale.quotazione(this, borsa, numero, prezzo);
    }
 
+    /**
+     * Aggiunge una borsa a quelle in cui questa azienda è quotata, usato dalle quotazioni in blocco {@link Borsa#quotazioni(Azienda[], int[], int[])}
+     * @param borsa borsa in cui l'azienda è stata quotata (non null)
+     */
+    void borsaQuotata(Borsa borsa) {
+        this.borse.add(borsa);
+    }
+
     /**
      *Restituisce la lista delle borse ordinate naturalmente in cui questa azienda è quotata
      * @return borse quotate (mai null)
@@ -112,20 +173,29 @@ public class Azienda implements Comparable<Azienda> {
         return name;
     }
 
+    /**
+     * Estrae l'identificativo dell'azienda: intero denso assegnato alla creazione in {@code of} (0 per la prima istanza, poi 1, 2, ...),
+     * usabile come indice di array al posto del nome
+     * @return identificativo
+     */
+    public int getId() {
+        return id;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Azienda emp) {
-            return (emp.name.equals(this.name));
+            return emp.id == this.id;
         }
         else {
             return false;
         }
     }
 
-    public int hashCode() {return Objects.hash(this.name);}
+    public int hashCode() {return id;}
 
     @Override
     public int compareTo(Azienda o) {
-        return this.name.compareTo(o.name);
+        return this.id == o.id ? 0 : this.name.compareTo(o.name);
     }
 }
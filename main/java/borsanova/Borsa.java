@@ -2,7 +2,11 @@ package borsanova;
 
 
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * La classe <strong>borsa</strong> è caratterizzata da un nome (non vuoto), tiene traccia delle aziende quotate e delle loro azioni,
@@ -11,52 +15,90 @@ import java.util.*;
  * Essa contiene, oltre ai suoi personali metodi setter, getter e costruttore, metodi per:
  * <ul>
  * <li>Gestire le istanze e verificare l'unicità {@link #of(String)}
- * <li>Impostare e far valere la politica di prezzo
+ * <li>Impostare e far valere la politica di prezzo, anche per una singola azione {@link #setPoliticaAzione(Azienda, PoliticaPrezzo)}
  * <li>Gestire le richieste di acquisto e vendita {@link #richiestaAcquisto(Operatore, int, Azione)} {@link #richiestaVendita(Operatore, int, Azienda)}
+ * <li>Eseguire lotti di ordini {@link #eseguiOrdini(List)}
  * <li>Gestire la quotazione {@link #azioneQuotata(Azienda, int, int)}
  * <li>Estrarre elementi dalla mappa Operatore-AzioniPossedute {@link #getAzioneOp(Operatore, Azienda, Borsa)}
+ * <li>Gestire gli ordini con limite tra operatori {@link #ordineAcquisto(Operatore, Azienda, int, int)} {@link #ordineVendita(Operatore, Azienda, int, int)}
  * </ul>
  * <p>
  * La classe borsa è l'unica classe che può accedere a costruttore e setter della classe Azione.
  * Ha una subclass, VariazionePoliticaPrezzo, che, in base al comando passato,
  * estrae l'incremento e il decremento della politica di prezzo
+ * <p>
+ * La borsa può essere usata da più thread contemporaneamente. Prezzo e numero di un'azione sono un'unica parola atomica
+ * (vedi {@link Azione}): un eseguito, cioè la variazione del numero disponibile insieme al prezzo dato dalla politica,
+ * è una sola transizione compare-and-set senza lock. Le azioni possedute da un operatore in questa borsa sono invece
+ * aggiornate sotto il lock del segmento delle sue posizioni {@link RegistroPosizioni}, quindi operatori di segmenti diversi
+ * non si bloccano neanche sulla stessa azione.
+ * <p>
+ * La politica di prezzo può cambiare durante le contrattazioni senza fermarle. Ogni azione quotata conserva un
+ * {@link Legame} immutabile (funzione di prezzo già legata e versione) in un campo volatile: un eseguito lo legge una
+ * sola volta all'inizio e lo usa fino alla fine, anche se la transizione viene ripetuta; un cambio di politica,
+ * sotto il lock della borsa, crea i nuovi legami e li pubblica con una scrittura per azione. Gli eseguiti già iniziati
+ * finiscono quindi con la politica vecchia, quelli successivi usano la nuova, e i legami vecchi vengono raccolti
+ * dal garbage collector quando nessun eseguito li usa più. Ogni tick riporta la versione della politica usata.
+ * <p>
+ * Le azioni possedute sono conservate solo come numeri indicizzati per operatore e azienda; gli oggetti {@link Azione}
+ * restituiti da {@link #getAzioneOp(Operatore, Azienda, Borsa)} e {@link #getAzioniOperatori()} sono creati su richiesta,
+ * con il prezzo corrente dell'azione quotata, e non seguono le operazioni successive.
  */
 public class Borsa  implements Comparable<Borsa> {
     /**Mappa delle istanze della borsa*/
     private static final SortedMap<String, Borsa> INSTANCES = new TreeMap<>();
-    /**Mappa degli operatori che hanno fatto acquisti o vendite in borsa e delle loro relative azioni {@link Azione}*/
-    private final SortedMap<Operatore, SortedSet<Azione>> azioniOperatori = new TreeMap<>();
+    /**Istanze indicizzate per identificativo, scritte sotto il lock della classe e lette senza lock {@link #daId(int)}*/
+    private static volatile Borsa[] perId = new Borsa[16];
+    /**Numero di tick conservati dal distributore*/
+    private static final int CAPACITA_TICK = 1 << 16;
+    /**Numero di azioni possedute da ogni operatore per ogni azienda quotata*/
+    private final RegistroPosizioni posizioni = new RegistroPosizioni();
     /**Lista delle aziende quotate in borsa*/
-    private final SortedSet<Azienda> aziende = new TreeSet<>();
+    private final SortedSet<Azienda> aziende = new ConcurrentSkipListSet<>();
     /**Lista delle azioni delle aziende quotate {@link Azione}*/
-    private final SortedSet<Azione> azioni = new TreeSet<>();
+    private final SortedSet<Azione> azioni = new ConcurrentSkipListSet<>();
+    /**Indice delle azioni quotate per azienda, affianca {@link #azioni} per la ricerca in tempo costante*/
+    private final Map<Azienda, Azione> indiceAzioni = new ConcurrentHashMap<>();
     /**Nome della borsa (sua unicità)*/
     private final String name;
-    /**Contenitore della politica prezzo, se settata applicherà la politica ad acquisti e vendite*/
-    private PoliticaPrezzo politicaPrezzo;
+    /**Identificativo denso della borsa, la sua posizione in ordine di creazione*/
+    private final int id;
+    /**Contenitore della politica prezzo, se settata viene legata a tutte le azioni quotate senza una politica propria (volatile, può cambiare durante le contrattazioni)*/
+    private volatile PoliticaPrezzo politicaPrezzo;
+    /**Versione dell'ultima politica legata alle azioni, incrementata a ogni cambio (scritta sotto il lock della borsa)*/
+    private int versionePolitica;
+    /**Pubblicazione dei tick di mercato, creata alla prima richiesta {@link #getDistributoreTick()} (null finché nessuno la usa)*/
+    private volatile DistributoreTick distributoreTick;
 
     /*
      * AF:
      *   Un'istanza di "Borsa" rappresenta una borsa valori che tiene traccia di:
      *   - "name" --> un nome che la identifica.
+     *   - "id" --> un identificativo denso, perId[id] è la borsa stessa.
      *   - "aziende" --> elenco di aziende che hanno azioni quotate nella borsa ordinate alfabeticamente.
      *   - "azioni" --> elenco delle azioni relative alle aziende quotate ordinate alfabeticamente secondo i nomi delle aziende.
-     *   - `azioniOperatori` --> una mappa degli operatori e delle azioni che possiedono
-     *                           ordinate rispettivamente: alfabeticamente per gli operatori,
-     *                           e alfabeticamente secondo i nomi delle aziende per le azioni
-     *   - "politicaPrezzo" --> un contenitore della politica di prezzo per regolare le variazioni di prezzo su acquisti e vendite.
+     *   - "indiceAzioni" --> indice delle stesse azioni di "azioni", con chiave l'azienda a cui si riferiscono.
+     *   - "posizioni" --> il numero di azioni che ogni operatore possiede per ogni azienda quotata,
+     *                     con gli operatori che ne hanno posseduto almeno una volta.
+     *   - "politicaPrezzo" --> un contenitore della politica di prezzo per regolare le variazioni di prezzo su acquisti e vendite,
+     *                          usata dalle azioni quotate che non hanno una politica propria.
      *   - Una classe interna "Azione" per rappresentare i dettagli delle azioni quotate.
      *
      * RI:
      *   - "name" --> non deve essere null o vuoto.
+     *   - "id" --> compreso tra 0 e INSTANCES.size() - 1, diverso per ogni istanza.
      *   - "aziende" e "azioni" --> non devono essere null.
-     *   - "azioniOperatori" --> non deve essere null.
-     *   - Gli elementi in "aziende", "azioni" e "azioniOperatori" --> non devono essere null.
-     *   - Ogni chiave in "azioniOperatori" deve essere un oggetto "Operatore" valido.
-     *   - Ogni valore in "azioniOperatori" deve essere un insieme ordinato ("SortedSet") di oggetti "Azione".
+     *   - "indiceAzioni" --> non deve essere null e contiene esattamente le azioni di "azioni", ciascuna con chiave la propria azienda.
+     *   - "posizioni" --> non deve essere null, contiene solo aziende presenti in "indiceAzioni" e numeri > 0.
+     *   - Gli elementi in "aziende" e "azioni" --> non devono essere null.
      *   - Se presente, "politicaPrezzo" deve essere un'istanza valida di una classe che implementa l'interfaccia "PoliticaPrezzo".
+     *   - Ogni azione quotata ha la funzione di prezzo legata alla sua politica propria se ne ha una, altrimenti a "politicaPrezzo"
+     *     (nessuna funzione se entrambe mancano); politiche e legami cambiano solo sotto il lock della borsa.
      *   - Le azioni contenute in "azioni" devono essere associate a una "azienda" e a una "borsa".
      *   - Il prezzo e il numero di ogni azione devono essere >= 1.
+     *   - Il prezzo e il numero di un'azione quotata cambiano solo insieme, con una transizione atomica del suo stato.
+     *   - Le azioni possedute da un operatore vengono aggiunte, modificate o rimosse solo da chi detiene il lock
+     *     delle sue posizioni in "posizioni".
      */
 
     /**
@@ -66,20 +108,65 @@ public class Borsa  implements Comparable<Borsa> {
      * @throws IllegalArgumentException se il nome è vuoto
      * @throws NullPointerException se il nome è null
      */
-    public static Borsa of(String name) {
+    public static synchronized Borsa of(String name) {
         if (Objects.requireNonNull(name, "Name must not be null.").isBlank())
             throw new IllegalArgumentException("Name must not be empty.");
-        if (!INSTANCES.containsKey(name)) INSTANCES.put(name, new Borsa(name));
+        if (!INSTANCES.containsKey(name)) {
+            Borsa borsa = new Borsa(name, INSTANCES.size());
+            INSTANCES.put(name, borsa);
+            registra(borsa);
+            Giornale.borsaCreata(borsa);
+        }
         return INSTANCES.get(name);
     }
 
+    /**
+     * Estrae tutte le istanze esistenti, in ordine di nome (usato per salvare il mercato {@link Istantanea})
+     * @return copia dell'elenco delle istanze
+     */
+    static synchronized List<Borsa> istanze() {
+        return new ArrayList<>(INSTANCES.values());
+    }
+
+    /**
+     * Estrae l'istanza con un certo identificativo, senza lock: un identificativo si ottiene solo da un'istanza già creata,
+     * quindi la scrittura nella tabella è sempre visibile a chi la cerca.
+     * Pubblico per i protocolli che indicano le entità con il loro identificativo, come gli ordini binari
+     * {@link borsanova.managerOperazioni.OrdineBinario}
+     * @param id identificativo {@link #getId()}
+     * @return la borsa
+     * @throws ArrayIndexOutOfBoundsException se nessuna istanza ha quell'identificativo
+     */
+    public static Borsa daId(int id) {
+        Borsa istanza = perId[id];
+        if (istanza == null) {
+            throw new ArrayIndexOutOfBoundsException(id);
+        }
+        return istanza;
+    }
+
+    /**
+     * Registra una nuova istanza nella tabella per identificativo, raddoppiandola se è piena (chiamato sotto il lock della classe)
+     * @param istanza borsa appena creata
+     */
+    private static void registra(Borsa istanza) {
+        Borsa[] tabella = perId;
+        if (istanza.id == tabella.length) {
+            tabella = Arrays.copyOf(tabella, tabella.length * 2);
+        }
+        tabella[istanza.id] = istanza;
+        perId = tabella;
+    }
+
 
     /**
      * Costruttore della classe {@link Borsa}
      * @param input nome della borsa (unicità di quest'ultima)
+     * @param id identificativo denso della borsa
      */
-    private Borsa(String input) {
+    private Borsa(String input, int id) {
         name = input;
+        this.id = id;
     }
 
     /**
@@ -87,13 +174,12 @@ public class Borsa  implements Comparable<Borsa> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo.
+     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo, legata poi alle azioni quotate senza una politica propria.
      * </ul>
      * @param quantity la politica di prezzo costante da settare
      */
-    public void setPoliticaCostante(int quantity) {
-        politicaPrezzo = new VariazioneCostante(quantity);
-
+    public synchronized void setPoliticaCostante(int quantity) {
+        impostaPolitica(new VariazioneCostante(quantity));
     }
 
     /**
@@ -101,14 +187,13 @@ public class Borsa  implements Comparable<Borsa> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo.
+     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo, legata poi alle azioni quotate senza una politica propria.
      * </ul>
      * @param incremento incremento costante
      * @param decremento decremento costante
      */
-    public void setPoliticaCostante(int incremento, int decremento) {
-        politicaPrezzo = new VariazioneCostante(incremento, decremento);
-
+    public synchronized void setPoliticaCostante(int incremento, int decremento) {
+        impostaPolitica(new VariazioneCostante(incremento, decremento));
     }
 
     /**
@@ -116,12 +201,12 @@ public class Borsa  implements Comparable<Borsa> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo.
+     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo, legata poi alle azioni quotate senza una politica propria.
      * </ul>
      * @param soglia soglia da settare
      */
-    public void setPoliticaSoglia(int soglia) {
-        politicaPrezzo = new VariazioneSoglia(soglia);
+    public synchronized void setPoliticaSoglia(int soglia) {
+        impostaPolitica(new VariazioneSoglia(soglia));
     }
 
     /**
@@ -129,66 +214,486 @@ public class Borsa  implements Comparable<Borsa> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo.
+     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo, legata poi alle azioni quotate senza una politica propria.
      * </ul>
      * @param lettera Stringa che contiene la lettera da utilizzare per la politica prezzo vocali e lettera
      */
-    public void setPoliticaVocali(String lettera) {
-        politicaPrezzo = new VariazioneVocali(lettera);
+    public synchronized void setPoliticaVocali(String lettera) {
+        impostaPolitica(new VariazioneVocali(lettera));
     }
 
+    /**
+     * Setta la politica prezzo a espressioni {@link PoliticaEspressione}, compilate prima di essere legate alle azioni
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code politicaPrezzo} --> il campo che verrà sovrascritto per accomodare la politica prezzo, legata poi alle azioni quotate senza una politica propria.
+     * </ul>
+     * @param acquisto espressione del prezzo dopo un acquisto
+     * @param vendita espressione del prezzo dopo una vendita
+     * @throws IllegalArgumentException se un'espressione è null o non è valida (la politica corrente resta invariata)
+     */
+    public synchronized void setPoliticaEspressione(String acquisto, String vendita) {
+        impostaPolitica(new PoliticaEspressione(acquisto, vendita));
+    }
+
+
+    /**
+     * Calcola il prezzo dell'azione dopo un acquisto in base alla politica di prezzo
+     * <p>
+     * se non è stata settata alcuna politica di prezzo ({@code funzione} è {@code null}), il prezzo rimane invariato
+     * <p>
+     * Requisiti:
+     * <ul>
+     * <li> {@code quantity} --> deve essere maggiore di 0
+     * </ul>
+     * @param funzione la funzione di prezzo dell'azione letta all'inizio dell'operazione (può essere null)
+     * @param prezzo prezzo dell'azione al momento dell'acquisto
+     * @param quantity numero delle azioni acquistate
+     * @return il nuovo prezzo dell'azione
+     */
+    private static int prezzoDopoAcquisto(FunzionePrezzo funzione, int prezzo, int quantity) {
+        return funzione == null ? prezzo : funzione.dopoAcquisto(prezzo, quantity);
+    }
 
     /**
-     * Cambia il prezzo dell'azione in base alla politica di prezzo per l'acquisto
+     * Calcola il prezzo dell'azione dopo una vendita in base alla politica di prezzo,
+     * la politica si assicura che il prezzo non possa scendere sotto 1
      * <p>
-     * se non è stata settata alcuna politica di prezzo ({@code politicaPrezzo} è {@code null}), il metodo non modificherà nulla
+     * se non è stata settata alcuna politica di prezzo ({@code funzione} è {@code null}), il prezzo rimane invariato
      * <p>
      * Requisiti:
      * <ul>
-     * <li> {@code azione} --> non deve essere null
      * <li> {@code quantity} --> deve essere maggiore di 0
      * </ul>
+     * @param funzione la funzione di prezzo dell'azione letta all'inizio dell'operazione (può essere null)
+     * @param prezzo prezzo dell'azione al momento della vendita
+     * @param quantity numero delle azioni vendute
+     * @return il nuovo prezzo dell'azione
+     */
+    private static int prezzoDopoVendita(FunzionePrezzo funzione, int prezzo, int quantity) {
+        return funzione == null ? prezzo : funzione.dopoVendita(prezzo, quantity);
+    }
+
+    /**
+     * Esegue un acquisto sull'azione quotata con una sola transizione atomica del suo stato:
+     * riduce il numero disponibile e applica la politica di prezzo partendo dallo stesso prezzo usato per l'eseguito.
+     * Se un altro thread modifica l'azione nel frattempo la transizione viene ricalcolata sul nuovo stato.
+     * <p>
+     * Se {@code investimento} è maggiore di 0 il numero richiesto è calcolato come {@code investimento / prezzo},
+     * altrimenti è {@code numeroAcquisti}; in entrambi i casi viene ridotto al numero disponibile.
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> Se la politica prezzo è diversa da null, modifica {@code azione.prezzo}
+     * <li> {@code azione} --> riduce il numero disponibile e, se presente la politica di prezzo, ne aggiorna il prezzo
      * </ul>
-     * @param azione azione a cui cambiare il prezzo
-     * @param quantity numero delle azioni acquistate
+     * <p>
+     * Se {@code pagante} non è null il costo dell'eseguito viene prelevato dal suo bilancio con un addebito condizionato
+     * {@link Operatore#addebita(long)} prima della transizione, e restituito se la transizione va ricalcolata:
+     * le azioni lasciano la borsa solo dopo che il loro costo è stato pagato.
+     * @param azione azione quotata da acquistare
+     * @param numeroAcquisti numero di azioni richieste (usato se {@code investimento} è 0)
+     * @param investimento cifra investita (0 se la richiesta è per numero di azioni)
+     * @param pagante operatore a cui addebitare il costo, null se l'eseguito non va pagato
+     * @param registro eseguito da registrare nel {@link Giornale} a cui aggiungere la variazione dello stato (null se nessun giornale è aperto)
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero eseguito), il numero è 0 se non si è acquistato nulla
+     * @throws IllegalStateException se il bilancio di {@code pagante} non copre il costo dell'eseguito (l'azione resta invariata)
+     */
+    private long eseguiAcquisto(Azione azione, int numeroAcquisti, int investimento, Operatore pagante, Giornale.Eseguito registro) {
+        Legame legame = azione.legame;
+        while (true) {
+            long stato = azione.stato;
+            int prezzo = Azione.prezzo(stato);
+            int disponibili = Azione.numero(stato);
+            int eseguiti = Math.min(investimento > 0 ? investimento / prezzo : numeroAcquisti, disponibili);
+            if (eseguiti == 0) {
+                return Azione.impacchetta(prezzo, 0);
+            }
+            long nuovo = Azione.impacchetta(prezzoDopoAcquisto(legame.funzione, prezzo, eseguiti), disponibili - eseguiti);
+            long costo = (long) eseguiti * prezzo;
+            if (pagante != null && !pagante.addebita(costo)) {
+                throw new IllegalStateException("Il budget non può andare in negativo");
+            }
+            if (!azione.cambiaStato(stato, nuovo)) {
+                if (pagante != null) {
+                    pagante.accredita(costo);
+                }
+            } else {
+                if (registro != null) {
+                    registro.stato(azione, nuovo - stato);
+                }
+                if (Azione.prezzo(nuovo) != prezzo) {
+                    azione.valutazione.variaPrezzo();
+                }
+                pubblicaTick(DistributoreTick.ACQUISTO, azione, prezzo, eseguiti, Azione.prezzo(nuovo), legame.versione);
+                return Azione.impacchetta(prezzo, eseguiti);
+            }
+        }
+    }
+
+    /**
+     * Esegue una vendita sull'azione quotata con una sola transizione atomica del suo stato:
+     * aumenta il numero disponibile e applica la politica di prezzo partendo dallo stesso prezzo usato per l'eseguito.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code azione} --> aumenta il numero disponibile e, se presente la politica di prezzo, ne aggiorna il prezzo
+     * </ul>
+     * @param azione azione quotata su cui rientrano le azioni vendute
+     * @param venduti numero di azioni vendute (deve essere > 0)
+     * @param registro eseguito da registrare nel {@link Giornale} a cui aggiungere la variazione dello stato (null se nessun giornale è aperto)
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero venduto)
+     */
+    private long eseguiVendita(Azione azione, int venduti, Giornale.Eseguito registro) {
+        Legame legame = azione.legame;
+        while (true) {
+            long stato = azione.stato;
+            int prezzo = Azione.prezzo(stato);
+            long nuovo = Azione.impacchetta(prezzoDopoVendita(legame.funzione, prezzo, venduti), Azione.numero(stato) + venduti);
+            if (azione.cambiaStato(stato, nuovo)) {
+                if (registro != null) {
+                    registro.stato(azione, nuovo - stato);
+                }
+                if (Azione.prezzo(nuovo) != prezzo) {
+                    azione.valutazione.variaPrezzo();
+                }
+                pubblicaTick(DistributoreTick.VENDITA, azione, prezzo, venduti, Azione.prezzo(nuovo), legame.versione);
+                return Azione.impacchetta(prezzo, venduti);
+            }
+        }
+    }
+
+    /**
+     * Riserva {@code numero} azioni quotate per un acquisto di un {@link Paniere}: le toglie dalle disponibili
+     * con una transizione atomica che non cambia il prezzo. Il prezzo letto nella stessa transizione è quello
+     * che verrà pagato alla conferma {@link #confermaAcquisto(Operatore, Azione, long, int, Giornale.Eseguito)},
+     * se il paniere non ha già altre gambe sulla stessa azione (in quel caso si paga il prezzo lasciato dalla gamba precedente).
+     * La riserva non viene registrata nel {@link Giornale}: la registra la conferma, insieme al resto dell'eseguito.
+     * @param azione azione quotata
+     * @param numero azioni da riservare (deve essere > 0)
+     * @return la riserva impacchettata come (prezzo, numero riservato), il numero è 0 se le disponibili non bastano
+     */
+    long riservaAcquisto(Azione azione, int numero) {
+        while (true) {
+            long stato = azione.stato;
+            int disponibili = Azione.numero(stato);
+            if (disponibili < numero) {
+                return Azione.impacchetta(Azione.prezzo(stato), 0);
+            }
+            long nuovo = Azione.impacchetta(Azione.prezzo(stato), disponibili - numero);
+            if (azione.cambiaStato(stato, nuovo)) {
+                return Azione.impacchetta(Azione.prezzo(stato), numero);
+            }
+        }
+    }
+
+    /**
+     * Restituisce alle disponibili le azioni di una riserva annullata, senza cambiare il prezzo
+     * @param azione azione quotata
+     * @param riserva la riserva restituita da {@link #riservaAcquisto(Azione, int)}
+     */
+    void annullaAcquisto(Azione azione, long riserva) {
+        int numero = Azione.numero(riserva);
+        while (true) {
+            long stato = azione.stato;
+            long nuovo = Azione.impacchetta(Azione.prezzo(stato), Azione.numero(stato) + numero);
+            if (azione.cambiaStato(stato, nuovo)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Calcola con la politica di prezzo corrente dell'azione il prezzo dopo una gamba di un {@link Paniere}, durante la riserva:
+     * così un'eccezione della politica arriva prima che il paniere prelevi il bilancio, quando le riserve si possono ancora restituire
+     * @param azione azione quotata
+     * @param acquisto true per un acquisto, false per una vendita
+     * @param prezzo prezzo da cui parte la gamba
+     * @param numero azioni della gamba (deve essere > 0)
+     * @return il prezzo dopo la gamba
      */
-    private void cambiaPrezzoAcquisto(Azione azione, int quantity) {
-        if (politicaPrezzo != null) {azione.prezzo = politicaPrezzo.applicaPoliticaAcquisto(azione, quantity);}
+    int prezzoDopoGamba(Azione azione, boolean acquisto, int prezzo, int numero) {
+        FunzionePrezzo funzione = azione.legame.funzione;
+        return acquisto ? prezzoDopoAcquisto(funzione, prezzo, numero) : prezzoDopoVendita(funzione, prezzo, numero);
     }
 
     /**
-     * Cambia il prezzo dell'azione in base alla politica di prezzo pre la vendita,
-     * il metodo si assicura che il prezzo non possa scendere sotto 1
+     * Sceglie il prezzo dopo la conferma di una gamba di un {@link Paniere}: se il prezzo corrente è quello da cui la gamba
+     * è stata calcolata alla riserva usa il prezzo già calcolato, altrimenti (un eseguito concorrente ha mosso il prezzo)
+     * riapplica la politica al prezzo corrente. La conferma avviene dopo il prelievo del bilancio e non può fallire,
+     * quindi se la politica lancia un'eccezione il prezzo resta quello corrente.
+     * @param funzione funzione di prezzo letta all'inizio della conferma (può essere null)
+     * @param acquisto true per un acquisto, false per una vendita
+     * @param atteso prezzo da cui la gamba è stata calcolata alla riserva
+     * @param calcolato prezzo dopo la gamba calcolato alla riserva {@link #prezzoDopoGamba(Azione, boolean, int, int)}
+     * @param corrente prezzo nello stato letto dalla conferma
+     * @param numero azioni della gamba
+     * @return il nuovo prezzo dell'azione
+     */
+    private static int prezzoDopoConferma(FunzionePrezzo funzione, boolean acquisto, int atteso, int calcolato, int corrente, int numero) {
+        if (corrente == atteso) {
+            return calcolato;
+        }
+        try {
+            return acquisto ? prezzoDopoAcquisto(funzione, corrente, numero) : prezzoDopoVendita(funzione, corrente, numero);
+        } catch (RuntimeException e) {
+            return corrente;
+        }
+    }
+
+    /**
+     * Conferma una riserva di acquisto: applica la politica di prezzo come farebbe l'eseguito
+     * e registra le azioni tra quelle possedute dall'operatore.
      * <p>
-     * se non è stata settata alcuna politica di prezzo ({@code politicaPrezzo} è {@code null}), il metodo non modificherà nulla
+     * L'eseguito avviene al prezzo della riserva, lo stesso pagato dall'operatore; il nuovo prezzo è quello calcolato
+     * alla riserva partendo da quel prezzo, oppure, se nel frattempo un altro eseguito ha mosso il prezzo dell'azione,
+     * la politica applicata al prezzo corrente nella stessa transizione atomica, così nessuna variazione di prezzo va persa
+     * {@link #prezzoDopoConferma(FunzionePrezzo, boolean, int, int, int, int)}.
      * <p>
-     * Requisiti:
+     * Effetti collaterali:
      * <ul>
-     * <li> {@code azione} --> non deve essere null
-     * <li> {@code quantity} --> deve essere maggiore di 0
+     * <li> {@code azione} --> se presente la politica di prezzo, ne aggiorna il prezzo
+     * <li> {@code posizioni} --> aumenta il numero di azioni possedute dall'operatore
      * </ul>
+     * @param op l'operatore che acquista
+     * @param azione azione quotata
+     * @param riserva la riserva impacchettata come (prezzo pagato, numero riservato), con il numero restituito da {@link #riservaAcquisto(Azione, int)}
+     * @param nuovoPrezzo prezzo dopo l'acquisto calcolato alla riserva da {@link #prezzoDopoGamba(Azione, boolean, int, int)}
+     * @param registro eseguito da registrare nel {@link Giornale} a cui aggiungere la riserva, la variazione di prezzo e la posizione
+     *        (null se nessun giornale è aperto)
+     */
+    void confermaAcquisto(Operatore op, Azione azione, long riserva, int nuovoPrezzo, Giornale.Eseguito registro) {
+        Legame legame = azione.legame;
+        int prezzo = Azione.prezzo(riserva);
+        int numero = Azione.numero(riserva);
+        while (true) {
+            long stato = azione.stato;
+            int dopo = prezzoDopoConferma(legame.funzione, true, prezzo, nuovoPrezzo, Azione.prezzo(stato), numero);
+            long nuovo = Azione.impacchetta(dopo, Azione.numero(stato));
+            if (azione.cambiaStato(stato, nuovo)) {
+                if (registro != null) {
+                    registro.stato(azione, nuovo - stato - numero).posizione(this, op, azione.getAzienda(), numero);
+                }
+                if (dopo != Azione.prezzo(stato)) {
+                    azione.valutazione.variaPrezzo();
+                }
+                pubblicaTick(DistributoreTick.ACQUISTO, azione, prezzo, numero, dopo, legame.versione);
+                break;
+            }
+        }
+        aggiungiPosizione(op, azione, numero);
+    }
+
+    /**
+     * Riserva {@code numero} azioni possedute dall'operatore per una vendita di un {@link Paniere}, togliendole subito
+     * dalle sue posizioni; fallisce senza effetti se l'operatore ne possiede meno
+     * @param op operatore che vende
+     * @param azienda azienda delle azioni
+     * @param numero azioni da riservare (deve essere > 0)
+     * @return true se le azioni sono state riservate
+     */
+    boolean riservaVendita(Operatore op, Azienda azienda, int numero) {
+        synchronized (posizioni.lock(op)) {
+            if (posizioni.numero(op, azienda) < numero) {
+                return false;
+            }
+            rimuoviPosizione(op, azienda, numero, false);
+            return true;
+        }
+    }
+
+    /**
+     * Restituisce all'operatore le azioni di una vendita riservata e annullata
+     * @param op operatore che vendeva
+     * @param azione azione quotata
+     * @param numero azioni riservate
+     */
+    void annullaVendita(Operatore op, Azione azione, int numero) {
+        aggiungiPosizione(op, azione, numero);
+    }
+
+    /**
+     * Conferma una vendita riservata facendo rientrare le azioni in borsa al prezzo corrente, come un normale eseguito;
+     * il nuovo prezzo è scelto come in {@link #confermaAcquisto(Operatore, Azione, long, int, Giornale.Eseguito)}
+     * @param op l'operatore che vende
+     * @param azione azione quotata
+     * @param numero azioni riservate
+     * @param atteso prezzo da cui la vendita è stata calcolata alla riserva
+     * @param nuovoPrezzo prezzo dopo la vendita calcolato alla riserva da {@link #prezzoDopoGamba(Azione, boolean, int, int)}
+     * @param registro eseguito da registrare nel {@link Giornale} a cui aggiungere la variazione dello stato e la posizione
+     *        (null se nessun giornale è aperto)
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero venduto)
+     */
+    long confermaVendita(Operatore op, Azione azione, int numero, int atteso, int nuovoPrezzo, Giornale.Eseguito registro) {
+        if (registro != null) {
+            registro.posizione(this, op, azione.getAzienda(), -numero);
+        }
+        Legame legame = azione.legame;
+        while (true) {
+            long stato = azione.stato;
+            int prezzo = Azione.prezzo(stato);
+            int dopo = prezzoDopoConferma(legame.funzione, false, atteso, nuovoPrezzo, prezzo, numero);
+            long nuovo = Azione.impacchetta(dopo, Azione.numero(stato) + numero);
+            if (azione.cambiaStato(stato, nuovo)) {
+                if (registro != null) {
+                    registro.stato(azione, nuovo - stato);
+                }
+                if (dopo != prezzo) {
+                    azione.valutazione.variaPrezzo();
+                }
+                pubblicaTick(DistributoreTick.VENDITA, azione, prezzo, numero, dopo, legame.versione);
+                return Azione.impacchetta(prezzo, numero);
+            }
+        }
+    }
+
+    /**
+     * Estrae il distributore dei tick di mercato di questa borsa, creandolo alla prima richiesta:
+     * da quel momento ogni eseguito e ogni scambio nei libri degli ordini viene pubblicato
+     * @return il distributore dei tick
+     */
+    public DistributoreTick getDistributoreTick() {
+        DistributoreTick distributore = distributoreTick;
+        if (distributore == null) {
+            synchronized (this) {
+                distributore = distributoreTick;
+                if (distributore == null) {
+                    distributore = new DistributoreTick(CAPACITA_TICK);
+                    distributoreTick = distributore;
+                }
+            }
+        }
+        return distributore;
+    }
+
+    /**
+     * Pubblica un tick se qualcuno ha richiesto il distributore, altrimenti non fa nulla
+     * @param tipo tipo del tick
+     * @param azione azione quotata
+     * @param prezzo prezzo di esecuzione
+     * @param numero numero di azioni eseguite
+     * @param nuovoPrezzo prezzo dell'azione dopo l'eseguito
+     * @param versione versione della politica che ha calcolato il nuovo prezzo (0 se nessuna)
+     */
+    void pubblicaTick(byte tipo, Azione azione, int prezzo, int numero, int nuovoPrezzo, int versione) {
+        DistributoreTick distributore = distributoreTick;
+        if (distributore != null) {
+            distributore.pubblica(tipo, azione, prezzo, numero, nuovoPrezzo, versione);
+        }
+    }
+
+    /**
+     * Registra tra le azioni possedute dall'operatore un acquisto già eseguito sull'azione quotata.
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> Se la politica prezzo è diversa da null, modifica {@code azione.prezzo}
+     * <li> {@code posizioni} --> aumenta il numero di azioni possedute, sotto il lock delle posizioni dell'operatore
      * </ul>
-     * @param azione azione a cui cambiare il prezzo
-     * @param quantity numero delle azioni vendute
+     * @param op l'operatore che ha acquistato
+     * @param azione l'azione quotata acquistata
+     * @param eseguito l'eseguito restituito da {@link #eseguiAcquisto(Azione, int, int, Operatore, Giornale.Eseguito)}
+     * @param registro eseguito da registrare nel {@link Giornale} a cui aggiungere la posizione (null se nessun giornale è aperto)
+     * @return il numero di azioni acquistate
+     */
+    private int registraAcquisto(Operatore op, Azione azione, long eseguito, Giornale.Eseguito registro) {
+        int eseguiti = Azione.numero(eseguito);
+        if (eseguiti == 0) {
+            return 0;
+        }
+        aggiungiPosizione(op, azione, eseguiti);
+        if (registro != null) {
+            registro.posizione(this, op, azione.getAzienda(), eseguiti);
+        }
+        return eseguiti;
+    }
+
+    /**
+     * Aggiunge {@code numero} azioni a quelle possedute dall'operatore per l'azienda di {@code azione}.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code posizioni} --> aumenta il numero di azioni possedute, sotto il lock delle posizioni dell'operatore
+     * </ul>
+     * La variazione non viene registrata nel {@link Giornale}: la registra l'eseguito o l'ordine che la produce.
+     * @param op l'operatore che riceve le azioni
+     * @param azione l'azione quotata a cui si riferiscono
+     * @param numero numero di azioni da aggiungere (deve essere > 0)
      */
-    private void cambiaPrezzoVendita(Azione azione, int quantity) {
-        if (politicaPrezzo != null) {azione.prezzo = politicaPrezzo.applicaPoliticaVendita(azione, quantity);}
+    void aggiungiPosizione(Operatore op, Azione azione, int numero) {
+        synchronized (posizioni.lock(op)) {
+            posizioni.varia(op, azione.getAzienda(), numero);
+            azione.valutazione.variaPosizione(op, numero);
+        }
     }
 
     /**
-     * Riceve una richiesta di acquisto e modifica le azioni coinvolte. Fa un controllo in mappa Operatore-AzioniPossedute:
+     * Somma una variazione alle azioni possedute dall'operatore senza controllarla, usato dalla riproduzione del {@link Giornale}:
+     * le variazioni di eseguiti concorrenti possono arrivare in un ordine diverso da quello in cui sono avvenute
+     * @param op l'operatore
+     * @param azienda l'azienda delle azioni
+     * @param variazione azioni aggiunte (positiva) o tolte (negativa)
+     * @throws NullPointerException se l'azienda non è quotata in questa borsa
+     */
+    void ripristinaPosizione(Operatore op, Azienda azienda, int variazione) {
+        Azione azione = Objects.requireNonNull(indiceAzioni.get(azienda));
+        synchronized (posizioni.lock(op)) {
+            posizioni.varia(op, azienda, variazione);
+            azione.valutazione.variaPosizione(op, variazione);
+        }
+    }
+
+    /**
+     * Toglie fino a {@code numero} azioni da quelle possedute dall'operatore per {@code azienda};
+     * se la posizione si azzera viene rimossa dalle azioni possedute.
+     * <p>
+     * Effetti collaterali:
      * <ul>
-     * <li> Se l'operatore non possedeva questo oggetto, allora ne crea uno nuovo e lo inserisce nella lista delle azioni possedute dell'operatore
-     * <li>Se l'operatore possedeva questo oggetto, allora ne aumenta il numero in base alla richiesta della acquisto
+     * <li> {@code posizioni} --> riduce o rimuove l'azione posseduta, sotto il lock delle posizioni dell'operatore
      * </ul>
+     * @param op l'operatore che cede le azioni
+     * @param azienda l'azienda delle azioni da togliere
+     * @param numero numero di azioni da togliere (deve essere > 0)
+     * @param consentiParziale se true il numero viene ridotto a quello posseduto, altrimenti l'operatore deve possederne almeno {@code numero}
+     * @return il numero di azioni effettivamente tolte
+     * @throws IllegalArgumentException se l'operatore non possiede azioni dell'azienda (posizione assente o a 0),
+     *         o se {@code consentiParziale} è false e ne possiede meno di {@code numero}; le posizioni restano invariate
+     */
+    int rimuoviPosizione(Operatore op, Azienda azienda, int numero, boolean consentiParziale) {
+        synchronized (posizioni.lock(op)) {
+            int tolte = daRimuovere(op, azienda, numero, consentiParziale);
+            posizioni.varia(op, azienda, -tolte);
+            if (tolte > 0) {
+                indiceAzioni.get(azienda).valutazione.variaPosizione(op, -tolte);
+            }
+            return tolte;
+        }
+    }
+
+    /**
+     * Controlla quante azioni si possono togliere dalle posizioni dell'operatore senza modificarle,
+     * con le stesse regole di {@link #rimuoviPosizione(Operatore, Azienda, int, boolean)} (chiamato sotto il lock delle posizioni dell'operatore)
+     * @param op l'operatore che cede le azioni
+     * @param azienda l'azienda delle azioni da togliere
+     * @param numero numero di azioni da togliere (deve essere > 0)
+     * @param consentiParziale se true il numero viene ridotto a quello posseduto, altrimenti l'operatore deve possederne almeno {@code numero}
+     * @return il numero di azioni che verrebbero tolte
+     * @throws IllegalArgumentException se l'operatore non possiede azioni dell'azienda (posizione assente o a 0),
+     *         o se {@code consentiParziale} è false e ne possiede meno di {@code numero}
+     */
+    private int daRimuovere(Operatore op, Azienda azienda, int numero, boolean consentiParziale) {
+        int possedute = posizioni.numero(op, azienda);
+        if (possedute <= 0) {
+            throw new IllegalArgumentException("L'operatore non possiede azioni dell'azienda");
+        }
+        if (!consentiParziale && possedute < numero) {
+            throw new IllegalArgumentException("L'operatore non possiede abbastanza azioni");
+        }
+        return Math.min(numero, possedute);
+    }
+
+    /**
+     * Riceve una richiesta di acquisto e modifica le azioni coinvolte: aumenta il numero di azioni dell'azienda possedute
+     * dall'operatore, creando la posizione se non ne possedeva.
      * <p>
      * Se la richiesta è maggiore del numero disponibile all'acquisto, allora il numero verrà ridotto al massimo di azioni disponibili.
      * Se il numero delle azioni disponibili all'acquisto è 0 (non ci sono azioni disponibili per l'acquisto),
@@ -204,9 +709,9 @@ public class Borsa  implements Comparable<Borsa> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code azione} --> riduce il numero delle azioni disponibili {@link #azioni}
-     * <li> {@code azioniOperatori} --> aggiunge o aggiorna l'azione all'insieme delle azioni possedute dall'operatore {@link #azioniOperatori}
-     * <li> {@code azione.prezzo} --> se presente, aggiorna il prezzo applicando la politica di prezzo {@link #cambiaPrezzoAcquisto(Azione, int)}
+     * <li> {@code azione} --> riduce il numero delle azioni disponibili e, se presente, aggiorna il prezzo applicando la politica di prezzo,
+     *      entrambi con una sola transizione atomica {@link #eseguiAcquisto(Azione, int, int, Operatore, Giornale.Eseguito)}
+     * <li> {@code posizioni} --> aumenta il numero di azioni possedute dall'operatore {@link #posizioni}
      * </ul>
      * @param op l'operatore che fa la richiesta
      * @param numeroAcquisti il numero di acquisti della richiesta
@@ -221,31 +726,45 @@ public class Borsa  implements Comparable<Borsa> {
             throw new NullPointerException("Almeno uno dei parametri è nullo");
         } else if (numeroAcquisti < 0) {
             throw new IllegalArgumentException("Numero degli acquisti non può essere negativo");
-        } else if (azione.getNumero() == 0) {
-            return 0;
-        }
-        int azioneNumero = azione.getNumero();
-        int newNumeroAcquisti;
-        if (azioneNumero - numeroAcquisti < 0) {
-            azione.setNumero(0);
-            newNumeroAcquisti = numeroAcquisti - (numeroAcquisti - azioneNumero);
-        } else if (azioneNumero - numeroAcquisti == 0) {
-            azione.setNumero(0);
-            newNumeroAcquisti = numeroAcquisti;
-        } else {
-            azione.setNumero(azioneNumero - numeroAcquisti);
-            newNumeroAcquisti = numeroAcquisti;
         }
-        if (getAzioneOp(op, azione.getAzienda(), azione.getBorsa()) != null) {
-            Azione opazione = getAzioneOp(op, azione.getAzienda(), azione.getBorsa());
-            opazione.setNumero(opazione.getNumero() + newNumeroAcquisti);
-        } else {
-            Azione opazione = new Azione(azione.getAzienda(), azione.getBorsa(), azione.getPrezzo(), newNumeroAcquisti);
-            this.addAzioniOperatori(op, opazione);
+        Giornale.Eseguito registro = Giornale.nuovoEseguito();
+        int eseguiti = registraAcquisto(op, azione, eseguiAcquisto(azione, numeroAcquisti, 0, null, registro), registro);
+        Giornale.eseguito(registro);
+        return eseguiti;
+    }
 
+    /**
+     * Riceve una richiesta di acquisto espressa come cifra investita: il numero di azioni viene calcolato sul prezzo
+     * nello stesso stato atomico in cui avviene l'eseguito, quindi prezzo pagato e numero acquistato sono sempre coerenti.
+     * Se la cifra non basta per una azione, o non ci sono azioni disponibili, non viene acquistato nulla.
+     * <p>
+     * Il costo dell'eseguito viene prelevato dal bilancio dell'operatore prima che le azioni lascino la borsa
+     * {@link #eseguiAcquisto(Azione, int, int, Operatore, Giornale.Eseguito)}: se il bilancio non basta l'acquisto non lascia effetti.
+     * <p>
+     * Effetti collaterali: gli stessi di {@link #richiestaAcquisto(Operatore, int, Azione)}, e il bilancio dell'operatore
+     * si riduce del costo dell'eseguito
+     * @param op l'operatore che fa la richiesta
+     * @param prezzoTotale la cifra investita (deve essere >= 0)
+     * @param azione l'azione alla quale è posta la richiesta di acquisto
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero acquistato), leggibile con {@link Azione#prezzo(long)} e {@link Azione#numero(long)}
+     * @throws NullPointerException se l'operatore o l'azione sono null
+     * @throws IllegalArgumentException se la cifra investita è negativa
+     * @throws IllegalStateException se il bilancio dell'operatore non copre il costo dell'eseguito
+     * @see Operatore#acquistaAzione(Borsa, int, Azione)
+     */
+    long acquistoPerInvestimento(Operatore op, int prezzoTotale, Azione azione) {
+        if (op == null || azione == null) {
+            throw new NullPointerException("Almeno uno dei parametri è nullo");
+        } else if (prezzoTotale < 0) {
+            throw new IllegalArgumentException("La cifra investita non può essere negativa");
         }
-        this.cambiaPrezzoAcquisto(azione, newNumeroAcquisti);
-        return newNumeroAcquisti;
+        Giornale.Eseguito registro = Giornale.nuovoEseguito();
+        long eseguito = prezzoTotale == 0 ? Azione.impacchetta(azione.getPrezzo(), 0) : eseguiAcquisto(azione, 0, prezzoTotale, op, registro);
+        if (registraAcquisto(op, azione, eseguito, registro) > 0 && registro != null) {
+            registro.budget(op, -(long) Azione.numero(eseguito) * Azione.prezzo(eseguito)).borsa(op, this);
+            Giornale.eseguito(registro);
+        }
+        return eseguito;
     }
 
     /**
@@ -265,53 +784,321 @@ public class Borsa  implements Comparable<Borsa> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code azioneOp.numero} --> riduce il numero delle azioni possedute dall'operatore {@link #azioniOperatori}
-     * <li> {@code azioniOperatori} --> rimuove l'azione dalle azioni possedute dall'operatore se le vende tutte {@link #azioniOperatori}
-     * <li> {@code azioneBorsa.numero} --> aumenta il numero delle azioni disponibili in borsa {@link #azioni}
-     * <li> {@code azioneBorsa.prezzo} --> se presente, modifica il prezzo dell'azione con la politica di prezzo {@link #cambiaPrezzoVendita(Azione, int)}
+     * <li> {@code posizioni} --> riduce il numero delle azioni possedute dall'operatore, rimuovendo la posizione se le vende tutte {@link #posizioni}
+     * <li> {@code azioneBorsa} --> aumenta il numero delle azioni disponibili in borsa del numero effettivamente venduto e, se presente,
+     *      modifica il prezzo con la politica di prezzo, entrambi con una sola transizione atomica {@link #eseguiVendita(Azione, int, Giornale.Eseguito)}
      * </ul>
      * @param op operatore che fa la richiesta
      * @param numeroVendita numero di azioni da vendere in richiesta
      * @param azienda azienda da cui provengono le azioni da vendere
      * @return il numero di vendita aggiornato
-     * @throws NullPointerException se almeno uno dei parametri è nullo o se l'operatore non possiede L'oggetto Azione
-     * @throws IllegalArgumentException se il numero delle vendite è negativo
+     * @throws NullPointerException se almeno uno dei parametri è nullo
+     * @throws IllegalArgumentException se il numero delle vendite è negativo o se l'operatore non possiede azioni dell'azienda
      */
     public int richiestaVendita(Operatore op, int numeroVendita, Azienda azienda) {
+        return Azione.numero(venditaEseguita(op, numeroVendita, azienda, false));
+    }
+
+    /**
+     * Esegue una richiesta di vendita come {@link #richiestaVendita(Operatore, int, Azienda)} e restituisce anche
+     * il prezzo a cui è avvenuta, letto nello stesso stato atomico in cui le azioni rientrano in borsa.
+     * Se {@code incassa} è true il ricavato viene depositato nel bilancio dell'operatore e registrato con l'eseguito.
+     * <p>
+     * Le azioni vengono tolte dalle posizioni solo dopo l'eseguito, tenendo il lock delle posizioni dell'operatore dal controllo
+     * delle azioni possedute: se la politica di prezzo lancia un'eccezione né l'azione né le posizioni sono state modificate.
+     * @param op operatore che fa la richiesta
+     * @param numeroVendita numero di azioni da vendere in richiesta
+     * @param azienda azienda da cui provengono le azioni da vendere
+     * @param incassa true se il ricavato va depositato nel bilancio dell'operatore
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero venduto), leggibile con {@link Azione#prezzo(long)} e {@link Azione#numero(long)}
+     * @throws NullPointerException se almeno uno dei parametri è nullo
+     * @throws IllegalArgumentException se il numero delle vendite è negativo o se l'operatore non possiede azioni dell'azienda
+     * @throws IllegalStateException se il bilancio supererebbe il massimo rappresentabile
+     * @see Operatore#vendiAzione(Borsa, Azienda, int)
+     */
+    long venditaEseguita(Operatore op, int numeroVendita, Azienda azienda, boolean incassa) {
         if (op == null || numeroVendita == 0 || azienda == null) {
             throw new NullPointerException("Almeno uno dei parametri è nullo");
         } else if (numeroVendita < 0) {
             throw new IllegalArgumentException("Numero delle vendite non può essere negativo");
         }
-        Azione azioneOp = Objects.requireNonNull(this.getAzioneOp(op, azienda, this));
-
+        Azione azioneBorsa = Objects.requireNonNull(this.getAzione(azienda, this));
+        Giornale.Eseguito registro = Giornale.nuovoEseguito();
         int newNumeroVendita;
-        if (azioneOp.getNumero() - numeroVendita < 0) {
-            newNumeroVendita = numeroVendita - (numeroVendita - azioneOp.getNumero());
-            getAzioniOperatori().get(op).remove(azioneOp);
-        } else if (azioneOp.getNumero() - numeroVendita == 0) {
-            newNumeroVendita = numeroVendita;
-            getAzioniOperatori().get(op).remove(azioneOp);
-        } else {
-            newNumeroVendita = numeroVendita;
+        long eseguito;
+        synchronized (posizioni.lock(op)) {
+            newNumeroVendita = daRimuovere(op, azienda, numeroVendita, true);
+            eseguito = eseguiVendita(azioneBorsa, newNumeroVendita, registro);
+            rimuoviPosizione(op, azienda, newNumeroVendita, false);
+        }
+        long ricavo = incassa ? (long) newNumeroVendita * Azione.prezzo(eseguito) : 0;
+        if (incassa) {
+            op.accredita(ricavo);
+        }
+        if (registro != null) {
+            registro.posizione(this, op, azienda, -newNumeroVendita).budget(op, ricavo);
+            Giornale.eseguito(registro);
+        }
+        return eseguito;
+    }
+
+    /**
+     * Esegue un lotto di ordini di acquisto e vendita in questa borsa raggruppando gli ordini consecutivi sulla stessa azione quotata.
+     * <p>
+     * Gli ordini sono eseguiti nell'ordine della lista: il risultato è lo stesso che si otterrebbe eseguendoli uno alla volta con
+     * {@link borsanova.managerOperazioni.ManagerOperazioni#operazione(Operatore, String, Borsa, Azienda, int)},
+     * compresa la politica di prezzo applicata a ogni eseguito e l'ordine che solleva un'eccezione.
+     * Un gruppo comprende solo ordini consecutivi perché ordini su aziende diverse interagiscono attraverso il bilancio
+     * degli operatori e non possono essere scambiati; un lotto già ordinato per azienda forma i gruppi più lunghi.
+     * <p>
+     * Ogni gruppo diventa una sola transizione dell'azione quotata {@link #eseguiGruppo(Azione, Operatore[], int[], int, int, long[])}:
+     * gli eseguiti vengono calcolati in sequenza su una copia locale dello stato, poi applicati con un solo compare-and-set,
+     * un solo addebito e un solo accredito per operatore e una sola variazione di posizione per operatore.
+     * <p>
+     * Se un ordine solleva un'eccezione, gli ordini che lo precedono nella lista restano eseguiti,
+     * l'ordine e quelli successivi non vengono eseguiti.
+     * <p>
+     * Effetti collaterali: quelli di {@link Operatore#acquistaAzione(Borsa, int, Azione)} e
+     * {@link Operatore#vendiAzione(Borsa, Azienda, int)} per ciascun ordine
+     * @param ordini ordini da eseguire (non null, senza elementi null)
+     * @return per ogni ordine, nella stessa posizione, l'eseguito impacchettato come (prezzo di esecuzione, numero di azioni),
+     *         leggibile con {@link Azione#prezzo(long)} e {@link Azione#numero(long)}
+     * @throws NullPointerException se la lista o un suo elemento è null, o se un ordine si riferisce a un'azienda non quotata
+     *         in questa borsa
+     * @throws IllegalArgumentException se una vendita si riferisce a azioni che l'operatore non possiede
+     * @throws IllegalStateException se un acquisto porterebbe in negativo il bilancio dell'operatore
+     */
+    public long[] eseguiOrdini(List<Ordine> ordini) {
+        Objects.requireNonNull(ordini, "la lista degli ordini non può essere null");
+        int n = ordini.size();
+        Azienda[] aziende = new Azienda[n];
+        Operatore[] operatori = new Operatore[n];
+        int[] numeri = new int[n];
+        for (int i = 0; i < n; i++) {
+            Ordine ordine = Objects.requireNonNull(ordini.get(i), "l'ordine non può essere null");
+            aziende[i] = ordine.azienda;
+            operatori[i] = ordine.op;
+            numeri[i] = ordine.acquisto ? ordine.numero : -ordine.numero;
+        }
+
+        long[] eseguiti = new long[n];
+        int da = 0;
+        while (da < n) {
+            int a = da + 1;
+            while (a < n && aziende[a].equals(aziende[da])) {
+                a++;
+            }
+            Azione azione = indiceAzioni.get(aziende[da]);
+            if (azione == null) {
+                throw new NullPointerException("azione non deve essere null");
+            }
+            eseguiGruppo(azione, operatori, numeri, da, a, eseguiti);
+            da = a;
+        }
+        return eseguiti;
+    }
+
+    /**
+     * Esegue in sequenza gli ordini consecutivi di un gruppo di {@link #eseguiOrdini(List)}, tutti sulla stessa azione quotata,
+     * con una sola transizione del suo stato.
+     * <p>
+     * Gli eseguiti sono calcolati su una copia locale di prezzo e numero, applicando la politica di prezzo dopo ciascuno come
+     * farebbe {@link #eseguiAcquisto(Azione, int, int, Operatore, Giornale.Eseguito)} o {@link #eseguiVendita(Azione, int, Giornale.Eseguito)}; bilancio e azioni
+     * possedute di ogni operatore sono seguiti nello stesso modo, così un ordine che non potrebbe essere eseguito (bilancio
+     * insufficiente, azioni non possedute, politica che solleva un'eccezione) ferma il calcolo come lo fermerebbe eseguito da solo.
+     * Poi, per ogni operatore, la cifra e le azioni più basse raggiunte durante la sequenza vengono impegnate con un addebito
+     * condizionato e una riserva di posizione; solo se gli impegni riescono lo stato dell'azione passa a quello finale con
+     * un compare-and-set. Se un impegno o il compare-and-set falliscono (un altro thread ha cambiato azione, bilancio o posizioni)
+     * gli impegni vengono restituiti e il gruppo è ricalcolato dal nuovo stato, quindi nessun operatore può ricevere azioni
+     * senza averle pagate né andare in negativo.
+     * <p>
+     * Dopo la transizione ogni operatore riceve in un'unica volta la differenza tra la sua situazione finale e quella impegnata,
+     * e ogni eseguito viene pubblicato come tick.
+     * @param azione azione quotata del gruppo
+     * @param operatori operatori degli ordini del lotto
+     * @param numeri cifra investita (positiva) o azioni da vendere (negative) degli ordini del lotto
+     * @param da primo indice del gruppo
+     * @param a indice successivo all'ultimo del gruppo
+     * @param eseguiti eseguiti degli ordini del lotto, scritti negli stessi indici
+     * @throws IllegalStateException se un acquisto porterebbe in negativo il bilancio dell'operatore
+     * @throws IllegalArgumentException se una vendita si riferisce a azioni che l'operatore non possiede
+     */
+    private void eseguiGruppo(Azione azione, Operatore[] operatori, int[] numeri, int da, int a, long[] eseguiti) {
+        Azienda azienda = azione.getAzienda();
+        Legame legame = azione.legame;
+        int[] nuoviPrezzi = new int[a - da];
+        Map<Operatore, Conto> conti = new HashMap<>();
+        while (true) {
+            conti.clear();
+            long stato = azione.stato;
+            int prezzo = Azione.prezzo(stato);
+            int disponibili = Azione.numero(stato);
+            RuntimeException errore = null;
+            int fine = da;
+            for (; fine < a; fine++) {
+                Operatore op = operatori[fine];
+                Conto conto = conti.get(op);
+                if (conto == null) {
+                    conto = new Conto(op.getBudget(), posizioni.leggi(op, azienda));
+                    conti.put(op, conto);
+                }
+                int numero;
+                int nuovoPrezzo;
+                if (numeri[fine] > 0) {
+                    numero = Math.min(numeri[fine] / prezzo, disponibili);
+                    if (numero == 0) {
+                        eseguiti[fine] = Azione.impacchetta(prezzo, 0);
+                        nuoviPrezzi[fine - da] = prezzo;
+                        continue;
+                    }
+                    try {
+                        nuovoPrezzo = prezzoDopoAcquisto(legame.funzione, prezzo, numero);
+                    } catch (RuntimeException e) {
+                        errore = e;
+                        break;
+                    }
+                    long costo = (long) numero * prezzo;
+                    if (conto.cassa < costo) {
+                        errore = new IllegalStateException("Il budget non può andare in negativo");
+                        break;
+                    }
+                    conto.cassa -= costo;
+                    conto.minimaCassa = Math.min(conto.minimaCassa, conto.cassa);
+                    conto.azioni += numero;
+                    conto.comprato = true;
+                    disponibili -= numero;
+                } else {
+                    if (conto.azioni <= 0) {
+                        errore = new IllegalArgumentException("L'operatore non possiede azioni dell'azienda");
+                        break;
+                    }
+                    numero = Math.min(-numeri[fine], conto.azioni);
+                    try {
+                        nuovoPrezzo = prezzoDopoVendita(legame.funzione, prezzo, numero);
+                    } catch (RuntimeException e) {
+                        errore = e;
+                        break;
+                    }
+                    long ricavo = (long) numero * prezzo;
+                    if (conto.cassa > Long.MAX_VALUE - ricavo) {
+                        errore = new IllegalStateException("Il budget non può superare il massimo rappresentabile");
+                        break;
+                    }
+                    conto.cassa += ricavo;
+                    conto.azioni -= numero;
+                    conto.minimeAzioni = Math.min(conto.minimeAzioni, conto.azioni);
+                    disponibili += numero;
+                }
+                eseguiti[fine] = Azione.impacchetta(prezzo, numero);
+                nuoviPrezzi[fine - da] = nuovoPrezzo;
+                prezzo = nuovoPrezzo;
+            }
+
+            long nuovo = Azione.impacchetta(prezzo, disponibili);
+            if (impegna(conti, azienda) && azione.cambiaStato(stato, nuovo)) {
+                if (prezzo != Azione.prezzo(stato)) {
+                    azione.valutazione.variaPrezzo();
+                }
+                Giornale.Eseguito registro = Giornale.nuovoEseguito();
+                if (registro != null) {
+                    registro.stato(azione, nuovo - stato);
+                }
+                for (Map.Entry<Operatore, Conto> voce : conti.entrySet()) {
+                    Operatore op = voce.getKey();
+                    Conto conto = voce.getValue();
+                    if (conto.azioni > conto.minimeAzioni) {
+                        aggiungiPosizione(op, azione, conto.azioni - conto.minimeAzioni);
+                    }
+                    if (conto.cassa > conto.minimaCassa) {
+                        op.accredita(conto.cassa - conto.minimaCassa);
+                    }
+                    if (conto.comprato) {
+                        op.addBorsa(this);
+                    }
+                    if (registro != null) {
+                        registro.posizione(this, op, azienda, conto.azioni - conto.inizioAzioni).budget(op, conto.cassa - conto.inizioCassa);
+                        if (conto.comprato) {
+                            registro.borsa(op, this);
+                        }
+                    }
+                }
+                Giornale.eseguito(registro);
+                for (int k = da; k < fine; k++) {
+                    long eseguito = eseguiti[k];
+                    if (Azione.numero(eseguito) > 0) {
+                        pubblicaTick(numeri[k] > 0 ? DistributoreTick.ACQUISTO : DistributoreTick.VENDITA, azione,
+                                Azione.prezzo(eseguito), Azione.numero(eseguito), nuoviPrezzi[k - da], legame.versione);
+                    }
+                }
+                if (errore != null) {
+                    throw errore;
+                }
+                return;
+            }
+            rilascia(conti, azione);
+        }
+    }
+
+    /**
+     * Impegna per ogni operatore di un gruppo la cifra e le azioni più basse raggiunte dalla sequenza calcolata:
+     * un addebito condizionato {@link Operatore#addebita(long)} e una riserva delle azioni possedute.
+     * Se un impegno fallisce restituisce quelli già presi.
+     * @param conti situazione calcolata di ogni operatore del gruppo
+     * @param azienda azienda delle azioni
+     * @return true se tutti gli impegni sono riusciti
+     */
+    private boolean impegna(Map<Operatore, Conto> conti, Azienda azienda) {
+        for (Map.Entry<Operatore, Conto> voce : conti.entrySet()) {
+            Conto conto = voce.getValue();
+            long cifra = conto.inizioCassa - conto.minimaCassa;
+            if (cifra > 0 && !voce.getKey().addebita(cifra)) {
+                rilascia(conti, indiceAzioni.get(azienda));
+                return false;
+            }
+            conto.cassaImpegnata = cifra > 0;
+            int numero = conto.inizioAzioni - conto.minimeAzioni;
+            if (numero > 0 && !riservaVendita(voce.getKey(), azienda, numero)) {
+                rilascia(conti, indiceAzioni.get(azienda));
+                return false;
+            }
+            conto.azioniImpegnate = numero > 0;
+        }
+        return true;
+    }
+
+    /**
+     * Restituisce agli operatori gli impegni presi da {@link #impegna(Map, Azienda)} e li azzera
+     * @param conti situazione calcolata di ogni operatore del gruppo
+     * @param azione azione quotata del gruppo
+     */
+    private void rilascia(Map<Operatore, Conto> conti, Azione azione) {
+        for (Map.Entry<Operatore, Conto> voce : conti.entrySet()) {
+            Conto conto = voce.getValue();
+            if (conto.cassaImpegnata) {
+                voce.getKey().accredita(conto.inizioCassa - conto.minimaCassa);
+                conto.cassaImpegnata = false;
+            }
+            if (conto.azioniImpegnate) {
+                annullaVendita(voce.getKey(), azione, conto.inizioAzioni - conto.minimeAzioni);
+                conto.azioniImpegnate = false;
+            }
         }
-        Azione azioneBorsa = this.getAzione(azioneOp.getAzienda(), azioneOp.getBorsa());
-        this.cambiaPrezzoVendita(azioneBorsa, newNumeroVendita);
-        azioneBorsa.setNumero(azioneBorsa.getNumero() + numeroVendita);
-        azioneOp.setNumero(azioneOp.getNumero() - newNumeroVendita);
-        return newNumeroVendita;
     }
 
     /**
      * Estrae dalla mappa Operatore-azioniPossedute l'azione con borsa e azienda uguali ai parametri in ingresso
      * controlla che la mappa contenga la chiave giusta, altrimenti ritorna null.
      * <p>
+     * La ricerca avviene sul registro {@link #posizioni} e non dipende dal numero di azioni possedute dall'operatore;
+     * poiché le azioni possedute in questa borsa sono tutte riferite a questa borsa, se {@code borsa} è diversa il risultato è null.
+     * L'azione restituita è creata dalla ricerca, con il prezzo corrente dell'azione quotata, e non segue le operazioni successive.
+     * <p>
      * Requisiti:
      * <ul>
      * <li> {@code op} --> non deve essere null
      * <li> {@code azienda} --> non deve essere null
      * <li> {@code borsa} --> non deve essere null
-     * <li> Se l'operatore {@code op} non è presente nella mappa {@code azioniOperatori}, il metodo restituisce null.
+     * <li> Se l'operatore {@code op} non possiede azioni di {@code azienda}, il metodo restituisce null.
      * </ul>
      * @param op Operatore (il key della mappa)
      * @param azienda azienda, parametro da comparare con le azioni possedute
@@ -323,46 +1110,66 @@ public class Borsa  implements Comparable<Borsa> {
         if (op == null || azienda == null || borsa == null) {
             throw new IllegalArgumentException("almeno uno dei parametri è nullo");
         }
-        if (azioniOperatori.containsKey(op)) {
-            for (Azione azione : azioniOperatori.get(op)) {
-                if (azione.getAzienda().equals(azienda) && azione.getBorsa().equals(borsa)) {
-                    return azione;
-                }
-            }
+        if (!borsa.equals(this)) {
+            return null;
         }
-        return null;
+        int numero = posizioni.leggi(op, azienda);
+        if (numero == 0) {
+            return null;
+        }
+        return new Azione(azienda, this, indiceAzioni.get(azienda).getPrezzo(), numero);
     }
 
     /**
-     * Estrae la mappa azioniOperatori
-     * @return la mappa
+     * Estrae il numero di azioni di {@code azienda} possedute dall'operatore in questa borsa, senza creare oggetti
+     * @param op operatore (non null)
+     * @param azienda azienda (non null)
+     * @return il numero, 0 se l'operatore non ne possiede
+     * @throws NullPointerException se uno dei parametri è null
      */
-    public SortedMap<Operatore, SortedSet<Azione>> getAzioniOperatori() {
-        return azioniOperatori;
+    public int getNumeroAzioniOp(Operatore op, Azienda azienda) {
+        return posizioni.leggi(op, azienda);
     }
 
     /**
-     * Aggiunge un nuova azione alla mappa azioniOperatori.
-     * <ul>
-     * <li>Se l'operatore è già esistente in mappa allora aggiunge l'azione alla lista di quest'ultimo
-     * <li>Se l'operatore non esiste in lista allora crea una nuova key con quest'ultimo e aggiunge l'azione
-     * </ul>
+     * Costruisce la mappa operatore --> azioni possedute, ordinata alfabeticamente per operatore e per azienda.
+     * Contiene ogni operatore che ha posseduto azioni in questa borsa, anche se ora non ne possiede più.
      * <p>
-     * Effetti collaterali:
-     * <ul>
-     * <li> {@code azioniOperatori} --> se l'operatore esisteva in mappa, allora aggiunge alle azioni possedute l'oggetto {@code Azione} altrimenti crea una nuova chiave {@code Operatore} e un nuovo elenco associato che contiene l'oggetto {@code Azione}
-     * </ul>
-     * @param operatore l'operatore (key della mappa)
-     * @param azione l'azione da aggiungere (value della mappa)
+     * La mappa è creata a ogni chiamata leggendo il registro delle posizioni un segmento alla volta;
+     * le azioni hanno il prezzo corrente dell'azione quotata e non seguono le operazioni successive.
+     * @return la mappa (non modificabile)
      */
-    private void addAzioniOperatori(Operatore operatore, Azione azione) {
-        SortedSet<Azione> newListAzioni = new TreeSet<>();
-        newListAzioni.add(azione);
-        if (getAzioniOperatori().containsKey(operatore)) {
-            getAzioniOperatori().get(operatore).add(azione);
-        } else {
-            getAzioniOperatori().put(operatore, newListAzioni);
+    public SortedMap<Operatore, SortedSet<Azione>> getAzioniOperatori() {
+        SortedMap<Operatore, SortedSet<Azione>> mappa = new TreeMap<>();
+        for (Operatore op : posizioni.getOperatori()) {
+            mappa.put(op, new TreeSet<>());
         }
+        posizioni.visita((operatore, azienda, numero) -> {
+            Operatore op = Operatore.daId(operatore);
+            Azienda az = Azienda.daId(azienda);
+            mappa.computeIfAbsent(op, k -> new TreeSet<>())
+                    .add(new Azione(az, this, indiceAzioni.get(az).getPrezzo(), numero));
+        });
+        for (Map.Entry<Operatore, SortedSet<Azione>> voce : mappa.entrySet()) {
+            voce.setValue(Collections.unmodifiableSortedSet(voce.getValue()));
+        }
+        return Collections.unmodifiableSortedMap(mappa);
+    }
+
+    /**
+     * Visita tutte le posizioni degli operatori in questa borsa senza creare oggetti, usato da {@link RapportoChiusura}
+     * @param visitatore chiamato per ogni posizione con gli identificativi di operatore e azienda
+     */
+    void visitaPosizioni(RegistroPosizioni.Visitatore visitatore) {
+        posizioni.visita(visitatore);
+    }
+
+    /**
+     * Estrae gli operatori che hanno posseduto azioni in questa borsa, usato da {@link RapportoChiusura}
+     * @return gli operatori in ordine alfabetico (vista non copiata)
+     */
+    SortedSet<Operatore> getOperatoriPosizioni() {
+        return posizioni.getOperatori();
     }
 
     /**
@@ -379,6 +1186,8 @@ public class Borsa  implements Comparable<Borsa> {
      * <ul>
      * <li> {@code aziende} --> aggiunge l'azienda all'elenco delle aziende quotate se non presente
      * <li> {@code azioni} --> aggiunge una nuova azione associata all'azienda
+     * <li> {@code indiceAzioni} --> indicizza la nuova azione secondo la sua azienda
+     * <li> {@code azione} --> le lega la politica di prezzo corrente della borsa
      * </ul>
      * @param azienda azienda quotata
      * @param prezzo prezzo dell'azione
@@ -394,11 +1203,63 @@ public class Borsa  implements Comparable<Borsa> {
             throw new IllegalArgumentException("Il prezzo e il numero di azioni non può essere negativo");
         }
         Azione azione = new Azione(azienda, this, numero, prezzo);
+        azione.valutazione = new RegistroValutazione(azione);
+        synchronized (this) {
+            PoliticaPrezzo politica = politicaPrezzo;
+            azione.legame = politica == null ? Legame.NESSUNO : new Legame(politica.lega(azione), versionePolitica);
+            if (this.indiceAzioni.putIfAbsent(azienda, azione) == null) {
+                this.azioni.add(azione);
+            }
+        }
         this.aziende.add(azienda);
-        this.azioni.add(azione);
         return azione;
     }
 
+    /**
+     * Quota in blocco più aziende in questa borsa, con lo stesso risultato di {@link Azienda#quotazione(Borsa, int, int)}
+     * invocato su ciascuna nell'ordine dato (se un'azienda compare più volte vale la sua prima quotazione).
+     * <p>
+     * Tutti i dati sono controllati prima di modificare la borsa, le azioni sono create fuori dal lock e poi legate
+     * alla politica corrente e indicizzate con una sola acquisizione del lock della borsa. Le quotazioni sono registrate
+     * nel {@link Giornale} nell'ordine dato.
+     * @param aziende aziende da quotare (nessuna null)
+     * @param numeri numero di azioni quotate per ciascuna azienda (>= 1)
+     * @param prezzi prezzo per azione di ciascuna azienda (>= 1)
+     * @throws NullPointerException se un array o un'azienda è null
+     * @throws IllegalArgumentException se gli array hanno lunghezze diverse o se un numero o un prezzo è minore di 1
+     * @see borsanova.Quotazioni.Quotazione#quotazioniInBlocco(String[])
+     */
+    public void quotazioni(Azienda[] aziende, int[] numeri, int[] prezzi) {
+        if (aziende.length != numeri.length || aziende.length != prezzi.length) {
+            throw new IllegalArgumentException("Le quotazioni devono avere lo stesso numero di aziende, numeri e prezzi");
+        }
+        for (int i = 0; i < aziende.length; i++) {
+            Objects.requireNonNull(aziende[i], "Il parametro dell'azienda non può essere null");
+            if (prezzi[i] < 1 || numeri[i] < 1) {
+                throw new IllegalArgumentException("Il prezzo e il numero delle azioni non possono essere minori di 1");
+            }
+        }
+        Azione[] nuove = new Azione[aziende.length];
+        for (int i = 0; i < aziende.length; i++) {
+            aziende[i].borsaQuotata(this);
+            nuove[i] = new Azione(aziende[i], this, prezzi[i], numeri[i]);
+            nuove[i].valutazione = new RegistroValutazione(nuove[i]);
+        }
+        synchronized (this) {
+            PoliticaPrezzo politica = politicaPrezzo;
+            for (Azione azione : nuove) {
+                azione.legame = politica == null ? Legame.NESSUNO : new Legame(politica.lega(azione), versionePolitica);
+                if (this.indiceAzioni.putIfAbsent(azione.getAzienda(), azione) == null) {
+                    this.azioni.add(azione);
+                }
+            }
+        }
+        this.aziende.addAll(Arrays.asList(aziende));
+        for (int i = 0; i < aziende.length; i++) {
+            Giornale.quotazione(aziende[i], this, numeri[i], prezzi[i]);
+        }
+    }
+
     /**
      * Estrae il nome della borsa
      * @return nome della borsa
@@ -407,6 +1268,15 @@ public class Borsa  implements Comparable<Borsa> {
         return name;
     }
 
+    /**
+     * Estrae l'identificativo della borsa: intero denso assegnato alla creazione in {@code of} (0 per la prima istanza, poi 1, 2, ...),
+     * usabile come indice di array al posto del nome
+     * @return identificativo
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * Estrae le azioni quotate in ordine alfabetico secondo l'azienda da cui provengono
      * @return azioni ordinate
@@ -425,6 +1295,9 @@ public class Borsa  implements Comparable<Borsa> {
 
     /**
      * Trova l'azione dalla lista delle azioni quotate che ha la stessa "azienda" e "borsa" passati come parametri.
+     * <p>
+     * La ricerca avviene sull'indice {@link #indiceAzioni} e ha costo costante rispetto al numero di aziende quotate;
+     * poiché tutte le azioni quotate appartengono a questa borsa, se {@code borsa} è diversa da questa il risultato è null.
      * @param azienda azienda da comparare (non null)
      * @param borsa borsa da comparare (non null)
      * @throws NullPointerException se uno dei parametri è null
@@ -434,18 +1307,223 @@ public class Borsa  implements Comparable<Borsa> {
         if (azienda == null || borsa == null) {
             throw new NullPointerException("i parametri non possono essere null");
         }
+        if (!borsa.equals(this)) {
+            return null;
+        }
+        return indiceAzioni.get(azienda);
+    }
+
+    /**
+     * Estrae la politica di prezzo corrente, usata per salvare il mercato {@link Istantanea}
+     * @return la politica, null se non è stata impostata
+     */
+    PoliticaPrezzo getPoliticaPrezzo() {
+        return politicaPrezzo;
+    }
+
+    /**
+     * Estrae la versione dell'ultima politica pubblicata: ogni cambio di politica della borsa o di una sua azione
+     * la incrementa, e ogni eseguito riporta nel suo tick la versione della politica che ne ha calcolato il prezzo
+     * {@link DistributoreTick.Ascoltatore}
+     * @return la versione, 0 se non è mai stata impostata una politica
+     */
+    public synchronized int getVersionePolitica() {
+        return versionePolitica;
+    }
+
+    /**
+     * Imposta la politica della borsa, la lega a tutte le azioni quotate che non hanno una politica propria
+     * e la registra nel {@link Giornale}; usato dai setter e dalla riproduzione del giornale
+     * @param politica la nuova politica
+     */
+    synchronized void impostaPolitica(PoliticaPrezzo politica) {
+        int versione = ++versionePolitica;
+        politicaPrezzo = politica;
         for (Azione azione : azioni) {
-            if (azione.getAzienda().equals(azienda) && azione.getBorsa().equals(borsa)) {
-                return azione;
+            if (azione.politicaPropria == null) {
+                azione.legame = new Legame(politica.lega(azione), versione);
+            }
+        }
+        Giornale.politica(this, null, politica);
+    }
+
+    /**
+     * Imposta una politica di prezzo propria per l'azione quotata di {@code azienda}, che da quel momento non segue più
+     * i cambi di politica della borsa; con {@code null} l'azione torna a seguire la politica della borsa.
+     * La politica viene legata subito all'azione {@link PoliticaPrezzo#lega(Borsa.Azione)}.
+     * <p>
+     * Il cambio viene registrato nel {@link Giornale}: se un giornale è aperto la politica deve essere una di quelle
+     * fornite dal progetto o una loro {@link PoliticaComposta}, le sole che possono essere salvate anche nell'{@link Istantanea}.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code azione} --> cambia la politica propria e la funzione di prezzo dell'azione quotata
+     * </ul>
+     * @param azienda azienda quotata in questa borsa (non null)
+     * @param politica la politica dell'azione, null per seguire quella della borsa
+     * @throws NullPointerException se l'azienda è null o non è quotata in questa borsa
+     * @throws IllegalArgumentException se un giornale è aperto e la politica non può essere registrata (l'azione resta invariata)
+     */
+    public synchronized void setPoliticaAzione(Azienda azienda, PoliticaPrezzo politica) {
+        Azione azione = Objects.requireNonNull(getAzione(azienda, this), "l'azienda non è quotata in questa borsa");
+        if (!Giornale.registrabile(politica)) {
+            throw new IllegalArgumentException("la politica non può essere registrata nel giornale: " + politica.getClass().getName());
+        }
+        PoliticaPrezzo effettiva = politica != null ? politica : politicaPrezzo;
+        azione.politicaPropria = politica;
+        azione.legame = effettiva == null ? Legame.NESSUNO : new Legame(effettiva.lega(azione), ++versionePolitica);
+        Giornale.politica(this, azienda, politica);
+    }
+
+    /**
+     * Estrae la politica di prezzo che regola l'azione quotata di {@code azienda}: quella propria se impostata,
+     * altrimenti quella della borsa
+     * @param azienda azienda quotata in questa borsa (non null)
+     * @return la politica, null se non ce n'è alcuna
+     * @throws NullPointerException se l'azienda è null o non è quotata in questa borsa
+     */
+    public PoliticaPrezzo getPoliticaAzione(Azienda azienda) {
+        Azione azione = Objects.requireNonNull(getAzione(azienda, this), "l'azienda non è quotata in questa borsa");
+        PoliticaPrezzo propria = azione.politicaPropria;
+        return propria != null ? propria : politicaPrezzo;
+    }
+
+    /**
+     * Quota un'azienda con prezzo e numero esatti, anche 0 azioni disponibili, usato per ripristinare il mercato {@link Istantanea}
+     * @param azienda azienda da quotare
+     * @param prezzo prezzo dell'azione (>= 1)
+     * @param numero azioni disponibili (>= 0)
+     */
+    void ripristinaQuotazione(Azienda azienda, int prezzo, int numero) {
+        azienda.quotazione(this, Math.max(numero, 1), prezzo);
+        Azione azione = indiceAzioni.get(azienda);
+        Azione.STATO.setVolatile(azione, Azione.impacchetta(prezzo, numero));
+        azione.valutazione.variaPrezzo();
+    }
+
+    /**
+     * Somma una variazione allo stato impacchettato di un'azione quotata, usato dalla riproduzione del {@link Giornale}
+     * @param azienda azienda dell'azione quotata
+     * @param variazione variazione registrata da un eseguito
+     * @throws NullPointerException se l'azienda non è quotata in questa borsa
+     */
+    void ripristinaStato(Azienda azienda, long variazione) {
+        Azione azione = Objects.requireNonNull(indiceAzioni.get(azienda));
+        Azione.STATO.getAndAdd(azione, variazione);
+        azione.valutazione.variaPrezzo();
+    }
+
+    /**
+     * Estrae il libro degli ordini con limite dell'azione quotata di {@code azienda}, creandolo alla prima richiesta.
+     * Il libro affianca la compravendita con la borsa: gli scambi avvengono tra operatori e non modificano
+     * né il prezzo né il numero disponibile dell'azione quotata.
+     * @param azienda azienda quotata (non null)
+     * @return il libro degli ordini dell'azione
+     * @throws NullPointerException se l'azienda è null o non è quotata in questa borsa
+     */
+    public LibroOrdini getLibroOrdini(Azienda azienda) {
+        Azione azione = Objects.requireNonNull(getAzione(azienda, this), "l'azienda non è quotata in questa borsa");
+        LibroOrdini libro = azione.libroOrdini;
+        if (libro == null) {
+            synchronized (azione) {
+                libro = azione.libroOrdini;
+                if (libro == null) {
+                    libro = new LibroOrdini(this, azione);
+                    azione.libroOrdini = libro;
+                }
             }
         }
-        return null;
+        return libro;
+    }
+
+    /**
+     * Inserisce nel libro degli ordini di {@code azienda} un ordine di acquisto con limite di prezzo {@link LibroOrdini}.
+     * L'ordine viene eseguito subito contro le vendite compatibili (priorità prezzo-tempo) e la parte restante resta nel libro.
+     * <p>
+     * Requisiti:
+     * <ul>
+     * <li> {@code op} e {@code azienda} --> non devono essere null, l'azienda deve essere quotata in questa borsa
+     * <li> {@code prezzoLimite} e {@code quantita} --> devono essere maggiori di 0
+     * </ul>
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code op.budget} --> viene impegnato {@code prezzoLimite * quantita}, restituito per la parte annullata o eseguita a prezzo migliore
+     * <li> {@code posizioni} --> riceve le azioni acquistate dall'operatore e toglie quelle cedute dai venditori
+     * </ul>
+     * @param op operatore che compra
+     * @param azienda azienda di cui comprare le azioni
+     * @param prezzoLimite prezzo massimo per azione
+     * @param quantita numero di azioni
+     * @return l'identificativo dell'ordine, da usare con {@link #annullaOrdine(Azienda, long)}
+     * @throws NullPointerException se un parametro è null o l'azienda non è quotata
+     * @throws IllegalArgumentException se il prezzo o la quantità non sono positivi
+     * @throws IllegalStateException se il bilancio dell'operatore non copre l'ordine
+     */
+    public long ordineAcquisto(Operatore op, Azienda azienda, int prezzoLimite, int quantita) {
+        controllaOrdine(op, prezzoLimite, quantita);
+        return getLibroOrdini(azienda).inserisciAcquisto(op, prezzoLimite, quantita);
+    }
+
+    /**
+     * Inserisce nel libro degli ordini di {@code azienda} un ordine di vendita con limite di prezzo {@link LibroOrdini}.
+     * L'ordine viene eseguito subito contro gli acquisti compatibili (priorità prezzo-tempo) e la parte restante resta nel libro.
+     * <p>
+     * Requisiti:
+     * <ul>
+     * <li> {@code op} e {@code azienda} --> non devono essere null, l'azienda deve essere quotata in questa borsa
+     * <li> {@code prezzoLimite} e {@code quantita} --> devono essere maggiori di 0
+     * <li> {@code op} --> deve possedere almeno {@code quantita} azioni dell'azienda in questa borsa
+     * </ul>
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code posizioni} --> le azioni vengono tolte subito all'operatore e restituite se l'ordine viene annullato
+     * <li> {@code op.budget} --> riceve il ricavato delle vendite eseguite
+     * </ul>
+     * @param op operatore che vende
+     * @param azienda azienda di cui vendere le azioni
+     * @param prezzoLimite prezzo minimo per azione
+     * @param quantita numero di azioni
+     * @return l'identificativo dell'ordine, da usare con {@link #annullaOrdine(Azienda, long)}
+     * @throws NullPointerException se un parametro è null o l'azienda non è quotata
+     * @throws IllegalArgumentException se il prezzo o la quantità non sono positivi o l'operatore non possiede abbastanza azioni
+     */
+    public long ordineVendita(Operatore op, Azienda azienda, int prezzoLimite, int quantita) {
+        controllaOrdine(op, prezzoLimite, quantita);
+        return getLibroOrdini(azienda).inserisciVendita(op, prezzoLimite, quantita);
+    }
+
+    /**
+     * Annulla un ordine con limite ancora presente nel libro di {@code azienda}, restituendo all'operatore quanto impegnato
+     * @param azienda azienda dell'ordine (non null, quotata in questa borsa)
+     * @param ordine identificativo restituito da {@link #ordineAcquisto(Operatore, Azienda, int, int)} o {@link #ordineVendita(Operatore, Azienda, int, int)}
+     * @return true se l'ordine è stato annullato, false se era già stato eseguito o annullato
+     * @throws NullPointerException se l'azienda è null o non è quotata
+     */
+    public boolean annullaOrdine(Azienda azienda, long ordine) {
+        return getLibroOrdini(azienda).annulla(ordine);
+    }
+
+    /**
+     * Controlla i parametri comuni di un ordine con limite
+     * @param op operatore dell'ordine
+     * @param prezzoLimite prezzo limite
+     * @param quantita quantità
+     * @throws NullPointerException se l'operatore è null
+     * @throws IllegalArgumentException se il prezzo o la quantità non sono positivi
+     */
+    private static void controllaOrdine(Operatore op, int prezzoLimite, int quantita) {
+        Objects.requireNonNull(op, "l'operatore non può essere null");
+        if (prezzoLimite < 1 || quantita < 1) {
+            throw new IllegalArgumentException("il prezzo limite e la quantità devono essere maggiori di 0");
+        }
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Borsa emp) {
-            return (emp.name.equals(this.name));
+            return emp.id == this.id;
         }
         else {
             return false;
@@ -453,46 +1531,255 @@ public class Borsa  implements Comparable<Borsa> {
     }
 
     public int hashCode() {
-        return Objects.hash(name);
+        return id;
     }
 
     @Override
     public int compareTo(Borsa o) {
-        return this.name.compareTo(o.name);
+        return this.id == o.id ? 0 : this.name.compareTo(o.name);
+    }
+
+    /**
+     * La classe <strong>Ordine</strong> descrive un ordine di acquisto o di vendita da eseguire a lotti con {@link Borsa#eseguiOrdini(List)}.
+     * <p>
+     * Un ordine di acquisto indica la cifra che l'operatore investe, uno di vendita il numero di azioni da vendere,
+     * come le operazioni "b" e "s" di {@link borsanova.managerOperazioni.ManagerOperazioni}. Gli ordini sono immutabili
+     * e si creano con {@link #acquisto(Operatore, Azienda, int)} e {@link #vendita(Operatore, Azienda, int)}.
+     */
+    public static final class Ordine {
+        /**Operatore che esegue l'ordine*/
+        private final Operatore op;
+        /**Tipo dell'ordine (true se acquisto)*/
+        private final boolean acquisto;
+        /**Azienda delle azioni da comprare o vendere*/
+        private final Azienda azienda;
+        /**Cifra investita per un acquisto, numero di azioni per una vendita*/
+        private final int numero;
+
+        /*
+         * AF:
+         *   Un'istanza di "Ordine" rappresenta la richiesta di "op" di comprare azioni di "azienda" investendo "numero"
+         *   (se "acquisto") oppure di venderne "numero".
+         * RI:
+         *   - "op" e "azienda" --> non devono essere null.
+         *   - "numero" --> deve essere > 0.
+         */
+
+        /**
+         * Costruttore della classe, usato dai metodi {@link #acquisto(Operatore, Azienda, int)} e {@link #vendita(Operatore, Azienda, int)}
+         * @param op operatore che esegue l'ordine
+         * @param acquisto true per un acquisto, false per una vendita
+         * @param azienda azienda delle azioni
+         * @param numero cifra investita o numero di azioni
+         * @throws NullPointerException se l'operatore o l'azienda sono null
+         * @throws IllegalArgumentException se il numero non è maggiore di 0
+         */
+        private Ordine(Operatore op, boolean acquisto, Azienda azienda, int numero) {
+            if (numero <= 0) {
+                throw new IllegalArgumentException("Il numero dell'operazione dev'essere maggiore di 0");
+            }
+            this.op = Objects.requireNonNull(op, "l'operatore non può essere null");
+            this.acquisto = acquisto;
+            this.azienda = Objects.requireNonNull(azienda, "l'azienda non può essere null");
+            this.numero = numero;
+        }
+
+        /**
+         * Crea un ordine di acquisto
+         * @param op operatore che compra (non null)
+         * @param azienda azienda di cui comprare le azioni (non null)
+         * @param prezzoTotale cifra investita (deve essere > 0)
+         * @return l'ordine
+         * @throws NullPointerException se l'operatore o l'azienda sono null
+         * @throws IllegalArgumentException se la cifra non è maggiore di 0
+         */
+        public static Ordine acquisto(Operatore op, Azienda azienda, int prezzoTotale) {
+            return new Ordine(op, true, azienda, prezzoTotale);
+        }
+
+        /**
+         * Crea un ordine di vendita
+         * @param op operatore che vende (non null)
+         * @param azienda azienda di cui vendere le azioni (non null)
+         * @param numero numero di azioni da vendere (deve essere > 0)
+         * @return l'ordine
+         * @throws NullPointerException se l'operatore o l'azienda sono null
+         * @throws IllegalArgumentException se il numero non è maggiore di 0
+         */
+        public static Ordine vendita(Operatore op, Azienda azienda, int numero) {
+            return new Ordine(op, false, azienda, numero);
+        }
+
+        /**
+         * Estrae l'operatore dell'ordine
+         * @return l'operatore
+         */
+        public Operatore getOperatore() {
+            return op;
+        }
+
+        /**
+         * Indica se l'ordine è un acquisto
+         * @return true se acquisto, false se vendita
+         */
+        public boolean isAcquisto() {
+            return acquisto;
+        }
+
+        /**
+         * Estrae l'azienda dell'ordine
+         * @return l'azienda
+         */
+        public Azienda getAzienda() {
+            return azienda;
+        }
+
+        /**
+         * Estrae la cifra investita (acquisto) o il numero di azioni (vendita)
+         * @return il numero dell'ordine
+         */
+        public int getNumero() {
+            return numero;
+        }
+    }
+
+    /**
+     * La situazione di un operatore durante il calcolo di un gruppo di {@link #eseguiOrdini(List)}:
+     * bilancio e azioni possedute all'inizio, dopo l'ultimo ordine calcolato e i più bassi raggiunti.
+     */
+    private static final class Conto {
+        /**Bilancio letto all'inizio del calcolo*/
+        private final long inizioCassa;
+        /**Bilancio dopo l'ultimo ordine calcolato*/
+        private long cassa;
+        /**Bilancio più basso raggiunto*/
+        private long minimaCassa;
+        /**Azioni possedute lette all'inizio del calcolo*/
+        private final int inizioAzioni;
+        /**Azioni possedute dopo l'ultimo ordine calcolato*/
+        private int azioni;
+        /**Numero più basso di azioni possedute raggiunto*/
+        private int minimeAzioni;
+        /**Indica se l'operatore ha comprato almeno un'azione*/
+        private boolean comprato;
+        /**Indica se il bilancio impegnato è stato addebitato*/
+        private boolean cassaImpegnata;
+        /**Indica se le azioni impegnate sono state tolte dalle posizioni*/
+        private boolean azioniImpegnate;
+
+        /*
+         * AF:
+         *   Un'istanza di "Conto" rappresenta un operatore che all'inizio del calcolo aveva "inizioCassa" di bilancio e
+         *   "inizioAzioni" azioni dell'azienda, e dopo gli ordini calcolati ne ha "cassa" e "azioni".
+         * RI:
+         *   - 0 <= "minimaCassa" <= min("inizioCassa", "cassa").
+         *   - 0 <= "minimeAzioni" <= min("inizioAzioni", "azioni").
+         */
+
+        /**
+         * Costruttore della classe
+         * @param cassa bilancio dell'operatore
+         * @param azioni azioni possedute dall'operatore
+         */
+        private Conto(long cassa, int azioni) {
+            this.inizioCassa = cassa;
+            this.cassa = cassa;
+            this.minimaCassa = cassa;
+            this.inizioAzioni = azioni;
+            this.azioni = azioni;
+            this.minimeAzioni = azioni;
+        }
+    }
+
+    /**
+     * Il legame tra un'azione quotata e la sua politica di prezzo: la funzione legata e la versione della borsa
+     * con cui è stata pubblicata. È immutabile, quindi un cambio di politica ne crea uno nuovo e lo sostituisce
+     * con una sola scrittura, mentre gli eseguiti già iniziati continuano a usare quello letto all'inizio.
+     */
+    static final class Legame {
+        /**Legame di un'azione senza politica di prezzo*/
+        static final Legame NESSUNO = new Legame(null, 0);
+
+        /**Funzione di prezzo legata all'azione, null se non c'è alcuna politica*/
+        final FunzionePrezzo funzione;
+        /**Versione della politica {@link Borsa#getVersionePolitica()}, 0 se non c'è alcuna politica*/
+        final int versione;
+
+        /*
+         * AF:
+         *   Un'istanza di "Legame" rappresenta la regola di prezzo "funzione" pubblicata con il numero "versione".
+         * RI:
+         *   - "versione" >= 0, 0 solo se "funzione" è null.
+         */
+
+        /**
+         * Costruttore della classe
+         * @param funzione funzione di prezzo legata
+         * @param versione versione della politica
+         */
+        Legame(FunzionePrezzo funzione, int versione) {
+            this.funzione = funzione;
+            this.versione = versione;
+        }
     }
 
     /**
      *La classe <strong>Azione</strong> fa sempre riferimento a una azienda e una borsa da cui essa proviene, ma questo non implica
      * una uguaglianza tra azioni che hanno gli stessi riferimenti, poiché l'unicità di una azione è decisa esclusivamente
      * da chi la mantiene: se l'azione si trova nella lista delle azioni della Borsa allora il suo proprietario è l'azienda,
-     * altrimenti, se si trova nella mappa Operatore-AzioniPossedute sempre della Borsa, allora il suo proprietario è l'operatore chiave della mappa ({@link Borsa})
+     * altrimenti, se è stata estratta dalla mappa Operatore-AzioniPossedute sempre della Borsa, allora il suo proprietario è l'operatore chiave della mappa ({@link Borsa})
      * <p>
      * La classe inoltre mantiene il prezzo della singola azione e il numero delle azioni totali.
      * I costruttori e i setter sono private, il che significa che l'accesso è riservato
      * solo alla borsa, la quale può creare nuove azioni o modificare pre esistenti.
+     * <p>
+     * Prezzo e numero sono impacchettati in un'unica parola a 64 bit (prezzo nei 32 bit alti, numero in quelli bassi)
+     * aggiornata con compare-and-set tramite {@link VarHandle}: chi legge ottiene sempre una coppia (prezzo, numero)
+     * coerente senza prendere lock, e la borsa può cambiare entrambi con una sola transizione atomica.
      */
     public static class Azione implements Comparable<Azione> {
+        /**Accesso atomico al campo {@link #stato}*/
+        private static final VarHandle STATO;
+
+        static {
+            try {
+                STATO = MethodHandles.lookup().findVarHandle(Azione.class, "stato", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
         /**Azienda quotata da cui proviene l'azione*/
         private final Azienda azienda;
         /**Borsa alla quale l'azienda è quotata*/
         private final Borsa borsa;
-        /**Prezzo della singola azione*/
-        private int prezzo;
-        /**Quantità di azioni disponibili*/
-        private int numero;
+        /**Prezzo della singola azione (32 bit alti) e quantità di azioni disponibili (32 bit bassi)*/
+        private volatile long stato;
+        /**Libro degli ordini con limite, creato alla prima richiesta e presente solo per le azioni quotate {@link Borsa#getLibroOrdini(Azienda)}*/
+        private volatile LibroOrdini libroOrdini;
+        /**Valutazione delle azioni possedute dagli operatori, presente solo per le azioni quotate (assegnata prima della pubblicazione nell'indice)*/
+        private RegistroValutazione valutazione;
+        /**Politica di prezzo propria dell'azione quotata, null se segue quella della borsa {@link Borsa#setPoliticaAzione(Azienda, PoliticaPrezzo)}*/
+        private volatile PoliticaPrezzo politicaPropria;
+        /**Funzione di prezzo legata all'azione quotata con la sua versione, letta una volta all'inizio di ogni eseguito*/
+        private volatile Legame legame = Legame.NESSUNO;
 
         /*
          * AF:
          *   Un'istanza di "Azione" rappresenta una singola azione quotata in borsa che mantiene:
          *   - "azienda" --> l'azienda a cui appartiene
          *   - "borsa" --> la borsa in cui è quotata
-         *   - "prezzo" --> il prezzo della singola azione
-         *   - "numero" --> il numero di azioni disponibili / possedute
+         *   - "stato" --> la coppia (prezzo, numero):
+         *       - prezzo(stato) --> il prezzo della singola azione
+         *       - numero(stato) --> il numero di azioni disponibili / possedute
+         *   - "legame" --> la politica di prezzo che regola gli eseguiti, già legata all'azione
+         *                  (quella propria "politicaPropria" se presente, altrimenti quella della borsa), con la sua versione
          *   L'accesso e la modifica dello stato dell'oggetto "Azione" sono limitati alla classe "Borsa".
          * RI:
          *   - "azienda" e "borsa" --> non devono essere null.
-         *   - "prezzo" --> deve essere >= 1.
-         *   - "numero" --> deve essere >= 1.
+         *   - prezzo(stato) --> deve essere >= 1.
+         *   - numero(stato) --> deve essere >= 1 (0 solo per un'azione quotata esaurita).
+         *   - "stato" viene modificato solo con compare-and-set, prezzo e numero non sono mai scritti separatamente.
          */
 
 
@@ -523,11 +1810,49 @@ public class Borsa  implements Comparable<Borsa> {
                 throw new IllegalArgumentException("il prezzo o il numero non possono essere inferiori a 1");
             }
             this.azienda = Objects.requireNonNull(azienda);
-            this.prezzo = prezzo;
-            this.numero = numero;
+            this.stato = impacchetta(prezzo, numero);
             this.borsa = Objects.requireNonNull(borsa);
         }
 
+        /**
+         * Impacchetta prezzo e numero in un'unica parola a 64 bit, nello stesso formato di {@link #stato}.
+         * La borsa usa lo stesso formato anche per descrivere un eseguito (prezzo di esecuzione, numero eseguito).
+         * @param prezzo prezzo (32 bit alti)
+         * @param numero numero (32 bit bassi)
+         * @return la parola impacchettata
+         */
+        static long impacchetta(int prezzo, int numero) {
+            return ((long) prezzo << 32) | (numero & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Estrae il prezzo da una parola impacchettata con {@link #impacchetta(int, int)}
+         * @param stato la parola impacchettata
+         * @return il prezzo
+         */
+        static int prezzo(long stato) {
+            return (int) (stato >>> 32);
+        }
+
+        /**
+         * Estrae il numero da una parola impacchettata con {@link #impacchetta(int, int)}
+         * @param stato la parola impacchettata
+         * @return il numero
+         */
+        static int numero(long stato) {
+            return (int) stato;
+        }
+
+        /**
+         * Sostituisce atomicamente lo stato dell'azione se è ancora quello atteso (Borsa only)
+         * @param atteso lo stato letto in precedenza
+         * @param nuovo il nuovo stato
+         * @return true se lo stato è stato sostituito, false se nel frattempo era cambiato
+         */
+        private boolean cambiaStato(long atteso, long nuovo) {
+            return STATO.compareAndSet(this, atteso, nuovo);
+        }
+
         /**
          * Estrae il nome della azienda da cui proviene l'azione
          * @return nome azienda
@@ -560,31 +1885,12 @@ public class Borsa  implements Comparable<Borsa> {
             return borsa;
         }
 
-        /**
-         * Imposta il numero delle azioni (Borsa only)
-         * <p>
-         * Requisiti:
-         * <ul>
-         * <li> {@code numero} --> deve essere >= 0
-         * </ul>
-         * <p>
-         * Effetti collaterali:
-         * <ul>
-         * <li> {@code this.numero} --> aggiorna il valore del numero di questa azione
-         * </ul>
-         * @param numero nuovo numero delle azioni da impostare
-         * @see Borsa
-         */
-        private void setNumero(int numero) {
-            this.numero = numero;
-        }
-
         /**
          * Estrae il numero delle azioni
          * @return numero azioni
          */
         public int getNumero() {
-            return numero;
+            return numero(stato);
         }
 
         /**
@@ -592,7 +1898,48 @@ public class Borsa  implements Comparable<Borsa> {
          * @return prezzo azione
          */
         public int getPrezzo() {
-            return prezzo;
+            return prezzo(stato);
+        }
+
+        /**
+         * Estrae la versione della politica di prezzo legata all'azione quotata, quella che verrà usata dai prossimi eseguiti
+         * @return la versione {@link Borsa#getVersionePolitica()}, 0 se l'azione non ha politica o non è quotata
+         */
+        public int getVersionePolitica() {
+            return legame.versione;
+        }
+
+        /**
+         * Estrae prezzo e numero impacchettati come in {@link #impacchetta(int, int)}, letti insieme
+         * @return lo stato dell'azione
+         */
+        long getStato() {
+            return stato;
+        }
+
+        /**
+         * Estrae il libro degli ordini dell'azione senza crearlo, usato per salvarlo nell'{@link Istantanea}
+         * @return il libro, null se non è mai stato richiesto {@link Borsa#getLibroOrdini(Azienda)}
+         */
+        LibroOrdini getLibroOrdiniCreato() {
+            return libroOrdini;
+        }
+
+        /**
+         * Estrae la politica propria dell'azione, usata per salvarla nell'{@link Istantanea}
+         * @return la politica impostata con {@link Borsa#setPoliticaAzione(Azienda, PoliticaPrezzo)}, null se l'azione segue quella della borsa
+         */
+        PoliticaPrezzo getPoliticaPropria() {
+            return politicaPropria;
+        }
+
+        /**
+         * Estrae il valore complessivo delle azioni (numero per prezzo), letti dallo stesso stato
+         * @return numero * prezzo
+         */
+        public long getValore() {
+            long corrente = stato;
+            return (long) numero(corrente) * prezzo(corrente);
         }
 
         /**
@@ -606,7 +1953,8 @@ public class Borsa  implements Comparable<Borsa> {
          * </ul>
          */
         public void Stampa() {
-            System.out.println(azienda.getName() + ", " + prezzo + ", " + numero);
+            long corrente = stato;
+            System.out.println(azienda.getName() + ", " + prezzo(corrente) + ", " + numero(corrente));
         }
 
         @Override
@@ -0,0 +1,1155 @@
+package borsanova;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * La classe {@code CompilatoreEspressioni} traduce le espressioni di una {@link PoliticaEspressione} in bytecode:
+ * le due espressioni (acquisto e vendita) diventano i metodi {@code dopoAcquisto} e {@code dopoVendita} di una classe
+ * nascosta ({@link MethodHandles.Lookup#defineHiddenClass(byte[], boolean, MethodHandles.Lookup.ClassOption...)})
+ * che implementa {@link FunzionePrezzo}, quindi a ogni eseguito la JVM esegue codice compilato e non un interprete.
+ * <p>
+ * Grammatica (gli operatori hanno la precedenza e la semantica di Java sugli {@code int}):
+ * <pre>
+ * espressione := or ( '?' espressione ':' espressione )?
+ * or          := and ( '||' and )*
+ * and         := confronto ( '&amp;&amp;' confronto )*
+ * confronto   := somma ( ( '&lt;' | '&lt;=' | '&gt;' | '&gt;=' | '==' | '!=' ) somma )?
+ * somma       := prodotto ( ( '+' | '-' ) prodotto )*
+ * prodotto    := unario ( ( '*' | '/' | '%' ) unario )*
+ * unario      := ( '-' | '!' ) unario | primario
+ * primario    := intero | testo | 'prezzo' | 'quantita' | 'azienda' | 'borsa' | funzione '(' argomenti ')' | '(' espressione ')'
+ * </pre>
+ * Funzioni: {@code min(a, b)}, {@code max(a, b)}, {@code abs(a)}, {@code ceil(a / b)} e {@code floor(a / b)}
+ * (divisione arrotondata per eccesso o per difetto, applicate a un'espressione che non è una divisione la lasciano invariata),
+ * {@code iniziale(nome, "lettere")} (vero se l'iniziale del nome, senza distinguere maiuscole e minuscole, è una delle lettere)
+ * e {@code lunghezza(nome)}. I nomi {@code azienda} e {@code borsa} possono comparire solo in queste due funzioni
+ * o confrontati con un testo tra virgolette ({@code azienda == "ACME"}).
+ * <p>
+ * Le divisioni sono totali, a differenza di Java: {@code a / 0}, {@code ceil(a / 0)} e {@code floor(a / 0)} valgono 0
+ * e {@code a % 0} vale {@code a}, così la funzione compilata non lancia mai eccezioni durante un eseguito
+ * (un divisore che è la costante 0 viene comunque rifiutato all'analisi).
+ * <p>
+ * Tutto ciò che dipende dai nomi è costante per una data azione: viene calcolato quando la politica è legata all'azione
+ * e passato all'istanza della classe compilata come array di interi, così una sola classe serve tutte le azioni.
+ */
+final class CompilatoreEspressioni {
+    /**Lookup del pacchetto, usato per definire le classi nascoste*/
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    /**Nome interno della classe compilata (la JVM vi aggiunge un suffisso univoco)*/
+    private static final String NOME_CLASSE = "borsanova/EspressioneCompilata";
+    /**Versione del formato class file (Java 17)*/
+    private static final int VERSIONE = 61;
+
+    /**Nome interno di questa classe, proprietaria delle divisioni totali chiamate dal codice compilato*/
+    private static final String PROPRIA = "borsanova/CompilatoreEspressioni";
+    /**Nome interno di {@link Math}*/
+    private static final String MATH = "java/lang/Math";
+
+    /*
+     * AF:
+     *   La classe è statica e senza stato: ogni chiamata a "compila" analizza due espressioni e definisce una nuova classe nascosta.
+     * RI:
+     *   - "LOOKUP" ha pieno accesso al pacchetto borsanova.
+     */
+
+    /**
+     * Costruttore privato, la classe ha solo metodi statici
+     */
+    private CompilatoreEspressioni() {
+    }
+
+    /**
+     * Divisione intera totale, chiamata dal codice compilato per {@code /}
+     * @param dividendo dividendo
+     * @param divisore divisore
+     * @return il quoziente troncato verso lo zero, 0 se il divisore è 0
+     */
+    static int dividi(int dividendo, int divisore) {
+        return divisore == 0 ? 0 : dividendo / divisore;
+    }
+
+    /**
+     * Resto della divisione intera totale, chiamato dal codice compilato per {@code %}
+     * @param dividendo dividendo
+     * @param divisore divisore
+     * @return il resto con il segno del dividendo, il dividendo stesso se il divisore è 0
+     */
+    static int resto(int dividendo, int divisore) {
+        return divisore == 0 ? dividendo : dividendo % divisore;
+    }
+
+    /**
+     * Divisione intera totale arrotondata per difetto, chiamata dal codice compilato per {@code floor} e {@code ceil}
+     * @param dividendo dividendo
+     * @param divisore divisore
+     * @return il quoziente arrotondato verso meno infinito, 0 se il divisore è 0
+     */
+    static int dividiPerDifetto(int dividendo, int divisore) {
+        return divisore == 0 ? 0 : Math.floorDiv(dividendo, divisore);
+    }
+
+    /**
+     * Una coppia di espressioni compilata: crea le funzioni di prezzo a partire dai valori dei termini sui nomi
+     */
+    static final class Compilata {
+        /**Costruttore della classe nascosta, di tipo {@code (int[]) FunzionePrezzo}*/
+        private final MethodHandle costruttore;
+        /**Termini sui nomi, nell'ordine in cui la classe ne legge i valori*/
+        private final Termine[] termini;
+
+        /**
+         * Costruttore della classe
+         * @param costruttore costruttore della classe nascosta
+         * @param termini termini sui nomi
+         */
+        private Compilata(MethodHandle costruttore, Termine[] termini) {
+            this.costruttore = costruttore;
+            this.termini = termini;
+        }
+
+        /**
+         * Controlla se le espressioni usano i nomi di azienda o borsa
+         * @return true se la funzione dipende dall'azione
+         */
+        boolean dipendeDaiNomi() {
+            return termini.length > 0;
+        }
+
+        /**
+         * Crea la funzione di prezzo per un'azione, calcolando i termini sui nomi
+         * @param azione azione a cui legare la funzione (non null)
+         * @return la funzione di prezzo
+         */
+        FunzionePrezzo crea(Borsa.Azione azione) {
+            int[] valori = new int[termini.length];
+            for (int i = 0; i < valori.length; i++) {
+                valori[i] = termini[i].valuta(azione);
+            }
+            try {
+                return (FunzionePrezzo) costruttore.invokeExact(valori);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Analizza e compila le espressioni di acquisto e di vendita
+     * @param acquisto espressione del prezzo dopo un acquisto
+     * @param vendita espressione del prezzo dopo una vendita
+     * @return le espressioni compilate
+     * @throws IllegalArgumentException se un'espressione non è valida o non ha valore intero
+     */
+    static Compilata compila(String acquisto, String vendita) {
+        Map<Termine, Integer> termini = new HashMap<>();
+        Nodo corpoAcquisto = new Analizzatore(acquisto, termini).analizza();
+        Nodo corpoVendita = new Analizzatore(vendita, termini).analizza();
+        Termine[] ordinati = new Termine[termini.size()];
+        for (Map.Entry<Termine, Integer> voce : termini.entrySet()) {
+            ordinati[voce.getValue()] = voce.getKey();
+        }
+        byte[] classe = genera(corpoAcquisto, corpoVendita);
+        try {
+            MethodHandles.Lookup nascosta = LOOKUP.defineHiddenClass(classe, true);
+            MethodHandle costruttore = nascosta.findConstructor(nascosta.lookupClass(), MethodType.methodType(void.class, int[].class))
+                    .asType(MethodType.methodType(FunzionePrezzo.class, int[].class));
+            return new Compilata(costruttore, ordinati);
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("impossibile definire la classe dell'espressione", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // Albero dell'espressione
+
+    /**Tipi dei valori delle espressioni*/
+    private enum Tipo { INTERO, BOOLEANO, NOME, TESTO }
+
+    /**
+     * Un termine che dipende solo dal nome dell'azienda o della borsa, calcolato quando la politica viene legata
+     */
+    private static final class Termine {
+        /**Confronto del nome con {@link #testo}*/
+        static final int UGUALE = 0;
+        /**Iniziale del nome tra le lettere di {@link #testo}*/
+        static final int INIZIALE = 1;
+        /**Lunghezza del nome*/
+        static final int LUNGHEZZA = 2;
+
+        /**true per il nome dell'azienda, false per quello della borsa*/
+        final boolean azienda;
+        /**Tipo del termine*/
+        final int tipo;
+        /**Testo confrontato ({@code ""} per {@link #LUNGHEZZA})*/
+        final String testo;
+
+        /**
+         * Costruttore della classe
+         * @param azienda true per il nome dell'azienda
+         * @param tipo tipo del termine
+         * @param testo testo confrontato
+         */
+        Termine(boolean azienda, int tipo, String testo) {
+            this.azienda = azienda;
+            this.tipo = tipo;
+            this.testo = tipo == INIZIALE ? testo.toLowerCase() : testo;
+        }
+
+        /**
+         * Calcola il valore del termine per un'azione
+         * @param azione azione quotata
+         * @return il valore (0 o 1 per i termini booleani)
+         */
+        int valuta(Borsa.Azione azione) {
+            String nome = azienda ? azione.getNomeAzienda() : azione.getNomeBorsa();
+            return switch (tipo) {
+                case UGUALE -> nome.equals(testo) ? 1 : 0;
+                case INIZIALE -> !nome.isEmpty() && testo.indexOf(Character.toLowerCase(nome.charAt(0))) >= 0 ? 1 : 0;
+                default -> nome.length();
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Termine altro && azienda == altro.azienda && tipo == altro.tipo && testo.equals(altro.testo);
+        }
+
+        @Override
+        public int hashCode() {
+            return (testo.hashCode() * 31 + tipo) * 2 + (azienda ? 1 : 0);
+        }
+    }
+
+    /**
+     * Un nodo dell'albero dell'espressione
+     */
+    private abstract static class Nodo {
+        /**Tipo del valore del nodo*/
+        final Tipo tipo;
+
+        /**
+         * Costruttore della classe
+         * @param tipo tipo del valore
+         */
+        Nodo(Tipo tipo) {
+            this.tipo = tipo;
+        }
+
+        /**
+         * Scrive il codice che lascia il valore del nodo sulla pila
+         * @param codice codice del metodo
+         */
+        abstract void emetti(Codice codice);
+    }
+
+    /**
+     * Un intero costante
+     */
+    private static final class Intero extends Nodo {
+        /**Valore*/
+        final int valore;
+
+        Intero(int valore) {
+            super(Tipo.INTERO);
+            this.valore = valore;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            codice.intero(valore);
+        }
+    }
+
+    /**
+     * Un parametro del metodo: prezzo o quantità
+     */
+    private static final class Variabile extends Nodo {
+        /**Indice della variabile locale (1 prezzo, 2 quantità)*/
+        final int locale;
+
+        Variabile(int locale) {
+            super(Tipo.INTERO);
+            this.locale = locale;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            codice.op(locale == 1 ? ILOAD_1 : ILOAD_2, 1);
+        }
+    }
+
+    /**
+     * Il valore di un {@link Termine}, letto dall'array dell'istanza
+     */
+    private static final class ValoreTermine extends Nodo {
+        /**Posizione del termine nell'array*/
+        final int indice;
+
+        ValoreTermine(Tipo tipo, int indice) {
+            super(tipo);
+            this.indice = indice;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            codice.op(ALOAD_0, 1);
+            codice.riferimento(GETFIELD, codice.classe.campo, 0);
+            codice.intero(indice);
+            codice.op(IALOAD, -1);
+        }
+    }
+
+    /**
+     * Un nome (azienda o borsa) o un testo tra virgolette, che non producono codice da soli
+     */
+    private static final class Parola extends Nodo {
+        /**Nome della variabile o contenuto del testo*/
+        final String parola;
+
+        Parola(Tipo tipo, String parola) {
+            super(tipo);
+            this.parola = parola;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            throw new IllegalStateException("nome non risolto: " + parola);
+        }
+    }
+
+    /**
+     * Un'operazione aritmetica tra interi; divisione e resto sono chiamate a {@link #dividi(int, int)} e {@link #resto(int, int)}
+     */
+    private static final class Aritmetica extends Nodo {
+        /**Istruzione dell'operazione (iadd, isub, imul, idiv, irem)*/
+        final int istruzione;
+        /**Operandi*/
+        final Nodo sinistro, destro;
+
+        Aritmetica(int istruzione, Nodo sinistro, Nodo destro) {
+            super(Tipo.INTERO);
+            this.istruzione = istruzione;
+            this.sinistro = sinistro;
+            this.destro = destro;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            sinistro.emetti(codice);
+            destro.emetti(codice);
+            if (istruzione == IDIV || istruzione == IREM) {
+                String metodo = istruzione == IDIV ? "dividi" : "resto";
+                codice.riferimento(INVOKESTATIC, codice.classe.pool.metodo(PROPRIA, metodo, "(II)I"), -1);
+            } else {
+                codice.op(istruzione, -1);
+            }
+        }
+    }
+
+    /**
+     * Un operatore unario: meno per gli interi, negazione per i booleani
+     */
+    private static final class Unario extends Nodo {
+        /**Operando*/
+        final Nodo operando;
+
+        Unario(Nodo operando) {
+            super(operando.tipo);
+            this.operando = operando;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            operando.emetti(codice);
+            if (tipo == Tipo.INTERO) {
+                codice.op(INEG, 0);
+            } else {
+                codice.op(ICONST_1, 1);
+                codice.op(IXOR, -1);
+            }
+        }
+    }
+
+    /**
+     * Un confronto tra due valori dello stesso tipo, con risultato booleano
+     */
+    private static final class Confronto extends Nodo {
+        /**Salto condizionale eseguito se il confronto è vero (if_icmpXX)*/
+        final int salto;
+        /**Operandi*/
+        final Nodo sinistro, destro;
+
+        Confronto(int salto, Nodo sinistro, Nodo destro) {
+            super(Tipo.BOOLEANO);
+            this.salto = salto;
+            this.sinistro = sinistro;
+            this.destro = destro;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            Etichetta vero = new Etichetta();
+            Etichetta fine = new Etichetta();
+            sinistro.emetti(codice);
+            destro.emetti(codice);
+            codice.salto(salto, vero, -2);
+            codice.op(ICONST_0, 1);
+            codice.salto(GOTO, fine, 0);
+            codice.lega(vero);
+            codice.op(ICONST_1, 1);
+            codice.lega(fine);
+        }
+    }
+
+    /**
+     * Un'operazione logica con cortocircuito
+     */
+    private static final class Logica extends Nodo {
+        /**true per {@code ||}, false per {@code &&}*/
+        final boolean or;
+        /**Operandi*/
+        final Nodo sinistro, destro;
+
+        Logica(boolean or, Nodo sinistro, Nodo destro) {
+            super(Tipo.BOOLEANO);
+            this.or = or;
+            this.sinistro = sinistro;
+            this.destro = destro;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            // "corto" è raggiunto appena un operando decide il risultato: vero per ||, falso per &&
+            Etichetta corto = new Etichetta();
+            Etichetta fine = new Etichetta();
+            int salto = or ? IFNE : IFEQ;
+            sinistro.emetti(codice);
+            codice.salto(salto, corto, -1);
+            destro.emetti(codice);
+            codice.salto(salto, corto, -1);
+            codice.op(or ? ICONST_0 : ICONST_1, 1);
+            codice.salto(GOTO, fine, 0);
+            codice.lega(corto);
+            codice.op(or ? ICONST_1 : ICONST_0, 1);
+            codice.lega(fine);
+        }
+    }
+
+    /**
+     * L'operatore condizionale {@code c ? a : b}
+     */
+    private static final class Condizionale extends Nodo {
+        /**Condizione e rami*/
+        final Nodo condizione, allora, altrimenti;
+
+        Condizionale(Nodo condizione, Nodo allora, Nodo altrimenti) {
+            super(allora.tipo);
+            this.condizione = condizione;
+            this.allora = allora;
+            this.altrimenti = altrimenti;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            Etichetta ramo = new Etichetta();
+            Etichetta fine = new Etichetta();
+            condizione.emetti(codice);
+            codice.salto(IFEQ, ramo, -1);
+            allora.emetti(codice);
+            codice.salto(GOTO, fine, 0);
+            codice.lega(ramo);
+            altrimenti.emetti(codice);
+            codice.lega(fine);
+        }
+    }
+
+    /**
+     * La chiamata di un metodo statico su interi, di {@link Math} o di questa classe
+     */
+    private static final class Chiamata extends Nodo {
+        /**Nome interno della classe del metodo*/
+        final String proprietario;
+        /**Nome del metodo*/
+        final String metodo;
+        /**Argomenti*/
+        final Nodo[] argomenti;
+        /**true per negare il primo argomento e il risultato (ceil tramite dividiPerDifetto)*/
+        final boolean negato;
+
+        Chiamata(String proprietario, String metodo, boolean negato, Nodo... argomenti) {
+            super(Tipo.INTERO);
+            this.proprietario = proprietario;
+            this.metodo = metodo;
+            this.negato = negato;
+            this.argomenti = argomenti;
+        }
+
+        @Override
+        void emetti(Codice codice) {
+            for (int i = 0; i < argomenti.length; i++) {
+                argomenti[i].emetti(codice);
+                if (negato && i == 0) {
+                    codice.op(INEG, 0);
+                }
+            }
+            String descrittore = argomenti.length == 1 ? "(I)I" : "(II)I";
+            codice.riferimento(INVOKESTATIC, codice.classe.pool.metodo(proprietario, metodo, descrittore), 1 - argomenti.length);
+            if (negato) {
+                codice.op(INEG, 0);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // Analisi del testo
+
+    /**
+     * Analizzatore a discesa ricorsiva di una singola espressione
+     */
+    private static final class Analizzatore {
+        /**Testo dell'espressione*/
+        private final String testo;
+        /**Termini sui nomi condivisi dalle due espressioni, con la loro posizione*/
+        private final Map<Termine, Integer> termini;
+        /**Posizione corrente nel testo*/
+        private int pos;
+
+        /**
+         * Costruttore della classe
+         * @param testo testo dell'espressione
+         * @param termini termini già trovati
+         * @throws IllegalArgumentException se il testo è null
+         */
+        Analizzatore(String testo, Map<Termine, Integer> termini) {
+            if (testo == null) {throw new IllegalArgumentException("L'espressione non può essere null");}
+            this.testo = testo;
+            this.termini = termini;
+        }
+
+        /**
+         * Analizza l'intera espressione
+         * @return la radice dell'albero, di tipo intero
+         * @throws IllegalArgumentException se l'espressione non è valida o non ha valore intero
+         */
+        Nodo analizza() {
+            Nodo radice = espressione();
+            spazi();
+            if (pos < testo.length()) {
+                throw errore("simbolo inatteso '" + testo.charAt(pos) + "'");
+            }
+            return richiedi(radice, Tipo.INTERO);
+        }
+
+        private Nodo espressione() {
+            Nodo condizione = or();
+            if (!accetta("?")) {
+                return condizione;
+            }
+            richiedi(condizione, Tipo.BOOLEANO);
+            Nodo allora = espressione();
+            atteso(":");
+            Nodo altrimenti = espressione();
+            if (allora.tipo != altrimenti.tipo || (allora.tipo != Tipo.INTERO && allora.tipo != Tipo.BOOLEANO)) {
+                throw errore("i rami dell'operatore ?: devono essere entrambi interi o entrambi booleani");
+            }
+            return new Condizionale(condizione, allora, altrimenti);
+        }
+
+        private Nodo or() {
+            Nodo nodo = and();
+            while (accetta("||")) {
+                nodo = new Logica(true, richiedi(nodo, Tipo.BOOLEANO), richiedi(and(), Tipo.BOOLEANO));
+            }
+            return nodo;
+        }
+
+        private Nodo and() {
+            Nodo nodo = confronto();
+            while (accetta("&&")) {
+                nodo = new Logica(false, richiedi(nodo, Tipo.BOOLEANO), richiedi(confronto(), Tipo.BOOLEANO));
+            }
+            return nodo;
+        }
+
+        private Nodo confronto() {
+            Nodo sinistro = somma();
+            int salto;
+            if (accetta("<=")) {
+                salto = IF_ICMPLE;
+            } else if (accetta(">=")) {
+                salto = IF_ICMPGE;
+            } else if (accetta("<")) {
+                salto = IF_ICMPLT;
+            } else if (accetta(">")) {
+                salto = IF_ICMPGT;
+            } else if (accetta("==")) {
+                salto = IF_ICMPEQ;
+            } else if (accetta("!=")) {
+                salto = IF_ICMPNE;
+            } else {
+                return sinistro;
+            }
+            Nodo destro = somma();
+            if (salto == IF_ICMPEQ || salto == IF_ICMPNE) {
+                Nodo nome = sinistro.tipo == Tipo.NOME ? sinistro : destro;
+                Nodo parola = sinistro.tipo == Tipo.NOME ? destro : sinistro;
+                if (nome.tipo == Tipo.NOME && parola.tipo == Tipo.TESTO) {
+                    Nodo uguale = termine((Parola) nome, Termine.UGUALE, ((Parola) parola).parola, Tipo.BOOLEANO);
+                    return salto == IF_ICMPEQ ? uguale : new Unario(uguale);
+                }
+                if (sinistro.tipo == Tipo.BOOLEANO && destro.tipo == Tipo.BOOLEANO) {
+                    return new Confronto(salto, sinistro, destro);
+                }
+            }
+            return new Confronto(salto, richiedi(sinistro, Tipo.INTERO), richiedi(destro, Tipo.INTERO));
+        }
+
+        private Nodo somma() {
+            Nodo nodo = prodotto();
+            while (true) {
+                if (accetta("+")) {
+                    nodo = new Aritmetica(IADD, richiedi(nodo, Tipo.INTERO), richiedi(prodotto(), Tipo.INTERO));
+                } else if (accetta("-")) {
+                    nodo = new Aritmetica(ISUB, richiedi(nodo, Tipo.INTERO), richiedi(prodotto(), Tipo.INTERO));
+                } else {
+                    return nodo;
+                }
+            }
+        }
+
+        private Nodo prodotto() {
+            Nodo nodo = unario();
+            while (true) {
+                int istruzione;
+                if (accetta("*")) {
+                    istruzione = IMUL;
+                } else if (accetta("/")) {
+                    istruzione = IDIV;
+                } else if (accetta("%")) {
+                    istruzione = IREM;
+                } else {
+                    return nodo;
+                }
+                Nodo destro = richiedi(unario(), Tipo.INTERO);
+                if (istruzione != IMUL && destro instanceof Intero intero && intero.valore == 0) {
+                    throw errore("divisione per zero");
+                }
+                nodo = new Aritmetica(istruzione, richiedi(nodo, Tipo.INTERO), destro);
+            }
+        }
+
+        private Nodo unario() {
+            if (accetta("-")) {
+                return new Unario(richiedi(unario(), Tipo.INTERO));
+            }
+            if (accetta("!")) {
+                return new Unario(richiedi(unario(), Tipo.BOOLEANO));
+            }
+            return primario();
+        }
+
+        private Nodo primario() {
+            spazi();
+            if (pos >= testo.length()) {
+                throw errore("espressione incompleta");
+            }
+            char c = testo.charAt(pos);
+            if (accetta("(")) {
+                Nodo nodo = espressione();
+                atteso(")");
+                return nodo;
+            }
+            if (c == '"') {
+                int fine = testo.indexOf('"', pos + 1);
+                if (fine < 0) {
+                    throw errore("testo non chiuso");
+                }
+                String parola = testo.substring(pos + 1, fine);
+                pos = fine + 1;
+                return new Parola(Tipo.TESTO, parola);
+            }
+            if (c >= '0' && c <= '9') {
+                int inizio = pos;
+                while (pos < testo.length() && Character.isDigit(testo.charAt(pos))) {
+                    pos++;
+                }
+                try {
+                    return new Intero(Integer.parseInt(testo.substring(inizio, pos)));
+                } catch (NumberFormatException e) {
+                    pos = inizio;
+                    throw errore("intero troppo grande");
+                }
+            }
+            if (!Character.isLetter(c)) {
+                throw errore("simbolo inatteso '" + c + "'");
+            }
+            int inizio = pos;
+            while (pos < testo.length() && (Character.isLetterOrDigit(testo.charAt(pos)) || testo.charAt(pos) == '_')) {
+                pos++;
+            }
+            String nome = testo.substring(inizio, pos);
+            switch (nome) {
+                case "prezzo": return new Variabile(1);
+                case "quantita": return new Variabile(2);
+                case "azienda":
+                case "borsa": return new Parola(Tipo.NOME, nome);
+                default: break;
+            }
+            if (!accetta("(")) {
+                pos = inizio;
+                throw errore("nome sconosciuto '" + nome + "'");
+            }
+            Nodo risultato = funzione(nome, inizio);
+            atteso(")");
+            return risultato;
+        }
+
+        /**
+         * Analizza gli argomenti di una funzione (dopo la parentesi aperta)
+         * @param nome nome della funzione
+         * @param inizio posizione del nome, per i messaggi di errore
+         * @return il nodo della chiamata
+         */
+        private Nodo funzione(String nome, int inizio) {
+            switch (nome) {
+                case "min":
+                case "max": {
+                    Nodo primo = richiedi(espressione(), Tipo.INTERO);
+                    atteso(",");
+                    return new Chiamata(MATH, nome, false, primo, richiedi(espressione(), Tipo.INTERO));
+                }
+                case "abs":
+                    return new Chiamata(MATH, nome, false, richiedi(espressione(), Tipo.INTERO));
+                case "ceil":
+                case "floor": {
+                    Nodo argomento = richiedi(espressione(), Tipo.INTERO);
+                    if (!(argomento instanceof Aritmetica divisione) || divisione.istruzione != IDIV) {
+                        return argomento;
+                    }
+                    return new Chiamata(PROPRIA, "dividiPerDifetto", nome.equals("ceil"), divisione.sinistro, divisione.destro);
+                }
+                case "iniziale": {
+                    Nodo argomento = richiedi(espressione(), Tipo.NOME);
+                    atteso(",");
+                    Nodo lettere = richiedi(espressione(), Tipo.TESTO);
+                    return termine((Parola) argomento, Termine.INIZIALE, ((Parola) lettere).parola, Tipo.BOOLEANO);
+                }
+                case "lunghezza":
+                    return termine((Parola) richiedi(espressione(), Tipo.NOME), Termine.LUNGHEZZA, "", Tipo.INTERO);
+                default:
+                    pos = inizio;
+                    throw errore("funzione sconosciuta '" + nome + "'");
+            }
+        }
+
+        /**
+         * Registra un termine sui nomi (una sola volta per le due espressioni) e ne restituisce il valore
+         * @param nome nome dell'azienda o della borsa
+         * @param tipo tipo del termine
+         * @param parola testo del termine
+         * @param risultato tipo del valore
+         * @return il nodo che legge il valore del termine
+         */
+        private Nodo termine(Parola nome, int tipo, String parola, Tipo risultato) {
+            Termine termine = new Termine(nome.parola.equals("azienda"), tipo, parola);
+            Integer indice = termini.get(termine);
+            if (indice == null) {
+                indice = termini.size();
+                termini.put(termine, indice);
+            }
+            return new ValoreTermine(risultato, indice);
+        }
+
+        private Nodo richiedi(Nodo nodo, Tipo tipo) {
+            if (nodo.tipo != tipo) {
+                throw errore("atteso un valore " + tipo.name().toLowerCase() + ", trovato " + nodo.tipo.name().toLowerCase());
+            }
+            return nodo;
+        }
+
+        private void spazi() {
+            while (pos < testo.length() && Character.isWhitespace(testo.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        /**
+         * Consuma il simbolo se è il prossimo nel testo; {@code <}, {@code >} e {@code !} non vengono presi
+         * se sono seguiti da {@code =}
+         * @param simbolo simbolo atteso
+         * @return true se il simbolo è stato consumato
+         */
+        private boolean accetta(String simbolo) {
+            spazi();
+            if (!testo.startsWith(simbolo, pos)) {
+                return false;
+            }
+            int dopo = pos + simbolo.length();
+            if (simbolo.length() == 1 && "<>!".indexOf(simbolo.charAt(0)) >= 0 && dopo < testo.length() && testo.charAt(dopo) == '=') {
+                return false;
+            }
+            pos = dopo;
+            return true;
+        }
+
+        private void atteso(String simbolo) {
+            if (!accetta(simbolo)) {
+                throw errore("atteso '" + simbolo + "'");
+            }
+        }
+
+        private IllegalArgumentException errore(String messaggio) {
+            return new IllegalArgumentException("Espressione non valida (" + messaggio + " alla posizione " + pos + "): " + testo);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // Generazione del class file
+
+    private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+    private static final int ILOAD_1 = 0x1b, ILOAD_2 = 0x1c, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, IALOAD = 0x2e;
+    private static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, IREM = 0x70, INEG = 0x74, IXOR = 0x82;
+    private static final int IFEQ = 0x99, IFNE = 0x9a, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1,
+            IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7;
+    private static final int IRETURN = 0xac, RETURN = 0xb1, GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+    /**
+     * Genera il class file della funzione di prezzo
+     * @param acquisto corpo di {@code dopoAcquisto}
+     * @param vendita corpo di {@code dopoVendita}
+     * @return i byte della classe
+     */
+    private static byte[] genera(Nodo acquisto, Nodo vendita) {
+        Classe classe = new Classe();
+
+        Codice costruttore = new Codice(classe);
+        costruttore.op(ALOAD_0, 1);
+        costruttore.riferimento(INVOKESPECIAL, classe.pool.metodo("java/lang/Object", "<init>", "()V"), -1);
+        costruttore.op(ALOAD_0, 1);
+        costruttore.op(ALOAD_1, 1);
+        costruttore.riferimento(PUTFIELD, classe.campo, -2);
+        costruttore.op(RETURN, 0);
+
+        Codice[] metodi = {new Codice(classe), new Codice(classe)};
+        Nodo[] corpi = {acquisto, vendita};
+        for (int i = 0; i < 2; i++) {
+            // il prezzo restituito è almeno 1, come per tutte le politiche del progetto
+            corpi[i].emetti(metodi[i]);
+            metodi[i].op(ICONST_1, 1);
+            metodi[i].riferimento(INVOKESTATIC, classe.pool.metodo(MATH, "max", "(II)I"), -1);
+            metodi[i].op(IRETURN, -1);
+        }
+
+        try {
+            ByteArrayOutputStream byteClasse = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(byteClasse);
+            int nomeCodice = classe.pool.utf8("Code");
+            int nomeFrame = classe.pool.utf8("StackMapTable");
+            int init = classe.pool.utf8("<init>");
+            int descrittoreInit = classe.pool.utf8("([I)V");
+            int dopoAcquisto = classe.pool.utf8("dopoAcquisto");
+            int dopoVendita = classe.pool.utf8("dopoVendita");
+            int descrittore = classe.pool.utf8("(II)I");
+            int nomeCampo = classe.pool.utf8("c");
+            int tipoCampo = classe.pool.utf8("[I");
+            int oggetto = classe.pool.classe("java/lang/Object");
+            int interfaccia = classe.pool.classe("borsanova/FunzionePrezzo");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSIONE);
+            classe.pool.scrivi(out);
+            out.writeShort(0x0030);
+            out.writeShort(classe.questa);
+            out.writeShort(oggetto);
+            out.writeShort(1);
+            out.writeShort(interfaccia);
+            out.writeShort(1);
+            out.writeShort(0x0012);
+            out.writeShort(nomeCampo);
+            out.writeShort(tipoCampo);
+            out.writeShort(0);
+            out.writeShort(3);
+            costruttore.scrivi(out, 0x0001, init, descrittoreInit, 2, nomeCodice, nomeFrame);
+            metodi[0].scrivi(out, 0x0001, dopoAcquisto, descrittore, 3, nomeCodice, nomeFrame);
+            metodi[1].scrivi(out, 0x0001, dopoVendita, descrittore, 3, nomeCodice, nomeFrame);
+            out.writeShort(0);
+            out.flush();
+            return byteClasse.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * La classe in costruzione: pool delle costanti e riferimenti usati da tutti i metodi
+     */
+    private static final class Classe {
+        /**Pool delle costanti*/
+        final Pool pool = new Pool();
+        /**Indice della classe stessa nel pool*/
+        final int questa = pool.classe(NOME_CLASSE);
+        /**Indice del campo {@code int[] c} con i valori dei termini sui nomi*/
+        final int campo = pool.riferimento(9, NOME_CLASSE, "c", "[I");
+    }
+
+    /**
+     * Il pool delle costanti del class file
+     */
+    private static final class Pool {
+        /**Costanti già scritte con il loro indice*/
+        private final Map<String, Integer> indici = new HashMap<>();
+        /**Byte delle costanti*/
+        private final ByteArrayOutputStream byteCostanti = new ByteArrayOutputStream();
+        /**Scrittore dei byte delle costanti*/
+        private final DataOutputStream costanti = new DataOutputStream(byteCostanti);
+        /**Prossimo indice libero*/
+        private int prossimo = 1;
+
+        int utf8(String valore) {
+            return aggiungi("U" + valore, out -> {
+                out.writeByte(1);
+                out.writeUTF(valore);
+            });
+        }
+
+        int classe(String nome) {
+            int utf8 = utf8(nome);
+            return aggiungi("C" + nome, out -> {
+                out.writeByte(7);
+                out.writeShort(utf8);
+            });
+        }
+
+        int intero(int valore) {
+            return aggiungi("I" + valore, out -> {
+                out.writeByte(3);
+                out.writeInt(valore);
+            });
+        }
+
+        int metodo(String classe, String nome, String descrittore) {
+            return riferimento(10, classe, nome, descrittore);
+        }
+
+        /**
+         * Aggiunge un riferimento a un campo (tag 9) o a un metodo (tag 10)
+         * @return l'indice del riferimento
+         */
+        int riferimento(int tag, String classe, String nome, String descrittore) {
+            int proprietario = classe(classe);
+            int nomeUtf8 = utf8(nome);
+            int descrittoreUtf8 = utf8(descrittore);
+            int nomeTipo = aggiungi("N" + nome + ":" + descrittore, out -> {
+                out.writeByte(12);
+                out.writeShort(nomeUtf8);
+                out.writeShort(descrittoreUtf8);
+            });
+            return aggiungi("R" + tag + classe + "." + nome + ":" + descrittore, out -> {
+                out.writeByte(tag);
+                out.writeShort(proprietario);
+                out.writeShort(nomeTipo);
+            });
+        }
+
+        /**
+         * Scrive una costante se non è già nel pool
+         * @param chiave chiave della costante
+         * @param scrittura scrittura della costante
+         * @return l'indice della costante
+         */
+        private int aggiungi(String chiave, Scrittura scrittura) {
+            Integer indice = indici.get(chiave);
+            if (indice != null) {
+                return indice;
+            }
+            try {
+                scrittura.scrivi(costanti);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            indici.put(chiave, prossimo);
+            return prossimo++;
+        }
+
+        void scrivi(DataOutputStream out) throws IOException {
+            costanti.flush();
+            out.writeShort(prossimo);
+            byteCostanti.writeTo(out);
+        }
+
+        /**Scrittura di una costante*/
+        private interface Scrittura {
+            void scrivi(DataOutputStream out) throws IOException;
+        }
+    }
+
+    /**
+     * Un punto del codice a cui si salta
+     */
+    private static final class Etichetta {
+        /**Posizione nel codice, -1 finché non è legata*/
+        int posizione = -1;
+        /**Profondità della pila all'etichetta, -1 finché nessun salto la raggiunge*/
+        int profondita = -1;
+        /**Posizioni delle istruzioni di salto verso l'etichetta*/
+        final List<Integer> salti = new ArrayList<>();
+    }
+
+    /**
+     * Il codice di un metodo, con la profondità della pila e i frame necessari alla verifica
+     */
+    private static final class Codice {
+        /**Classe a cui appartiene il metodo*/
+        final Classe classe;
+        /**Byte del codice*/
+        private final ByteArrayOutputStream byteCodice = new ByteArrayOutputStream();
+        /**Profondità corrente della pila (sempre di interi, tranne il riferimento temporaneo di this)*/
+        private int profondita;
+        /**Profondità massima della pila*/
+        private int massima;
+        /**Etichette legate*/
+        private final List<Etichetta> etichette = new ArrayList<>();
+
+        Codice(Classe classe) {
+            this.classe = classe;
+        }
+
+        /**
+         * Scrive un'istruzione senza operandi
+         * @param istruzione codice dell'istruzione
+         * @param variazione variazione della profondità della pila
+         */
+        void op(int istruzione, int variazione) {
+            byteCodice.write(istruzione);
+            varia(variazione);
+        }
+
+        /**
+         * Scrive un'istruzione con un indice del pool di due byte
+         */
+        void riferimento(int istruzione, int indice, int variazione) {
+            byteCodice.write(istruzione);
+            byteCodice.write(indice >>> 8);
+            byteCodice.write(indice);
+            varia(variazione);
+        }
+
+        /**
+         * Scrive l'istruzione più corta che mette un intero sulla pila
+         * @param valore intero
+         */
+        void intero(int valore) {
+            if (valore >= -1 && valore <= 5) {
+                op(ICONST_0 + valore, 1);
+            } else if (valore >= Byte.MIN_VALUE && valore <= Byte.MAX_VALUE) {
+                byteCodice.write(BIPUSH);
+                op(valore & 0xff, 1);
+            } else if (valore >= Short.MIN_VALUE && valore <= Short.MAX_VALUE) {
+                byteCodice.write(SIPUSH);
+                byteCodice.write(valore >>> 8);
+                op(valore & 0xff, 1);
+            } else {
+                riferimento(LDC_W, classe.pool.intero(valore), 1);
+            }
+        }
+
+        /**
+         * Scrive un salto verso un'etichetta, da legare in seguito
+         * @param istruzione codice del salto
+         * @param etichetta destinazione
+         * @param variazione variazione della profondità della pila
+         */
+        void salto(int istruzione, Etichetta etichetta, int variazione) {
+            etichetta.salti.add(byteCodice.size());
+            riferimento(istruzione, 0, variazione);
+            etichetta.profondita = profondita;
+        }
+
+        /**
+         * Lega un'etichetta alla posizione corrente; il codice che segue ha la pila dei salti che la raggiungono
+         * @param etichetta etichetta da legare
+         */
+        void lega(Etichetta etichetta) {
+            etichetta.posizione = byteCodice.size();
+            profondita = etichetta.profondita;
+            etichette.add(etichetta);
+        }
+
+        private void varia(int variazione) {
+            profondita += variazione;
+            massima = Math.max(massima, profondita);
+        }
+
+        /**
+         * Scrive il metodo con l'attributo Code e, se servono, i frame della StackMapTable
+         */
+        void scrivi(DataOutputStream out, int accesso, int nome, int descrittore, int locali, int nomeCodice, int nomeFrame) throws IOException {
+            byte[] codice = byteCodice.toByteArray();
+            for (Etichetta etichetta : etichette) {
+                for (int salto : etichetta.salti) {
+                    int distanza = etichetta.posizione - salto;
+                    codice[salto + 1] = (byte) (distanza >>> 8);
+                    codice[salto + 2] = (byte) distanza;
+                }
+            }
+            // un frame completo per posizione: locali (this, int, int) e pila di soli interi
+            TreeMap<Integer, Integer> frame = new TreeMap<>();
+            for (Etichetta etichetta : etichette) {
+                frame.put(etichetta.posizione, etichetta.profondita);
+            }
+            ByteArrayOutputStream byteFrame = new ByteArrayOutputStream();
+            DataOutputStream tabella = new DataOutputStream(byteFrame);
+            int precedente = -1;
+            for (Map.Entry<Integer, Integer> voce : frame.entrySet()) {
+                tabella.writeByte(255);
+                tabella.writeShort(voce.getKey() - precedente - 1);
+                precedente = voce.getKey();
+                tabella.writeShort(3);
+                tabella.writeByte(7);
+                tabella.writeShort(classe.questa);
+                tabella.writeByte(1);
+                tabella.writeByte(1);
+                tabella.writeShort(voce.getValue());
+                for (int i = 0; i < voce.getValue(); i++) {
+                    tabella.writeByte(1);
+                }
+            }
+            tabella.flush();
+
+            out.writeShort(accesso);
+            out.writeShort(nome);
+            out.writeShort(descrittore);
+            out.writeShort(1);
+            out.writeShort(nomeCodice);
+            int attributi = frame.isEmpty() ? 0 : 8 + byteFrame.size();
+            out.writeInt(12 + codice.length + attributi);
+            out.writeShort(massima);
+            out.writeShort(locali);
+            out.writeInt(codice.length);
+            out.write(codice);
+            out.writeShort(0);
+            if (frame.isEmpty()) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(nomeFrame);
+                out.writeInt(2 + byteFrame.size());
+                out.writeShort(frame.size());
+                byteFrame.writeTo(out);
+            }
+        }
+    }
+}
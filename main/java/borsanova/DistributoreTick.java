@@ -0,0 +1,251 @@
+package borsanova;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe {@code DistributoreTick} pubblica i dati di mercato di una {@link Borsa}: ogni eseguito sulle azioni quotate
+ * (con il prezzo di esecuzione, il nuovo prezzo dato dalla politica e la versione della politica) e ogni scambio nei {@link LibroOrdini}
+ * viene scritto come tick in un buffer circolare preallocato, che un numero qualsiasi di {@link Lettore} legge
+ * senza lock e senza allocare oggetti per tick.
+ * <p>
+ * Gli slot sono array paralleli riutilizzati: chi pubblica prenota un numero di sequenza, scrive i campi dello slot
+ * e per ultimo ne scrive la sequenza; chi legge controlla la sequenza prima e dopo aver letto i campi, e li consegna solo
+ * se non sono cambiati nel frattempo. Gli eseguiti avvengono su più thread, quindi la prenotazione della sequenza
+ * è atomica e uno slot viene occupato solo dopo che il tick del giro precedente vi è stato pubblicato: due thread
+ * che hanno prenotato sequenze distanti {@link #getCapacita()} non scrivono mai insieme nello stesso slot.
+ * La pubblicazione non aspetta mai i lettori: un lettore più lento di {@link #getCapacita()} tick
+ * viene superato, salta ai tick ancora disponibili e conta quelli persi {@link Lettore#getPersi()}.
+ */
+public final class DistributoreTick {
+    /**Tick di un acquisto eseguito dalla borsa*/
+    public static final byte ACQUISTO = 1;
+    /**Tick di una vendita eseguita dalla borsa*/
+    public static final byte VENDITA = 2;
+    /**Tick di uno scambio tra operatori nel libro degli ordini*/
+    public static final byte SCAMBIO = 3;
+
+    /**Accesso con semantica acquire/release agli elementi di {@link #sequenze}*/
+    private static final VarHandle SEQUENZA = MethodHandles.arrayElementVarHandle(long[].class);
+    /**Sequenza di uno slot mentre i suoi campi vengono scritti*/
+    private static final long IN_SCRITTURA = Long.MIN_VALUE;
+    /**Attese attive su uno slot occupato prima di cedere il processore al thread che lo sta scrivendo*/
+    private static final int ATTESE_ATTIVE = 64;
+
+    /**Prossima sequenza da prenotare*/
+    private final AtomicLong prossima = new AtomicLong();
+    /**Capacità meno uno, la capacità è una potenza di due*/
+    private final int maschera;
+    /**Sequenza del tick pubblicato in ciascuno slot (negativa se lo slot è vuoto, {@link #IN_SCRITTURA} se è in scrittura)*/
+    private final long[] sequenze;
+    /**Tipo del tick*/
+    private final byte[] tipo;
+    /**Azione quotata del tick*/
+    private final Borsa.Azione[] azione;
+    /**Prezzo di esecuzione*/
+    private final int[] prezzo;
+    /**Numero di azioni eseguite*/
+    private final int[] numero;
+    /**Prezzo dell'azione dopo l'eseguito*/
+    private final int[] nuovoPrezzo;
+    /**Versione della politica che ha calcolato il nuovo prezzo*/
+    private final int[] versione;
+
+    /*
+     * AF:
+     *   Un'istanza di "DistributoreTick" rappresenta gli ultimi (al più capacità) tick pubblicati:
+     *   il tick con sequenza s si trova nello slot s & maschera, se sequenze[s & maschera] == s.
+     * RI:
+     *   - la capacità (maschera + 1) è una potenza di due e tutti gli array hanno quella lunghezza.
+     *   - sequenze[i] è IN_SCRITTURA oppure una sequenza s < prossima con s & maschera == i; uno slot mai scritto
+     *     ha la sequenza i - capacità, cioè quella del giro precedente al primo.
+     *   - i campi di uno slot vengono scritti solo mentre sequenze[i] vale IN_SCRITTURA, da un solo thread:
+     *     quello che ha prenotato la sequenza s, dopo che nello slot è stata pubblicata s - capacità.
+     */
+
+    /**
+     * Costruttore della classe, usato dalla borsa {@link Borsa#getDistributoreTick()}
+     * @param capacita numero di tick conservati (arrotondato alla potenza di due successiva, almeno 2)
+     * @throws IllegalArgumentException se la capacità non è positiva o è troppo grande
+     */
+    DistributoreTick(int capacita) {
+        if (capacita < 1 || capacita > (1 << 30)) {
+            throw new IllegalArgumentException("la capacità deve essere compresa tra 1 e 2^30");
+        }
+        int dimensione = Math.max(2, Integer.highestOneBit(capacita - 1) << 1);
+        maschera = dimensione - 1;
+        sequenze = new long[dimensione];
+        for (int i = 0; i < dimensione; i++) {
+            sequenze[i] = i - dimensione;
+        }
+        tipo = new byte[dimensione];
+        azione = new Borsa.Azione[dimensione];
+        prezzo = new int[dimensione];
+        numero = new int[dimensione];
+        nuovoPrezzo = new int[dimensione];
+        versione = new int[dimensione];
+    }
+
+    /**
+     * Pubblica un tick. Se lo slot è ancora occupato dal tick del giro precedente, prenotato da un altro thread
+     * e non ancora pubblicato, aspetta che quel thread finisca di scriverlo.
+     * @param tipo {@link #ACQUISTO}, {@link #VENDITA} o {@link #SCAMBIO}
+     * @param azione azione quotata
+     * @param prezzo prezzo di esecuzione
+     * @param numero numero di azioni eseguite
+     * @param nuovoPrezzo prezzo dell'azione dopo l'eseguito
+     * @param versione versione della politica che ha calcolato il nuovo prezzo {@link Borsa#getVersionePolitica()} (0 se nessuna)
+     */
+    void pubblica(byte tipo, Borsa.Azione azione, int prezzo, int numero, int nuovoPrezzo, int versione) {
+        long sequenza = prossima.getAndIncrement();
+        int slot = (int) sequenza & maschera;
+        long precedente = sequenza - (maschera + 1);
+        for (int attese = 0; (long) SEQUENZA.getAcquire(sequenze, slot) != precedente; attese++) {
+            if (attese < ATTESE_ATTIVE) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        SEQUENZA.setVolatile(sequenze, slot, IN_SCRITTURA);
+        VarHandle.storeStoreFence();
+        this.tipo[slot] = tipo;
+        this.azione[slot] = azione;
+        this.prezzo[slot] = prezzo;
+        this.numero[slot] = numero;
+        this.nuovoPrezzo[slot] = nuovoPrezzo;
+        this.versione[slot] = versione;
+        SEQUENZA.setRelease(sequenze, slot, sequenza);
+    }
+
+    /**
+     * Estrae il numero di tick conservati dal buffer
+     * @return capacità (potenza di due)
+     */
+    public int getCapacita() {
+        return maschera + 1;
+    }
+
+    /**
+     * Estrae il numero di tick prenotati finora, cioè la sequenza del prossimo tick
+     * @return tick pubblicati o in pubblicazione
+     */
+    public long getPubblicati() {
+        return prossima.get();
+    }
+
+    /**
+     * Crea un lettore che riceverà i tick pubblicati da adesso in poi
+     * @return il lettore
+     */
+    public Lettore nuovoLettore() {
+        return new Lettore(prossima.get());
+    }
+
+    /**
+     * Interfaccia che riceve i tick letti da un {@link Lettore}; i valori sono passati come parametri
+     * e non come oggetto, così la lettura non alloca
+     */
+    @FunctionalInterface
+    public interface Ascoltatore {
+        /**
+         * Riceve un tick
+         * @param sequenza sequenza del tick
+         * @param tipo {@link #ACQUISTO}, {@link #VENDITA} o {@link #SCAMBIO}
+         * @param azione azione quotata (il suo prezzo corrente può essere già cambiato)
+         * @param prezzo prezzo di esecuzione
+         * @param numero numero di azioni eseguite
+         * @param nuovoPrezzo prezzo dell'azione dopo l'eseguito
+         * @param versione versione della politica che ha calcolato il nuovo prezzo {@link Borsa#getVersionePolitica()},
+         *                 0 se l'azione non aveva politica o per gli scambi nel libro degli ordini
+         */
+        void tick(long sequenza, byte tipo, Borsa.Azione azione, int prezzo, int numero, int nuovoPrezzo, int versione);
+    }
+
+    /**
+     * La classe {@code Lettore} è un cursore di lettura sul buffer. Ogni lettore va usato da un solo thread;
+     * lettori diversi sono indipendenti e non rallentano chi pubblica.
+     */
+    public final class Lettore {
+        /**Sequenza del prossimo tick da leggere*/
+        private long cursore;
+        /**Tick superati prima di essere letti*/
+        private long persi;
+
+        /*
+         * AF:
+         *   Un'istanza di "Lettore" rappresenta la posizione di lettura "cursore" nella sequenza dei tick
+         *   e il numero "persi" di tick non letti perché sovrascritti.
+         * RI:
+         *   - cursore e persi sono >= 0.
+         */
+
+        /**
+         * Costruttore della classe, usato da {@link DistributoreTick#nuovoLettore()}
+         * @param cursore sequenza del primo tick da leggere
+         */
+        private Lettore(long cursore) {
+            this.cursore = cursore;
+        }
+
+        /**
+         * Consegna all'ascoltatore, in ordine di sequenza, fino a {@code massimo} tick già pubblicati.
+         * Si ferma al primo tick non ancora pubblicato; se il lettore è stato superato salta ai tick ancora nel buffer.
+         * @param ascoltatore chi riceve i tick (non null)
+         * @param massimo numero massimo di tick da consegnare
+         * @return il numero di tick consegnati
+         */
+        public int leggi(Ascoltatore ascoltatore, int massimo) {
+            int letti = 0;
+            while (letti < massimo) {
+                int slot = (int) cursore & maschera;
+                long sequenza = (long) SEQUENZA.getAcquire(sequenze, slot);
+                if (sequenza == cursore) {
+                    byte t = tipo[slot];
+                    Borsa.Azione a = azione[slot];
+                    int p = prezzo[slot];
+                    int n = numero[slot];
+                    int np = nuovoPrezzo[slot];
+                    int v = versione[slot];
+                    VarHandle.loadLoadFence();
+                    if ((long) SEQUENZA.getVolatile(sequenze, slot) == cursore) {
+                        ascoltatore.tick(cursore++, t, a, p, n, np, v);
+                        letti++;
+                        continue;
+                    }
+                } else if (sequenza < cursore) {
+                    break;
+                }
+                recupera();
+            }
+            return letti;
+        }
+
+        /**
+         * Sposta il cursore al tick più vecchio ancora nel buffer dopo essere stato superato
+         */
+        private void recupera() {
+            long minimo = prossima.get() - (maschera + 1);
+            long nuovo = Math.max(cursore + 1, minimo);
+            persi += nuovo - cursore;
+            cursore = nuovo;
+        }
+
+        /**
+         * Estrae la sequenza del prossimo tick da leggere
+         * @return cursore
+         */
+        public long getCursore() {
+            return cursore;
+        }
+
+        /**
+         * Estrae il numero di tick sovrascritti prima di essere letti
+         * @return tick persi
+         */
+        public long getPersi() {
+            return persi;
+        }
+    }
+}
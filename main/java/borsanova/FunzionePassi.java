@@ -0,0 +1,203 @@
+package borsanova;
+
+import java.util.Arrays;
+
+/**
+ * La classe {@code FunzionePassi} è la forma normalizzata delle funzioni di prezzo fornite dal progetto:
+ * per ciascun lato (acquisto e vendita) una sequenza di passi, ognuno dei quali, se la quantità scambiata è compresa
+ * tra {@code quantitaMinima} e {@code quantitaMassima}, porta il prezzo a
+ * {@code limita(prezzo * moltiplica / divide + somma, minimo, massimo)}.
+ * <p>
+ * Le politiche composte ({@link PoliticaComposta}) concatenano i passi dei componenti in un'unica funzione, unendo le somme
+ * consecutive ed eliminando i passi che non cambiano il prezzo: qualunque composizione delle politiche del progetto
+ * diventa quindi un'unica classe con un ciclo su un array di interi, senza chiamate a interfacce durante l'eseguito.
+ * I passi di un lato sono memorizzati uno dopo l'altro nello stesso array ({@link #CAMPI} interi per passo),
+ * così il calcolo legge memoria contigua.
+ */
+final class FunzionePassi implements FunzionePrezzo {
+    /**Posizione della quantità minima (inclusa) a cui si applica il passo*/
+    private static final int QUANTITA_MINIMA = 0;
+    /**Posizione della quantità massima (inclusa) a cui si applica il passo*/
+    private static final int QUANTITA_MASSIMA = 1;
+    /**Posizione del moltiplicatore del prezzo*/
+    private static final int MOLTIPLICA = 2;
+    /**Posizione del divisore del prezzo (> 0)*/
+    private static final int DIVIDE = 3;
+    /**Posizione del valore sommato al prezzo dopo moltiplicazione e divisione*/
+    private static final int SOMMA = 4;
+    /**Posizione del prezzo minimo dopo il passo*/
+    private static final int MINIMO = 5;
+    /**Posizione del prezzo massimo dopo il passo*/
+    private static final int MASSIMO = 6;
+    /**Interi occupati da un passo*/
+    private static final int CAMPI = 7;
+    /**Lato senza passi*/
+    private static final int[] VUOTO = new int[0];
+
+    /**Funzione che lascia il prezzo invariato*/
+    static final FunzionePassi INVARIATO = new FunzionePassi(VUOTO, VUOTO);
+    /**Funzione che raddoppia il prezzo a ogni acquisto e lo dimezza (almeno 1) a ogni vendita*/
+    static final FunzionePassi RADDOPPIO = soglia(0);
+
+    /**Passi applicati dopo un acquisto*/
+    private final int[] acquisto;
+    /**Passi applicati dopo una vendita*/
+    private final int[] vendita;
+
+    /*
+     * AF:
+     *   Un'istanza di "FunzionePassi" rappresenta la funzione di prezzo che applica in ordine i passi di "acquisto"
+     *   dopo un acquisto e quelli di "vendita" dopo una vendita; il passo i occupa le posizioni da i * CAMPI a i * CAMPI + CAMPI - 1.
+     * RI:
+     *   - "acquisto" e "vendita" non sono null, hanno lunghezza multipla di CAMPI e non vengono modificati dopo la costruzione.
+     *   - il divisore di ogni passo è maggiore di 0.
+     */
+
+    /**
+     * Costruttore della classe
+     * @param acquisto passi dopo un acquisto
+     * @param vendita passi dopo una vendita
+     */
+    private FunzionePassi(int[] acquisto, int[] vendita) {
+        this.acquisto = acquisto;
+        this.vendita = vendita;
+    }
+
+    /**
+     * Crea la funzione di {@link VariazioneCostante}
+     * @param incremento incremento dopo un acquisto (>= 0)
+     * @param decremento decremento dopo una vendita (<= 0)
+     * @return la funzione
+     */
+    static FunzionePassi costante(int incremento, int decremento) {
+        return new FunzionePassi(
+                passo(0, Integer.MAX_VALUE, 1, 1, incremento, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                passo(0, Integer.MAX_VALUE, 1, 1, decremento, 1, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Crea la funzione di {@link VariazioneSoglia}: raddoppia o dimezza (almeno 1) il prezzo se la quantità supera la soglia
+     * @param soglia soglia (>= 0)
+     * @return la funzione
+     */
+    static FunzionePassi soglia(int soglia) {
+        int oltre = soglia == Integer.MAX_VALUE ? Integer.MAX_VALUE : soglia + 1;
+        return new FunzionePassi(
+                passo(oltre, Integer.MAX_VALUE, 2, 1, 0, Integer.MIN_VALUE, Integer.MAX_VALUE),
+                passo(oltre, Integer.MAX_VALUE, 1, 2, 0, 1, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Concatena due funzioni: il prezzo prodotto da questa è il prezzo di partenza della seconda
+     * @param seconda funzione da applicare dopo
+     * @return la funzione composta
+     */
+    FunzionePassi poi(FunzionePassi seconda) {
+        return new FunzionePassi(concatena(acquisto, seconda.acquisto), concatena(vendita, seconda.vendita));
+    }
+
+    /**
+     * Limita la funzione a quantità comprese in un intervallo: fuori dall'intervallo il prezzo resta invariato
+     * @param quantitaMinima quantità minima (inclusa)
+     * @param quantitaMassima quantità massima (inclusa)
+     * @return la funzione condizionata
+     */
+    FunzionePassi perQuantita(int quantitaMinima, int quantitaMassima) {
+        return new FunzionePassi(perQuantita(acquisto, quantitaMinima, quantitaMassima), perQuantita(vendita, quantitaMinima, quantitaMassima));
+    }
+
+    /**
+     * Aggiunge in coda un passo che tiene il prezzo tra {@code minimo} e {@code massimo}
+     * @param minimo prezzo minimo
+     * @param massimo prezzo massimo
+     * @return la funzione limitata
+     */
+    FunzionePassi limitata(int minimo, int massimo) {
+        int[] limite = passo(0, Integer.MAX_VALUE, 1, 1, 0, minimo, massimo);
+        return new FunzionePassi(concatena(acquisto, limite), concatena(vendita, limite));
+    }
+
+    @Override
+    public int dopoAcquisto(int prezzo, int quantity) {
+        return applica(acquisto, prezzo, quantity);
+    }
+
+    @Override
+    public int dopoVendita(int prezzo, int quantity) {
+        return applica(vendita, prezzo, quantity);
+    }
+
+    /**
+     * Applica i passi di un lato in ordine
+     * @param passi passi del lato
+     * @param prezzo prezzo di partenza
+     * @param quantity quantità scambiata
+     * @return il nuovo prezzo
+     */
+    private static int applica(int[] passi, int prezzo, int quantity) {
+        for (int i = 0; i < passi.length; i += CAMPI) {
+            if (quantity >= passi[i + QUANTITA_MINIMA] && quantity <= passi[i + QUANTITA_MASSIMA]) {
+                prezzo = Math.min(Math.max(prezzo * passi[i + MOLTIPLICA] / passi[i + DIVIDE] + passi[i + SOMMA], passi[i + MINIMO]), passi[i + MASSIMO]);
+            }
+        }
+        return prezzo;
+    }
+
+    /**
+     * Crea un lato di un solo passo, vuoto se il passo non cambia mai il prezzo
+     * @return i passi del lato
+     */
+    private static int[] passo(int quantitaMinima, int quantitaMassima, int moltiplica, int divide, int somma, int minimo, int massimo) {
+        if (quantitaMinima > quantitaMassima || (moltiplica == 1 && divide == 1 && somma == 0
+                && minimo == Integer.MIN_VALUE && massimo == Integer.MAX_VALUE)) {
+            return VUOTO;
+        }
+        return new int[]{quantitaMinima, quantitaMassima, moltiplica, divide, somma, minimo, massimo};
+    }
+
+    /**
+     * Concatena i passi di un lato dopo quelli di {@code primo}; se l'ultimo passo di {@code primo} non limita
+     * il prezzo e il primo di {@code secondo} si applica alle stesse quantità senza moltiplicare né dividere,
+     * i due diventano un solo passo che somma entrambe le costanti
+     * @param primo passi da applicare prima
+     * @param secondo passi da applicare dopo
+     * @return i passi concatenati
+     */
+    private static int[] concatena(int[] primo, int[] secondo) {
+        if (secondo.length == 0) {
+            return primo;
+        }
+        if (primo.length == 0) {
+            return secondo;
+        }
+        int ultimo = primo.length - CAMPI;
+        boolean unisci = primo[ultimo + QUANTITA_MINIMA] == secondo[QUANTITA_MINIMA] && primo[ultimo + QUANTITA_MASSIMA] == secondo[QUANTITA_MASSIMA]
+                && primo[ultimo + MINIMO] == Integer.MIN_VALUE && primo[ultimo + MASSIMO] == Integer.MAX_VALUE
+                && secondo[MOLTIPLICA] == 1 && secondo[DIVIDE] == 1;
+        int inizio = unisci ? CAMPI : 0;
+        int[] unito = Arrays.copyOf(primo, primo.length + secondo.length - inizio);
+        System.arraycopy(secondo, inizio, unito, primo.length, secondo.length - inizio);
+        if (unisci) {
+            unito[ultimo + SOMMA] = primo[ultimo + SOMMA] + secondo[SOMMA];
+            unito[ultimo + MINIMO] = secondo[MINIMO];
+            unito[ultimo + MASSIMO] = secondo[MASSIMO];
+        }
+        return unito;
+    }
+
+    /**
+     * Restringe tutti i passi alle quantità comprese in un intervallo
+     * @param passi passi del lato
+     * @param minima quantità minima (inclusa)
+     * @param massima quantità massima (inclusa)
+     * @return i passi ristretti (senza quelli che non si applicano più ad alcuna quantità)
+     */
+    private static int[] perQuantita(int[] passi, int minima, int massima) {
+        int[] ristretti = VUOTO;
+        for (int i = 0; i < passi.length; i += CAMPI) {
+            ristretti = concatena(ristretti, passo(Math.max(passi[i + QUANTITA_MINIMA], minima), Math.min(passi[i + QUANTITA_MASSIMA], massima),
+                    passi[i + MOLTIPLICA], passi[i + DIVIDE], passi[i + SOMMA], passi[i + MINIMO], passi[i + MASSIMO]));
+        }
+        return ristretti;
+    }
+}
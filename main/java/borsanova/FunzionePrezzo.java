@@ -0,0 +1,43 @@
+package borsanova;
+
+/**
+ * L'interfaccia {@code FunzionePrezzo} è una {@link PoliticaPrezzo} già legata a una {@link Borsa.Azione}
+ * con {@link PoliticaPrezzo#lega(Borsa.Azione)}: tutto ciò che la politica decide in base all'azione (nomi, iniziali, ...)
+ * è calcolato una volta sola al momento del legame, quindi a ogni eseguito resta solo il calcolo sul prezzo e sulla quantità.
+ * <p>
+ * La borsa conserva la funzione nell'azione quotata e la usa per tutti gli acquisti e le vendite di quell'azione.
+ */
+public interface FunzionePrezzo {
+
+    /**Funzione che lascia il prezzo invariato*/
+    FunzionePrezzo INVARIATO = FunzionePassi.INVARIATO;
+
+    /**Funzione che raddoppia il prezzo a ogni acquisto e lo dimezza (almeno 1) a ogni vendita*/
+    FunzionePrezzo RADDOPPIO = FunzionePassi.RADDOPPIO;
+
+    /*
+     * AF:
+     *   Un'istanza di una classe che implementa "FunzionePrezzo" rappresenta la regola di prezzo di una singola azione:
+     *   - "dopoAcquisto" --> il prezzo dopo l'acquisto di "quantity" azioni al prezzo "prezzo".
+     *   - "dopoVendita" --> il prezzo dopo la vendita di "quantity" azioni al prezzo "prezzo".
+     * RI:
+     *   - "prezzo" e "quantity" passati ai metodi sono maggiori di 0.
+     *   - il prezzo restituito da "dopoVendita" è almeno 1.
+     */
+
+    /**
+     * Calcola il prezzo dopo un acquisto
+     * @param prezzo il prezzo dell'azione al momento dell'acquisto
+     * @param quantity la quantità di azioni comprate
+     * @return il nuovo prezzo
+     */
+    int dopoAcquisto(int prezzo, int quantity);
+
+    /**
+     * Calcola il prezzo dopo una vendita
+     * @param prezzo il prezzo dell'azione al momento della vendita
+     * @param quantity la quantità di azioni vendute
+     * @return il nuovo prezzo (almeno 1)
+     */
+    int dopoVendita(int prezzo, int quantity);
+}
@@ -0,0 +1,899 @@
+package borsanova;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * La classe {@code Giornale} è il giornale (write-ahead log) del mercato: ogni modifica di stato di borse, aziende e operatori
+ * viene accodata a un file mappato in memoria, e all'apertura il giornale viene riprodotto per ricostruire il mercato
+ * com'era quando il processo si è interrotto.
+ * <p>
+ * Vengono registrate:
+ * <ul>
+ * <li> la creazione di borse, aziende e operatori ({@code of}), con il bilancio iniziale degli operatori
+ * <li> le quotazioni {@link Azienda#quotazione(Borsa, int, int)}
+ * <li> gli eseguiti con la borsa, ciascuno con un solo record {@link Eseguito} che contiene tutte le sue variazioni:
+ *      la coppia (prezzo, numero) delle azioni quotate, le azioni possedute e i bilanci degli operatori,
+ *      le borse aggiunte a quelle in cui gli operatori hanno operato
+ * <li> i depositi e i prelievi degli operatori
+ * <li> gli ordini con limite inseriti e annullati nei {@link LibroOrdini}
+ * <li> i cambi di politica di prezzo delle borse e delle singole azioni quotate, comprese le {@link PoliticaComposta}
+ * </ul>
+ * Un eseguito interrotto a metà non lascia quindi nel giornale solo una parte delle sue variazioni.
+ * Le variazioni degli eseguiti e dei bilanci sono registrate come differenze e non come valori assoluti: si sommano
+ * nello stesso risultato in qualunque ordine, quindi i thread che aggiornano gli stessi oggetti senza un lock comune
+ * possono accodare i propri record in un ordine diverso da quello delle transizioni senza cambiare lo stato ricostruito
+ * (durante la riproduzione una posizione può passare per valori negativi, mai alla fine).
+ * <p>
+ * Gli ordini con limite sono registrati come comandi, sotto il lock del loro libro e quindi nell'ordine in cui sono abbinati:
+ * la riproduzione li reinserisce e ne ricalcola gli scambi e i regolamenti, senza controllare bilanci e posizioni degli
+ * operatori perché gli impegni erano già stati accettati.
+ * <p>
+ * Ogni record è {@code [lunghezza int][tipo byte][dati]} e i nomi compaiono una sola volta, nel record che crea l'entità;
+ * i record successivi la indicano con un identificativo intero. La lunghezza viene scritta per ultima, quindi un record
+ * interrotto a metà non viene mai letto. Il file è sincronizzato su disco ogni {@code sincronizzaOgni} record
+ * (0 per sincronizzarlo solo con {@link #sincronizza()} e {@link #close()}).
+ * <p>
+ * Il giornale va aperto con {@link #apri(Path, int)} prima di creare il mercato: la riproduzione crea le entità da zero.
+ * Può esserci un solo giornale attivo alla volta.
+ */
+public final class Giornale implements Closeable {
+    /**Record che crea un'entità e le assegna un identificativo*/
+    private static final byte NOME = 1;
+    /**Record di una quotazione*/
+    private static final byte QUOTAZIONE = 2;
+    /**Record di un eseguito, con tutte le sue variazioni*/
+    private static final byte ESEGUITO = 3;
+    /**Record di un deposito o di un prelievo di un operatore*/
+    private static final byte BUDGET = 4;
+    /**Record di un cambio di politica di prezzo*/
+    private static final byte POLITICA = 5;
+    /**Record di un ordine con limite inserito in un libro degli ordini*/
+    private static final byte ORDINE = 6;
+    /**Record di un ordine con limite annullato*/
+    private static final byte ANNULLAMENTO = 7;
+
+    /**Voce di un eseguito: variazione dello stato di un'azione quotata*/
+    private static final byte VOCE_STATO = 1;
+    /**Voce di un eseguito: variazione delle azioni possedute da un operatore*/
+    private static final byte VOCE_POSIZIONE = 2;
+    /**Voce di un eseguito: variazione del bilancio di un operatore*/
+    private static final byte VOCE_BUDGET = 3;
+    /**Voce di un eseguito: borsa aggiunta a quelle di un operatore*/
+    private static final byte VOCE_BORSA = 4;
+
+    /**Entità di tipo {@link Borsa}*/
+    private static final byte BORSA = 1;
+    /**Entità di tipo {@link Azienda}*/
+    private static final byte AZIENDA = 2;
+    /**Entità di tipo {@link Operatore}*/
+    private static final byte OPERATORE = 3;
+
+    /**Nessuna politica di prezzo (l'azione torna a seguire quella della borsa)*/
+    private static final byte NESSUNA = 0;
+    /**Politica {@link VariazioneCostante}*/
+    private static final byte COSTANTE = 1;
+    /**Politica {@link VariazioneSoglia}*/
+    private static final byte SOGLIA = 2;
+    /**Politica {@link VariazioneVocali}*/
+    private static final byte VOCALI = 3;
+    /**Politica {@link PoliticaEspressione}*/
+    private static final byte ESPRESSIONE = 4;
+    /**Politica {@link PoliticaComposta#catena(PoliticaPrezzo...)}*/
+    private static final byte CATENA = 5;
+    /**Politica {@link PoliticaComposta#seQuantitaOltre(int, PoliticaPrezzo, PoliticaPrezzo)}*/
+    private static final byte SE_QUANTITA_OLTRE = 6;
+    /**Politica {@link PoliticaComposta#limitata(PoliticaPrezzo, int, int)}*/
+    private static final byte LIMITATA = 7;
+    /**Azienda di un record di politica che si riferisce alla borsa e non a una singola azione*/
+    private static final int TUTTE = -1;
+
+    /**Dimensione iniziale della zona mappata del file*/
+    private static final int CAPACITA_INIZIALE = 1 << 20;
+
+    /**Giornale su cui vengono registrate le modifiche, null se nessun giornale è aperto*/
+    private static volatile Giornale attivo;
+
+    /**Canale del file del giornale*/
+    private final FileChannel canale;
+    /**Record dopo i quali il file viene sincronizzato su disco (0 per non sincronizzarlo automaticamente)*/
+    private final int sincronizzaOgni;
+    /**Identificativi assegnati alle entità*/
+    private final Map<Object, Integer> identificativi = new HashMap<>();
+    /**Entità indicizzate per identificativo, usate durante la riproduzione*/
+    private final List<Object> entita = new ArrayList<>();
+    /**Zona mappata del file*/
+    private MappedByteBuffer buffer;
+    /**Posizione del prossimo record*/
+    private int posizione;
+    /**Posizione di scrittura all'interno del record corrente*/
+    private int scrittura;
+    /**Inizio della parte non ancora sincronizzata su disco*/
+    private int sincronizzato;
+    /**Record scritti dall'ultima sincronizzazione*/
+    private int nonSincronizzati;
+
+    /*
+     * AF:
+     *   Un'istanza di "Giornale" rappresenta la sequenza di record contenuta in "buffer" da 0 a "posizione";
+     *   l'entità con identificativo i è entita.get(i), e identificativi è la mappa inversa.
+     * RI:
+     *   - "canale" e "buffer" non sono null, 0 <= sincronizzato <= posizione <= buffer.capacity().
+     *   - i 4 byte in "posizione" (se presenti) valgono 0, così la lettura si ferma dopo l'ultimo record completo.
+     *   - "identificativi" e "entita" contengono le stesse entità, identificativi.get(entita.get(i)) == i.
+     *   - sincronizzaOgni >= 0.
+     */
+
+    /**
+     * Costruttore della classe, usato da {@link #apri(Path, int)}
+     * @param canale canale del file aperto in lettura e scrittura
+     * @param sincronizzaOgni record dopo i quali sincronizzare il file
+     * @throws IOException se il file non può essere mappato
+     */
+    private Giornale(FileChannel canale, int sincronizzaOgni) throws IOException {
+        this.canale = canale;
+        this.sincronizzaOgni = sincronizzaOgni;
+        this.buffer = canale.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(canale.size(), CAPACITA_INIZIALE));
+    }
+
+    /**
+     * Apre (o crea) il giornale nel file indicato, riproduce i record già presenti ricostruendo il mercato
+     * e rende il giornale attivo, così le modifiche successive vengono accodate allo stesso file.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> crea borse, aziende e operatori registrati e ne ripristina lo stato
+     * </ul>
+     * @param file file del giornale (non null)
+     * @param sincronizzaOgni record dopo i quali sincronizzare il file su disco (0 per sincronizzare solo su richiesta)
+     * @return il giornale aperto
+     * @throws IOException se il file non può essere aperto o mappato
+     * @throws IllegalArgumentException se {@code sincronizzaOgni} è negativo
+     * @throws IllegalStateException se un altro giornale è già aperto
+     */
+    public static synchronized Giornale apri(Path file, int sincronizzaOgni) throws IOException {
+        Objects.requireNonNull(file, "il file non può essere null");
+        if (sincronizzaOgni < 0) {
+            throw new IllegalArgumentException("sincronizzaOgni non può essere negativo");
+        } else if (attivo != null) {
+            throw new IllegalStateException("un giornale è già aperto");
+        }
+        FileChannel canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Giornale giornale = new Giornale(canale, sincronizzaOgni);
+        giornale.riproduci();
+        attivo = giornale;
+        return giornale;
+    }
+
+    /**
+     * Sincronizza su disco i record scritti dall'ultima sincronizzazione
+     */
+    public synchronized void sincronizza() {
+        if (posizione > sincronizzato) {
+            buffer.force(sincronizzato, posizione - sincronizzato);
+            sincronizzato = posizione;
+        }
+        nonSincronizzati = 0;
+    }
+
+    /**
+     * Sincronizza il giornale, smette di registrare le modifiche e chiude il file
+     * @throws IOException se il file non può essere chiuso
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (Giornale.class) {
+            if (attivo == this) {
+                attivo = null;
+            }
+        }
+        sincronizza();
+        canale.close();
+    }
+
+    /**
+     * Indica se un giornale è aperto
+     * @return true se le modifiche al mercato vengono registrate
+     */
+    static boolean aperto() {
+        return attivo != null;
+    }
+
+    /**
+     * Registra la creazione di una borsa
+     * @param borsa la borsa creata
+     */
+    static void borsaCreata(Borsa borsa) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.identificativo(borsa);
+        }
+    }
+
+    /**
+     * Registra la creazione di un'azienda
+     * @param azienda l'azienda creata
+     */
+    static void aziendaCreata(Azienda azienda) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.identificativo(azienda);
+        }
+    }
+
+    /**
+     * Registra la creazione di un operatore (con il bilancio che ha al momento della creazione)
+     * @param op l'operatore creato
+     */
+    static void operatoreCreato(Operatore op) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.identificativo(op);
+        }
+    }
+
+    /**
+     * Registra una quotazione {@link Azienda#quotazione(Borsa, int, int)}
+     * @param azienda azienda quotata
+     * @param borsa borsa della quotazione
+     * @param numero numero di azioni quotate
+     * @param prezzo prezzo unitario
+     */
+    static void quotazione(Azienda azienda, Borsa borsa, int numero, int prezzo) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.scriviQuotazione(azienda, borsa, numero, prezzo);
+        }
+    }
+
+    /**
+     * Crea le variazioni di un eseguito da registrare, solo se un giornale è aperto
+     * @return un eseguito vuoto, null se nessun giornale è aperto
+     */
+    static Eseguito nuovoEseguito() {
+        return attivo == null ? null : new Eseguito();
+    }
+
+    /**
+     * Registra un eseguito con tutte le sue variazioni in un solo record
+     * @param eseguito le variazioni dell'eseguito (se null non viene registrato nulla)
+     */
+    static void eseguito(Eseguito eseguito) {
+        Giornale giornale = attivo;
+        if (giornale != null && eseguito != null && eseguito.voci > 0) {
+            giornale.scriviEseguito(eseguito);
+        }
+    }
+
+    /**
+     * Registra una variazione del bilancio di un operatore
+     * @param op operatore
+     * @param variazione cifra depositata (positiva) o prelevata (negativa)
+     */
+    static void budget(Operatore op, long variazione) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.scriviBudget(op, variazione);
+        }
+    }
+
+    /**
+     * Registra un ordine con limite inserito in un libro degli ordini (va chiamato sotto il lock del libro)
+     * @param azione azione quotata del libro
+     * @param op operatore dell'ordine
+     * @param acquisto true per un acquisto, false per una vendita
+     * @param prezzoLimite prezzo limite
+     * @param quantita quantità dell'ordine
+     * @param ordine identificativo assegnato dal libro
+     */
+    static void ordine(Borsa.Azione azione, Operatore op, boolean acquisto, int prezzoLimite, int quantita, long ordine) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.scriviOrdine(azione, op, acquisto, prezzoLimite, quantita, ordine);
+        }
+    }
+
+    /**
+     * Registra un ordine con limite annullato (va chiamato sotto il lock del libro)
+     * @param azione azione quotata del libro
+     * @param ordine identificativo dell'ordine
+     */
+    static void annullamento(Borsa.Azione azione, long ordine) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.scriviAnnullamento(azione, ordine);
+        }
+    }
+
+    /**
+     * Registra un cambio di politica di prezzo
+     * @param borsa borsa della politica
+     * @param azienda azienda dell'azione quotata con una politica propria, null per la politica della borsa
+     * @param politica la nuova politica (null se l'azione torna a seguire quella della borsa);
+     *        deve essere {@link #registrabile(PoliticaPrezzo)}
+     */
+    static void politica(Borsa borsa, Azienda azienda, PoliticaPrezzo politica) {
+        Giornale giornale = attivo;
+        if (giornale != null) {
+            giornale.scriviPolitica(borsa, azienda, politica);
+        }
+    }
+
+    /**
+     * Indica se una politica di prezzo può essere registrata: sono registrabili le politiche fornite dal progetto,
+     * anche composte tra loro con {@link PoliticaComposta}, e null
+     * @param politica la politica
+     * @return true se la politica può essere registrata o se nessun giornale è aperto
+     */
+    static boolean registrabile(PoliticaPrezzo politica) {
+        return attivo == null || dimensione(politica) >= 0;
+    }
+
+    /**
+     * Scrive il record di una quotazione
+     * @param azienda azienda quotata
+     * @param borsa borsa della quotazione
+     * @param numero numero di azioni
+     * @param prezzo prezzo unitario
+     */
+    private synchronized void scriviQuotazione(Azienda azienda, Borsa borsa, int numero, int prezzo) {
+        int idAzienda = identificativo(azienda);
+        int idBorsa = identificativo(borsa);
+        inizia(QUOTAZIONE, 16);
+        putInt(idAzienda);
+        putInt(idBorsa);
+        putInt(numero);
+        putInt(prezzo);
+        termina();
+    }
+
+    /**
+     * Scrive il record di un eseguito: il numero di voci, poi per ogni voce il tipo, gli identificativi delle entità e la variazione
+     * @param eseguito le variazioni dell'eseguito
+     */
+    private synchronized void scriviEseguito(Eseguito eseguito) {
+        int voci = eseguito.voci;
+        int[] id = new int[voci * 3];
+        for (int i = 0; i < id.length; i++) {
+            if (eseguito.entita[i] != null) {
+                id[i] = identificativo(eseguito.entita[i]);
+            }
+        }
+        inizia(ESEGUITO, 4 + voci * 21);
+        putInt(voci);
+        for (int v = 0; v < voci; v++) {
+            byte tipo = eseguito.tipi[v];
+            buffer.put(scrittura++, tipo);
+            for (int i = v * 3; i < v * 3 + 3 && eseguito.entita[i] != null; i++) {
+                putInt(id[i]);
+            }
+            if (tipo == VOCE_POSIZIONE) {
+                putInt((int) eseguito.valori[v]);
+            } else if (tipo != VOCE_BORSA) {
+                putLong(eseguito.valori[v]);
+            }
+        }
+        termina();
+    }
+
+    /**
+     * Scrive il record della variazione del bilancio di un operatore
+     * @param op operatore
+     * @param variazione variazione del bilancio
+     */
+    private synchronized void scriviBudget(Operatore op, long variazione) {
+        int idOperatore = identificativo(op);
+        inizia(BUDGET, 12);
+        putInt(idOperatore);
+        putLong(variazione);
+        termina();
+    }
+
+    /**
+     * Scrive il record di un ordine con limite inserito
+     * @param azione azione quotata del libro
+     * @param op operatore dell'ordine
+     * @param acquisto true per un acquisto
+     * @param prezzoLimite prezzo limite
+     * @param quantita quantità dell'ordine
+     * @param ordine identificativo dell'ordine
+     */
+    private synchronized void scriviOrdine(Borsa.Azione azione, Operatore op, boolean acquisto, int prezzoLimite, int quantita, long ordine) {
+        int idBorsa = identificativo(azione.getBorsa());
+        int idAzienda = identificativo(azione.getAzienda());
+        int idOperatore = identificativo(op);
+        inizia(ORDINE, 29);
+        putInt(idBorsa);
+        putInt(idAzienda);
+        putInt(idOperatore);
+        buffer.put(scrittura++, (byte) (acquisto ? 1 : 0));
+        putInt(prezzoLimite);
+        putInt(quantita);
+        putLong(ordine);
+        termina();
+    }
+
+    /**
+     * Scrive il record di un ordine con limite annullato
+     * @param azione azione quotata del libro
+     * @param ordine identificativo dell'ordine
+     */
+    private synchronized void scriviAnnullamento(Borsa.Azione azione, long ordine) {
+        int idBorsa = identificativo(azione.getBorsa());
+        int idAzienda = identificativo(azione.getAzienda());
+        inizia(ANNULLAMENTO, 16);
+        putInt(idBorsa);
+        putInt(idAzienda);
+        putLong(ordine);
+        termina();
+    }
+
+    /**
+     * Scrive il record di un cambio di politica di prezzo
+     * @param borsa borsa della politica
+     * @param azienda azienda dell'azione quotata, null per la politica della borsa
+     * @param politica la politica, null se l'azione torna a seguire quella della borsa
+     * @throws IllegalArgumentException se la politica non è {@link #registrabile(PoliticaPrezzo)}
+     */
+    private synchronized void scriviPolitica(Borsa borsa, Azienda azienda, PoliticaPrezzo politica) {
+        int dimensione = dimensione(politica);
+        if (dimensione < 0) {
+            throw new IllegalArgumentException("politica di prezzo non registrabile: " + politica.getClass().getName());
+        }
+        int idBorsa = identificativo(borsa);
+        int idAzienda = azienda == null ? TUTTE : identificativo(azienda);
+        inizia(POLITICA, 8 + dimensione);
+        putInt(idBorsa);
+        putInt(idAzienda);
+        putPolitica(politica);
+        termina();
+    }
+
+    /**
+     * Calcola i byte occupati da una politica scritta con {@link #putPolitica(PoliticaPrezzo)}
+     * @param politica la politica (può essere null)
+     * @return il numero di byte, -1 se la politica (o una delle politiche che la compongono) non può essere registrata
+     */
+    private static int dimensione(PoliticaPrezzo politica) {
+        if (politica == null) {
+            return 1;
+        } else if (politica instanceof VariazioneCostante) {
+            return 9;
+        } else if (politica instanceof VariazioneSoglia || politica instanceof VariazioneVocali) {
+            return 5;
+        } else if (politica instanceof PoliticaEspressione espressione) {
+            return 9 + espressione.getAcquisto().getBytes(StandardCharsets.UTF_8).length
+                    + espressione.getVendita().getBytes(StandardCharsets.UTF_8).length;
+        } else if (politica instanceof PoliticaComposta composta) {
+            int totale = 13;
+            for (PoliticaPrezzo parte : composta.getPolitiche()) {
+                int dimensione = dimensione(parte);
+                if (dimensione < 0) {
+                    return -1;
+                }
+                totale += dimensione;
+            }
+            return totale;
+        }
+        return -1;
+    }
+
+    /**
+     * Scrive nel record corrente una politica: la variante, i suoi parametri e, per le politiche composte,
+     * le politiche che la compongono
+     * @param politica la politica (può essere null), registrabile
+     */
+    private void putPolitica(PoliticaPrezzo politica) {
+        if (politica == null) {
+            buffer.put(scrittura++, NESSUNA);
+        } else if (politica instanceof VariazioneCostante costante) {
+            buffer.put(scrittura++, COSTANTE);
+            putInt(costante.getIncremento());
+            putInt(costante.getDecremento());
+        } else if (politica instanceof VariazioneSoglia soglia) {
+            buffer.put(scrittura++, SOGLIA);
+            putInt(soglia.getSoglia());
+        } else if (politica instanceof VariazioneVocali vocali) {
+            buffer.put(scrittura++, VOCALI);
+            putInt(vocali.getLettera());
+        } else if (politica instanceof PoliticaEspressione espressione) {
+            buffer.put(scrittura++, ESPRESSIONE);
+            putTesto(espressione.getAcquisto().getBytes(StandardCharsets.UTF_8));
+            putTesto(espressione.getVendita().getBytes(StandardCharsets.UTF_8));
+        } else {
+            PoliticaComposta composta = (PoliticaComposta) politica;
+            buffer.put(scrittura++, switch (composta.getTipo()) {
+                case CATENA -> CATENA;
+                case SE_QUANTITA_OLTRE -> SE_QUANTITA_OLTRE;
+                case LIMITATA -> LIMITATA;
+            });
+            putInt(composta.getPrimo());
+            putInt(composta.getSecondo());
+            PoliticaPrezzo[] parti = composta.getPolitiche();
+            putInt(parti.length);
+            for (PoliticaPrezzo parte : parti) {
+                putPolitica(parte);
+            }
+        }
+    }
+
+    /**
+     * Legge una politica scritta con {@link #putPolitica(PoliticaPrezzo)}
+     * @param record record da cui leggere
+     * @return la politica, null se il record indica che non c'è
+     * @throws IllegalStateException se la variante della politica non è riconosciuta
+     */
+    private static PoliticaPrezzo getPolitica(ByteBuffer record) {
+        byte variante = record.get();
+        switch (variante) {
+            case NESSUNA -> {
+                return null;
+            }
+            case COSTANTE -> {
+                int incremento = record.getInt();
+                return new VariazioneCostante(incremento, record.getInt());
+            }
+            case SOGLIA -> {
+                return new VariazioneSoglia(record.getInt());
+            }
+            case VOCALI -> {
+                return new VariazioneVocali(String.valueOf((char) record.getInt()));
+            }
+            case ESPRESSIONE -> {
+                String acquisto = getTesto(record);
+                return new PoliticaEspressione(acquisto, getTesto(record));
+            }
+            case CATENA, SE_QUANTITA_OLTRE, LIMITATA -> {
+                int primo = record.getInt();
+                int secondo = record.getInt();
+                PoliticaPrezzo[] parti = new PoliticaPrezzo[record.getInt()];
+                for (int i = 0; i < parti.length; i++) {
+                    parti[i] = getPolitica(record);
+                }
+                return switch (variante) {
+                    case CATENA -> PoliticaComposta.catena(parti);
+                    case SE_QUANTITA_OLTRE -> PoliticaComposta.seQuantitaOltre(primo, parti[0], parti[1]);
+                    default -> PoliticaComposta.limitata(parti[0], primo, secondo);
+                };
+            }
+            default -> throw new IllegalStateException("politica sconosciuta nel giornale: " + variante);
+        }
+    }
+
+    /**
+     * Restituisce l'identificativo di un'entità; se l'entità non ne ha ancora uno glielo assegna
+     * e scrive il record che la crea
+     * @param entita borsa, azienda o operatore
+     * @return l'identificativo
+     */
+    private synchronized int identificativo(Object entita) {
+        Integer id = identificativi.get(entita);
+        if (id != null) {
+            return id;
+        }
+        int nuovo = this.entita.size();
+        identificativi.put(entita, nuovo);
+        this.entita.add(entita);
+        byte tipo;
+        String nome;
+        long budget = 0;
+        if (entita instanceof Borsa borsa) {
+            tipo = BORSA;
+            nome = borsa.getName();
+        } else if (entita instanceof Azienda azienda) {
+            tipo = AZIENDA;
+            nome = azienda.getName();
+        } else {
+            Operatore op = (Operatore) entita;
+            tipo = OPERATORE;
+            nome = op.getName();
+            budget = op.getBudget();
+        }
+        byte[] testo = nome.getBytes(StandardCharsets.UTF_8);
+        inizia(NOME, 17 + testo.length);
+        buffer.put(scrittura++, tipo);
+        putInt(nuovo);
+        putLong(budget);
+        putTesto(testo);
+        termina();
+        return nuovo;
+    }
+
+    /**
+     * Inizia un record, facendo crescere la zona mappata se il record non ci sta
+     * @param tipo tipo del record
+     * @param dati numero massimo di byte di dati del record
+     */
+    private void inizia(byte tipo, int dati) {
+        int necessari = posizione + 4 + 1 + dati + 4;
+        if (necessari > buffer.capacity()) {
+            long nuova = Math.max((long) buffer.capacity() * 2, necessari);
+            if (nuova > Integer.MAX_VALUE) {
+                throw new IllegalStateException("il giornale ha raggiunto la dimensione massima");
+            }
+            try {
+                buffer = canale.map(FileChannel.MapMode.READ_WRITE, 0, nuova);
+            } catch (IOException e) {
+                throw new IllegalStateException("impossibile estendere il giornale", e);
+            }
+        }
+        scrittura = posizione + 4;
+        buffer.put(scrittura++, tipo);
+    }
+
+    /**
+     * Conclude il record corrente scrivendone la lunghezza, che lo rende visibile alla lettura,
+     * e sincronizza il file se sono stati scritti {@link #sincronizzaOgni} record
+     */
+    private void termina() {
+        buffer.putInt(scrittura, 0);
+        buffer.putInt(posizione, scrittura - posizione - 4);
+        posizione = scrittura;
+        if (sincronizzaOgni > 0 && ++nonSincronizzati >= sincronizzaOgni) {
+            sincronizza();
+        }
+    }
+
+    /**
+     * Scrive un intero nel record corrente
+     * @param valore intero da scrivere
+     */
+    private void putInt(int valore) {
+        buffer.putInt(scrittura, valore);
+        scrittura += 4;
+    }
+
+    /**
+     * Scrive un intero a 64 bit nel record corrente
+     * @param valore intero da scrivere
+     */
+    private void putLong(long valore) {
+        buffer.putLong(scrittura, valore);
+        scrittura += 8;
+    }
+
+    /**
+     * Scrive nel record corrente una stringa codificata, preceduta dalla sua lunghezza
+     * @param testo byte della stringa
+     */
+    private void putTesto(byte[] testo) {
+        putInt(testo.length);
+        buffer.put(scrittura, testo);
+        scrittura += testo.length;
+    }
+
+    /**
+     * Legge una stringa scritta con {@link #putTesto(byte[])}
+     * @param record record da cui leggere
+     * @return la stringa
+     */
+    private static String getTesto(ByteBuffer record) {
+        byte[] testo = new byte[record.getInt()];
+        record.get(testo);
+        return new String(testo, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Riproduce i record presenti nel file e posiziona la scrittura dopo l'ultimo record completo
+     */
+    private void riproduci() {
+        int letto = 0;
+        while (letto + 4 <= buffer.capacity()) {
+            int lunghezza = buffer.getInt(letto);
+            if (lunghezza <= 0 || letto + 4 + lunghezza > buffer.capacity()) {
+                break;
+            }
+            applica(buffer.slice(letto + 4, lunghezza));
+            letto += 4 + lunghezza;
+        }
+        posizione = letto;
+        sincronizzato = letto;
+        if (posizione + 4 <= buffer.capacity()) {
+            buffer.putInt(posizione, 0);
+        }
+    }
+
+    /**
+     * Applica al mercato un record letto dal giornale
+     * @param record dati del record, a partire dal tipo
+     * @throws IllegalStateException se il tipo del record non è riconosciuto
+     */
+    private void applica(ByteBuffer record) {
+        byte tipo = record.get();
+        switch (tipo) {
+            case NOME -> {
+                byte tipoEntita = record.get();
+                int id = record.getInt();
+                long budget = record.getLong();
+                String nome = getTesto(record);
+                Object creata = switch (tipoEntita) {
+                    case BORSA -> Borsa.of(nome);
+                    case AZIENDA -> Azienda.of(nome);
+                    case OPERATORE -> Operatore.of(nome, budget);
+                    default -> throw new IllegalStateException("tipo di entità sconosciuto nel giornale: " + tipoEntita);
+                };
+                if (id != entita.size()) {
+                    throw new IllegalStateException("identificativo non valido nel giornale: " + id);
+                }
+                identificativi.put(creata, id);
+                entita.add(creata);
+            }
+            case QUOTAZIONE -> {
+                Azienda azienda = (Azienda) entita.get(record.getInt());
+                Borsa borsa = (Borsa) entita.get(record.getInt());
+                int numero = record.getInt();
+                azienda.quotazione(borsa, numero, record.getInt());
+            }
+            case ESEGUITO -> {
+                for (int voci = record.getInt(); voci > 0; voci--) {
+                    byte voce = record.get();
+                    switch (voce) {
+                        case VOCE_STATO -> {
+                            Borsa borsa = (Borsa) entita.get(record.getInt());
+                            Azienda azienda = (Azienda) entita.get(record.getInt());
+                            borsa.ripristinaStato(azienda, record.getLong());
+                        }
+                        case VOCE_POSIZIONE -> {
+                            Borsa borsa = (Borsa) entita.get(record.getInt());
+                            Operatore op = (Operatore) entita.get(record.getInt());
+                            Azienda azienda = (Azienda) entita.get(record.getInt());
+                            borsa.ripristinaPosizione(op, azienda, record.getInt());
+                        }
+                        case VOCE_BUDGET -> {
+                            Operatore op = (Operatore) entita.get(record.getInt());
+                            op.ripristinaBudget(record.getLong());
+                        }
+                        case VOCE_BORSA -> {
+                            Operatore op = (Operatore) entita.get(record.getInt());
+                            op.addBorsa((Borsa) entita.get(record.getInt()));
+                        }
+                        default -> throw new IllegalStateException("voce sconosciuta nel giornale: " + voce);
+                    }
+                }
+            }
+            case BUDGET -> {
+                Operatore op = (Operatore) entita.get(record.getInt());
+                op.ripristinaBudget(record.getLong());
+            }
+            case POLITICA -> {
+                Borsa borsa = (Borsa) entita.get(record.getInt());
+                int idAzienda = record.getInt();
+                PoliticaPrezzo politica = getPolitica(record);
+                if (idAzienda == TUTTE) {
+                    borsa.impostaPolitica(politica);
+                } else {
+                    borsa.setPoliticaAzione((Azienda) entita.get(idAzienda), politica);
+                }
+            }
+            case ORDINE -> {
+                Borsa borsa = (Borsa) entita.get(record.getInt());
+                Azienda azienda = (Azienda) entita.get(record.getInt());
+                Operatore op = (Operatore) entita.get(record.getInt());
+                boolean acquisto = record.get() != 0;
+                int prezzoLimite = record.getInt();
+                int quantita = record.getInt();
+                long atteso = record.getLong();
+                LibroOrdini libro = borsa.getLibroOrdini(azienda);
+                long ordine = acquisto ? libro.ripristinaAcquisto(op, prezzoLimite, quantita) : libro.ripristinaVendita(op, prezzoLimite, quantita);
+                if (ordine != atteso) {
+                    throw new IllegalStateException("ordine non valido nel giornale: " + atteso);
+                }
+            }
+            case ANNULLAMENTO -> {
+                Borsa borsa = (Borsa) entita.get(record.getInt());
+                Azienda azienda = (Azienda) entita.get(record.getInt());
+                borsa.getLibroOrdini(azienda).annulla(record.getLong());
+            }
+            default -> throw new IllegalStateException("tipo di record sconosciuto nel giornale: " + tipo);
+        }
+    }
+
+    /**
+     * Le variazioni di un eseguito, raccolte mentre l'eseguito avviene e registrate insieme con {@link Giornale#eseguito(Eseguito)}.
+     * Le variazioni nulle non vengono aggiunte.
+     */
+    static final class Eseguito {
+        /**Tipo di ogni voce*/
+        private byte[] tipi = new byte[4];
+        /**Entità di ogni voce, tre per voce nell'ordine in cui vengono scritte (null quelle che la voce non usa)*/
+        private Object[] entita = new Object[12];
+        /**Variazione di ogni voce*/
+        private long[] valori = new long[4];
+        /**Numero di voci*/
+        private int voci;
+
+        /*
+         * AF:
+         *   Un'istanza di "Eseguito" rappresenta la sequenza di voci 0 .. voci - 1, la voce v è di tipo tipi[v],
+         *   si riferisce alle entità entita[3v .. 3v + 2] e ha variazione valori[v].
+         * RI:
+         *   - 0 <= voci <= tipi.length == valori.length, entita.length == 3 * tipi.length.
+         *   - ogni voce ha le entità richieste dal suo tipo e valore diverso da 0 (tranne le voci di tipo VOCE_BORSA).
+         */
+
+        /**
+         * Aggiunge la variazione dello stato impacchettato di un'azione quotata
+         * @param azione azione quotata
+         * @param variazione nuovo stato meno stato precedente
+         * @return questo eseguito
+         */
+        Eseguito stato(Borsa.Azione azione, long variazione) {
+            if (variazione != 0) {
+                aggiungi(VOCE_STATO, azione.getBorsa(), azione.getAzienda(), null, variazione);
+            }
+            return this;
+        }
+
+        /**
+         * Aggiunge la variazione delle azioni possedute da un operatore
+         * @param borsa borsa delle azioni
+         * @param op operatore
+         * @param azienda azienda delle azioni
+         * @param numero azioni aggiunte (positivo) o tolte (negativo)
+         * @return questo eseguito
+         */
+        Eseguito posizione(Borsa borsa, Operatore op, Azienda azienda, int numero) {
+            if (numero != 0) {
+                aggiungi(VOCE_POSIZIONE, borsa, op, azienda, numero);
+            }
+            return this;
+        }
+
+        /**
+         * Aggiunge la variazione del bilancio di un operatore
+         * @param op operatore
+         * @param variazione cifra ricevuta (positiva) o pagata (negativa)
+         * @return questo eseguito
+         */
+        Eseguito budget(Operatore op, long variazione) {
+            if (variazione != 0) {
+                aggiungi(VOCE_BUDGET, op, null, null, variazione);
+            }
+            return this;
+        }
+
+        /**
+         * Aggiunge una borsa a quelle in cui l'operatore ha operato
+         * @param op operatore
+         * @param borsa borsa
+         * @return questo eseguito
+         */
+        Eseguito borsa(Operatore op, Borsa borsa) {
+            aggiungi(VOCE_BORSA, op, borsa, null, 0);
+            return this;
+        }
+
+        /**
+         * Aggiunge una voce, facendo crescere gli array se necessario
+         * @param tipo tipo della voce
+         * @param prima prima entità
+         * @param seconda seconda entità (può essere null)
+         * @param terza terza entità (può essere null)
+         * @param valore variazione
+         */
+        private void aggiungi(byte tipo, Object prima, Object seconda, Object terza, long valore) {
+            if (voci == tipi.length) {
+                tipi = Arrays.copyOf(tipi, voci * 2);
+                entita = Arrays.copyOf(entita, voci * 6);
+                valori = Arrays.copyOf(valori, voci * 2);
+            }
+            tipi[voci] = tipo;
+            entita[voci * 3] = prima;
+            entita[voci * 3 + 1] = seconda;
+            entita[voci * 3 + 2] = terza;
+            valori[voci++] = valore;
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package borsanova;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+
+/**
+ * La classe {@code Istantanea} salva lo stato dell'intero mercato in un file binario compatto e lo ripristina
+ * con una sola lettura del file, senza rieseguire le quotazioni e le operazioni che lo hanno prodotto.
+ * <p>
+ * L'istantanea contiene tutte le borse (con la politica di prezzo attiva), le aziende, gli operatori
+ * (con bilancio e borse in cui hanno operato), le azioni quotate con prezzo, numero disponibile, politica propria
+ * e ordini con limite in attesa nel loro {@link LibroOrdini}, e le azioni possedute da ciascun operatore.
+ * Le politiche, anche quelle composte {@link PoliticaComposta}, devono essere formate da politiche fornite dal progetto.
+ * <p>
+ * Formato: intestazione {@code "BNS"} e versione, tabella dei nomi (ogni nome compare una volta sola e poi viene indicato
+ * con la sua posizione nella tabella), quindi borse, aziende, operatori e, per ogni borsa, azioni quotate con i loro libri
+ * e posizioni.
+ * Tutti gli interi sono codificati come varint (7 bit per byte), i parametri con segno delle politiche in zig-zag;
+ * la dimensione del file cresce quindi con il numero di entità e di posizioni, non con la storia delle operazioni.
+ * <p>
+ * L'istantanea va salvata a mercato fermo (non è un taglio consistente di operazioni concorrenti) e ripristinata
+ * in un processo in cui il mercato non è ancora stato creato. Combinata con il {@link Giornale} permette di ripartire
+ * dall'istantanea e riprodurre solo il giornale scritto dopo di essa.
+ */
+public final class Istantanea {
+    /**Intestazione del file: "BNS" seguito dalla versione del formato*/
+    private static final int INTESTAZIONE = ('B' << 24) | ('N' << 16) | ('S' << 8) | 2;
+
+    /**Nessuna politica di prezzo*/
+    private static final byte NESSUNA = 0;
+    /**Politica {@link VariazioneCostante}*/
+    private static final byte COSTANTE = 1;
+    /**Politica {@link VariazioneSoglia}*/
+    private static final byte SOGLIA = 2;
+    /**Politica {@link VariazioneVocali}*/
+    private static final byte VOCALI = 3;
+    /**Politica {@link PoliticaEspressione}*/
+    private static final byte ESPRESSIONE = 4;
+    /**Politica {@link PoliticaComposta#catena(PoliticaPrezzo...)}*/
+    private static final byte CATENA = 5;
+    /**Politica {@link PoliticaComposta#seQuantitaOltre(int, PoliticaPrezzo, PoliticaPrezzo)}*/
+    private static final byte SE_QUANTITA_OLTRE = 6;
+    /**Politica {@link PoliticaComposta#limitata(PoliticaPrezzo, int, int)}*/
+    private static final byte LIMITATA = 7;
+
+    /*
+     * AF:
+     *   La classe è statica e senza stato: traduce il mercato (le istanze di Borsa, Azienda e Operatore) in un file e viceversa.
+     * RI:
+     *   - un file scritto da "salva" e letto da "ripristina" produce borse, aziende, operatori, azioni quotate, posizioni,
+     *     bilanci, politiche e libri degli ordini (con gli stessi identificativi) uguali a quelli salvati.
+     */
+
+    /**
+     * Costruttore della classe, non lo utilizziamo poiché la classe contiene solo metodi statici
+     */
+    private Istantanea() {}
+
+    /**
+     * Salva lo stato del mercato nel file indicato, sovrascrivendolo
+     * @param file file dell'istantanea (non null)
+     * @throws IOException se il file non può essere scritto
+     * @throws IllegalStateException se una borsa o un'azione quotata usa una politica di prezzo che non può essere salvata
+     */
+    public static void salva(Path file) throws IOException {
+        Objects.requireNonNull(file, "il file non può essere null");
+        List<Borsa> borse = Borsa.istanze();
+        List<Azienda> aziende = Azienda.istanze();
+        List<Operatore> operatori = Operatore.istanze();
+
+        Map<String, Integer> nomi = new HashMap<>();
+        Map<Borsa, Integer> indiceBorse = new HashMap<>();
+        Map<Azienda, Integer> indiceAziende = new HashMap<>();
+        Map<Operatore, Integer> indiceOperatori = new HashMap<>();
+        Scrittore out = new Scrittore();
+        out.putInt(INTESTAZIONE);
+
+        Scrittore tabella = new Scrittore();
+        Scrittore corpo = new Scrittore();
+        corpo.putVarint(borse.size());
+        for (Borsa borsa : borse) {
+            indiceBorse.put(borsa, indiceBorse.size());
+            corpo.putVarint(nome(borsa.getName(), nomi, tabella));
+            scriviPolitica(borsa.getPoliticaPrezzo(), corpo);
+        }
+        corpo.putVarint(aziende.size());
+        for (Azienda azienda : aziende) {
+            indiceAziende.put(azienda, indiceAziende.size());
+            corpo.putVarint(nome(azienda.getName(), nomi, tabella));
+        }
+        corpo.putVarint(operatori.size());
+        for (Operatore op : operatori) {
+            indiceOperatori.put(op, indiceOperatori.size());
+            corpo.putVarint(nome(op.getName(), nomi, tabella));
+            corpo.putVarint(op.getBudget());
+            SortedSet<Borsa> borseOp = op.getBorse();
+            corpo.putVarint(borseOp.size());
+            for (Borsa borsa : borseOp) {
+                corpo.putVarint(indiceBorse.get(borsa));
+            }
+        }
+        for (Borsa borsa : borse) {
+            SortedSet<Borsa.Azione> azioni = borsa.getAzioni();
+            corpo.putVarint(azioni.size());
+            for (Borsa.Azione azione : azioni) {
+                long stato = azione.getStato();
+                corpo.putVarint(indiceAziende.get(azione.getAzienda()));
+                corpo.putVarint(Borsa.Azione.prezzo(stato));
+                corpo.putVarint(Borsa.Azione.numero(stato));
+                scriviPolitica(azione.getPoliticaPropria(), corpo);
+                scriviLibro(azione.getLibroOrdiniCreato(), indiceOperatori, corpo);
+            }
+            Map<Operatore, SortedSet<Borsa.Azione>> posizioni = borsa.getAzioniOperatori();
+            corpo.putVarint(posizioni.size());
+            for (Map.Entry<Operatore, SortedSet<Borsa.Azione>> voce : posizioni.entrySet()) {
+                corpo.putVarint(indiceOperatori.get(voce.getKey()));
+                corpo.putVarint(voce.getValue().size());
+                for (Borsa.Azione azione : voce.getValue()) {
+                    long stato = azione.getStato();
+                    corpo.putVarint(indiceAziende.get(azione.getAzienda()));
+                    corpo.putVarint(Borsa.Azione.prezzo(stato));
+                    corpo.putVarint(Borsa.Azione.numero(stato));
+                }
+            }
+        }
+
+        out.putVarint(nomi.size());
+        out.put(tabella);
+        out.put(corpo);
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer dati = out.dati();
+            while (dati.hasRemaining()) {
+                canale.write(dati);
+            }
+        }
+    }
+
+    /**
+     * Ripristina il mercato salvato nel file indicato: crea borse, aziende e operatori e ne imposta lo stato salvato
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> crea le istanze di {@link Borsa}, {@link Azienda} e {@link Operatore} salvate, con quotazioni, posizioni, bilanci e politiche
+     * </ul>
+     * @param file file dell'istantanea (non null)
+     * @throws IOException se il file non può essere letto
+     * @throws IllegalArgumentException se il file non è un'istantanea valida
+     * @throws IllegalStateException se un {@link Giornale} è aperto (il ripristino non va registrato come nuove operazioni)
+     */
+    public static void ripristina(Path file) throws IOException {
+        Objects.requireNonNull(file, "il file non può essere null");
+        if (Giornale.aperto()) {
+            throw new IllegalStateException("l'istantanea va ripristinata prima di aprire il giornale");
+        }
+        MappedByteBuffer in;
+        try (FileChannel canale = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = canale.map(FileChannel.MapMode.READ_ONLY, 0, canale.size());
+        }
+        try {
+            if (in.getInt() != INTESTAZIONE) {
+                throw new IllegalArgumentException("il file non è un'istantanea valida");
+            }
+            String[] nomi = new String[getVarint(in)];
+            for (int i = 0; i < nomi.length; i++) {
+                nomi[i] = getTesto(in);
+            }
+
+            Borsa[] borse = new Borsa[getVarint(in)];
+            for (int i = 0; i < borse.length; i++) {
+                borse[i] = Borsa.of(nomi[getVarint(in)]);
+                PoliticaPrezzo politica = leggiPolitica(in);
+                if (politica != null) {
+                    borse[i].impostaPolitica(politica);
+                }
+            }
+            Azienda[] aziende = new Azienda[getVarint(in)];
+            for (int i = 0; i < aziende.length; i++) {
+                aziende[i] = Azienda.of(nomi[getVarint(in)]);
+            }
+            Operatore[] operatori = new Operatore[getVarint(in)];
+            for (int i = 0; i < operatori.length; i++) {
+                String nome = nomi[getVarint(in)];
+                operatori[i] = Operatore.of(nome, getVarlong(in));
+                for (int b = getVarint(in); b > 0; b--) {
+                    operatori[i].addBorsa(borse[getVarint(in)]);
+                }
+            }
+            for (Borsa borsa : borse) {
+                for (int a = getVarint(in); a > 0; a--) {
+                    Azienda azienda = aziende[getVarint(in)];
+                    int prezzo = getVarint(in);
+                    borsa.ripristinaQuotazione(azienda, prezzo, getVarint(in));
+                    PoliticaPrezzo politica = leggiPolitica(in);
+                    if (politica != null) {
+                        borsa.setPoliticaAzione(azienda, politica);
+                    }
+                    leggiLibro(borsa, azienda, operatori, in);
+                }
+                for (int o = getVarint(in); o > 0; o--) {
+                    Operatore op = operatori[getVarint(in)];
+                    for (int p = getVarint(in); p > 0; p--) {
+                        Azienda azienda = aziende[getVarint(in)];
+                        getVarint(in); // prezzo dell'azione quotata, già ripristinato con la quotazione
+                        borsa.aggiungiPosizione(op, borsa.getAzione(azienda, borsa), getVarint(in));
+                    }
+                }
+            }
+        } catch (java.nio.BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("il file dell'istantanea è incompleto o danneggiato", e);
+        }
+    }
+
+    /**
+     * Restituisce la posizione di un nome nella tabella dei nomi, aggiungendolo se non c'è
+     * @param nome nome da cercare
+     * @param nomi posizioni dei nomi già nella tabella
+     * @param tabella tabella dei nomi in costruzione
+     * @return la posizione del nome
+     */
+    private static int nome(String nome, Map<String, Integer> nomi, Scrittore tabella) {
+        Integer indice = nomi.get(nome);
+        if (indice == null) {
+            indice = nomi.size();
+            nomi.put(nome, indice);
+            putTesto(nome, tabella);
+        }
+        return indice;
+    }
+
+    /**
+     * Scrive un testo come lunghezza (varint) seguita dai byte UTF-8
+     * @param testo testo da scrivere
+     * @param out destinazione
+     */
+    private static void putTesto(String testo, Scrittore out) {
+        byte[] byteTesto = testo.getBytes(StandardCharsets.UTF_8);
+        out.putVarint(byteTesto.length);
+        out.put(byteTesto);
+    }
+
+    /**
+     * Legge un testo scritto da {@link #putTesto(String, Scrittore)}
+     * @param in sorgente
+     * @return il testo
+     */
+    private static String getTesto(ByteBuffer in) {
+        byte[] testo = new byte[getVarint(in)];
+        in.get(testo);
+        return new String(testo, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scrive la politica di prezzo di una borsa o di un'azione quotata; una politica composta è scritta con i parametri
+     * della composizione seguiti dalle politiche che la formano
+     * @param politica politica da scrivere (può essere null)
+     * @param out destinazione
+     * @throws IllegalStateException se la politica non è una di quelle fornite dal progetto o una loro composizione
+     */
+    private static void scriviPolitica(PoliticaPrezzo politica, Scrittore out) {
+        if (politica == null) {
+            out.put(NESSUNA);
+        } else if (politica instanceof VariazioneCostante costante) {
+            out.put(COSTANTE);
+            out.putVarint(zigZag(costante.getIncremento()));
+            out.putVarint(zigZag(costante.getDecremento()));
+        } else if (politica instanceof VariazioneSoglia soglia) {
+            out.put(SOGLIA);
+            out.putVarint(soglia.getSoglia());
+        } else if (politica instanceof VariazioneVocali vocali) {
+            out.put(VOCALI);
+            out.putVarint(vocali.getLettera());
+        } else if (politica instanceof PoliticaEspressione espressione) {
+            out.put(ESPRESSIONE);
+            putTesto(espressione.getAcquisto(), out);
+            putTesto(espressione.getVendita(), out);
+        } else if (politica instanceof PoliticaComposta composta) {
+            out.put(switch (composta.getTipo()) {
+                case CATENA -> CATENA;
+                case SE_QUANTITA_OLTRE -> SE_QUANTITA_OLTRE;
+                case LIMITATA -> LIMITATA;
+            });
+            out.putVarint(zigZag(composta.getPrimo()));
+            out.putVarint(zigZag(composta.getSecondo()));
+            PoliticaPrezzo[] parti = composta.getPolitiche();
+            out.putVarint(parti.length);
+            for (PoliticaPrezzo parte : parti) {
+                scriviPolitica(parte, out);
+            }
+        } else {
+            throw new IllegalStateException("politica di prezzo non salvabile: " + politica.getClass().getName());
+        }
+    }
+
+    /**
+     * Legge una politica di prezzo scritta da {@link #scriviPolitica(PoliticaPrezzo, Scrittore)}
+     * @param in sorgente
+     * @return la politica, null se non era impostata
+     * @throws IllegalArgumentException se il tipo di politica non è riconosciuto
+     */
+    private static PoliticaPrezzo leggiPolitica(ByteBuffer in) {
+        byte tipo = in.get();
+        switch (tipo) {
+            case NESSUNA -> {
+                return null;
+            }
+            case COSTANTE -> {
+                int incremento = daZigZag(getVarint(in));
+                return new VariazioneCostante(incremento, daZigZag(getVarint(in)));
+            }
+            case SOGLIA -> {
+                return new VariazioneSoglia(getVarint(in));
+            }
+            case VOCALI -> {
+                return new VariazioneVocali(String.valueOf((char) getVarint(in)));
+            }
+            case ESPRESSIONE -> {
+                String acquisto = getTesto(in);
+                return new PoliticaEspressione(acquisto, getTesto(in));
+            }
+            case CATENA, SE_QUANTITA_OLTRE, LIMITATA -> {
+                int primo = daZigZag(getVarint(in));
+                int secondo = daZigZag(getVarint(in));
+                PoliticaPrezzo[] parti = new PoliticaPrezzo[getVarint(in)];
+                for (int i = 0; i < parti.length; i++) {
+                    parti[i] = leggiPolitica(in);
+                }
+                return switch (tipo) {
+                    case CATENA -> PoliticaComposta.catena(parti);
+                    case SE_QUANTITA_OLTRE -> PoliticaComposta.seQuantitaOltre(primo, parti[0], parti[1]);
+                    default -> PoliticaComposta.limitata(parti[0], primo, secondo);
+                };
+            }
+            default -> throw new IllegalArgumentException("politica di prezzo sconosciuta nell'istantanea: " + tipo);
+        }
+    }
+
+    /**
+     * Scrive il libro degli ordini di un'azione quotata: un byte che indica se il libro esiste e, se esiste,
+     * il numero dell'ultimo ordine, l'ultimo prezzo, gli ordini in attesa e gli slot liberi {@link LibroOrdini#visita(LibroOrdini.Visitatore)}
+     * @param libro libro da scrivere (null se l'azione non ne ha uno)
+     * @param indiceOperatori posizioni degli operatori nell'istantanea
+     * @param out destinazione
+     */
+    private static void scriviLibro(LibroOrdini libro, Map<Operatore, Integer> indiceOperatori, Scrittore out) {
+        if (libro == null) {
+            out.put((byte) 0);
+            return;
+        }
+        out.put((byte) 1);
+        Scrittore ordini = new Scrittore();
+        Scrittore liberi = new Scrittore();
+        int[] conteggi = new int[2];
+        libro.visita(new LibroOrdini.Visitatore() {
+            @Override
+            public void libro(long sequenza, int ultimoPrezzo) {
+                out.putVarint(sequenza);
+                out.putVarint(ultimoPrezzo);
+            }
+
+            @Override
+            public void ordine(long ordine, Operatore op, boolean acquisto, int prezzoLimite, int residuo) {
+                ordini.putVarint(ordine);
+                ordini.putVarint(indiceOperatori.get(op));
+                ordini.put((byte) (acquisto ? 1 : 0));
+                ordini.putVarint(prezzoLimite);
+                ordini.putVarint(residuo);
+                conteggi[0]++;
+            }
+
+            @Override
+            public void libero(int slot) {
+                liberi.putVarint(slot);
+                conteggi[1]++;
+            }
+        });
+        out.putVarint(conteggi[0]);
+        out.put(ordini);
+        out.putVarint(conteggi[1]);
+        out.put(liberi);
+    }
+
+    /**
+     * Legge il libro degli ordini scritto da {@link #scriviLibro(LibroOrdini, Map, Scrittore)} e lo ripristina
+     * nell'azione quotata, senza impegnare di nuovo bilanci e azioni già tolti agli operatori
+     * @param borsa borsa dell'azione quotata
+     * @param azienda azienda dell'azione quotata
+     * @param operatori operatori ripristinati, nell'ordine dell'istantanea
+     * @param in sorgente
+     */
+    private static void leggiLibro(Borsa borsa, Azienda azienda, Operatore[] operatori, ByteBuffer in) {
+        if (in.get() == 0) {
+            return;
+        }
+        LibroOrdini libro = borsa.getLibroOrdini(azienda);
+        long sequenza = getVarlong(in);
+        int ultimoPrezzo = getVarint(in);
+        for (int o = getVarint(in); o > 0; o--) {
+            long ordine = getVarlong(in);
+            Operatore op = operatori[getVarint(in)];
+            boolean acquisto = in.get() != 0;
+            int prezzoLimite = getVarint(in);
+            libro.ripristinaOrdine(ordine, op, acquisto, prezzoLimite, getVarint(in));
+        }
+        int[] liberi = new int[getVarint(in)];
+        for (int i = 0; i < liberi.length; i++) {
+            liberi[i] = getVarint(in);
+        }
+        libro.ripristina(sequenza, ultimoPrezzo, liberi);
+    }
+
+    /**
+     * Codifica un intero con segno in modo che i valori piccoli in modulo restino piccoli
+     * @param valore intero con segno
+     * @return intero senza segno
+     */
+    private static int zigZag(int valore) {
+        return (valore << 1) ^ (valore >> 31);
+    }
+
+    /**
+     * Decodifica un intero codificato con {@link #zigZag(int)}
+     * @param valore intero senza segno
+     * @return intero con segno
+     */
+    private static int daZigZag(int valore) {
+        return (valore >>> 1) ^ -(valore & 1);
+    }
+
+    /**
+     * Legge un intero codificato come varint
+     * @param in sorgente
+     * @return l'intero
+     */
+    private static int getVarint(ByteBuffer in) {
+        int valore = 0;
+        int spostamento = 0;
+        byte b;
+        do {
+            b = in.get();
+            valore |= (b & 0x7F) << spostamento;
+            spostamento += 7;
+        } while (b < 0);
+        return valore;
+    }
+
+    /**
+     * Legge un intero a 64 bit codificato come varint (usato per i bilanci)
+     * @param in sorgente
+     * @return l'intero
+     */
+    private static long getVarlong(ByteBuffer in) {
+        long valore = 0;
+        int spostamento = 0;
+        byte b;
+        do {
+            b = in.get();
+            valore |= (long) (b & 0x7F) << spostamento;
+            spostamento += 7;
+        } while (b < 0);
+        return valore;
+    }
+
+    /**
+     * Buffer di scrittura che cresce raddoppiando, con la codifica varint
+     */
+    private static final class Scrittore {
+        /**Byte scritti*/
+        private byte[] dati = new byte[4096];
+        /**Numero di byte scritti*/
+        private int lunghezza;
+
+        /**
+         * Si assicura che ci sia spazio per altri {@code n} byte
+         * @param n byte da scrivere
+         */
+        private void spazio(int n) {
+            if (lunghezza + n > dati.length) {
+                dati = Arrays.copyOf(dati, Math.max(dati.length * 2, lunghezza + n));
+            }
+        }
+
+        /**
+         * Scrive un byte
+         * @param b byte da scrivere
+         */
+        void put(byte b) {
+            spazio(1);
+            dati[lunghezza++] = b;
+        }
+
+        /**
+         * Scrive dei byte
+         * @param b byte da scrivere
+         */
+        void put(byte[] b) {
+            spazio(b.length);
+            System.arraycopy(b, 0, dati, lunghezza, b.length);
+            lunghezza += b.length;
+        }
+
+        /**
+         * Scrive il contenuto di un altro scrittore
+         * @param altro scrittore da copiare
+         */
+        void put(Scrittore altro) {
+            spazio(altro.lunghezza);
+            System.arraycopy(altro.dati, 0, dati, lunghezza, altro.lunghezza);
+            lunghezza += altro.lunghezza;
+        }
+
+        /**
+         * Scrive un intero a 32 bit (big-endian)
+         * @param valore intero da scrivere
+         */
+        void putInt(int valore) {
+            spazio(4);
+            for (int s = 24; s >= 0; s -= 8) {
+                dati[lunghezza++] = (byte) (valore >>> s);
+            }
+        }
+
+        /**
+         * Scrive un intero senza segno come varint; gli interi a 32 bit hanno la stessa codifica in 64 bit
+         * @param valore intero da scrivere
+         */
+        void putVarint(long valore) {
+            spazio(10);
+            while ((valore & ~0x7F) != 0) {
+                dati[lunghezza++] = (byte) ((valore & 0x7F) | 0x80);
+                valore >>>= 7;
+            }
+            dati[lunghezza++] = (byte) valore;
+        }
+
+        /**
+         * Restituisce i byte scritti
+         * @return buffer pronto per la lettura
+         */
+        ByteBuffer dati() {
+            return ByteBuffer.wrap(dati, 0, lunghezza);
+        }
+    }
+}
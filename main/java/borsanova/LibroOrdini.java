@@ -0,0 +1,849 @@
+package borsanova;
+
+import java.util.Arrays;
+
+/**
+ * La classe {@code LibroOrdini} è il libro degli ordini con limite di prezzo di una {@link Borsa.Azione} quotata,
+ * affiancato alla compravendita con la borsa ({@link Borsa#richiestaAcquisto(Operatore, int, Borsa.Azione)},
+ * {@link Borsa#richiestaVendita(Operatore, int, Azienda)}) in cui il prezzo è deciso dalla {@link PoliticaPrezzo}.
+ * <p>
+ * Nel libro gli operatori scambiano azioni tra loro: gli ordini di acquisto (denaro) e di vendita (lettera) che non trovano
+ * subito una controparte restano nel libro, raggruppati per livello di prezzo; all'interno di un livello sono eseguiti
+ * nell'ordine di arrivo (priorità prezzo-tempo). Lo scambio avviene sempre al prezzo dell'ordine già presente nel libro.
+ * <p>
+ * Gli ordini vivono in array paralleli preallocati (uno slot per ordine, collegati in liste FIFO per livello).
+ * I livelli di ciascun lato esistono solo per i prezzi che hanno ordini in attesa: sono trovati per prezzo con una tabella hash
+ * e ordinati da un heap, la cui radice è il miglior prezzo del lato, letto in tempo costante; creare o svuotare un livello
+ * costa O(log L) con L livelli attivi, indipendentemente dal valore dei prezzi. L'esecuzione non alloca oggetti
+ * se non quando gli array devono crescere.
+ * <p>
+ * All'inserimento l'ordine impegna subito quanto gli serve: un acquisto preleva dal bilancio {@code prezzoLimite * quantita},
+ * una vendita toglie le azioni dalle posizioni dell'operatore. Così l'esecuzione non può fallire a metà; l'eventuale
+ * miglioramento di prezzo e il residuo di un ordine annullato vengono restituiti all'operatore.
+ * <p>
+ * L'abbinamento degli ordini avviene sotto il lock del libro, che fa quindi da lock per lo strumento; gli impegni all'inserimento
+ * e il regolamento degli scambi (azioni ai compratori, ricavato ai venditori, restituzioni) avvengono fuori dal lock,
+ * perché toccano solo bilanci e posizioni degli operatori, che hanno la loro sincronizzazione.
+ * <p>
+ * Nel {@link Giornale} inserimenti e annullamenti sono registrati come comandi, sotto il lock e quindi nell'ordine in cui sono
+ * abbinati: riprodurli nello stesso ordine ricostruisce il libro, gli identificativi e tutti gli scambi, quindi né gli impegni
+ * né il regolamento vengono registrati a parte. L'{@link Istantanea} salva gli ordini in attesa con i loro slot,
+ * la lista degli slot liberi e il numero dell'ultimo ordine, così anche gli identificativi assegnati dopo il ripristino
+ * sono quelli che il libro avrebbe assegnato senza interruzioni.
+ */
+public final class LibroOrdini {
+    /**Indice che indica l'assenza di un ordine o di un livello*/
+    private static final int NESSUNO = -1;
+    /**Numero di ordini e di livelli di prezzo allocati inizialmente*/
+    private static final int CAPACITA_INIZIALE = 64;
+    /**Scambi da regolare dopo aver rilasciato il lock del libro, uno per thread*/
+    private static final ThreadLocal<Regolamento> REGOLAMENTO = ThreadLocal.withInitial(Regolamento::new);
+
+    /**Borsa in cui l'azione è quotata, usata per spostare le azioni tra gli operatori*/
+    private final Borsa borsa;
+    /**Azione quotata a cui si riferisce il libro*/
+    private final Borsa.Azione azione;
+
+    /**Operatore che ha inserito l'ordine nello slot*/
+    private Operatore[] operatore = new Operatore[CAPACITA_INIZIALE];
+    /**Prezzo limite dell'ordine nello slot*/
+    private int[] limite = new int[CAPACITA_INIZIALE];
+    /**Quantità ancora da eseguire dell'ordine nello slot*/
+    private int[] residuo = new int[CAPACITA_INIZIALE];
+    /**Lato dell'ordine nello slot (true se acquisto)*/
+    private boolean[] acquisto = new boolean[CAPACITA_INIZIALE];
+    /**Livello di prezzo del suo lato in cui è in coda l'ordine nello slot*/
+    private int[] livello = new int[CAPACITA_INIZIALE];
+    /**Slot successivo nella coda del livello (o nella lista degli slot liberi)*/
+    private int[] successivo = new int[CAPACITA_INIZIALE];
+    /**Slot precedente nella coda del livello*/
+    private int[] precedente = new int[CAPACITA_INIZIALE];
+    /**Identificativo dell'ordine che occupa lo slot (0 se lo slot è libero)*/
+    private long[] identificativo = new long[CAPACITA_INIZIALE];
+    /**Testa della lista degli slot liberi*/
+    private int liberi = NESSUNO;
+    /**Numero dell'ultimo ordine inserito*/
+    private long sequenza;
+
+    /**Livelli di prezzo degli ordini di acquisto, il migliore è il più alto*/
+    private final Lato denaro = new Lato(true);
+    /**Livelli di prezzo degli ordini di vendita, il migliore è il più basso*/
+    private final Lato lettera = new Lato(false);
+    /**Prezzo dell'ultimo scambio (0 se non ce ne sono stati)*/
+    private int ultimoPrezzo;
+
+    /*
+     * AF:
+     *   Un'istanza di "LibroOrdini" rappresenta gli ordini con limite in attesa su "azione":
+     *   - lo slot i è occupato da un ordine se identificativo[i] != 0, l'ordine è di "operatore[i]", ha prezzo "limite[i]",
+     *     quantità ancora da eseguire "residuo[i]" ed è un acquisto se "acquisto[i]".
+     *   - per ogni livello l di "denaro", testa[l] .. coda[l] (seguendo "successivo") sono gli acquisti al prezzo prezzo[l]
+     *     in ordine di arrivo; lo stesso per le vendite in "lettera".
+     *   - denaro.migliore() e lettera.migliore() sono il prezzo più alto in acquisto e quello più basso in vendita.
+     *   - "ultimoPrezzo" è il prezzo dell'ultimo scambio.
+     * RI:
+     *   - "borsa" e "azione" non sono null.
+     *   - ogni slot occupato ha residuo > 0 e limite >= 1 ed è in esattamente una coda, quella del livello[i] del suo lato,
+     *     che ha prezzo limite[i].
+     *   - gli slot liberi formano la lista che parte da "liberi".
+     *   - ogni livello attivo di un lato ha la coda non vuota e un prezzo diverso dagli altri livelli dello stesso lato.
+     *   - se denaro.migliore() e lettera.migliore() sono entrambi diversi da 0, il primo è minore del secondo (il libro non è incrociato).
+     */
+
+    /**
+     * Costruttore della classe {@link LibroOrdini}, usato dalla borsa quando il libro di un'azione viene richiesto la prima volta
+     * @param borsa borsa in cui l'azione è quotata (non null)
+     * @param azione azione quotata a cui si riferisce il libro (non null)
+     */
+    LibroOrdini(Borsa borsa, Borsa.Azione azione) {
+        this.borsa = borsa;
+        this.azione = azione;
+        aggiungiSlotLiberi(0);
+    }
+
+    /**
+     * Inserisce un ordine di acquisto con limite: lo esegue contro le vendite con prezzo minore o uguale a {@code prezzoLimite},
+     * a partire dalla miglior lettera e in ordine di arrivo, e lascia nel libro la parte non eseguita.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code op.budget} --> viene prelevato {@code prezzoLimite * quantita}; la differenza di prezzo degli scambi avvenuti
+     *      sotto il limite viene restituita
+     * <li> le posizioni di {@code op} e dei venditori vengono aggiornate in borsa, i venditori ricevono il ricavato
+     * </ul>
+     * @param op operatore che inserisce l'ordine (non null)
+     * @param prezzoLimite prezzo massimo che l'operatore è disposto a pagare (>= 1)
+     * @param quantita numero di azioni da acquistare (>= 1)
+     * @return l'identificativo dell'ordine
+     * @throws IllegalStateException se il bilancio dell'operatore non copre l'ordine (il libro resta invariato)
+     */
+    long inserisciAcquisto(Operatore op, int prezzoLimite, int quantita) {
+        if (!op.addebita((long) prezzoLimite * quantita)) {
+            throw new IllegalStateException("Il budget non può andare in negativo");
+        }
+        return abbinaAcquisto(op, prezzoLimite, quantita);
+    }
+
+    /**
+     * Reinserisce un ordine di acquisto registrato nel {@link Giornale}, come {@link #inserisciAcquisto(Operatore, int, int)}
+     * ma senza controllare il bilancio: durante la riproduzione può passare temporaneamente in negativo
+     * @param op operatore che ha inserito l'ordine (non null)
+     * @param prezzoLimite prezzo limite (>= 1)
+     * @param quantita numero di azioni da acquistare (>= 1)
+     * @return l'identificativo dell'ordine
+     */
+    long ripristinaAcquisto(Operatore op, int prezzoLimite, int quantita) {
+        op.ripristinaBudget(-(long) prezzoLimite * quantita);
+        return abbinaAcquisto(op, prezzoLimite, quantita);
+    }
+
+    /**
+     * Abbina un ordine di acquisto il cui importo è già stato impegnato, accoda la parte non eseguita,
+     * registra l'ordine nel {@link Giornale} e regola gli scambi
+     * @param op operatore dell'ordine
+     * @param prezzoLimite prezzo limite
+     * @param quantita numero di azioni da acquistare
+     * @return l'identificativo dell'ordine
+     */
+    private long abbinaAcquisto(Operatore op, int prezzoLimite, int quantita) {
+        Regolamento regolamento = REGOLAMENTO.get();
+        long rimborso = 0;
+        long id;
+        synchronized (this) {
+            int daEseguire = quantita;
+            while (daEseguire > 0 && lettera.attivi > 0 && lettera.migliore() <= prezzoLimite) {
+                int prezzo = lettera.migliore();
+                int ordine = lettera.primo();
+                int eseguiti = Math.min(daEseguire, residuo[ordine]);
+                scambio(regolamento, op, operatore[ordine], prezzo, eseguiti);
+                rimborso += (long) (prezzoLimite - prezzo) * eseguiti;
+                daEseguire -= eseguiti;
+                residuo[ordine] -= eseguiti;
+                if (residuo[ordine] == 0) {
+                    rimuovi(ordine);
+                }
+            }
+            id = accoda(op, true, prezzoLimite, daEseguire);
+            Giornale.ordine(azione, op, true, prezzoLimite, quantita, id);
+        }
+        regolamento.esegui(borsa, azione);
+        if (rimborso != 0) {
+            op.accredita(rimborso);
+        }
+        return id;
+    }
+
+    /**
+     * Inserisce un ordine di vendita con limite: lo esegue contro gli acquisti con prezzo maggiore o uguale a {@code prezzoLimite},
+     * a partire dal miglior denaro e in ordine di arrivo, e lascia nel libro la parte non eseguita.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> le {@code quantita} azioni vengono tolte subito dalle posizioni di {@code op}
+     * <li> {@code op.budget} --> riceve il ricavato degli scambi avvenuti, le posizioni dei compratori vengono aggiornate in borsa
+     * </ul>
+     * @param op operatore che inserisce l'ordine (non null)
+     * @param prezzoLimite prezzo minimo a cui l'operatore è disposto a vendere (>= 1)
+     * @param quantita numero di azioni da vendere (>= 1)
+     * @return l'identificativo dell'ordine
+     * @throws IllegalArgumentException se l'operatore non possiede azioni dell'azienda o ne possiede meno di {@code quantita}
+     *         (il libro resta invariato)
+     */
+    long inserisciVendita(Operatore op, int prezzoLimite, int quantita) {
+        borsa.rimuoviPosizione(op, azione.getAzienda(), quantita, false);
+        return abbinaVendita(op, prezzoLimite, quantita);
+    }
+
+    /**
+     * Reinserisce un ordine di vendita registrato nel {@link Giornale}, come {@link #inserisciVendita(Operatore, int, int)}
+     * ma senza controllare le posizioni: durante la riproduzione possono passare temporaneamente in negativo
+     * @param op operatore che ha inserito l'ordine (non null)
+     * @param prezzoLimite prezzo limite (>= 1)
+     * @param quantita numero di azioni da vendere (>= 1)
+     * @return l'identificativo dell'ordine
+     */
+    long ripristinaVendita(Operatore op, int prezzoLimite, int quantita) {
+        borsa.ripristinaPosizione(op, azione.getAzienda(), -quantita);
+        return abbinaVendita(op, prezzoLimite, quantita);
+    }
+
+    /**
+     * Abbina un ordine di vendita le cui azioni sono già state impegnate, accoda la parte non eseguita,
+     * registra l'ordine nel {@link Giornale} e regola gli scambi
+     * @param op operatore dell'ordine
+     * @param prezzoLimite prezzo limite
+     * @param quantita numero di azioni da vendere
+     * @return l'identificativo dell'ordine
+     */
+    private long abbinaVendita(Operatore op, int prezzoLimite, int quantita) {
+        Regolamento regolamento = REGOLAMENTO.get();
+        long id;
+        synchronized (this) {
+            int daEseguire = quantita;
+            while (daEseguire > 0 && denaro.attivi > 0 && denaro.migliore() >= prezzoLimite) {
+                int prezzo = denaro.migliore();
+                int ordine = denaro.primo();
+                int eseguiti = Math.min(daEseguire, residuo[ordine]);
+                scambio(regolamento, operatore[ordine], op, prezzo, eseguiti);
+                daEseguire -= eseguiti;
+                residuo[ordine] -= eseguiti;
+                if (residuo[ordine] == 0) {
+                    rimuovi(ordine);
+                }
+            }
+            id = accoda(op, false, prezzoLimite, daEseguire);
+            Giornale.ordine(azione, op, false, prezzoLimite, quantita, id);
+        }
+        regolamento.esegui(borsa, azione);
+        return id;
+    }
+
+    /**
+     * Annulla un ordine ancora presente nel libro e restituisce all'operatore quanto era impegnato per la parte non eseguita
+     * (la cifra per un acquisto, le azioni per una vendita)
+     * @param ordine identificativo restituito all'inserimento
+     * @return true se l'ordine era nel libro ed è stato annullato, false se era già eseguito o annullato
+     */
+    boolean annulla(long ordine) {
+        Operatore op;
+        boolean lato;
+        int prezzo;
+        int rimasti;
+        synchronized (this) {
+            int slot = slotDi(ordine);
+            if (slot == NESSUNO) {
+                return false;
+            }
+            op = operatore[slot];
+            lato = acquisto[slot];
+            prezzo = limite[slot];
+            rimasti = residuo[slot];
+            rimuovi(slot);
+            Giornale.annullamento(azione, ordine);
+        }
+        if (lato) {
+            op.accredita((long) prezzo * rimasti);
+        } else {
+            borsa.aggiungiPosizione(op, azione, rimasti);
+        }
+        return true;
+    }
+
+    /**
+     * Estrae il prezzo più alto tra gli ordini di acquisto nel libro
+     * @return miglior denaro, 0 se non ci sono ordini di acquisto
+     */
+    public synchronized int getMigliorDenaro() {
+        return denaro.migliore();
+    }
+
+    /**
+     * Estrae il prezzo più basso tra gli ordini di vendita nel libro
+     * @return miglior lettera, 0 se non ci sono ordini di vendita
+     */
+    public synchronized int getMigliorLettera() {
+        return lettera.migliore();
+    }
+
+    /**
+     * Estrae il prezzo dell'ultimo scambio avvenuto nel libro
+     * @return ultimo prezzo, 0 se non ci sono stati scambi
+     */
+    public synchronized int getUltimoPrezzo() {
+        return ultimoPrezzo;
+    }
+
+    /**
+     * Somma le quantità degli ordini di acquisto in attesa a un certo prezzo
+     * @param prezzo livello di prezzo
+     * @return numero di azioni richieste a quel prezzo
+     */
+    public synchronized int getQuantitaDenaro(int prezzo) {
+        int l = denaro.cerca(prezzo);
+        return l == NESSUNO ? 0 : somma(denaro.testa[l]);
+    }
+
+    /**
+     * Somma le quantità degli ordini di vendita in attesa a un certo prezzo
+     * @param prezzo livello di prezzo
+     * @return numero di azioni offerte a quel prezzo
+     */
+    public synchronized int getQuantitaLettera(int prezzo) {
+        int l = lettera.cerca(prezzo);
+        return l == NESSUNO ? 0 : somma(lettera.testa[l]);
+    }
+
+    /**
+     * Estrae la quantità ancora da eseguire di un ordine
+     * @param ordine identificativo restituito all'inserimento
+     * @return la quantità residua, 0 se l'ordine è stato eseguito completamente o annullato
+     */
+    public synchronized int getResiduo(long ordine) {
+        int slot = slotDi(ordine);
+        return slot == NESSUNO ? 0 : residuo[slot];
+    }
+
+    /**
+     * Visita lo stato del libro per salvarlo in un'{@link Istantanea}: prima il numero dell'ultimo ordine e l'ultimo prezzo,
+     * poi gli ordini in attesa livello per livello, ciascun livello nell'ordine di arrivo, infine gli slot liberi
+     * nell'ordine in cui verranno assegnati
+     * @param visitatore riceve lo stato del libro (non null)
+     */
+    synchronized void visita(Visitatore visitatore) {
+        visitatore.libro(sequenza, ultimoPrezzo);
+        for (Lato livelli : new Lato[]{denaro, lettera}) {
+            for (int i = 0; i < livelli.attivi; i++) {
+                for (int slot = livelli.testa[livelli.mucchio[i]]; slot != NESSUNO; slot = successivo[slot]) {
+                    visitatore.ordine(identificativo[slot], operatore[slot], acquisto[slot], limite[slot], residuo[slot]);
+                }
+            }
+        }
+        for (int slot = liberi; slot != NESSUNO; slot = successivo[slot]) {
+            visitatore.libero(slot);
+        }
+    }
+
+    /**
+     * Rimette nel libro un ordine in attesa salvato in un'{@link Istantanea}, nel suo slot e con il suo identificativo.
+     * Il bilancio o le azioni impegnati dall'ordine sono già stati tolti all'operatore, quindi non vengono impegnati di nuovo.
+     * Gli ordini di uno stesso livello vanno rimessi nell'ordine di arrivo, prima di {@link #ripristina(long, int, int[])}.
+     * @param ordine identificativo dell'ordine
+     * @param op operatore dell'ordine (non null)
+     * @param lato true per un acquisto, false per una vendita
+     * @param prezzoLimite prezzo limite (>= 1)
+     * @param rimanente quantità ancora da eseguire (>= 1)
+     */
+    synchronized void ripristinaOrdine(long ordine, Operatore op, boolean lato, int prezzoLimite, int rimanente) {
+        int slot = (int) ordine;
+        while (slot >= identificativo.length) {
+            raddoppia();
+        }
+        occupa(slot, ordine, op, lato, prezzoLimite, rimanente);
+    }
+
+    /**
+     * Completa il ripristino da un'{@link Istantanea}: imposta il numero dell'ultimo ordine e l'ultimo prezzo
+     * e ricostruisce la lista degli slot liberi nell'ordine salvato
+     * @param sequenza numero dell'ultimo ordine inserito
+     * @param prezzo prezzo dell'ultimo scambio (0 se non ce ne sono stati)
+     * @param slotLiberi gli slot liberi nell'ordine in cui verranno assegnati
+     */
+    synchronized void ripristina(long sequenza, int prezzo, int[] slotLiberi) {
+        this.sequenza = sequenza;
+        ultimoPrezzo = prezzo;
+        liberi = NESSUNO;
+        for (int i = slotLiberi.length - 1; i >= 0; i--) {
+            while (slotLiberi[i] >= identificativo.length) {
+                raddoppia();
+            }
+            successivo[slotLiberi[i]] = liberi;
+            liberi = slotLiberi[i];
+        }
+    }
+
+    /**
+     * Registra uno scambio avvenuto nel libro: aggiorna l'ultimo prezzo, pubblica il tick e lascia al regolamento
+     * lo spostamento delle azioni al compratore e del ricavato al venditore, già impegnati all'inserimento degli ordini
+     * @param regolamento scambi da regolare dopo il rilascio del lock
+     * @param compratore operatore che riceve le azioni
+     * @param venditore operatore che riceve il ricavato
+     * @param prezzo prezzo dello scambio
+     * @param numero numero di azioni scambiate
+     */
+    private void scambio(Regolamento regolamento, Operatore compratore, Operatore venditore, int prezzo, int numero) {
+        regolamento.aggiungi(compratore, venditore, prezzo, numero);
+        ultimoPrezzo = prezzo;
+        borsa.pubblicaTick(DistributoreTick.SCAMBIO, azione, prezzo, numero, prezzo, 0);
+    }
+
+    /**
+     * Mette in coda al suo livello di prezzo la parte non eseguita di un ordine.
+     * Anche un ordine eseguito completamente riceve un identificativo, ma non occupa alcuno slot.
+     * @param op operatore dell'ordine
+     * @param lato true per un acquisto, false per una vendita
+     * @param prezzo prezzo limite
+     * @param rimanente quantità non eseguita
+     * @return l'identificativo dell'ordine
+     */
+    private long accoda(Operatore op, boolean lato, int prezzo, int rimanente) {
+        long id = ++sequenza << 32;
+        if (rimanente == 0) {
+            return id | 0xFFFFFFFFL;
+        }
+        int slot = alloca();
+        id |= slot;
+        occupa(slot, id, op, lato, prezzo, rimanente);
+        return id;
+    }
+
+    /**
+     * Occupa uno slot con un ordine e lo mette in coda al suo livello di prezzo, creando il livello se non c'è
+     * @param slot slot da occupare, già tolto dalla lista degli slot liberi
+     * @param id identificativo dell'ordine
+     * @param op operatore dell'ordine
+     * @param lato true per un acquisto, false per una vendita
+     * @param prezzo prezzo limite
+     * @param rimanente quantità non eseguita (> 0)
+     */
+    private void occupa(int slot, long id, Operatore op, boolean lato, int prezzo, int rimanente) {
+        identificativo[slot] = id;
+        operatore[slot] = op;
+        limite[slot] = prezzo;
+        residuo[slot] = rimanente;
+        acquisto[slot] = lato;
+        successivo[slot] = NESSUNO;
+        Lato livelli = lato ? denaro : lettera;
+        int l = livelli.livello(prezzo);
+        livello[slot] = l;
+        precedente[slot] = livelli.coda[l];
+        if (livelli.coda[l] == NESSUNO) {
+            livelli.testa[l] = slot;
+        } else {
+            successivo[livelli.coda[l]] = slot;
+        }
+        livelli.coda[l] = slot;
+    }
+
+    /**
+     * Toglie un ordine dalla coda del suo livello e libera lo slot; se il livello resta vuoto viene eliminato dal suo lato,
+     * e se era il migliore il miglior prezzo passa al livello successivo
+     * @param slot slot dell'ordine
+     */
+    private void rimuovi(int slot) {
+        Lato livelli = acquisto[slot] ? denaro : lettera;
+        int l = livello[slot];
+        if (precedente[slot] == NESSUNO) {
+            livelli.testa[l] = successivo[slot];
+        } else {
+            successivo[precedente[slot]] = successivo[slot];
+        }
+        if (successivo[slot] == NESSUNO) {
+            livelli.coda[l] = precedente[slot];
+        } else {
+            precedente[successivo[slot]] = precedente[slot];
+        }
+        identificativo[slot] = 0;
+        operatore[slot] = null;
+        successivo[slot] = liberi;
+        liberi = slot;
+        if (livelli.testa[l] == NESSUNO) {
+            livelli.elimina(l);
+        }
+    }
+
+    /**
+     * Trova lo slot occupato da un ordine ancora nel libro
+     * @param ordine identificativo dell'ordine
+     * @return lo slot, oppure {@link #NESSUNO} se l'ordine non è nel libro
+     */
+    private int slotDi(long ordine) {
+        int slot = (int) ordine;
+        if (slot < 0 || slot >= identificativo.length || identificativo[slot] != ordine) {
+            return NESSUNO;
+        }
+        return slot;
+    }
+
+    /**
+     * Somma i residui di una coda di ordini
+     * @param slot primo ordine della coda
+     * @return la somma dei residui
+     */
+    private int somma(int slot) {
+        int totale = 0;
+        for (int i = slot; i != NESSUNO; i = successivo[i]) {
+            totale += residuo[i];
+        }
+        return totale;
+    }
+
+    /**
+     * Prende uno slot libero, raddoppiando gli array degli ordini se non ce ne sono
+     * @return lo slot
+     */
+    private int alloca() {
+        if (liberi == NESSUNO) {
+            aggiungiSlotLiberi(raddoppia());
+        }
+        int slot = liberi;
+        liberi = successivo[slot];
+        return slot;
+    }
+
+    /**
+     * Raddoppia gli array degli ordini
+     * @return il primo slot aggiunto
+     */
+    private int raddoppia() {
+        int vecchia = identificativo.length;
+        int nuova = vecchia * 2;
+        operatore = Arrays.copyOf(operatore, nuova);
+        limite = Arrays.copyOf(limite, nuova);
+        residuo = Arrays.copyOf(residuo, nuova);
+        acquisto = Arrays.copyOf(acquisto, nuova);
+        livello = Arrays.copyOf(livello, nuova);
+        successivo = Arrays.copyOf(successivo, nuova);
+        precedente = Arrays.copyOf(precedente, nuova);
+        identificativo = Arrays.copyOf(identificativo, nuova);
+        return vecchia;
+    }
+
+    /**
+     * Inserisce nella lista degli slot liberi gli slot da {@code da} alla fine degli array
+     * @param da primo slot da liberare
+     */
+    private void aggiungiSlotLiberi(int da) {
+        for (int i = identificativo.length - 1; i >= da; i--) {
+            successivo[i] = liberi;
+            liberi = i;
+        }
+    }
+
+    /**
+     * Riceve lo stato del libro durante una {@link #visita(Visitatore)}
+     */
+    interface Visitatore {
+        /**
+         * Riceve i contatori del libro, prima di tutti gli ordini
+         * @param sequenza numero dell'ultimo ordine inserito
+         * @param ultimoPrezzo prezzo dell'ultimo scambio (0 se non ce ne sono stati)
+         */
+        void libro(long sequenza, int ultimoPrezzo);
+
+        /**
+         * Riceve un ordine in attesa
+         * @param ordine identificativo dell'ordine
+         * @param op operatore dell'ordine
+         * @param acquisto true per un acquisto, false per una vendita
+         * @param prezzoLimite prezzo limite
+         * @param residuo quantità ancora da eseguire
+         */
+        void ordine(long ordine, Operatore op, boolean acquisto, int prezzoLimite, int residuo);
+
+        /**
+         * Riceve uno slot libero
+         * @param slot slot non occupato da alcun ordine
+         */
+        void libero(int slot);
+    }
+
+    /**
+     * I livelli di prezzo attivi di un lato del libro. Ogni livello ha un prezzo e la coda dei suoi ordini;
+     * i livelli sono trovati per prezzo con una tabella hash a catene e tenuti in un heap binario ordinato per prezzo
+     * (il più alto in cima per il denaro, il più basso per la lettera), quindi il miglior prezzo è sempre {@code mucchio[0]}.
+     * Tutti gli array sono indicizzati dal livello, non dal prezzo, e crescono con il numero di livelli attivi.
+     */
+    private static final class Lato {
+        /**Ordine dell'heap: true se il miglior prezzo è il più alto*/
+        private final boolean decrescente;
+        /**Prezzo del livello*/
+        private int[] prezzo = new int[CAPACITA_INIZIALE];
+        /**Primo ordine in coda al livello*/
+        private int[] testa = new int[CAPACITA_INIZIALE];
+        /**Ultimo ordine in coda al livello*/
+        private int[] coda = new int[CAPACITA_INIZIALE];
+        /**Posizione del livello nell'heap*/
+        private int[] posizione = new int[CAPACITA_INIZIALE];
+        /**Livello successivo nella catena dello stesso secchio (o nella lista dei livelli liberi)*/
+        private int[] catena = new int[CAPACITA_INIZIALE];
+        /**Primo livello di ogni secchio della tabella hash, la lunghezza è una potenza di 2*/
+        private int[] secchi = new int[CAPACITA_INIZIALE];
+        /**Heap dei livelli attivi ordinato per prezzo*/
+        private int[] mucchio = new int[CAPACITA_INIZIALE];
+        /**Numero di livelli attivi (la dimensione dell'heap)*/
+        private int attivi;
+        /**Testa della lista dei livelli liberi*/
+        private int liberi = NESSUNO;
+
+        /**
+         * Costruttore della classe, crea un lato senza livelli
+         * @param decrescente true se il miglior prezzo è il più alto (denaro), false se è il più basso (lettera)
+         */
+        private Lato(boolean decrescente) {
+            this.decrescente = decrescente;
+            Arrays.fill(secchi, NESSUNO);
+            aggiungiLiberi(0);
+        }
+
+        /**
+         * Estrae il miglior prezzo del lato
+         * @return il prezzo del livello in cima all'heap, 0 se non ci sono livelli
+         */
+        private int migliore() {
+            return attivi == 0 ? 0 : prezzo[mucchio[0]];
+        }
+
+        /**
+         * Estrae il primo ordine in coda al livello migliore (il lato deve avere almeno un livello)
+         * @return lo slot dell'ordine
+         */
+        private int primo() {
+            return testa[mucchio[0]];
+        }
+
+        /**
+         * Cerca il livello con un certo prezzo
+         * @param p prezzo
+         * @return il livello, oppure {@link #NESSUNO} se nessun ordine del lato ha quel prezzo
+         */
+        private int cerca(int p) {
+            for (int l = secchi[secchio(p)]; l != NESSUNO; l = catena[l]) {
+                if (prezzo[l] == p) {
+                    return l;
+                }
+            }
+            return NESSUNO;
+        }
+
+        /**
+         * Estrae il livello con un certo prezzo, creandolo vuoto se non esiste
+         * @param p prezzo (>= 1)
+         * @return il livello
+         */
+        private int livello(int p) {
+            int l = cerca(p);
+            if (l != NESSUNO) {
+                return l;
+            }
+            if (liberi == NESSUNO) {
+                cresci();
+            }
+            l = liberi;
+            liberi = catena[l];
+            prezzo[l] = p;
+            testa[l] = NESSUNO;
+            coda[l] = NESSUNO;
+            int s = secchio(p);
+            catena[l] = secchi[s];
+            secchi[s] = l;
+            mucchio[attivi] = l;
+            posizione[l] = attivi;
+            sali(attivi++);
+            return l;
+        }
+
+        /**
+         * Elimina un livello rimasto senza ordini: lo toglie dalla tabella hash e dall'heap e ne libera lo spazio
+         * @param l livello da eliminare
+         */
+        private void elimina(int l) {
+            int s = secchio(prezzo[l]);
+            if (secchi[s] == l) {
+                secchi[s] = catena[l];
+            } else {
+                int q = secchi[s];
+                while (catena[q] != l) {
+                    q = catena[q];
+                }
+                catena[q] = catena[l];
+            }
+            int i = posizione[l];
+            int ultimo = mucchio[--attivi];
+            if (i < attivi) {
+                mucchio[i] = ultimo;
+                posizione[ultimo] = i;
+                sali(i);
+                scendi(posizione[ultimo]);
+            }
+            catena[l] = liberi;
+            liberi = l;
+        }
+
+        /**
+         * Calcola il secchio della tabella hash di un prezzo
+         * @param p prezzo
+         * @return indice del secchio
+         */
+        private int secchio(int p) {
+            int h = p * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (secchi.length - 1);
+        }
+
+        /**
+         * Confronta due livelli secondo l'ordine dell'heap
+         * @param a primo livello
+         * @param b secondo livello
+         * @return true se {@code a} ha un prezzo migliore di {@code b}
+         */
+        private boolean precede(int a, int b) {
+            return decrescente ? prezzo[a] > prezzo[b] : prezzo[a] < prezzo[b];
+        }
+
+        /**
+         * Fa risalire nell'heap il livello in posizione {@code i} finché il suo prezzo è migliore di quello del padre
+         * @param i posizione nell'heap
+         */
+        private void sali(int i) {
+            int l = mucchio[i];
+            while (i > 0) {
+                int padre = (i - 1) >>> 1;
+                if (!precede(l, mucchio[padre])) {
+                    break;
+                }
+                mucchio[i] = mucchio[padre];
+                posizione[mucchio[i]] = i;
+                i = padre;
+            }
+            mucchio[i] = l;
+            posizione[l] = i;
+        }
+
+        /**
+         * Fa scendere nell'heap il livello in posizione {@code i} finché un figlio ha un prezzo migliore
+         * @param i posizione nell'heap
+         */
+        private void scendi(int i) {
+            int l = mucchio[i];
+            while (true) {
+                int figlio = 2 * i + 1;
+                if (figlio >= attivi) {
+                    break;
+                }
+                if (figlio + 1 < attivi && precede(mucchio[figlio + 1], mucchio[figlio])) {
+                    figlio++;
+                }
+                if (!precede(mucchio[figlio], l)) {
+                    break;
+                }
+                mucchio[i] = mucchio[figlio];
+                posizione[mucchio[i]] = i;
+                i = figlio;
+            }
+            mucchio[i] = l;
+            posizione[l] = i;
+        }
+
+        /**
+         * Raddoppia gli array dei livelli e la tabella hash, reinserendo i livelli attivi nei nuovi secchi
+         */
+        private void cresci() {
+            int vecchia = prezzo.length;
+            int nuova = vecchia * 2;
+            prezzo = Arrays.copyOf(prezzo, nuova);
+            testa = Arrays.copyOf(testa, nuova);
+            coda = Arrays.copyOf(coda, nuova);
+            posizione = Arrays.copyOf(posizione, nuova);
+            catena = Arrays.copyOf(catena, nuova);
+            mucchio = Arrays.copyOf(mucchio, nuova);
+            secchi = new int[nuova];
+            Arrays.fill(secchi, NESSUNO);
+            for (int i = 0; i < attivi; i++) {
+                int l = mucchio[i];
+                int s = secchio(prezzo[l]);
+                catena[l] = secchi[s];
+                secchi[s] = l;
+            }
+            aggiungiLiberi(vecchia);
+        }
+
+        /**
+         * Inserisce nella lista dei livelli liberi i livelli da {@code da} alla fine degli array
+         * @param da primo livello da liberare
+         */
+        private void aggiungiLiberi(int da) {
+            for (int i = prezzo.length - 1; i >= da; i--) {
+                catena[i] = liberi;
+                liberi = i;
+            }
+        }
+    }
+
+    /**
+     * Gli scambi abbinati sotto il lock del libro e non ancora regolati. Un'istanza per thread viene riusata
+     * a ogni inserimento, quindi raccogliere gli scambi non alloca memoria se non quando gli array devono crescere.
+     */
+    private static final class Regolamento {
+        /**Compratore dello scambio*/
+        private Operatore[] compratore = new Operatore[8];
+        /**Venditore dello scambio*/
+        private Operatore[] venditore = new Operatore[8];
+        /**Prezzo dello scambio*/
+        private int[] prezzo = new int[8];
+        /**Numero di azioni scambiate*/
+        private int[] numero = new int[8];
+        /**Numero di scambi da regolare*/
+        private int scambi;
+
+        /**
+         * Aggiunge uno scambio da regolare
+         * @param chi operatore che riceve le azioni
+         * @param a operatore che riceve il ricavato
+         * @param p prezzo dello scambio
+         * @param n numero di azioni scambiate
+         */
+        private void aggiungi(Operatore chi, Operatore a, int p, int n) {
+            if (scambi == prezzo.length) {
+                int nuova = scambi * 2;
+                compratore = Arrays.copyOf(compratore, nuova);
+                venditore = Arrays.copyOf(venditore, nuova);
+                prezzo = Arrays.copyOf(prezzo, nuova);
+                numero = Arrays.copyOf(numero, nuova);
+            }
+            compratore[scambi] = chi;
+            venditore[scambi] = a;
+            prezzo[scambi] = p;
+            numero[scambi] = n;
+            scambi++;
+        }
+
+        /**
+         * Regola tutti gli scambi raccolti, nell'ordine in cui sono avvenuti: il compratore riceve le azioni
+         * e il venditore il ricavato; poi svuota il regolamento
+         * @param borsa borsa in cui l'azione è quotata
+         * @param azione azione scambiata
+         */
+        private void esegui(Borsa borsa, Borsa.Azione azione) {
+            try {
+                for (int i = 0; i < scambi; i++) {
+                    compratore[i].addBorsa(borsa);
+                    borsa.aggiungiPosizione(compratore[i], azione, numero[i]);
+                    venditore[i].accredita((long) prezzo[i] * numero[i]);
+                }
+            } finally {
+                Arrays.fill(compratore, 0, scambi, null);
+                Arrays.fill(venditore, 0, scambi, null);
+                scambi = 0;
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package borsanova;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * La classe <strong>Operatore</strong> è caratterizzata da un nome (non vuoto), mantiene un bilancio,
@@ -8,30 +10,43 @@ import java.util.*;
  * Oltre al suo costruttore e getter, l'operatore ha metodi per:
  * <ul>
  * <li>Fare richieste di acquisto e vendita {@link Operatore#acquistaAzione(Borsa, int, Borsa.Azione)} {@link Operatore#vendiAzione(Borsa, Azienda, int)}
- * <li>Depositare e prelevare dal bilancio {@link Operatore#prelievo(int)} {@link Operatore#deposito(int)}
- * <li>Controllare che il bilancio sia sempre valido {@link Operatore#checkBudget(int)}
+ * <li>Distribuire un acquisto su tutte le borse in cui un'azienda è quotata, dalla più conveniente {@link Operatore#acquistaInstradato(Azienda, int)}
+ * <li>Depositare e prelevare dal bilancio {@link Operatore#prelievo(long)} {@link Operatore#deposito(long)}
+ * <li>Prelevare solo se il bilancio è sufficiente {@link Operatore#tentaPrelievo(long)}
  * <li>Contare il valore totale delle azioni possedute {@link Operatore#getValoreAzioni()}
  * </ul>
+ * <p>
+ * Il bilancio è un intero a 64 bit aggiornato in modo atomico (compare-and-set), quindi più thread possono regolare
+ * acquisti, vendite, depositi e prelievi dello stesso operatore contemporaneamente; i prelievi sono addebiti condizionati
+ * {@link Operatore#tentaPrelievo(long)} e tutti i valori monetari sono calcolati su {@code long}, senza overflow silenziosi.
  */
 public class Operatore implements Comparable<Operatore> {
     /**Mappa delle istanze dell'operatore*/
     private static final SortedMap<String, Operatore> INSTANCES = new TreeMap<>();
+    /**Istanze indicizzate per identificativo, scritte sotto il lock della classe e lette senza lock {@link #daId(int)}*/
+    private static volatile Operatore[] perId = new Operatore[16];
     /**Lista borse in cui l'operatore ha fatto acquisti o vendite*/
-    private final SortedSet<Borsa> borse = new TreeSet<>();
+    private final SortedSet<Borsa> borse = new ConcurrentSkipListSet<>();
     /**Il nome dell'operatore, (la sua unicità)*/
     private final String name;
-    /**Bilancio dell'operatore (se non specificato inizia a 0)*/
-    private int budget;
+    /**Identificativo denso dell'operatore, la sua posizione in ordine di creazione*/
+    private final int id;
+    /**Bilancio dell'operatore (se non specificato inizia a 0), aggiornato atomicamente*/
+    private final AtomicLong budget;
+    /**Valore corrente delle azioni possedute, aggiornato dalle borse a ogni variazione di posizione o di prezzo {@link RegistroValutazione}*/
+    private final AtomicLong valoreAzioni = new AtomicLong();
 
     /*
      * AF:
      *   Un'istanza di "Operatore" rappresenta un individuo o un'entità che mantiene:
      *   - "name" --> un nome unico per identificarlo.
+     *   - "id" --> un identificativo denso, perId[id] è l'operatore stesso.
      *   - "budget" --> un bilancio finanziario, che può essere positivo o 0.
      *   - "borse" --> una lista di borse in cui esso ha fatto operazioni di acquisto o vendita (ordinate alfabeticamente)
      *   - Può acquistare e vendere azioni facendo richiesta alla borsa.
      * RI:
      *   - "name" --> non deve essere null o vuoto.
+     *   - "id" --> compreso tra 0 e INSTANCES.size() - 1, diverso per ogni istanza.
      *   - "budget" --> deve essere maggiore o uguale a 0.
      *   - "borse" --> non deve essere null e non deve contenere elementi null.
      *   - Ogni elemento in "borse" deve essere un'istanza valida di "Borsa".
@@ -59,16 +74,59 @@ public class Operatore implements Comparable<Operatore> {
      * @throws IllegalArgumentException se il nome è vuoto oppure se il bilancio è minore di 0
      * @throws NullPointerException se il nome è null
      */
-    public static Operatore of(String name, int budget) {
+    public static synchronized Operatore of(String name, long budget) {
         if (budget < 0) {
             throw new IllegalArgumentException("il budget non può essere inferiore a 0");
         }
         if (Objects.requireNonNull(name, "Name must not be null.").isBlank())
             throw new IllegalArgumentException("Name must not be empty.");
-        if (!INSTANCES.containsKey(name)) INSTANCES.put(name, new Operatore(name, budget));
+        if (!INSTANCES.containsKey(name)) {
+            Operatore op = new Operatore(name, budget, INSTANCES.size());
+            INSTANCES.put(name, op);
+            registra(op);
+            Giornale.operatoreCreato(op);
+        }
         return INSTANCES.get(name);
     }
 
+    /**
+     * Estrae tutte le istanze esistenti, in ordine di nome (usato per salvare il mercato {@link Istantanea})
+     * @return copia dell'elenco delle istanze
+     */
+    static synchronized List<Operatore> istanze() {
+        return new ArrayList<>(INSTANCES.values());
+    }
+
+    /**
+     * Estrae l'istanza con un certo identificativo, senza lock: un identificativo si ottiene solo da un'istanza già creata,
+     * quindi la scrittura nella tabella è sempre visibile a chi la cerca.
+     * Pubblico per i protocolli che indicano le entità con il loro identificativo, come gli ordini binari
+     * {@link borsanova.managerOperazioni.OrdineBinario}
+     * @param id identificativo {@link #getId()}
+     * @return l'operatore
+     * @throws ArrayIndexOutOfBoundsException se nessuna istanza ha quell'identificativo
+     */
+    public static Operatore daId(int id) {
+        Operatore istanza = perId[id];
+        if (istanza == null) {
+            throw new ArrayIndexOutOfBoundsException(id);
+        }
+        return istanza;
+    }
+
+    /**
+     * Registra una nuova istanza nella tabella per identificativo, raddoppiandola se è piena (chiamato sotto il lock della classe)
+     * @param istanza operatore appena creata
+     */
+    private static void registra(Operatore istanza) {
+        Operatore[] tabella = perId;
+        if (istanza.id == tabella.length) {
+            tabella = Arrays.copyOf(tabella, tabella.length * 2);
+        }
+        tabella[istanza.id] = istanza;
+        perId = tabella;
+    }
+
     /**
      * Controlla l'esistenza nelle istanze di un operatore attraverso il suo nome (unicità di ogni operatore)
      * <p>
@@ -89,20 +147,27 @@ public class Operatore implements Comparable<Operatore> {
      * @throws IllegalArgumentException se il nome è vuoto
      * @throws NullPointerException se il nome è null
      */
-    public static Operatore of(String name) {
+    public static synchronized Operatore of(String name) {
         if (Objects.requireNonNull(name, "Name must not be null.").isBlank())
             throw new IllegalArgumentException("Name must not be empty.");
-        if (!INSTANCES.containsKey(name)) INSTANCES.put(name, new Operatore(name, 0));
+        if (!INSTANCES.containsKey(name)) {
+            Operatore op = new Operatore(name, 0, INSTANCES.size());
+            INSTANCES.put(name, op);
+            registra(op);
+            Giornale.operatoreCreato(op);
+        }
         return INSTANCES.get(name);
     }
     /**
      * Costruttore della classe {@link Operatore}
      * @param name nome dell'operatore
      * @param budget bilancio iniziale
+     * @param id identificativo denso dell'operatore
      */
-    private Operatore(String name, int budget) {
+    private Operatore(String name, long budget, int id) {
         this.name = name;
-        this.budget = budget;
+        this.id = id;
+        this.budget = new AtomicLong(budget);
     }
 
     /**
@@ -113,12 +178,21 @@ public class Operatore implements Comparable<Operatore> {
         return name;
     }
 
+    /**
+     * Estrae l'identificativo dell'operatore: intero denso assegnato alla creazione in {@code of} (0 per la prima istanza, poi 1, 2, ...),
+     * usabile come indice di array al posto del nome
+     * @return identificativo
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * Ritorna il bilancio
      * @return bilancio (mai negativo)
      */
-    public int getBudget() {
-        return budget;
+    public long getBudget() {
+        return budget.get();
     }
 
     /**
@@ -144,41 +218,47 @@ public class Operatore implements Comparable<Operatore> {
      * @param borsa borsa da aggiungere
      * @throws NullPointerException se la borsa da aggiungere è nulla
      */
-    private void addBorsa(Borsa borsa) {
+    void addBorsa(Borsa borsa) {
         borse.add(Objects.requireNonNull(borsa, "Borsa non deve essere null"));
     }
 
     /**
      * Estrae il capitale totale dell'operatore, vale a dire il bilancio + il valore di tutte le sue azioni possedute
      * @return capitale totale
+     * @throws ArithmeticException se il capitale supera il massimo rappresentabile
      */
-    public int capitaleTotale() {
-        return getBudget() + getValoreAzioni();
+    public long capitaleTotale() {
+        return Math.addExact(getBudget(), getValoreAzioni());
     }
 
     /**
-     * Scorre la lista di borse, somma i valori di tutte le azioni possedute
+     * Estrae il valore corrente di tutte le azioni possedute, cioè la somma di numero per prezzo corrente dell'azione quotata.
+     * Il valore è mantenuto dalle borse a ogni variazione di posizione o di prezzo {@link RegistroValutazione}, quindi la lettura
+     * ha costo costante; subito dopo un eseguito può non comprendere ancora la sua variazione di prezzo, che un altro thread sta propagando
      * @return il valore delle azioni possedute
      */
-    public int getValoreAzioni() {
-        int valoreAzioni = 0;
-        for (Borsa borsa : borse) {
-            if (borsa.getAzioniOperatori().containsKey(this)) {
-                for (Borsa.Azione azione : borsa.getAzioniOperatori().get(this)) {
-                    valoreAzioni += azione.getNumero()*azione.getPrezzo();
-                }
-            }
-        }
-        return valoreAzioni;
+    public long getValoreAzioni() {
+        return valoreAzioni.get();
+    }
+
+    /**
+     * Somma una variazione al valore delle azioni possedute (usato da {@link RegistroValutazione})
+     * @param variazione variazione del valore
+     */
+    void variaValoreAzioni(long variazione) {
+        valoreAzioni.addAndGet(variazione);
     }
 
     /**
      * Richiesta alla borsa per l'acquisto di un certo numero di azioni, se accettato preleva i soldi necessari dal bilancio.
      * L'operatore fa la richiesta e dichiara quanto vuole spendere, se c'è del resto, tornerà all'operatore.
-     * Questo metodo modifica il bilancio dell'operatore {@link Operatore#prelievo(int)}
+     * Questo metodo modifica il bilancio dell'operatore {@link Operatore#prelievo(long)}
+     * <p>
+     * Il numero di azioni viene calcolato dalla borsa sullo stesso stato atomico dell'azione in cui avviene l'eseguito,
+     * e il prelievo usa il prezzo di quell'eseguito, così il prezzo pagato è coerente anche se altri thread operano sulla stessa azione.
      * <p>
-     * poiché il bilancio viene modificato viene chiamato {@link Operatore#checkBudget(int)}
-     * per assicurarsi che non vada in negativo
+     * poiché il bilancio viene modificato il prelievo è un addebito condizionato {@link Operatore#tentaPrelievo(long)},
+     * fatto prima che le azioni lascino la borsa: se il bilancio non basta l'acquisto non lascia effetti
      * <p>
      * Requisiti:
      * <ul>
@@ -189,13 +269,14 @@ public class Operatore implements Comparable<Operatore> {
      * Effetti collaterali:
      * <ul>
      * <li> {@code budget} --> riduce il budget in base al costo delle azioni acquistate
-     * <li> {@code borse} --> aggiunge la borsa se non già presente nella lista
+     * <li> {@code borse} --> aggiunge la borsa se non già presente nella lista, solo se è stata acquistata almeno un'azione
      * </ul>
      * @param borsaToBuy borsa a cui fare richiesta
      * @param azione le azioni da acquistare
      * @param prezzoTotale il prezzo totale che l'operatore spende nell'acquisto
      * @throws IllegalArgumentException se il prezzo è negativo
      * @throws NullPointerException se la borsa o l'azione sono null
+     * @throws IllegalStateException se il bilancio non copre il costo delle azioni acquistate
      * @see Borsa#richiestaAcquisto(Operatore, int, Borsa.Azione)
      * @see borsanova.managerOperazioni.ManagerOperazioni
      */
@@ -205,19 +286,93 @@ public class Operatore implements Comparable<Operatore> {
         } else if (prezzoTotale < 0) {
             throw new IllegalArgumentException("Il prezzo non può essere negativo");
         }
-        addBorsa(Objects.requireNonNull(borsaToBuy, "Borsa non deve essere null"));
-        int resto = prezzoTotale % azione.getPrezzo();
-        int numeroAcquisti = (prezzoTotale - resto) / azione.getPrezzo();
-        numeroAcquisti = borsaToBuy.richiestaAcquisto(this, numeroAcquisti, azione);
-        prelievo(numeroAcquisti * azione.getPrezzo());
+        acquistoEseguito(borsaToBuy, prezzoTotale, azione);
+    }
+
+    /**
+     * Esegue un acquisto come {@link #acquistaAzione(Borsa, int, Borsa.Azione)}, senza ripetere i controlli sui parametri,
+     * e restituisce l'eseguito; usato anche dall'acquisto distribuito su più borse {@link #acquistaInstradato(Azienda, int)}
+     * @param borsaToBuy borsa a cui fare richiesta (non null)
+     * @param prezzoTotale il prezzo totale che l'operatore spende nell'acquisto (>= 0)
+     * @param azione le azioni da acquistare (non null)
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero acquistato)
+     * @throws NullPointerException se la borsa è null
+     * @throws IllegalStateException se il bilancio non copre il costo delle azioni acquistate
+     */
+    long acquistoEseguito(Borsa borsaToBuy, int prezzoTotale, Borsa.Azione azione) {
+        Objects.requireNonNull(borsaToBuy, "Borsa non deve essere null");
+        long eseguito = borsaToBuy.acquistoPerInvestimento(this, prezzoTotale, azione);
+        if (Borsa.Azione.numero(eseguito) > 0) {
+            addBorsa(borsaToBuy);
+        }
+        return eseguito;
+    }
+
+    /**
+     * Investe {@code prezzoTotale} in azioni di {@code azienda} distribuendo l'acquisto su tutte le borse in cui è quotata,
+     * partendo da quella con il prezzo corrente più basso e passando alla successiva solo quando le azioni disponibili finiscono.
+     * <p>
+     * L'azione quotata di ogni borsa viene cercata sull'indice della borsa {@link Borsa#getAzione(Azienda, Borsa)},
+     * quindi la scelta costa quanto l'ordinamento delle borse dell'azienda per prezzo e non dipende dal numero
+     * di aziende quotate in ciascuna. Ogni eseguito avviene come in {@link #acquistaAzione(Borsa, int, Borsa.Azione)}:
+     * il prezzo pagato è quello dello stato atomico dell'eseguito e il nuovo prezzo è dato dalla politica di quella borsa.
+     * Il resto dell'investimento passa alla borsa successiva; le borse in cui il resto non basta per un'azione vengono saltate.
+     * <p>
+     * Se un eseguito solleva un'eccezione gli eseguiti precedenti restano validi e le borse successive non vengono usate.
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code budget} --> riduce il budget del costo di tutte le azioni acquistate
+     * <li> {@code borse} --> aggiunge le borse in cui è stata acquistata almeno un'azione
+     * </ul>
+     * @param azienda azienda di cui comprare le azioni (non null)
+     * @param prezzoTotale cifra investita in tutto (deve essere >= 0)
+     * @return il numero di azioni acquistate in tutte le borse
+     * @throws NullPointerException se l'azienda è null
+     * @throws IllegalArgumentException se la cifra investita è negativa
+     * @throws IllegalStateException se il bilancio non copre un eseguito
+     */
+    public int acquistaInstradato(Azienda azienda, int prezzoTotale) {
+        Objects.requireNonNull(azienda, "Azienda non deve essere null");
+        if (prezzoTotale < 0) {
+            throw new IllegalArgumentException("Il prezzo non può essere negativo");
+        }
+        Borsa[] sedi = azienda.getBorse().toArray(new Borsa[0]);
+        Borsa.Azione[] azioni = new Borsa.Azione[sedi.length];
+        long[] ordine = new long[sedi.length];
+        int candidate = 0;
+        for (int i = 0; i < sedi.length; i++) {
+            azioni[i] = sedi[i].getAzione(azienda, sedi[i]);
+            if (azioni[i] != null) {
+                long stato = azioni[i].getStato();
+                if (Borsa.Azione.numero(stato) > 0) {
+                    ordine[candidate++] = Borsa.Azione.impacchetta(Borsa.Azione.prezzo(stato), i);
+                }
+            }
+        }
+        Arrays.sort(ordine, 0, candidate);
+
+        int residuo = prezzoTotale;
+        int acquistate = 0;
+        for (int k = 0; k < candidate && residuo > 0; k++) {
+            if (residuo < Borsa.Azione.prezzo(ordine[k])) {
+                continue;
+            }
+            int i = Borsa.Azione.numero(ordine[k]);
+            long eseguito = acquistoEseguito(sedi[i], residuo, azioni[i]);
+            residuo -= Borsa.Azione.numero(eseguito) * Borsa.Azione.prezzo(eseguito);
+            acquistate += Borsa.Azione.numero(eseguito);
+        }
+        return acquistate;
     }
 
     /**
      * Richiesta alla borsa per la vendita di azioni possedute dall'operatore, se accettato deposita nel suo bilancio il valore della vendita.
-     * Questo metodo modifica il bilancio {@link Operatore#deposito(int)}
+     * Questo metodo modifica il bilancio {@link Operatore#deposito(long)}
      *<p>
-     *poiché il bilancio viene modificato viene chiamato {@link Operatore#checkBudget(int)}
-     *per assicurarsi che non vada in negativo
+     *poiché il bilancio viene modificato il deposito controlla che non superi il massimo rappresentabile
+     * <p>
+     * Il deposito usa il prezzo letto dalla borsa nello stesso stato atomico in cui le azioni rientrano in borsa.
      * <p>
      * Requisiti:
      * <ul>
@@ -232,7 +387,7 @@ public class Operatore implements Comparable<Operatore> {
      * @param borsaToSell borsa alla quale fare la richiesta di vendita
      * @param aziendaToCheck azienda dalla quale provengono le azioni che vogliamo vendere
      * @param numeroVendite il numero di azioni che vogliamo vendere
-     * @throws IllegalArgumentException se il numero delle vendite è negativo
+     * @throws IllegalArgumentException se il numero delle vendite è negativo o se l'operatore non possiede azioni dell'azienda
      * @throws NullPointerException se la borsa o l'azione sono null
      * @see Borsa#richiestaVendita(Operatore, int, Azienda)
      * @see borsanova.managerOperazioni.ManagerOperazioni
@@ -243,9 +398,19 @@ public class Operatore implements Comparable<Operatore> {
         } else if (numeroVendite < 0) {
             throw new IllegalArgumentException("Il numero delle vendite è negativo");
         }
-        int azionePrezzo = borsaToSell.getAzione(aziendaToCheck, borsaToSell).getPrezzo();
-        numeroVendite = borsaToSell.richiestaVendita(this, numeroVendite, aziendaToCheck);
-        deposito(azionePrezzo * numeroVendite);
+        venditaEseguita(borsaToSell, aziendaToCheck, numeroVendite);
+    }
+
+    /**
+     * Esegue una vendita come {@link #vendiAzione(Borsa, Azienda, int)}, senza ripetere i controlli sui parametri,
+     * e restituisce l'eseguito
+     * @param borsaToSell borsa alla quale fare la richiesta di vendita (non null)
+     * @param aziendaToCheck azienda dalla quale provengono le azioni che vogliamo vendere (non null)
+     * @param numeroVendite il numero di azioni che vogliamo vendere
+     * @return l'eseguito impacchettato come (prezzo di esecuzione, numero venduto)
+     */
+    long venditaEseguita(Borsa borsaToSell, Azienda aziendaToCheck, int numeroVendite) {
+        return borsaToSell.venditaEseguita(this, numeroVendite, aziendaToCheck, true);
     }
 
     /**
@@ -258,17 +423,37 @@ public class Operatore implements Comparable<Operatore> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code budget} --> il bilancio aumenta in bases al valore {@code depositare}, il budget viene controllato per assicurarsi che rimanga positivo {@link #checkBudget(int)}
+     * <li> {@code budget} --> il bilancio aumenta in bases al valore {@code depositare}, il budget viene controllato per assicurarsi che non superi il massimo rappresentabile
      * </ul>
+     * Il nuovo bilancio viene controllato prima di essere pubblicato, se il controllo fallisce il bilancio resta invariato.
      * @param depositare valore da depositare
      * @throws IllegalArgumentException se il valore da depositare è negativo
+     * @throws IllegalStateException se il bilancio supererebbe il massimo rappresentabile
      */
-    public void deposito(int depositare) {
+    public void deposito(long depositare) {
         if (depositare < 0) {
             throw new IllegalArgumentException("Il valore da depositare non può essere negativo");
         }
-        budget += depositare;
-        checkBudget(budget);
+        accredita(depositare);
+        if (depositare != 0) {
+            Giornale.budget(this, depositare);
+        }
+    }
+
+    /**
+     * Deposita come {@link #deposito(long)} senza registrare la variazione nel {@link Giornale}: usato dalle borse
+     * e dai libri degli ordini, che registrano il bilancio insieme all'eseguito o all'ordine che lo ha variato
+     * @param depositare valore da depositare (>= 0)
+     * @throws IllegalStateException se il bilancio supererebbe il massimo rappresentabile
+     */
+    void accredita(long depositare) {
+        long corrente;
+        do {
+            corrente = budget.get();
+            if (corrente > Long.MAX_VALUE - depositare) {
+                throw new IllegalStateException("Il budget non può superare il massimo rappresentabile");
+            }
+        } while (!budget.compareAndSet(corrente, corrente + depositare));
     }
 
     /**
@@ -281,34 +466,74 @@ public class Operatore implements Comparable<Operatore> {
      * <p>
      * Effetti collaterali:
      * <ul>
-     * <li> {@code budget} --> riduce il budget del valore {@code prelevare}, il budget viene controllato per assicurarsi che rimanga positivo {@link #checkBudget(int)}
+     * <li> {@code budget} --> riduce il budget del valore {@code prelevare}, solo se il budget è sufficiente {@link #tentaPrelievo(long)}
      * </ul>
+     * Il prelievo è un addebito atomico condizionato {@link #tentaPrelievo(long)}: se il bilancio non è sufficiente il bilancio resta invariato.
      * @param prelevare valore da prelevare
      * @throws IllegalArgumentException se il valore da prelevare è negativo
+     * @throws IllegalStateException se il bilancio non è sufficiente
      */
-    public void prelievo(int prelevare) {
+    public void prelievo(long prelevare) {
+        if (!tentaPrelievo(prelevare)) {
+            throw new IllegalStateException("Il budget non può andare in negativo");
+        }
+    }
+
+    /**
+     * Addebito atomico condizionato: preleva {@code prelevare} dal bilancio solo se il bilancio è sufficiente,
+     * senza lock, quindi più thread possono addebitare lo stesso operatore contemporaneamente senza che il bilancio vada in negativo
+     * <p>
+     * Effetti collaterali:
+     * <ul>
+     * <li> {@code budget} --> se sufficiente, riduce il budget del valore {@code prelevare}, altrimenti resta invariato
+     * </ul>
+     * @param prelevare valore da prelevare
+     * @return true se il prelievo è stato eseguito, false se il bilancio non era sufficiente
+     * @throws IllegalArgumentException se il valore da prelevare è negativo
+     */
+    public boolean tentaPrelievo(long prelevare) {
         if (prelevare < 0) {
             throw new IllegalArgumentException("Il valore da prelevare non può essere negativo");
         }
-        budget -= prelevare;
-        checkBudget(budget);
+        if (!addebita(prelevare)) {
+            return false;
+        }
+        if (prelevare != 0) {
+            Giornale.budget(this, -prelevare);
+        }
+        return true;
     }
 
     /**
-     * Ogni volta che il bilancio viene modificato, dev'essere controllato per assicurarsi che non sia andato in negativo
-     * @param budget bilancio corrente
-     * @throws IllegalStateException se il bilancio va in negativo
+     * Addebito condizionato come {@link #tentaPrelievo(long)} senza registrare la variazione nel {@link Giornale}: usato dalle borse
+     * e dai libri degli ordini, che registrano il bilancio insieme all'eseguito o all'ordine che lo ha variato
+     * @param prelevare valore da prelevare (>= 0)
+     * @return true se il prelievo è stato eseguito, false se il bilancio non era sufficiente
      */
-    private void checkBudget(int budget) {
-        if (budget < 0) {
-            throw new IllegalStateException("Il budget non può andare in negativo");
-        }
+    boolean addebita(long prelevare) {
+        long corrente;
+        do {
+            corrente = budget.get();
+            if (corrente < prelevare) {
+                return false;
+            }
+        } while (!budget.compareAndSet(corrente, corrente - prelevare));
+        return true;
+    }
+
+    /**
+     * Somma al bilancio una variazione registrata nel {@link Giornale}, senza controllarlo:
+     * durante la riproduzione le variazioni possono arrivare in un ordine diverso da quello in cui sono avvenute
+     * @param variazione variazione del bilancio
+     */
+    void ripristinaBudget(long variazione) {
+        budget.addAndGet(variazione);
     }
 
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Operatore emp) {
-            return (emp.name.equals(this.name));
+            return emp.id == this.id;
         }
         else {
             return false;
@@ -317,11 +542,11 @@ public class Operatore implements Comparable<Operatore> {
 
     @Override
     public int hashCode() {
-        return 0;
+        return id;
     }
 
     @Override
     public int compareTo(Operatore o) {
-        return this.name.compareTo(o.name);
+        return this.id == o.id ? 0 : this.name.compareTo(o.name);
     }
 }
@@ -0,0 +1,237 @@
+package borsanova;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * La classe {@code Paniere} è un insieme di acquisti e vendite di un {@link Operatore}, anche su azioni e borse diverse,
+ * eseguito tutto o niente con {@link #esegui()}.
+ * <p>
+ * L'esecuzione avviene in due fasi. Nella prima ogni gamba impegna quanto le serve, nell'ordine in cui è stata aggiunta:
+ * un acquisto toglie le azioni dalle disponibili dell'azione quotata senza cambiarne il prezzo {@link Borsa#riservaAcquisto(Borsa.Azione, int)},
+ * una vendita toglie le azioni dalle posizioni dell'operatore {@link Borsa#riservaVendita(Operatore, Azienda, int)};
+ * e per ogni gamba viene calcolato con la politica di prezzo il prezzo dopo l'eseguito {@link Borsa#prezzoDopoGamba(Borsa.Azione, boolean, int, int)},
+ * partendo dal prezzo lasciato dalle gambe precedenti sulla stessa azione, come se le gambe fossero eseguite una alla volta;
+ * poi il costo di tutti gli acquisti viene prelevato con un addebito condizionato {@link Operatore#addebita(long)}.
+ * Se un impegno fallisce o la politica lancia un'eccezione, quelli già presi vengono restituiti in ordine inverso e il paniere non lascia effetti.
+ * Nella seconda fase le riserve vengono confermate e nessuna conferma può fallire: ogni acquisto riceve le azioni al prezzo calcolato
+ * nella prima fase, ogni vendita rientra in borsa al prezzo corrente come un normale eseguito e il ricavato è depositato;
+ * il prezzo dell'azione diventa quello calcolato nella prima fase, o la politica applicata al prezzo corrente se un eseguito concorrente lo ha mosso.
+ * <p>
+ * Le riserve sono transizioni atomiche sulle singole azioni o brevi sezioni sotto il lock delle posizioni dell'operatore,
+ * mai tenute insieme: panieri concorrenti non possono bloccarsi a vicenda e non serve alcun lock globale.
+ * Un paniere eseguito è registrato nel {@link Giornale} con un solo record, che contiene tutte le sue gambe; gli impegni
+ * annullati non vengono registrati.
+ * Il ricavato delle vendite arriva solo alla conferma, quindi non può coprire gli acquisti dello stesso paniere.
+ */
+public final class Paniere {
+    /**Operatore che esegue il paniere*/
+    private final Operatore op;
+    /**Gambe del paniere in ordine di inserimento*/
+    private final List<Gamba> gambe = new ArrayList<>();
+
+    /*
+     * AF:
+     *   Un'istanza di "Paniere" rappresenta gli ordini "gambe" che "op" vuole eseguire tutti insieme o per niente.
+     * RI:
+     *   - "op" --> non deve essere null.
+     *   - "gambe" --> non contiene elementi null, ogni gamba ha numero > 0 e un'azione quotata nella sua borsa.
+     */
+
+    /**
+     * Costruttore della classe, usato da {@link #di(Operatore)}
+     * @param op operatore che esegue il paniere
+     */
+    private Paniere(Operatore op) {
+        this.op = op;
+    }
+
+    /**
+     * Crea un paniere vuoto
+     * @param op operatore che esegue il paniere (non null)
+     * @return il paniere
+     * @throws NullPointerException se l'operatore è null
+     */
+    public static Paniere di(Operatore op) {
+        return new Paniere(Objects.requireNonNull(op, "l'operatore non può essere null"));
+    }
+
+    /**
+     * Aggiunge l'acquisto di un numero esatto di azioni
+     * @param borsa borsa in cui acquistare (non null)
+     * @param azienda azienda quotata in {@code borsa} (non null)
+     * @param numero numero di azioni (deve essere > 0)
+     * @return questo paniere
+     * @throws NullPointerException se un parametro è null o l'azienda non è quotata nella borsa
+     * @throws IllegalArgumentException se il numero non è maggiore di 0
+     */
+    public Paniere acquisto(Borsa borsa, Azienda azienda, int numero) {
+        gambe.add(new Gamba(borsa, azienda, true, numero));
+        return this;
+    }
+
+    /**
+     * Aggiunge la vendita di un numero esatto di azioni possedute
+     * @param borsa borsa in cui vendere (non null)
+     * @param azienda azienda quotata in {@code borsa} (non null)
+     * @param numero numero di azioni (deve essere > 0)
+     * @return questo paniere
+     * @throws NullPointerException se un parametro è null o l'azienda non è quotata nella borsa
+     * @throws IllegalArgumentException se il numero non è maggiore di 0
+     */
+    public Paniere vendita(Borsa borsa, Azienda azienda, int numero) {
+        gambe.add(new Gamba(borsa, azienda, false, numero));
+        return this;
+    }
+
+    /**
+     * Esegue tutte le gambe del paniere oppure nessuna.
+     * <p>
+     * Effetti collaterali (solo se il paniere viene eseguito):
+     * <ul>
+     * <li> {@code op.budget} --> riduce il budget del costo degli acquisti e lo aumenta del ricavato delle vendite
+     * <li> {@code op.borse} --> aggiunge le borse degli acquisti
+     * <li> le azioni quotate e le posizioni dell'operatore cambiano come per gli acquisti e le vendite eseguiti uno alla volta
+     * </ul>
+     * @return true se il paniere è stato eseguito, false se le azioni disponibili, quelle possedute o il bilancio non bastavano
+     * @throws RuntimeException l'eccezione lanciata dalla politica di prezzo di una gamba, dopo aver restituito tutte le riserve
+     */
+    public boolean esegui() {
+        Gamba[] lista = gambe.toArray(new Gamba[0]);
+        long[] riserve = new long[lista.length];
+        int[] prezzi = new int[lista.length];
+        int[] nuoviPrezzi = new int[lista.length];
+        Map<Borsa.Azione, Integer> catena = new HashMap<>();
+        long costo = 0;
+        int prese = 0;
+        boolean riuscito = true;
+        RuntimeException errore = null;
+        for (; prese < lista.length; prese++) {
+            Gamba gamba = lista[prese];
+            Integer precedente = catena.get(gamba.azione);
+            int prezzo;
+            if (gamba.acquisto) {
+                long riserva = gamba.borsa.riservaAcquisto(gamba.azione, gamba.numero);
+                if (Borsa.Azione.numero(riserva) == 0) {
+                    riuscito = false;
+                    break;
+                }
+                prezzo = precedente != null ? precedente : Borsa.Azione.prezzo(riserva);
+                riserve[prese] = Borsa.Azione.impacchetta(prezzo, gamba.numero);
+                long valore = (long) gamba.numero * prezzo;
+                if (costo > Long.MAX_VALUE - valore) {
+                    prese++;
+                    riuscito = false;
+                    break;
+                }
+                costo += valore;
+            } else if (!gamba.borsa.riservaVendita(op, gamba.azione.getAzienda(), gamba.numero)) {
+                riuscito = false;
+                break;
+            } else {
+                prezzo = precedente != null ? precedente : gamba.azione.getPrezzo();
+            }
+            try {
+                nuoviPrezzi[prese] = gamba.borsa.prezzoDopoGamba(gamba.azione, gamba.acquisto, prezzo, gamba.numero);
+            } catch (RuntimeException e) {
+                prese++;
+                riuscito = false;
+                errore = e;
+                break;
+            }
+            prezzi[prese] = prezzo;
+            catena.put(gamba.azione, nuoviPrezzi[prese]);
+        }
+        if (riuscito && !op.addebita(costo)) {
+            riuscito = false;
+        }
+        if (!riuscito) {
+            while (--prese >= 0) {
+                Gamba gamba = lista[prese];
+                if (gamba.acquisto) {
+                    gamba.borsa.annullaAcquisto(gamba.azione, riserve[prese]);
+                } else {
+                    gamba.borsa.annullaVendita(op, gamba.azione, gamba.numero);
+                }
+            }
+            if (errore != null) {
+                throw errore;
+            }
+            return false;
+        }
+
+        Giornale.Eseguito registro = Giornale.nuovoEseguito();
+        long ricavato = 0;
+        for (int i = 0; i < lista.length; i++) {
+            Gamba gamba = lista[i];
+            if (gamba.acquisto) {
+                op.addBorsa(gamba.borsa);
+                gamba.borsa.confermaAcquisto(op, gamba.azione, riserve[i], nuoviPrezzi[i], registro);
+                if (registro != null) {
+                    registro.borsa(op, gamba.borsa);
+                }
+            } else {
+                long eseguito = gamba.borsa.confermaVendita(op, gamba.azione, gamba.numero, prezzi[i], nuoviPrezzi[i], registro);
+                ricavato += (long) Borsa.Azione.numero(eseguito) * Borsa.Azione.prezzo(eseguito);
+            }
+        }
+        op.accredita(ricavato);
+        if (registro != null) {
+            Giornale.eseguito(registro.budget(op, ricavato - costo));
+        }
+        return true;
+    }
+
+    /**
+     * Estrae l'operatore del paniere
+     * @return l'operatore
+     */
+    public Operatore getOperatore() {
+        return op;
+    }
+
+    /**
+     * Estrae il numero di gambe del paniere
+     * @return il numero di acquisti e vendite aggiunti
+     */
+    public int size() {
+        return gambe.size();
+    }
+
+    /**
+     * Un acquisto o una vendita di un numero esatto di azioni in una borsa
+     */
+    private static final class Gamba {
+        /**Borsa in cui avviene l'ordine*/
+        private final Borsa borsa;
+        /**Azione quotata dell'azienda nella borsa*/
+        private final Borsa.Azione azione;
+        /**Tipo dell'ordine (true se acquisto)*/
+        private final boolean acquisto;
+        /**Numero di azioni*/
+        private final int numero;
+
+        /**
+         * Costruttore della classe, risolve subito l'azione quotata
+         * @param borsa borsa dell'ordine
+         * @param azienda azienda dell'ordine
+         * @param acquisto true per un acquisto
+         * @param numero numero di azioni
+         * @throws NullPointerException se la borsa o l'azienda sono null o l'azienda non è quotata
+         * @throws IllegalArgumentException se il numero non è maggiore di 0
+         */
+        private Gamba(Borsa borsa, Azienda azienda, boolean acquisto, int numero) {
+            if (numero <= 0) {
+                throw new IllegalArgumentException("Il numero dell'operazione dev'essere maggiore di 0");
+            }
+            this.borsa = Objects.requireNonNull(borsa, "la borsa non può essere null");
+            this.azione = Objects.requireNonNull(borsa.getAzione(Objects.requireNonNull(azienda, "l'azienda non può essere null"), borsa),
+                    "l'azienda non è quotata in questa borsa");
+            this.acquisto = acquisto;
+            this.numero = numero;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package borsanova;
+
+import java.util.Objects;
+
+/**
+ * La classe {@code PoliticaComposta} implementa l'interfaccia madre {@link PoliticaPrezzo} combinando altre politiche:
+ * <ul>
+ *  <li> {@link PoliticaComposta#catena(PoliticaPrezzo...)} applica le politiche una dopo l'altra,
+ *       il prezzo prodotto da una è il prezzo di partenza della successiva
+ *  <li> {@link PoliticaComposta#seQuantitaOltre(int, PoliticaPrezzo, PoliticaPrezzo)} sceglie una politica in base alla quantità scambiata
+ *  <li> {@link PoliticaComposta#limitata(PoliticaPrezzo, int, int)} tiene il prezzo prodotto da una politica tra un minimo e un massimo
+ * </ul>
+ * Le composizioni possono essere annidate.
+ * <p>
+ * La composizione viene risolta una sola volta, quando la politica è legata a un'azione con {@link #lega(Borsa.Azione)}:
+ * se tutti i componenti sono politiche del progetto ({@link VariazioneCostante}, {@link VariazioneSoglia}, {@link VariazioneVocali}
+ * o altre composizioni di queste) le loro funzioni vengono fuse in un'unica {@link FunzionePassi}, quindi a ogni eseguito
+ * la borsa chiama sempre la stessa classe qualunque sia la forma della composizione.
+ * Con componenti di altro tipo la funzione ottenuta chiama le funzioni legate dei componenti in ordine.
+ * <p>
+ * Una politica composta si imposta su una singola azione con {@link Borsa#setPoliticaAzione(Azienda, PoliticaPrezzo)};
+ * se è composta da politiche del progetto viene registrata nel {@link Giornale} e salvata nell'{@link Istantanea}.
+ * @see PoliticaPrezzo
+ */
+public final class PoliticaComposta implements PoliticaPrezzo {
+
+    /**Tipi di composizione*/
+    enum Tipo { CATENA, SE_QUANTITA_OLTRE, LIMITATA }
+
+    /**Tipo della composizione*/
+    private final Tipo tipo;
+    /**Politiche composte (per {@code SE_QUANTITA_OLTRE}: la politica sopra la soglia e quella fino alla soglia, che può essere null)*/
+    private final PoliticaPrezzo[] politiche;
+    /**Soglia di quantità ({@code SE_QUANTITA_OLTRE}) o prezzo minimo ({@code LIMITATA})*/
+    private final int primo;
+    /**Prezzo massimo ({@code LIMITATA})*/
+    private final int secondo;
+
+    /*
+     * AF:
+     *   Un'istanza di "PoliticaComposta" rappresenta la politica di prezzo ottenuta combinando "politiche" secondo "tipo":
+     *   - CATENA --> applica "politiche" in ordine.
+     *   - SE_QUANTITA_OLTRE --> applica "politiche[0]" se la quantità è maggiore di "primo", altrimenti "politiche[1]"
+     *     (se null il prezzo resta invariato).
+     *   - LIMITATA --> applica "politiche[0]" e limita il risultato tra "primo" e "secondo".
+     * RI:
+     *   - "tipo" e "politiche" non sono null e "politiche" non viene modificato dopo la costruzione.
+     *   - CATENA --> "politiche" non è vuoto e non contiene null.
+     *   - SE_QUANTITA_OLTRE --> "politiche" ha 2 elementi, il primo non null, "primo" >= 0.
+     *   - LIMITATA --> "politiche" ha 1 elemento non null, 1 <= "primo" <= "secondo".
+     */
+
+    /**
+     * Costruttore della classe, usato dai metodi di creazione
+     * @param tipo tipo della composizione
+     * @param politiche politiche composte
+     * @param primo soglia o prezzo minimo
+     * @param secondo prezzo massimo
+     */
+    private PoliticaComposta(Tipo tipo, PoliticaPrezzo[] politiche, int primo, int secondo) {
+        this.tipo = tipo;
+        this.politiche = politiche;
+        this.primo = primo;
+        this.secondo = secondo;
+    }
+
+    /**
+     * Crea la politica che applica le politiche date una dopo l'altra
+     * @param politiche politiche da applicare in ordine (almeno una, nessuna null)
+     * @return la politica composta
+     * @throws NullPointerException se l'array o una politica è null
+     * @throws IllegalArgumentException se non è data alcuna politica
+     */
+    public static PoliticaComposta catena(PoliticaPrezzo... politiche) {
+        PoliticaPrezzo[] copia = Objects.requireNonNull(politiche, "le politiche non possono essere null").clone();
+        if (copia.length == 0) {throw new IllegalArgumentException("La catena deve contenere almeno una politica");}
+        for (PoliticaPrezzo politica : copia) {
+            Objects.requireNonNull(politica, "le politiche non possono essere null");
+        }
+        return new PoliticaComposta(Tipo.CATENA, copia, 0, 0);
+    }
+
+    /**
+     * Crea la politica che applica {@code allora} quando la quantità scambiata supera la soglia e {@code altrimenti} negli altri casi
+     * @param soglia soglia di quantità (deve essere >= 0)
+     * @param allora politica per quantità maggiori della soglia (non null)
+     * @param altrimenti politica per quantità fino alla soglia (null per lasciare il prezzo invariato)
+     * @return la politica composta
+     * @throws NullPointerException se {@code allora} è null
+     * @throws IllegalArgumentException se la soglia è negativa
+     */
+    public static PoliticaComposta seQuantitaOltre(int soglia, PoliticaPrezzo allora, PoliticaPrezzo altrimenti) {
+        if (soglia < 0) {throw new IllegalArgumentException("La soglia non può essere negativa");}
+        Objects.requireNonNull(allora, "la politica sopra la soglia non può essere null");
+        return new PoliticaComposta(Tipo.SE_QUANTITA_OLTRE, new PoliticaPrezzo[]{allora, altrimenti}, soglia, 0);
+    }
+
+    /**
+     * Crea la politica che applica {@code politica} e tiene il prezzo ottenuto tra {@code minimo} e {@code massimo}
+     * @param politica politica da limitare (non null)
+     * @param minimo prezzo minimo (deve essere >= 1)
+     * @param massimo prezzo massimo (deve essere >= minimo)
+     * @return la politica composta
+     * @throws NullPointerException se la politica è null
+     * @throws IllegalArgumentException se il minimo è minore di 1 o maggiore del massimo
+     */
+    public static PoliticaComposta limitata(PoliticaPrezzo politica, int minimo, int massimo) {
+        Objects.requireNonNull(politica, "la politica non può essere null");
+        if (minimo < 1) {throw new IllegalArgumentException("Il prezzo minimo deve essere almeno 1");}
+        if (minimo > massimo) {throw new IllegalArgumentException("Il prezzo minimo non può superare il massimo");}
+        return new PoliticaComposta(Tipo.LIMITATA, new PoliticaPrezzo[]{politica}, minimo, massimo);
+    }
+
+    /**
+     * Estrae il tipo della composizione, usato per registrare la politica nel {@link Giornale}
+     * @return il tipo
+     */
+    Tipo getTipo() {
+        return tipo;
+    }
+
+    /**
+     * Estrae le politiche composte
+     * @return una copia delle politiche (per {@code SE_QUANTITA_OLTRE} la seconda può essere null)
+     */
+    PoliticaPrezzo[] getPolitiche() {
+        return politiche.clone();
+    }
+
+    /**
+     * Estrae la soglia di quantità ({@code SE_QUANTITA_OLTRE}) o il prezzo minimo ({@code LIMITATA})
+     * @return il primo parametro, 0 per {@code CATENA}
+     */
+    int getPrimo() {
+        return primo;
+    }
+
+    /**
+     * Estrae il prezzo massimo ({@code LIMITATA})
+     * @return il secondo parametro, 0 per gli altri tipi
+     */
+    int getSecondo() {
+        return secondo;
+    }
+
+    /**
+     * Applica la politica composta per l'acquisto, legandola all'azione
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento dell'acquisto
+     * @param quantity numero di azioni comprate
+     * @return il nuovo prezzo dell'azione
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public int applicaPoliticaAcquisto(Borsa.Azione azione, int prezzo, int quantity) {
+        return lega(azione).dopoAcquisto(prezzo, quantity);
+    }
+
+    /**
+     * Applica la politica composta per la vendita, legandola all'azione
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento della vendita
+     * @param quantity numero di azioni vendute
+     * @return il nuovo prezzo dell'azione
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public int applicaPoliticaVendita(Borsa.Azione azione, int prezzo, int quantity) {
+        return lega(azione).dopoVendita(prezzo, quantity);
+    }
+
+    /**
+     * Lega i componenti all'azione e ne fonde le funzioni in una sola quando sono tutte {@link FunzionePassi}
+     * @param azione azione quotata a cui legare la politica (non null)
+     * @return la funzione di prezzo dell'azione
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public FunzionePrezzo lega(Borsa.Azione azione) {
+        Objects.requireNonNull(azione, "L'azione non può essere null");
+        return switch (tipo) {
+            case CATENA -> catena(azione);
+            case SE_QUANTITA_OLTRE -> seQuantitaOltre(politiche[0].lega(azione),
+                    politiche[1] == null ? FunzionePrezzo.INVARIATO : politiche[1].lega(azione));
+            case LIMITATA -> limitata(politiche[0].lega(azione));
+        };
+    }
+
+    /**
+     * Lega e concatena i componenti di una catena
+     * @param azione azione quotata
+     * @return la funzione di prezzo della catena
+     */
+    private FunzionePrezzo catena(Borsa.Azione azione) {
+        FunzionePrezzo[] funzioni = new FunzionePrezzo[politiche.length];
+        boolean fondibili = true;
+        for (int i = 0; i < funzioni.length; i++) {
+            funzioni[i] = politiche[i].lega(azione);
+            fondibili &= funzioni[i] instanceof FunzionePassi;
+        }
+        if (fondibili) {
+            FunzionePassi fusa = FunzionePassi.INVARIATO;
+            for (FunzionePrezzo funzione : funzioni) {
+                fusa = fusa.poi((FunzionePassi) funzione);
+            }
+            return fusa;
+        }
+        if (funzioni.length == 1) {
+            return funzioni[0];
+        }
+        return new FunzionePrezzo() {
+            @Override
+            public int dopoAcquisto(int prezzo, int quantity) {
+                for (FunzionePrezzo funzione : funzioni) {
+                    prezzo = funzione.dopoAcquisto(prezzo, quantity);
+                }
+                return prezzo;
+            }
+
+            @Override
+            public int dopoVendita(int prezzo, int quantity) {
+                for (FunzionePrezzo funzione : funzioni) {
+                    prezzo = funzione.dopoVendita(prezzo, quantity);
+                }
+                return prezzo;
+            }
+        };
+    }
+
+    /**
+     * Combina le funzioni legate dei due rami della soglia
+     * @param allora funzione sopra la soglia
+     * @param altrimenti funzione fino alla soglia
+     * @return la funzione di prezzo condizionata
+     */
+    private FunzionePrezzo seQuantitaOltre(FunzionePrezzo allora, FunzionePrezzo altrimenti) {
+        int soglia = primo;
+        if (allora instanceof FunzionePassi sopra && altrimenti instanceof FunzionePassi sotto) {
+            // la quantità non cambia durante il calcolo, quindi per ogni eseguito si applica esattamente uno dei due rami
+            return sopra.perQuantita(soglia == Integer.MAX_VALUE ? Integer.MAX_VALUE : soglia + 1, Integer.MAX_VALUE)
+                    .poi(sotto.perQuantita(0, soglia));
+        }
+        return new FunzionePrezzo() {
+            @Override
+            public int dopoAcquisto(int prezzo, int quantity) {
+                return quantity > soglia ? allora.dopoAcquisto(prezzo, quantity) : altrimenti.dopoAcquisto(prezzo, quantity);
+            }
+
+            @Override
+            public int dopoVendita(int prezzo, int quantity) {
+                return quantity > soglia ? allora.dopoVendita(prezzo, quantity) : altrimenti.dopoVendita(prezzo, quantity);
+            }
+        };
+    }
+
+    /**
+     * Limita la funzione legata del componente
+     * @param funzione funzione da limitare
+     * @return la funzione di prezzo limitata
+     */
+    private FunzionePrezzo limitata(FunzionePrezzo funzione) {
+        int minimo = primo;
+        int massimo = secondo;
+        if (funzione instanceof FunzionePassi passi) {
+            return passi.limitata(minimo, massimo);
+        }
+        return new FunzionePrezzo() {
+            @Override
+            public int dopoAcquisto(int prezzo, int quantity) {
+                return Math.min(Math.max(funzione.dopoAcquisto(prezzo, quantity), minimo), massimo);
+            }
+
+            @Override
+            public int dopoVendita(int prezzo, int quantity) {
+                return Math.min(Math.max(funzione.dopoVendita(prezzo, quantity), minimo), massimo);
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package borsanova;
+
+/**
+ * La classe {@code PoliticaEspressione} implementa l'interfaccia madre {@link PoliticaPrezzo}.
+ * <p>
+ * Essa calcola il nuovo prezzo con due espressioni scritte come testo, una per l'acquisto e una per la vendita,
+ * che possono usare il prezzo ({@code prezzo}), la quantità scambiata ({@code quantita}) e i nomi di azienda e borsa
+ * ({@code azienda}, {@code borsa}); ad esempio {@code "prezzo + ceil(quantita / 100)"}.
+ * La sintassi è descritta in {@link CompilatoreEspressioni}.
+ * <p>
+ * Le espressioni sono analizzate e compilate in bytecode dal costruttore, una volta sola: un'espressione non valida
+ * viene rifiutata subito e durante le contrattazioni la borsa chiama codice compilato dalla JVM come per le altre politiche.
+ * Il prezzo risultante è sempre almeno 1 e le divisioni per zero non lanciano eccezioni ({@code a / 0} vale 0, {@code a % 0} vale {@code a}),
+ * quindi la politica non può interrompere un eseguito.
+ * @see PoliticaPrezzo
+ */
+public class PoliticaEspressione implements PoliticaPrezzo {
+
+    /**Espressione del prezzo dopo un acquisto*/
+    private final String acquisto;
+    /**Espressione del prezzo dopo una vendita*/
+    private final String vendita;
+    /**Espressioni compilate*/
+    private final CompilatoreEspressioni.Compilata compilata;
+    /**Funzione condivisa da tutte le azioni se le espressioni non usano i nomi, altrimenti null*/
+    private final FunzionePrezzo condivisa;
+
+    /*
+     * AF:
+     *   Un'istanza di "PoliticaEspressione" rappresenta una politica di prezzo che dopo un acquisto porta il prezzo
+     *   al valore di "acquisto" e dopo una vendita al valore di "vendita" (in entrambi i casi almeno 1).
+     *   - "compilata" --> la classe generata dalle due espressioni.
+     *   - "condivisa" --> l'unica funzione necessaria se il risultato non dipende dall'azione.
+     *
+     * RI:
+     *   - "acquisto" e "vendita" --> non sono null e sono espressioni valide con valore intero.
+     *   - "compilata" --> non è null e corrisponde ad "acquisto" e "vendita".
+     *   - "condivisa" --> non è null se e solo se le espressioni non usano i nomi di azienda e borsa.
+     */
+
+    /**
+     * Costruttore della classe {@link PoliticaEspressione}, analizza e compila le due espressioni
+     * @param acquisto espressione del prezzo dopo un acquisto (non null)
+     * @param vendita espressione del prezzo dopo una vendita (non null)
+     * @throws IllegalArgumentException se un'espressione è null, non è valida o non ha valore intero
+     */
+    public PoliticaEspressione(String acquisto, String vendita) {
+        this.compilata = CompilatoreEspressioni.compila(acquisto, vendita);
+        this.acquisto = acquisto;
+        this.vendita = vendita;
+        this.condivisa = compilata.dipendeDaiNomi() ? null : compilata.crea(null);
+    }
+
+    /**
+     * Estrae l'espressione di acquisto, usata per salvare la politica {@link Istantanea}
+     * @return espressione di acquisto
+     */
+    String getAcquisto() {
+        return acquisto;
+    }
+
+    /**
+     * Estrae l'espressione di vendita, usata per salvare la politica {@link Istantanea}
+     * @return espressione di vendita
+     */
+    String getVendita() {
+        return vendita;
+    }
+
+    /**
+     * Applica l'espressione di acquisto
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento dell'acquisto
+     * @param quantity numero di azioni comprate
+     * @return il nuovo prezzo dell'azione (almeno 1)
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public int applicaPoliticaAcquisto(Borsa.Azione azione, int prezzo, int quantity) {
+        return lega(azione).dopoAcquisto(prezzo, quantity);
+    }
+
+    /**
+     * Applica l'espressione di vendita
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento della vendita
+     * @param quantity numero di azioni vendute
+     * @return il nuovo prezzo dell'azione (almeno 1)
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public int applicaPoliticaVendita(Borsa.Azione azione, int prezzo, int quantity) {
+        return lega(azione).dopoVendita(prezzo, quantity);
+    }
+
+    /**
+     * Lega la politica a un'azione: i termini sui nomi di azienda e borsa sono calcolati qui,
+     * se le espressioni non ne usano tutte le azioni condividono la stessa funzione
+     * @param azione azione quotata a cui legare la politica (non null)
+     * @return la funzione di prezzo compilata
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public FunzionePrezzo lega(Borsa.Azione azione) {
+        if (azione == null) {throw new NullPointerException("L'azione non può essere null");}
+        return condivisa != null ? condivisa : compilata.crea(azione);
+    }
+
+    @Override
+    public String toString() {
+        return "acquisto: " + acquisto + ", vendita: " + vendita;
+    }
+}
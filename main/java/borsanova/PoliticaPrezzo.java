@@ -7,8 +7,16 @@ package borsanova;
  * <li>{@link PoliticaPrezzo#applicaPoliticaAcquisto(Borsa.Azione, int)}
  * <li>{@link PoliticaPrezzo#applicaPoliticaVendita(Borsa.Azione, int)}
  *</ul>
+ * Ciascuno dei due ha una variante che riceve esplicitamente il prezzo di partenza
+ * ({@link PoliticaPrezzo#applicaPoliticaAcquisto(Borsa.Azione, int, int)}, {@link PoliticaPrezzo#applicaPoliticaVendita(Borsa.Azione, int, int)}):
+ * la borsa la usa per calcolare il nuovo prezzo a partire dallo stesso stato (prezzo, numero) su cui esegue l'operazione,
+ * le implementazioni devono quindi usare {@code prezzo} al posto di {@code azione.getPrezzo()}.
  * tutte le classi che gestiscono una politica di prezzo implementano questa interfaccia, la {@link Borsa} mantiene un contenitore di {@code PoliticaPrezzo}.
  * <p>
+ * La borsa non chiama questi metodi a ogni eseguito: quando un'azione viene quotata, o cambia la politica, la lega all'azione
+ * con {@link PoliticaPrezzo#lega(Borsa.Azione)} e da quel momento usa la {@link FunzionePrezzo} ottenuta.
+ * Le implementazioni possono ridefinire {@code lega} per calcolare in anticipo quello che dipende solo dall'azione.
+ * <p>
  * Sfruttando quindi il principio di sostituzione della Liskov, l'implementazione della politica di prezzo viene fatta
  * dalle rispettive classi che gestiscono quest'ultima mentre, la borsa, mantiene un contenitore generico PoliticaPrezzo
  * che all'occorrenza viene settato con la politica adeguata
@@ -32,18 +40,66 @@ public interface PoliticaPrezzo {
      */
 
     /**
-     * Applica una certa politica di prezzo per l'acquisto
+     * Applica una certa politica di prezzo per l'acquisto partendo dal prezzo corrente dell'azione
+     * (il controllo su {@code azione} null è lasciato all'implementazione)
      * @param azione azione da cui ottenere informazioni utili: prezzo, azienda, borsa
      * @param quantity la quantità di azioni comprate (il numero di azioni comprate)
      * @return il nuovo prezzo dopo l'applicazione della politica di prezzo (solitamente incrementa)
+     * @see #applicaPoliticaAcquisto(Borsa.Azione, int, int)
      */
-    int applicaPoliticaAcquisto(Borsa.Azione azione, int quantity);
+    default int applicaPoliticaAcquisto(Borsa.Azione azione, int quantity) {
+        return applicaPoliticaAcquisto(azione, azione == null ? 0 : azione.getPrezzo(), quantity);
+    }
 
     /**
-     * Applica una certa politica di prezzo per la vendita
+     * Applica una certa politica di prezzo per la vendita partendo dal prezzo corrente dell'azione
+     * (il controllo su {@code azione} null è lasciato all'implementazione)
      * @param azione azione da cui ottenere informazioni utili: prezzo, azienda, borsa
      * @param quantity la quantità di azioni vendute (il numero di azioni vendute)
      * @return il nuovo prezzo dopo l'applicazione della politica di prezzo (solitamente decrementa)
+     * @see #applicaPoliticaVendita(Borsa.Azione, int, int)
+     */
+    default int applicaPoliticaVendita(Borsa.Azione azione, int quantity) {
+        return applicaPoliticaVendita(azione, azione == null ? 0 : azione.getPrezzo(), quantity);
+    }
+
+    /**
+     * Applica una certa politica di prezzo per l'acquisto partendo da un prezzo dato
+     * @param azione azione da cui ottenere informazioni utili: azienda, borsa
+     * @param prezzo il prezzo dell'azione al momento dell'acquisto
+     * @param quantity la quantità di azioni comprate (il numero di azioni comprate)
+     * @return il nuovo prezzo dopo l'applicazione della politica di prezzo (solitamente incrementa)
      */
-    int applicaPoliticaVendita(Borsa.Azione azione, int quantity);
+    int applicaPoliticaAcquisto(Borsa.Azione azione, int prezzo, int quantity);
+
+    /**
+     * Applica una certa politica di prezzo per la vendita partendo da un prezzo dato
+     * @param azione azione da cui ottenere informazioni utili: azienda, borsa
+     * @param prezzo il prezzo dell'azione al momento della vendita
+     * @param quantity la quantità di azioni vendute (il numero di azioni vendute)
+     * @return il nuovo prezzo dopo l'applicazione della politica di prezzo (solitamente decrementa)
+     */
+    int applicaPoliticaVendita(Borsa.Azione azione, int prezzo, int quantity);
+
+    /**
+     * Lega la politica a un'azione, ottenendo la funzione di prezzo usata dalla borsa per tutti i suoi eseguiti.
+     * La funzione deve dare gli stessi prezzi di {@link #applicaPoliticaAcquisto(Borsa.Azione, int, int)}
+     * e {@link #applicaPoliticaVendita(Borsa.Azione, int, int)} per quell'azione;
+     * l'implementazione predefinita li chiama a ogni eseguito.
+     * @param azione azione quotata a cui legare la politica (non null)
+     * @return la funzione di prezzo dell'azione
+     */
+    default FunzionePrezzo lega(Borsa.Azione azione) {
+        return new FunzionePrezzo() {
+            @Override
+            public int dopoAcquisto(int prezzo, int quantity) {
+                return applicaPoliticaAcquisto(azione, prezzo, quantity);
+            }
+
+            @Override
+            public int dopoVendita(int prezzo, int quantity) {
+                return applicaPoliticaVendita(azione, prezzo, quantity);
+            }
+        };
+    }
 }
@@ -4,6 +4,9 @@ import borsanova.Azienda;
 import borsanova.Borsa;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * La classe <strong>Quotazione</strong> mantiene due set ordinati:
@@ -13,8 +16,12 @@ import java.util.*;
  * </ul>
  * <p>
  * La classe riceve un elenco di comandi che traduce in quotazioni e crea elenchi quotati.
+ * Per elenchi molto lunghi {@link Quotazione#quotazioniInBlocco(String[])} analizza le righe in parallelo
+ * e quota le aziende di ciascuna borsa con un'unica operazione.
  */
 public class Quotazione {
+    /**Righe sotto le quali un compito di analisi non viene più diviso*/
+    private static final int RIGHE_PER_COMPITO = 4096;
     /**Lista delle aziende quotate nelle borse (aziende che hanno fatto una quotazione)*/
     private SortedSet<Azienda> aziende;
     /**Lista delle borse che hanno ricevuto delle quotazioni dalle aziende*/
@@ -89,6 +96,247 @@ public class Quotazione {
 
     }
 
+    /**
+     * Realizza una singola quotazione e la aggiunge agli elenchi delle aziende e delle borse.
+     * Serve a chi legge le quotazioni una alla volta, ad esempio da un flusso, e vuole applicarle
+     * appena lette senza raccoglierle prima in un array per {@link Quotazione#quotazioni(String[])}.
+     * Se gli elenchi non sono ancora stati creati li crea vuoti.
+     * @param azienda azienda da quotare
+     * @param borsa borsa in cui quotare l'azienda
+     * @param numeroAzioni numero di azioni quotate
+     * @param prezzoPerAzione prezzo per azione
+     * @throws NullPointerException se l'azienda o la borsa sono null
+     * @see Azienda#quotazione(Borsa, int, int)
+     */
+    public void quotazione(Azienda azienda, Borsa borsa, int numeroAzioni, int prezzoPerAzione) {
+        Objects.requireNonNull(azienda, "L'azienda non può essere null");
+        Objects.requireNonNull(borsa, "La borsa non può essere null");
+        azienda.quotazione(borsa, numeroAzioni, prezzoPerAzione);
+        if (aziende == null) {
+            aziende = new TreeSet<>();
+        }
+        if (borse == null) {
+            borse = new TreeSet<>();
+        }
+        aziende.add(azienda);
+        borse.add(borsa);
+    }
+
+    /**
+     * Traduce un elenco di quotazioni come {@link Quotazione#quotazioni(String[])}, con lo stesso risultato finale,
+     * ma dividendo il lavoro:
+     * <ol>
+     * <li> le righe sono analizzate e controllate in parallelo sul {@link ForkJoinPool} comune;
+     * <li> aziende e borse sono create in ordine di prima comparsa, quindi ricevono gli stessi identificativi
+     *      del caricamento sequenziale, e le righe sono divise per borsa mantenendo il loro ordine;
+     * <li> le aziende di ciascuna borsa sono quotate in parallelo con un'unica operazione {@link Borsa#quotazioni(Azienda[], int[], int[])}.
+     * </ol>
+     * A differenza del caricamento sequenziale, se una riga non è valida non viene quotata nessuna azienda:
+     * viene lanciata l'eccezione della prima riga non valida.
+     * @param lines lista delle quotazioni
+     * @throws IllegalArgumentException se i comandi ricevuti non sono formattati correttamente
+     * @throws NumberFormatException se il numero o il prezzo di una quotazione non è un intero
+     * @see Quotazione#quotazioni(String[])
+     */
+    public void quotazioniInBlocco(String[] lines) {
+        int n = lines.length;
+        String[] nomiAziende = new String[n];
+        String[] nomiBorse = new String[n];
+        int[] numeri = new int[n];
+        int[] prezzi = new int[n];
+        RuntimeException errore = ForkJoinPool.commonPool().invoke(new Analisi(lines, 0, n, nomiAziende, nomiBorse, numeri, prezzi));
+        if (errore != null) {
+            throw errore;
+        }
+
+        Map<String, Azienda> perNomeAzienda = new HashMap<>();
+        Map<String, Integer> perNomeBorsa = new HashMap<>();
+        List<Borsa> elencoBorse = new ArrayList<>();
+        Azienda[] aziendeRighe = new Azienda[n];
+        int[] partizione = new int[n];
+        for (int i = 0; i < n; i++) {
+            Azienda azienda = perNomeAzienda.get(nomiAziende[i]);
+            if (azienda == null) {
+                azienda = Azienda.of(nomiAziende[i]);
+                perNomeAzienda.put(nomiAziende[i], azienda);
+            }
+            Integer p = perNomeBorsa.get(nomiBorse[i]);
+            if (p == null) {
+                p = elencoBorse.size();
+                elencoBorse.add(Borsa.of(nomiBorse[i]));
+                perNomeBorsa.put(nomiBorse[i], p);
+            }
+            aziendeRighe[i] = azienda;
+            partizione[i] = p;
+        }
+
+        // righe ordinate per borsa (ordinamento per conteggio, stabile): quelle della borsa p sono righe[inizio[p]..inizio[p + 1])
+        int[] inizio = new int[elencoBorse.size() + 1];
+        for (int p : partizione) {
+            inizio[p + 1]++;
+        }
+        for (int p = 0; p < elencoBorse.size(); p++) {
+            inizio[p + 1] += inizio[p];
+        }
+        int[] righe = new int[n];
+        int[] prossima = Arrays.copyOf(inizio, elencoBorse.size());
+        for (int i = 0; i < n; i++) {
+            righe[prossima[partizione[i]]++] = i;
+        }
+        ForkJoinPool.commonPool().invoke(new Installazione(elencoBorse, 0, elencoBorse.size(), inizio, righe, aziendeRighe, numeri, prezzi));
+
+        this.aziende = new TreeSet<>(perNomeAzienda.values());
+        this.borse = new TreeSet<>(elencoBorse);
+    }
+
+    /**
+     * Compito che analizza e controlla un intervallo di righe, dividendolo a metà finché è più lungo di {@link #RIGHE_PER_COMPITO}.
+     * Restituisce l'eccezione della prima riga non valida dell'intervallo, null se sono tutte valide.
+     */
+    private static final class Analisi extends RecursiveTask<RuntimeException> {
+        /**Versione della forma serializzata (i compiti fork/join sono serializzabili)*/
+        private static final long serialVersionUID = 1L;
+        /**Righe da analizzare*/
+        private final String[] lines;
+        /**Prima riga dell'intervallo*/
+        private final int da;
+        /**Fine (esclusa) dell'intervallo*/
+        private final int a;
+        /**Nome dell'azienda di ogni riga*/
+        private final String[] nomiAziende;
+        /**Nome della borsa di ogni riga*/
+        private final String[] nomiBorse;
+        /**Numero di azioni di ogni riga*/
+        private final int[] numeri;
+        /**Prezzo per azione di ogni riga*/
+        private final int[] prezzi;
+
+        /**
+         * Costruttore del compito
+         * @param lines righe da analizzare
+         * @param da prima riga dell'intervallo
+         * @param a fine (esclusa) dell'intervallo
+         * @param nomiAziende destinazione dei nomi delle aziende
+         * @param nomiBorse destinazione dei nomi delle borse
+         * @param numeri destinazione dei numeri di azioni
+         * @param prezzi destinazione dei prezzi
+         */
+        private Analisi(String[] lines, int da, int a, String[] nomiAziende, String[] nomiBorse, int[] numeri, int[] prezzi) {
+            this.lines = lines;
+            this.da = da;
+            this.a = a;
+            this.nomiAziende = nomiAziende;
+            this.nomiBorse = nomiBorse;
+            this.numeri = numeri;
+            this.prezzi = prezzi;
+        }
+
+        @Override
+        protected RuntimeException compute() {
+            if (a - da > RIGHE_PER_COMPITO) {
+                int meta = (da + a) >>> 1;
+                Analisi destra = new Analisi(lines, meta, a, nomiAziende, nomiBorse, numeri, prezzi);
+                destra.fork();
+                RuntimeException errore = new Analisi(lines, da, meta, nomiAziende, nomiBorse, numeri, prezzi).compute();
+                RuntimeException erroreDestra = destra.join();
+                return errore != null ? errore : erroreDestra;
+            }
+            for (int i = da; i < a; i++) {
+                try {
+                    String[] tokens = lines[i].split(" ");
+                    if (tokens.length != 4) {
+                        throw new IllegalArgumentException("I comandi ricevuti non sono formattati correttamente per la quotazione");
+                    }
+                    if (tokens[0].isBlank() || tokens[1].isBlank()) {
+                        throw new IllegalArgumentException("Name must not be empty.");
+                    }
+                    int numero = Integer.parseInt(tokens[2]);
+                    int prezzo = Integer.parseInt(tokens[3]);
+                    if (prezzo < 1 || numero < 1) {
+                        throw new IllegalArgumentException("Il prezzo e il numero delle azioni non possono essere minori di 1");
+                    }
+                    nomiAziende[i] = tokens[0];
+                    nomiBorse[i] = tokens[1];
+                    numeri[i] = numero;
+                    prezzi[i] = prezzo;
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Compito che quota le righe di un intervallo di borse, una borsa per volta con {@link Borsa#quotazioni(Azienda[], int[], int[])},
+     * dividendo l'intervallo a metà finché contiene più di una borsa.
+     */
+    private static final class Installazione extends RecursiveAction {
+        /**Versione della forma serializzata (i compiti fork/join sono serializzabili)*/
+        private static final long serialVersionUID = 1L;
+        /**Borse in ordine di prima comparsa*/
+        private final List<Borsa> borse;
+        /**Prima borsa dell'intervallo*/
+        private final int da;
+        /**Fine (esclusa) dell'intervallo*/
+        private final int a;
+        /**Inizio in {@code righe} delle righe di ciascuna borsa*/
+        private final int[] inizio;
+        /**Righe ordinate per borsa*/
+        private final int[] righe;
+        /**Azienda di ogni riga*/
+        private final Azienda[] aziende;
+        /**Numero di azioni di ogni riga*/
+        private final int[] numeri;
+        /**Prezzo per azione di ogni riga*/
+        private final int[] prezzi;
+
+        /**
+         * Costruttore del compito
+         * @param borse borse in ordine di prima comparsa
+         * @param da prima borsa dell'intervallo
+         * @param a fine (esclusa) dell'intervallo
+         * @param inizio inizio delle righe di ciascuna borsa
+         * @param righe righe ordinate per borsa
+         * @param aziende azienda di ogni riga
+         * @param numeri numero di azioni di ogni riga
+         * @param prezzi prezzo per azione di ogni riga
+         */
+        private Installazione(List<Borsa> borse, int da, int a, int[] inizio, int[] righe, Azienda[] aziende, int[] numeri, int[] prezzi) {
+            this.borse = borse;
+            this.da = da;
+            this.a = a;
+            this.inizio = inizio;
+            this.righe = righe;
+            this.aziende = aziende;
+            this.numeri = numeri;
+            this.prezzi = prezzi;
+        }
+
+        @Override
+        protected void compute() {
+            if (a - da > 1) {
+                int meta = (da + a) >>> 1;
+                invokeAll(new Installazione(borse, da, meta, inizio, righe, aziende, numeri, prezzi),
+                        new Installazione(borse, meta, a, inizio, righe, aziende, numeri, prezzi));
+                return;
+            }
+            for (int p = da; p < a; p++) {
+                int quante = inizio[p + 1] - inizio[p];
+                Azienda[] aziendeBorsa = new Azienda[quante];
+                int[] numeriBorsa = new int[quante];
+                int[] prezziBorsa = new int[quante];
+                for (int j = 0; j < quante; j++) {
+                    int riga = righe[inizio[p] + j];
+                    aziendeBorsa[j] = aziende[riga];
+                    numeriBorsa[j] = numeri[riga];
+                    prezziBorsa[j] = prezzi[riga];
+                }
+                borse.get(p).quotazioni(aziendeBorsa, numeriBorsa, prezziBorsa);
+            }
+        }
+    }
+
     /**
      * Ritorna le aziende quotate
      * @return le aziende quotate (mai null)
@@ -0,0 +1,346 @@
+package borsanova;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * La classe {@code RapportoChiusura} scrive il rapporto di fine giornata delle borse nel formato di {@code BorsaClient}:
+ * <pre>
+ *   nome_borsa
+ *   - nome_azienda azioni_disponibili
+ *   = nome_operatore azioni_possedute
+ *   ...
+ * </pre>
+ * con le aziende di ogni borsa in ordine alfabetico e, per ciascuna, gli operatori che ne possiedono azioni in ordine alfabetico.
+ * <p>
+ * Per ogni borsa le posizioni sono lette una volta sola dal registro ({@link Borsa#visitaPosizioni(RegistroPosizioni.Visitatore)})
+ * e raggruppate per azienda con due ordinamenti per conteggio, il primo secondo la posizione alfabetica dell'operatore
+ * e il secondo, stabile, secondo quella dell'azienda: il costo è lineare nel numero di aziende, operatori e posizioni della borsa.
+ * Il testo è scritto in un buffer riutilizzato tra le chiamate e mandato al canale quando è pieno e alla fine di
+ * {@link #scrivi(Iterable)}; i nomi sono codificati una volta sola per istanza.
+ * <p>
+ * Il rapporto va scritto a mercato fermo: le posizioni modificate durante la scrittura possono comparire o no.
+ * Un'istanza non è thread-safe.
+ */
+public final class RapportoChiusura {
+    /**Capacità predefinita del buffer*/
+    private static final int CAPACITA = 1 << 20;
+    /**Capacità minima del buffer, abbastanza per le cifre di qualunque intero*/
+    private static final int CAPACITA_MINIMA = 16;
+    /**Fine riga, lo stesso di {@link java.io.PrintStream#println()}*/
+    private static final byte[] FINE_RIGA = System.lineSeparator().getBytes(Charset.defaultCharset());
+    /**Prefisso delle righe delle aziende*/
+    private static final byte[] AZIENDA = "- ".getBytes(Charset.defaultCharset());
+    /**Prefisso delle righe degli operatori*/
+    private static final byte[] OPERATORE = "= ".getBytes(Charset.defaultCharset());
+    /**Separatore tra nome e numero*/
+    private static final byte SPAZIO = ' ';
+
+    /**Canale su cui viene scritto il rapporto*/
+    private final WritableByteChannel canale;
+    /**Buffer del testo non ancora scritto sul canale*/
+    private final ByteBuffer buffer;
+    /**Nomi codificati degli operatori, per identificativo*/
+    private byte[][] nomiOperatori = new byte[16][];
+    /**Nomi codificati delle aziende, per identificativo*/
+    private byte[][] nomiAziende = new byte[16][];
+    /**Posizione alfabetica nella borsa corrente di ciascun operatore, per identificativo*/
+    private int[] rangoOperatore = new int[16];
+    /**Posizione alfabetica nella borsa corrente di ciascuna azienda, per identificativo*/
+    private int[] rangoAzienda = new int[16];
+    /**Operatori della borsa corrente in ordine alfabetico*/
+    private Operatore[] operatori = new Operatore[16];
+    /**Rango dell'operatore di ogni posizione letta*/
+    private int[] posizioneOperatore = new int[64];
+    /**Rango dell'azienda di ogni posizione letta*/
+    private int[] posizioneAzienda = new int[64];
+    /**Numero di azioni di ogni posizione letta*/
+    private int[] posizioneNumero = new int[64];
+    /**Posizioni lette nella borsa corrente*/
+    private int posizioni;
+
+    /*
+     * AF:
+     *   Un'istanza di "RapportoChiusura" rappresenta uno scrittore di rapporti su "canale"; "buffer" contiene
+     *   il testo già prodotto e non ancora scritto. Gli altri campi sono memoria di lavoro riutilizzata tra le borse.
+     * RI:
+     *   - "canale" e "buffer" non sono null.
+     *   - nomiOperatori[id] e nomiAziende[id], se non null, sono i nomi codificati dell'entità con quell'identificativo.
+     *   - posizioneOperatore, posizioneAzienda e posizioneNumero hanno la stessa lunghezza, almeno "posizioni".
+     */
+
+    /**
+     * Costruttore della classe con il buffer predefinito (1 MiB)
+     * @param canale canale su cui scrivere il rapporto (non null)
+     * @throws NullPointerException se il canale è null
+     */
+    public RapportoChiusura(WritableByteChannel canale) {
+        this(canale, CAPACITA);
+    }
+
+    /**
+     * Costruttore della classe
+     * @param canale canale su cui scrivere il rapporto (non null)
+     * @param capacita capacità del buffer in byte (deve essere almeno 16)
+     * @throws NullPointerException se il canale è null
+     * @throws IllegalArgumentException se la capacità è minore di 16
+     */
+    public RapportoChiusura(WritableByteChannel canale, int capacita) {
+        if (canale == null) {throw new NullPointerException("Il canale non può essere null");}
+        if (capacita < CAPACITA_MINIMA) {throw new IllegalArgumentException("La capacità del buffer deve essere almeno " + CAPACITA_MINIMA);}
+        this.canale = canale;
+        this.buffer = ByteBuffer.allocate(capacita);
+    }
+
+    /**
+     * Scrive il rapporto delle borse date, nell'ordine in cui sono date, e lo manda tutto al canale
+     * @param borse borse del rapporto (non null, nessuna null)
+     * @throws NullPointerException se l'elenco o una borsa è null
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    public void scrivi(Iterable<Borsa> borse) throws IOException {
+        for (Borsa borsa : borse) {
+            scrivi(borsa);
+        }
+        svuota();
+    }
+
+    /**
+     * Scrive il rapporto di una borsa nel buffer
+     * @param borsa borsa del rapporto
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    private void scrivi(Borsa borsa) throws IOException {
+        scrivi(borsa.getName().getBytes(Charset.defaultCharset()));
+        scrivi(FINE_RIGA);
+
+        Azienda[] aziende = borsa.getAziende().toArray(new Azienda[0]);
+        for (int j = 0; j < aziende.length; j++) {
+            int id = aziende[j].getId();
+            rangoAzienda = spazio(rangoAzienda, id);
+            rangoAzienda[id] = j;
+        }
+        int numeroOperatori = 0;
+        for (Operatore op : borsa.getOperatoriPosizioni()) {
+            int id = op.getId();
+            rangoOperatore = spazio(rangoOperatore, id);
+            rangoOperatore[id] = numeroOperatori;
+            operatori = spazio(operatori, numeroOperatori);
+            operatori[numeroOperatori++] = op;
+        }
+
+        posizioni = 0;
+        borsa.visitaPosizioni((operatore, azienda, numero) -> {
+            if (posizioni == posizioneNumero.length) {
+                posizioneOperatore = Arrays.copyOf(posizioneOperatore, posizioni * 2);
+                posizioneAzienda = Arrays.copyOf(posizioneAzienda, posizioni * 2);
+                posizioneNumero = Arrays.copyOf(posizioneNumero, posizioni * 2);
+            }
+            posizioneOperatore[posizioni] = rangoOperatore[operatore];
+            posizioneAzienda[posizioni] = rangoAzienda[azienda];
+            posizioneNumero[posizioni] = numero;
+            posizioni++;
+        });
+
+        // posizioni ordinate per operatore, poi (stabilmente) per azienda: quelle dell'azienda j sono ordine[inizio[j]..inizio[j + 1])
+        int[] perOperatore = ordinaPerConteggio(identita(posizioni), posizioneOperatore, numeroOperatori);
+        int[] inizio = new int[aziende.length + 1];
+        int[] ordine = ordinaPerConteggio(perOperatore, posizioneAzienda, aziende.length, inizio);
+
+        for (int j = 0; j < aziende.length; j++) {
+            scrivi(AZIENDA);
+            scrivi(nome(aziende[j]));
+            scrivi(SPAZIO);
+            scrivi(borsa.getAzione(aziende[j], borsa).getNumero());
+            scrivi(FINE_RIGA);
+            for (int k = inizio[j]; k < inizio[j + 1]; k++) {
+                int p = ordine[k];
+                scrivi(OPERATORE);
+                scrivi(nome(operatori[posizioneOperatore[p]]));
+                scrivi(SPAZIO);
+                scrivi(posizioneNumero[p]);
+                scrivi(FINE_RIGA);
+            }
+        }
+        Arrays.fill(operatori, 0, numeroOperatori, null);
+    }
+
+    /**
+     * Crea l'array 0, 1, ..., n - 1
+     * @param n lunghezza
+     * @return l'array
+     */
+    private static int[] identita(int n) {
+        int[] indici = new int[n];
+        for (int i = 0; i < n; i++) {
+            indici[i] = i;
+        }
+        return indici;
+    }
+
+    /**
+     * Ordina stabilmente gli indici secondo una chiave compresa tra 0 e {@code chiavi - 1}
+     * @param indici indici da ordinare
+     * @param chiave chiave di ogni indice
+     * @param chiavi numero di chiavi diverse
+     * @return gli indici ordinati
+     */
+    private static int[] ordinaPerConteggio(int[] indici, int[] chiave, int chiavi) {
+        return ordinaPerConteggio(indici, chiave, chiavi, new int[chiavi + 1]);
+    }
+
+    /**
+     * Ordina stabilmente gli indici secondo una chiave compresa tra 0 e {@code chiavi - 1}
+     * @param indici indici da ordinare
+     * @param chiave chiave di ogni indice
+     * @param chiavi numero di chiavi diverse
+     * @param inizio array di {@code chiavi + 1} zeri, alla fine inizio[c] è la posizione del primo indice con chiave c
+     * @return gli indici ordinati
+     */
+    private static int[] ordinaPerConteggio(int[] indici, int[] chiave, int chiavi, int[] inizio) {
+        for (int i : indici) {
+            inizio[chiave[i] + 1]++;
+        }
+        for (int c = 0; c < chiavi; c++) {
+            inizio[c + 1] += inizio[c];
+        }
+        int[] prossimo = Arrays.copyOf(inizio, chiavi);
+        int[] ordinati = new int[indici.length];
+        for (int i : indici) {
+            ordinati[prossimo[chiave[i]]++] = i;
+        }
+        return ordinati;
+    }
+
+    /**
+     * Estrae il nome codificato di un operatore, codificandolo alla prima richiesta
+     * @param op operatore
+     * @return il nome codificato
+     */
+    private byte[] nome(Operatore op) {
+        nomiOperatori = spazio(nomiOperatori, op.getId());
+        byte[] nome = nomiOperatori[op.getId()];
+        if (nome == null) {
+            nome = op.getName().getBytes(Charset.defaultCharset());
+            nomiOperatori[op.getId()] = nome;
+        }
+        return nome;
+    }
+
+    /**
+     * Estrae il nome codificato di un'azienda, codificandolo alla prima richiesta
+     * @param azienda azienda
+     * @return il nome codificato
+     */
+    private byte[] nome(Azienda azienda) {
+        nomiAziende = spazio(nomiAziende, azienda.getId());
+        byte[] nome = nomiAziende[azienda.getId()];
+        if (nome == null) {
+            nome = azienda.getName().getBytes(Charset.defaultCharset());
+            nomiAziende[azienda.getId()] = nome;
+        }
+        return nome;
+    }
+
+    /**
+     * Aggiunge dei byte al buffer, svuotandolo sul canale se non c'è spazio
+     * @param dati byte da aggiungere
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    private void scrivi(byte[] dati) throws IOException {
+        if (buffer.remaining() < dati.length) {
+            svuota();
+            if (buffer.remaining() < dati.length) {
+                scriviTutto(ByteBuffer.wrap(dati));
+                return;
+            }
+        }
+        buffer.put(dati);
+    }
+
+    /**
+     * Aggiunge un byte al buffer, svuotandolo sul canale se non c'è spazio
+     * @param dato byte da aggiungere
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    private void scrivi(byte dato) throws IOException {
+        if (!buffer.hasRemaining()) {
+            svuota();
+        }
+        buffer.put(dato);
+    }
+
+    /**
+     * Aggiunge al buffer le cifre decimali di un intero, come {@link String#valueOf(int)}
+     * @param valore intero da scrivere
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    private void scrivi(int valore) throws IOException {
+        if (valore < 0) {
+            scrivi((byte) '-');
+            if (valore == Integer.MIN_VALUE) {
+                scrivi("2147483648".getBytes(Charset.defaultCharset()));
+                return;
+            }
+            valore = -valore;
+        }
+        int cifre = 1;
+        for (int v = valore; v >= 10; v /= 10) {
+            cifre++;
+        }
+        if (buffer.remaining() < cifre) {
+            svuota();
+        }
+        int fine = buffer.position() + cifre;
+        for (int i = fine - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + valore % 10));
+            valore /= 10;
+        }
+        buffer.position(fine);
+    }
+
+    /**
+     * Manda al canale il contenuto del buffer e lo svuota
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    private void svuota() throws IOException {
+        buffer.flip();
+        scriviTutto(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Manda al canale tutti i byte rimasti in un buffer
+     * @param dati byte da scrivere
+     * @throws IOException se la scrittura sul canale fallisce
+     */
+    private void scriviTutto(ByteBuffer dati) throws IOException {
+        while (dati.hasRemaining()) {
+            canale.write(dati);
+        }
+    }
+
+    /**
+     * Restituisce l'array, ingrandito se necessario perché contenga l'indice dato
+     * @param array array da controllare
+     * @param indice indice che deve essere valido
+     * @return l'array o una sua copia più lunga
+     */
+    private static int[] spazio(int[] array, int indice) {
+        return indice < array.length ? array : Arrays.copyOf(array, Math.max(indice + 1, array.length * 2));
+    }
+
+    /**
+     * Restituisce l'array, ingrandito se necessario perché contenga l'indice dato
+     * @param array array da controllare
+     * @param indice indice che deve essere valido
+     * @param <T> tipo degli elementi
+     * @return l'array o una sua copia più lunga
+     */
+    private static <T> T[] spazio(T[] array, int indice) {
+        return indice < array.length ? array : Arrays.copyOf(array, Math.max(indice + 1, array.length * 2));
+    }
+}
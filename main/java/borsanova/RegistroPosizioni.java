@@ -0,0 +1,275 @@
+package borsanova;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * La classe {@code RegistroPosizioni} tiene il numero di azioni possedute dagli operatori in una {@link Borsa}.
+ * <p>
+ * Una posizione è solo un numero: la chiave è la coppia (identificativo dell'operatore, identificativo dell'azienda)
+ * impacchettata in un {@code long} e il valore è un {@code int}, conservati in tabelle a indirizzamento aperto
+ * (scansione lineare, cancellazione per spostamento all'indietro) senza alcun oggetto per posizione.
+ * <p>
+ * Le posizioni sono divise in segmenti secondo l'identificativo dell'operatore, ogni segmento ha il suo lock
+ * {@link #lock(Operatore)}: tutte le posizioni di un operatore stanno nello stesso segmento, quindi chi detiene il lock
+ * può leggere e modificare le posizioni dell'operatore senza che nessun altro le modifichi.
+ */
+final class RegistroPosizioni {
+    /**Numero dei segmenti (potenza di 2)*/
+    private static final int SEGMENTI = 64;
+    /**Capacità iniziale della tabella di un segmento (potenza di 2)*/
+    private static final int CAPACITA_INIZIALE = 16;
+    /**Chiave delle celle libere, gli identificativi non sono mai negativi*/
+    private static final long LIBERA = -1L;
+
+    /**Segmenti delle posizioni, il segmento di un operatore è {@code segmenti[id & (SEGMENTI - 1)]}*/
+    private final Segmento[] segmenti = new Segmento[SEGMENTI];
+    /**Operatori che hanno posseduto almeno una volta azioni in questa borsa, in ordine alfabetico*/
+    private final SortedSet<Operatore> operatori = new ConcurrentSkipListSet<>();
+
+    /*
+     * AF:
+     *   Un'istanza di "RegistroPosizioni" rappresenta la funzione (operatore, azienda) --> numero di azioni possedute,
+     *   dove le coppie assenti dalle tabelle dei segmenti valgono 0.
+     * RI:
+     *   - ogni numero nelle tabelle è > 0.
+     *   - la posizione di un operatore sta solo nel segmento segmenti[id & (SEGMENTI - 1)].
+     *   - "operatori" contiene ogni operatore con almeno una posizione.
+     */
+
+    /**
+     * Costruttore della classe, crea i segmenti vuoti
+     */
+    RegistroPosizioni() {
+        for (int i = 0; i < SEGMENTI; i++) {
+            segmenti[i] = new Segmento();
+        }
+    }
+
+    /**
+     * Estrae il lock delle posizioni di un operatore, da tenere per chiamare {@link #numero(Operatore, Azienda)}
+     * e {@link #varia(Operatore, Azienda, int)}
+     * @param op operatore
+     * @return il lock
+     */
+    Object lock(Operatore op) {
+        return segmenti[op.getId() & (SEGMENTI - 1)];
+    }
+
+    /**
+     * Estrae il numero di azioni possedute (chiamato sotto {@link #lock(Operatore)})
+     * @param op operatore
+     * @param azienda azienda delle azioni
+     * @return il numero, 0 se l'operatore non ne possiede
+     */
+    int numero(Operatore op, Azienda azienda) {
+        return segmenti[op.getId() & (SEGMENTI - 1)].numero(chiave(op.getId(), azienda.getId()));
+    }
+
+    /**
+     * Estrae il numero di azioni possedute prendendo il lock del segmento
+     * @param op operatore
+     * @param azienda azienda delle azioni
+     * @return il numero, 0 se l'operatore non ne possiede
+     */
+    int leggi(Operatore op, Azienda azienda) {
+        synchronized (lock(op)) {
+            return numero(op, azienda);
+        }
+    }
+
+    /**
+     * Somma una variazione al numero di azioni possedute, rimuovendo la posizione se si azzera (chiamato sotto {@link #lock(Operatore)})
+     * @param op operatore
+     * @param azienda azienda delle azioni
+     * @param variazione azioni aggiunte (positivo) o tolte (negativo), il risultato non deve essere negativo
+     */
+    void varia(Operatore op, Azienda azienda, int variazione) {
+        segmenti[op.getId() & (SEGMENTI - 1)].varia(chiave(op.getId(), azienda.getId()), variazione);
+        if (variazione > 0) {
+            operatori.add(op);
+        }
+    }
+
+    /**
+     * Estrae gli operatori che hanno posseduto azioni in questa borsa, anche se ora non ne possiedono più
+     * @return gli operatori in ordine alfabetico (vista non copiata)
+     */
+    SortedSet<Operatore> getOperatori() {
+        return operatori;
+    }
+
+    /**
+     * Visita tutte le posizioni, un segmento alla volta sotto il suo lock
+     * @param visitatore chiamato per ogni posizione
+     */
+    void visita(Visitatore visitatore) {
+        for (Segmento segmento : segmenti) {
+            synchronized (segmento) {
+                segmento.visita(visitatore);
+            }
+        }
+    }
+
+    /**
+     * Impacchetta gli identificativi in una chiave
+     * @param operatore identificativo dell'operatore (32 bit alti)
+     * @param azienda identificativo dell'azienda (32 bit bassi)
+     * @return la chiave
+     */
+    private static long chiave(int operatore, int azienda) {
+        return ((long) operatore << 32) | (azienda & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Riceve le posizioni durante una {@link #visita(Visitatore)}
+     */
+    @FunctionalInterface
+    interface Visitatore {
+        /**
+         * Riceve una posizione
+         * @param operatore identificativo dell'operatore {@link Operatore#getId()}
+         * @param azienda identificativo dell'azienda {@link Azienda#getId()}
+         * @param numero azioni possedute (> 0)
+         */
+        void posizione(int operatore, int azienda, int numero);
+    }
+
+    /**
+     * Tabella a indirizzamento aperto chiave --> numero di un segmento, usata solo sotto il suo lock
+     */
+    private static final class Segmento {
+        /**Chiavi delle celle, {@link #LIBERA} se la cella è vuota*/
+        private long[] chiavi = nuoveChiavi(CAPACITA_INIZIALE);
+        /**Numeri delle celle, validi solo dove la chiave non è libera*/
+        private int[] numeri = new int[CAPACITA_INIZIALE];
+        /**Celle occupate*/
+        private int occupate;
+
+        /**
+         * Crea un array di chiavi tutte libere
+         * @param capacita lunghezza (potenza di 2)
+         * @return le chiavi
+         */
+        private static long[] nuoveChiavi(int capacita) {
+            long[] chiavi = new long[capacita];
+            Arrays.fill(chiavi, LIBERA);
+            return chiavi;
+        }
+
+        /**
+         * Calcola la cella ideale di una chiave (hash di Fibonacci)
+         * @param chiave la chiave
+         * @param maschera lunghezza della tabella meno 1
+         * @return la cella
+         */
+        private static int cella(long chiave, int maschera) {
+            long h = chiave * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & maschera;
+        }
+
+        /**
+         * Cerca la cella di una chiave
+         * @param chiave la chiave
+         * @return la cella, oppure la cella libera in cui andrebbe inserita
+         */
+        private int trova(long chiave) {
+            int maschera = chiavi.length - 1;
+            int i = cella(chiave, maschera);
+            while (chiavi[i] != LIBERA && chiavi[i] != chiave) {
+                i = (i + 1) & maschera;
+            }
+            return i;
+        }
+
+        /**
+         * Estrae il numero di una chiave
+         * @param chiave la chiave
+         * @return il numero, 0 se assente
+         */
+        int numero(long chiave) {
+            int i = trova(chiave);
+            return chiavi[i] == LIBERA ? 0 : numeri[i];
+        }
+
+        /**
+         * Somma una variazione al numero di una chiave, inserendola o rimuovendola se necessario
+         * @param chiave la chiave
+         * @param variazione la variazione
+         */
+        void varia(long chiave, int variazione) {
+            int i = trova(chiave);
+            if (chiavi[i] == LIBERA) {
+                if (variazione == 0) {
+                    return;
+                }
+                chiavi[i] = chiave;
+                numeri[i] = variazione;
+                if (++occupate * 2 > chiavi.length) {
+                    raddoppia();
+                }
+                return;
+            }
+            numeri[i] += variazione;
+            if (numeri[i] == 0) {
+                rimuovi(i);
+            }
+        }
+
+        /**
+         * Libera una cella spostando indietro le chiavi successive che la scavalcavano,
+         * così la ricerca non trova mai un buco prima della propria chiave
+         * @param libera cella da liberare
+         */
+        private void rimuovi(int libera) {
+            int maschera = chiavi.length - 1;
+            int j = libera;
+            while (true) {
+                j = (j + 1) & maschera;
+                long chiave = chiavi[j];
+                if (chiave == LIBERA) {
+                    break;
+                }
+                int ideale = cella(chiave, maschera);
+                boolean scavalca = libera <= j ? (ideale <= libera || ideale > j) : (ideale <= libera && ideale > j);
+                if (scavalca) {
+                    chiavi[libera] = chiave;
+                    numeri[libera] = numeri[j];
+                    libera = j;
+                }
+            }
+            chiavi[libera] = LIBERA;
+            occupate--;
+        }
+
+        /**
+         * Raddoppia la tabella reinserendo tutte le chiavi
+         */
+        private void raddoppia() {
+            long[] vecchieChiavi = chiavi;
+            int[] vecchiNumeri = numeri;
+            chiavi = nuoveChiavi(vecchieChiavi.length * 2);
+            numeri = new int[vecchieChiavi.length * 2];
+            for (int i = 0; i < vecchieChiavi.length; i++) {
+                if (vecchieChiavi[i] != LIBERA) {
+                    int j = trova(vecchieChiavi[i]);
+                    chiavi[j] = vecchieChiavi[i];
+                    numeri[j] = vecchiNumeri[i];
+                }
+            }
+        }
+
+        /**
+         * Passa al visitatore tutte le posizioni del segmento
+         * @param visitatore il visitatore
+         */
+        void visita(Visitatore visitatore) {
+            for (int i = 0; i < chiavi.length; i++) {
+                if (chiavi[i] != LIBERA) {
+                    visitatore.posizione((int) (chiavi[i] >>> 32), (int) chiavi[i], numeri[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package borsanova;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * La classe {@code RegistroValutazione} tiene aggiornato il valore di mercato delle azioni possedute dagli operatori
+ * per una singola {@link Borsa.Azione} quotata.
+ * <p>
+ * Il registro conosce il prezzo con cui le azioni sono valutate e quante ne possiede ciascun detentore, in una tabella
+ * a indirizzamento aperto (identificativo dell'operatore --> numero, scansione lineare, cancellazione per spostamento all'indietro)
+ * senza alcun oggetto per detentore. Quando cambia una posizione somma al valore dell'operatore la variazione del numero per il prezzo,
+ * quando cambia il prezzo somma a ogni detentore la variazione del prezzo per le azioni che possiede. Così il valore delle azioni
+ * di un operatore {@link Operatore#getValoreAzioni()} è sempre la somma di numero per prezzo di valutazione e si legge in tempo costante.
+ * <p>
+ * Le variazioni di posizione aspettano il lock del registro, le variazioni di prezzo no: chi cambia il prezzo segnala che la valutazione
+ * è da aggiornare e, se il lock è libero, porta tutti i detentori al prezzo corrente; se il lock è occupato se ne occupa chi lo detiene
+ * prima di rilasciarlo. Più variazioni di prezzo ravvicinate si riducono quindi a un solo aggiornamento dei detentori, fatto da un solo
+ * thread, e gli eseguiti non si fermano mai ad aspettarlo. Tra una variazione di prezzo e l'aggiornamento il valore degli operatori
+ * può restare indietro di quella variazione.
+ */
+final class RegistroValutazione {
+    /**Capacità iniziale della tabella dei detentori (potenza di 2)*/
+    private static final int CAPACITA_INIZIALE = 4;
+    /**Chiave delle celle libere, gli identificativi non sono mai negativi*/
+    private static final int LIBERA = -1;
+
+    /**Azione quotata valutata*/
+    private final Borsa.Azione azione;
+    /**Lock del registro, tenuto per variare le posizioni e per aggiornare i detentori al prezzo corrente*/
+    private final ReentrantLock lock = new ReentrantLock();
+    /**true se il prezzo dell'azione è cambiato dopo l'ultimo aggiornamento dei detentori*/
+    private final AtomicBoolean daAggiornare = new AtomicBoolean();
+    /**Prezzo con cui sono valutate le azioni (scritto sotto il lock)*/
+    private int prezzo;
+    /**Identificativi dei detentori, {@link #LIBERA} se la cella è vuota*/
+    private int[] detentori = nuoviDetentori(CAPACITA_INIZIALE);
+    /**Azioni possedute da ciascun detentore, valide solo dove la cella non è libera*/
+    private int[] numeri = new int[CAPACITA_INIZIALE];
+    /**Celle occupate*/
+    private int occupate;
+
+    /*
+     * AF:
+     *   Un'istanza di "RegistroValutazione" rappresenta i detentori dell'azione quotata "azione": l'operatore con identificativo
+     *   detentori[i] ne possiede numeri[i], valutate al prezzo "prezzo".
+     * RI:
+     *   - prezzo >= 1.
+     *   - nessun numero nelle celle occupate è 0 (durante la riproduzione del Giornale un numero può essere temporaneamente negativo).
+     *   - il contributo di questa azione al valore di ogni operatore è il suo numero per "prezzo".
+     *   - se "daAggiornare" è false e il lock è libero, "prezzo" è il prezzo di "azione" letto dopo la sua ultima variazione.
+     */
+
+    /**
+     * Costruttore della classe, usato alla quotazione dell'azione
+     * @param azione l'azione quotata, con il suo prezzo iniziale
+     */
+    RegistroValutazione(Borsa.Azione azione) {
+        this.azione = azione;
+        this.prezzo = azione.getPrezzo();
+    }
+
+    /**
+     * Registra la variazione delle azioni possedute da un operatore e ne aggiorna il valore
+     * @param op operatore
+     * @param numero azioni aggiunte (positivo) o tolte (negativo)
+     */
+    void variaPosizione(Operatore op, int numero) {
+        lock.lock();
+        try {
+            varia(op.getId(), numero);
+            op.variaValoreAzioni((long) numero * prezzo);
+        } finally {
+            lock.unlock();
+        }
+        aggiorna();
+    }
+
+    /**
+     * Segnala che il prezzo dell'azione è cambiato e, se nessun altro thread tiene il lock, porta la valutazione
+     * di tutti i detentori al prezzo corrente. Non aspetta mai il lock.
+     */
+    void variaPrezzo() {
+        daAggiornare.set(true);
+        aggiorna();
+    }
+
+    /**
+     * Aggiorna i detentori finché ci sono variazioni di prezzo segnalate e il lock è libero; ricontrolla dopo aver rilasciato il lock,
+     * così una variazione segnalata mentre il lock era occupato viene sempre raccolta da chi lo stava tenendo
+     */
+    private void aggiorna() {
+        while (daAggiornare.get() && lock.tryLock()) {
+            try {
+                while (daAggiornare.getAndSet(false)) {
+                    int nuovo = azione.getPrezzo();
+                    if (nuovo == prezzo) {
+                        continue;
+                    }
+                    long variazione = nuovo - prezzo;
+                    for (int i = 0; i < detentori.length; i++) {
+                        if (detentori[i] != LIBERA) {
+                            Operatore.daId(detentori[i]).variaValoreAzioni(variazione * numeri[i]);
+                        }
+                    }
+                    prezzo = nuovo;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Crea un array di identificativi tutti liberi
+     * @param capacita lunghezza (potenza di 2)
+     * @return gli identificativi
+     */
+    private static int[] nuoviDetentori(int capacita) {
+        int[] detentori = new int[capacita];
+        Arrays.fill(detentori, LIBERA);
+        return detentori;
+    }
+
+    /**
+     * Calcola la cella ideale di un identificativo (hash di Fibonacci)
+     * @param id identificativo dell'operatore
+     * @param maschera lunghezza della tabella meno 1
+     * @return la cella
+     */
+    private static int cella(int id, int maschera) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & maschera;
+    }
+
+    /**
+     * Cerca la cella di un detentore
+     * @param id identificativo dell'operatore
+     * @return la cella, oppure la cella libera in cui andrebbe inserito
+     */
+    private int trova(int id) {
+        int maschera = detentori.length - 1;
+        int i = cella(id, maschera);
+        while (detentori[i] != LIBERA && detentori[i] != id) {
+            i = (i + 1) & maschera;
+        }
+        return i;
+    }
+
+    /**
+     * Somma una variazione al numero di un detentore, inserendolo o rimuovendolo se necessario (chiamato sotto il lock)
+     * @param id identificativo dell'operatore
+     * @param variazione la variazione
+     */
+    private void varia(int id, int variazione) {
+        int i = trova(id);
+        if (detentori[i] == LIBERA) {
+            if (variazione == 0) {
+                return;
+            }
+            detentori[i] = id;
+            numeri[i] = variazione;
+            if (++occupate * 2 > detentori.length) {
+                raddoppia();
+            }
+            return;
+        }
+        numeri[i] += variazione;
+        if (numeri[i] == 0) {
+            rimuovi(i);
+        }
+    }
+
+    /**
+     * Libera una cella spostando indietro i detentori successivi che la scavalcavano,
+     * così la ricerca non trova mai un buco prima del proprio detentore
+     * @param libera cella da liberare
+     */
+    private void rimuovi(int libera) {
+        int maschera = detentori.length - 1;
+        int j = libera;
+        while (true) {
+            j = (j + 1) & maschera;
+            int id = detentori[j];
+            if (id == LIBERA) {
+                break;
+            }
+            int ideale = cella(id, maschera);
+            boolean scavalca = libera <= j ? (ideale <= libera || ideale > j) : (ideale <= libera && ideale > j);
+            if (scavalca) {
+                detentori[libera] = id;
+                numeri[libera] = numeri[j];
+                libera = j;
+            }
+        }
+        detentori[libera] = LIBERA;
+        occupate--;
+    }
+
+    /**
+     * Raddoppia la tabella reinserendo tutti i detentori
+     */
+    private void raddoppia() {
+        int[] vecchiDetentori = detentori;
+        int[] vecchiNumeri = numeri;
+        detentori = nuoviDetentori(vecchiDetentori.length * 2);
+        numeri = new int[vecchiDetentori.length * 2];
+        for (int i = 0; i < vecchiDetentori.length; i++) {
+            if (vecchiDetentori[i] != LIBERA) {
+                int j = trova(vecchiDetentori[i]);
+                detentori[j] = vecchiDetentori[i];
+                numeri[j] = vecchiNumeri[i];
+            }
+        }
+    }
+}
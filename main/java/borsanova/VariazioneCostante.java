@@ -19,6 +19,8 @@ public class VariazioneCostante implements PoliticaPrezzo {
     private int incremento = 0;
     /**Il decremento costante (inizia a 0 e non modifica il prezzo se rimane tale)*/
     private int decremento = 0;
+    /**Funzione di prezzo, la stessa per tutte le azioni a cui la politica è legata*/
+    private final FunzionePassi funzione;
 
     /*
      * AF:
@@ -47,6 +49,7 @@ public class VariazioneCostante implements PoliticaPrezzo {
     public VariazioneCostante(int quantity) {
         if (quantity > 0) {this.incremento = quantity;}
         else if (quantity < 0) {this.decremento = quantity;}
+        this.funzione = FunzionePassi.costante(incremento, decremento);
     }
 
     /**
@@ -68,6 +71,23 @@ public class VariazioneCostante implements PoliticaPrezzo {
         if (decremento > 0) {throw new IllegalArgumentException("L'decremento deve essere negativo");}
         this.incremento = incremento;
         this.decremento = decremento;
+        this.funzione = FunzionePassi.costante(incremento, decremento);
+    }
+
+    /**
+     * Estrae l'incremento costante, usato per salvare la politica {@link Istantanea}
+     * @return incremento (>= 0)
+     */
+    int getIncremento() {
+        return incremento;
+    }
+
+    /**
+     * Estrae il decremento costante, usato per salvare la politica {@link Istantanea}
+     * @return decremento (<= 0)
+     */
+    int getDecremento() {
+        return decremento;
     }
 
     /**
@@ -78,15 +98,16 @@ public class VariazioneCostante implements PoliticaPrezzo {
      * <ul>
      * <li> {@code azione} --> non deve essere null
      * </ul>
-     * @param azione azione da cui ottiene il prezzo (non null)
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento dell'acquisto
      * @param quantity numero di azioni comprate (ignorato in questa implementazione)
      * @return il nuovo prezzo dell'azione
      * @throws IllegalArgumentException se l'azione è nulla
      */
     @Override
-    public int applicaPoliticaAcquisto(Borsa.Azione azione, int quantity) {
+    public int applicaPoliticaAcquisto(Borsa.Azione azione, int prezzo, int quantity) {
         if (azione == null) {throw new IllegalArgumentException("L'azione non può essere null");}
-        return azione.getPrezzo() + this.incremento;
+        return prezzo + this.incremento;
     }
 
     /**
@@ -97,14 +118,29 @@ public class VariazioneCostante implements PoliticaPrezzo {
      * <ul>
      * <li> {@code azione} --> non deve essere null
      * </ul>
-     * @param azione azione da cui ottiene il prezzo (non null)
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento della vendita
      * @param quantity numero di azioni comprate (ignorato in questa implementazione)
      * @return il nuovo prezzo dell'azione (se minore di 1 allora ritorna 1)
      * @throws IllegalArgumentException se l'azione è nulla
      */
     @Override
-    public int applicaPoliticaVendita(Borsa.Azione azione, int quantity) {
+    public int applicaPoliticaVendita(Borsa.Azione azione, int prezzo, int quantity) {
+        if (azione == null) {throw new IllegalArgumentException("L'azione non può essere null");}
+        return Math.max((prezzo + this.decremento), 1);
+    }
+
+    /**
+     * Lega la politica a un'azione: incremento e decremento non dipendono dall'azione, quindi la funzione
+     * somma al prezzo le due costanti senza altri controlli (in forma di {@link FunzionePassi}, componibile con {@link PoliticaComposta})
+     * ed è condivisa da tutte le azioni
+     * @param azione azione a cui si applica la politica (non null)
+     * @return la funzione di prezzo
+     * @throws IllegalArgumentException se l'azione è nulla
+     */
+    @Override
+    public FunzionePrezzo lega(Borsa.Azione azione) {
         if (azione == null) {throw new IllegalArgumentException("L'azione non può essere null");}
-        return Math.max((azione.getPrezzo() + this.decremento), 1);
+        return funzione;
     }
 }
@@ -14,6 +14,8 @@ public class VariazioneSoglia implements PoliticaPrezzo {
 
     /**Soglia sulla quale basare la politica*/
     private final int soglia;
+    /**Funzione di prezzo, la stessa per tutte le azioni a cui la politica è legata*/
+    private final FunzionePassi funzione;
 
      /*
      * AF:
@@ -47,6 +49,15 @@ public class VariazioneSoglia implements PoliticaPrezzo {
     public VariazioneSoglia(int soglia) {
         if (soglia < 0) {throw new IllegalArgumentException("La soglia non può essere negativa");}
         this.soglia = soglia;
+        this.funzione = FunzionePassi.soglia(soglia);
+    }
+
+    /**
+     * Estrae la soglia, usata per salvare la politica {@link Istantanea}
+     * @return soglia (>= 0)
+     */
+    int getSoglia() {
+        return soglia;
     }
 
     /**
@@ -58,18 +69,19 @@ public class VariazioneSoglia implements PoliticaPrezzo {
      * <li> {@code azione} --> non deve essere null
      * <li> {@code numeroAzioni} --> deve essere >= 0
      * </ul>
-     * @param azione azione da cui ottiene il prezzo (non null)
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento dell'acquisto
      * @param numeroAzioni il numero di azioni acquistate (deve essere >= 0)
      * @return il nuovo prezzo (raddoppiato o invariato in base alla soglia)
      * @throws NullPointerException se l'azione è null
      * @throws IllegalArgumentException Se le azioni comprate sono negative
      */
     @Override
-    public int applicaPoliticaAcquisto(Borsa.Azione azione, int numeroAzioni) {
+    public int applicaPoliticaAcquisto(Borsa.Azione azione, int prezzo, int numeroAzioni) {
         if (azione == null) {throw new IllegalArgumentException("L'azione non può essere null");}
         if (numeroAzioni < 0) {throw new IllegalArgumentException("Le azione acquistate non possono essere negative");}
-        if (numeroAzioni > soglia) {return azione.getPrezzo()*2;}
-        return azione.getPrezzo();
+        if (numeroAzioni > soglia) {return prezzo*2;}
+        return prezzo;
     }
 
     /**
@@ -83,17 +95,31 @@ public class VariazioneSoglia implements PoliticaPrezzo {
      * <li> {@code azione} --> non deve essere null
      * <li> {@code numeroAzioni} --> deve essere >= 0
      * </ul>
-     * @param azione azione da cui ottiene il prezzo (non null)
+     * @param azione azione a cui si applica la politica (non null)
+     * @param prezzo prezzo dell'azione al momento della vendita
      * @param numeroAzioni numero di azioni vendute (deve essere >= 0)
      * @return il nuovo prezzo o 1 (dimezzato o invariato in base alla soglia)
      * @throws NullPointerException se l'azione è null
      * @throws IllegalArgumentException Se le azioni vendute sono negative
      */
     @Override
-    public int applicaPoliticaVendita(Borsa.Azione azione, int numeroAzioni) {
+    public int applicaPoliticaVendita(Borsa.Azione azione, int prezzo, int numeroAzioni) {
         if (azione == null) {throw new NullPointerException("L'azione non può essere null");}
         if (numeroAzioni < 0) {throw new IllegalArgumentException("Le azione vendute non possono essere negative");}
-        if (numeroAzioni > soglia) {return Math.max(azione.getPrezzo() / 2, 1);}
-        return azione.getPrezzo();
+        if (numeroAzioni > soglia) {return Math.max(prezzo / 2, 1);}
+        return prezzo;
+    }
+
+    /**
+     * Lega la politica a un'azione: la soglia non dipende dall'azione, quindi la funzione confronta solo la quantità
+     * (in forma di {@link FunzionePassi}, componibile con {@link PoliticaComposta}) ed è condivisa da tutte le azioni
+     * @param azione azione a cui si applica la politica (non null)
+     * @return la funzione di prezzo
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public FunzionePrezzo lega(Borsa.Azione azione) {
+        if (azione == null) {throw new NullPointerException("L'azione non può essere null");}
+        return funzione;
     }
 }
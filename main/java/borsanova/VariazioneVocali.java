@@ -65,6 +65,14 @@ public class VariazioneVocali implements PoliticaPrezzo{
         this.lettera = Objects.requireNonNull(lettera, "La stringa è null").toLowerCase().charAt(0);
     }
 
+    /**
+     * Estrae la lettera della politica (minuscola), usata per salvare la politica {@link Istantanea}
+     * @return lettera
+     */
+    char getLettera() {
+        return lettera;
+    }
+
     /**
      * Applica la politica di prezzo vocali per l'acquisto:
      * <p>
@@ -75,28 +83,15 @@ public class VariazioneVocali implements PoliticaPrezzo{
      * <ul>
      * <li> {@code azione} --> non deve essere null
      * </ul>
-     * @param azione L'azione da cui otteniamo il prezzo e le iniziali di borsa e azienda (non nullo)
+     * @param azione L'azione da cui otteniamo le iniziali di borsa e azienda (non nullo)
+     * @param prezzo il prezzo dell'azione al momento dell'operazione
      * @param quantity il numero delle azioni acquistate (in questa politica di prezzo non viene usato)
      * @return il nuovo prezzo (raddoppiato o invariato in base all'idoneità dell'azione)
      * @throws NullPointerException se l'azione è null
      */
     @Override
-    public int applicaPoliticaAcquisto(Borsa.Azione azione, int quantity) {
-        if (azione == null) {throw new NullPointerException("L'azione non può essere null");}
-        char letteraBorsa = azione.getNomeBorsa().toLowerCase().charAt(0);
-        char letteraAzienda = azione.getNomeAzienda().toLowerCase().charAt(0);
-
-        if (letteraBorsa == lettera || letteraAzienda == lettera ) {
-            return azione.getPrezzo()*2;
-        }
-        else {
-            for (char ch : vocali.toCharArray()) {
-                if (ch == letteraBorsa || ch == letteraAzienda) {
-                    return azione.getPrezzo()*2;
-                }
-            }
-        }
-        return azione.getPrezzo();
+    public int applicaPoliticaAcquisto(Borsa.Azione azione, int prezzo, int quantity) {
+        return idonea(azione) ? prezzo*2 : prezzo;
     }
 
     /**
@@ -109,27 +104,41 @@ public class VariazioneVocali implements PoliticaPrezzo{
      * <ul>
      * <li> {@code azione} --> non deve essere null
      * </ul>
-     * @param azione L'azione da cui otteniamo il prezzo e le iniziali di borsa e azienda (non nullo)
+     * @param azione L'azione da cui otteniamo le iniziali di borsa e azienda (non nullo)
+     * @param prezzo il prezzo dell'azione al momento dell'operazione
      * @param quantity il numero delle azioni acquistate (in questa politica di prezzo non viene usato)
      * @return il nuovo prezzo (dimezzato o invariato in base all'idoneità dell'azione)
      * @throws NullPointerException se l'azione è null
      */
     @Override
-    public int applicaPoliticaVendita(Borsa.Azione azione, int quantity) {
-        if (azione == null) {throw new NullPointerException("L'azione non può essere null");}
-        char letteraBorsa = azione.getNomeBorsa().toLowerCase().charAt(0);
-        char letteraAzienda = azione.getNomeAzienda().toLowerCase().charAt(0);
+    public int applicaPoliticaVendita(Borsa.Azione azione, int prezzo, int quantity) {
+        return idonea(azione) ? Math.max(prezzo / 2, 1) : prezzo;
+    }
 
-        if (letteraBorsa == lettera || letteraAzienda == lettera ) {
-            return Math.max(azione.getPrezzo() / 2, 1);
-        }
-        else {
-            for (char ch : vocali.toCharArray()) {
-                if (ch == letteraBorsa || ch == letteraAzienda) {
-                    return Math.max(azione.getPrezzo() / 2, 1);
-                }
-            }
-        }
-        return azione.getPrezzo();
+    /**
+     * Lega la politica a un'azione: l'idoneità dipende solo dalle iniziali di azienda e borsa, quindi viene decisa qui
+     * una volta sola e la funzione raddoppia e dimezza il prezzo oppure lo lascia invariato senza guardare i nomi
+     * @param azione L'azione da cui otteniamo le iniziali di borsa e azienda (non nullo)
+     * @return {@link FunzionePrezzo#RADDOPPIO} se l'azione è idonea, altrimenti {@link FunzionePrezzo#INVARIATO}
+     * @throws NullPointerException se l'azione è null
+     */
+    @Override
+    public FunzionePrezzo lega(Borsa.Azione azione) {
+        return idonea(azione) ? FunzionePrezzo.RADDOPPIO : FunzionePrezzo.INVARIATO;
+    }
+
+    /**
+     * Controlla se l'iniziale dell'azienda o della borsa dell'azione è una vocale o la lettera di controllo,
+     * dopo averle rese minuscole
+     * @param azione l'azione da controllare
+     * @return true se l'azione è idonea alla politica
+     * @throws NullPointerException se l'azione è null
+     */
+    private boolean idonea(Borsa.Azione azione) {
+        if (azione == null) {throw new NullPointerException("L'azione non può essere null");}
+        char letteraBorsa = Character.toLowerCase(azione.getNomeBorsa().charAt(0));
+        char letteraAzienda = Character.toLowerCase(azione.getNomeAzienda().charAt(0));
+        return letteraBorsa == lettera || letteraAzienda == lettera
+                || vocali.indexOf(letteraBorsa) >= 0 || vocali.indexOf(letteraAzienda) >= 0;
     }
 }
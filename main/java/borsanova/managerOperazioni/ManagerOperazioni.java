@@ -4,11 +4,17 @@ import borsanova.Azienda;
 import borsanova.Borsa;
 import borsanova.Operatore;
 
+import java.nio.ByteBuffer;
+
 /**
  * La classe {@code ManagerOperazioni} gestisce le operazioni finanziarie come acquisti, vendite, depositi e prelievi.
  * <p>
  * È utilizzata come helper per evitare dipendenze cicliche tra le altre classi del sistema.
  * Il metodo {@code operazione} esegue l'operazione richiesta in base al tipo di operazione specificato.
+ * <p>
+ * Le stesse operazioni possono arrivare anche codificate in binario ({@link OrdineBinario}), con le entità già indicate
+ * dal loro identificativo: {@link #esegui(OrdineBinario)} e {@link #eseguiLotto(ByteBuffer)} le eseguono senza passare
+ * dal testo né dal confronto tra stringhe.
  */
 public final class ManagerOperazioni {
     /*
@@ -17,6 +23,7 @@ public final class ManagerOperazioni {
      *   {@code Operatore}, {@code Borsa} e {@code Azienda} in base al tipo di operazione richiesta.
      *   Le operazioni che possono essere eseguite sono:
      *   - "b" --> per acquistare azioni
+     *   - "r" --> per acquistare azioni su tutte le borse in cui l'azienda è quotata, dalla più conveniente
      *   - "s" --> per vendere azioni
      *   - "w" --> per effettuare un prelievo
      *   - "d" --> per effettuare un deposito
@@ -24,8 +31,8 @@ public final class ManagerOperazioni {
      * RI:
      *   I parametri passati nel metodo {@code operazione} devo rispettare una serie di requisiti:
      *   - "op" --> non deve essere null
-     *   - "operazione" --> non può essere null o vuoto, deve essere un simbolo riconosciuto come operazione (b, s, w d)
-     *   - "borsa" --> non può essere null
+     *   - "operazione" --> non può essere null o vuoto, deve essere un simbolo riconosciuto come operazione (b, r, s, w d)
+     *   - "borsa" --> non può essere null (tranne che per "r")
      *   - "azienda" --> non può essere null
      *   - "numero" --> non può uguale o minore di 0
      */
@@ -38,9 +45,10 @@ public final class ManagerOperazioni {
      * Esegue l'operazione passata come parametro usando gli altri parametri in base al tipo di operazione:
      *<ul>
      * <li> "b" Acquista azioni {@link Operatore#acquistaAzione(Borsa, int, Borsa.Azione)}
+     * <li> "r" Acquista azioni nelle borse più convenienti {@link Operatore#acquistaInstradato(Azienda, int)}, la borsa è ignorata
      * <li> "s" Vendi azioni {@link Operatore#vendiAzione(Borsa, Azienda, int)}
-     * <li> "w" Prelievo {@link Operatore#prelievo(int)}
-     * <li> "d" Deposito {@link Operatore#deposito(int)}
+     * <li> "w" Prelievo {@link Operatore#prelievo(long)}
+     * <li> "d" Deposito {@link Operatore#deposito(long)}
      *</ul>
      * <p>
      * Effetti collaterali:
@@ -69,6 +77,9 @@ public final class ManagerOperazioni {
                 Borsa.Azione azioneAcquisto = borsa.getAzione(azienda, borsa);
                 op.acquistaAzione(borsa, numero, azioneAcquisto);
                 break;
+            case "r":
+                op.acquistaInstradato(azienda, numero);
+                break;
             case "s":
                 op.vendiAzione(borsa, azienda, numero);
                 break;
@@ -82,4 +93,63 @@ public final class ManagerOperazioni {
                 throw new IllegalArgumentException("Il simbolo dell'operazione è errato");
         }
     }
+
+    /**
+     * Esegue un ordine binario come {@link #operazione(Operatore, String, Borsa, Azienda, int)} eseguirebbe l'operazione
+     * testuale corrispondente, cercando le entità con il loro identificativo
+     * ({@link Operatore#daId(int)}, {@link Borsa#daId(int)}, {@link Azienda#daId(int)}).
+     * @param ordine ordine da eseguire (non null)
+     * @throws NullPointerException se l'ordine è null
+     * @throws IllegalArgumentException se il codice dell'operazione non è corretto oppure se il numero dell'operazione è minore o uguale a 0
+     * @throws ArrayIndexOutOfBoundsException se un identificativo usato dall'operazione non corrisponde ad alcuna entità
+     * @see OrdineBinario
+     */
+    public static void esegui(OrdineBinario ordine) {
+        int numero = ordine.getNumero();
+        if (numero <= 0) {
+            throw new IllegalArgumentException("Il numero dell'operazione dev'essere maggiore di 0");
+        }
+        Operatore op = Operatore.daId(ordine.getOperatore());
+        switch (ordine.getCodice()) {
+            case OrdineBinario.ACQUISTO:
+                Borsa borsa = Borsa.daId(ordine.getBorsa());
+                op.acquistaAzione(borsa, numero, borsa.getAzione(Azienda.daId(ordine.getAzienda()), borsa));
+                break;
+            case OrdineBinario.INSTRADATO:
+                op.acquistaInstradato(Azienda.daId(ordine.getAzienda()), numero);
+                break;
+            case OrdineBinario.VENDITA:
+                op.vendiAzione(Borsa.daId(ordine.getBorsa()), Azienda.daId(ordine.getAzienda()), numero);
+                break;
+            case OrdineBinario.PRELIEVO:
+                op.prelievo(numero);
+                break;
+            case OrdineBinario.DEPOSITO:
+                op.deposito(numero);
+                break;
+            default:
+                throw new IllegalArgumentException("Il simbolo dell'operazione è errato");
+        }
+    }
+
+    /**
+     * Esegue in ordine tutti gli ordini binari interi contenuti nel buffer, dalla sua posizione corrente, decodificandoli
+     * in un unico {@link OrdineBinario} riutilizzato.
+     * Se un ordine lancia un'eccezione l'esecuzione si ferma e la posizione del buffer resta subito dopo quell'ordine.
+     * @param lotto buffer con gli ordini (non null); alla fine la posizione è dopo l'ultimo ordine intero
+     * @return numero di ordini eseguiti
+     * @throws NullPointerException se il buffer è null
+     * @throws IllegalArgumentException se un ordine non è corretto
+     * @throws ArrayIndexOutOfBoundsException se un identificativo usato da un ordine non corrisponde ad alcuna entità
+     * @see #esegui(OrdineBinario)
+     */
+    public static int eseguiLotto(ByteBuffer lotto) {
+        OrdineBinario ordine = new OrdineBinario();
+        int eseguiti = 0;
+        while (ordine.leggi(lotto)) {
+            esegui(ordine);
+            eseguiti++;
+        }
+        return eseguiti;
+    }
 }
@@ -0,0 +1,196 @@
+package borsanova.managerOperazioni;
+
+import borsanova.Azienda;
+import borsanova.Borsa;
+import borsanova.Operatore;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * La classe {@code OrdineBinario} è la codifica binaria a lunghezza fissa delle operazioni di {@link ManagerOperazioni}:
+ * un ordine occupa sempre {@link #DIMENSIONE} byte, nell'ordine dei byte del buffer usato:
+ * <pre>
+ *   [codice byte][3 byte a zero][operatore int][borsa int][azienda int][numero int]
+ * </pre>
+ * Le entità sono indicate con il loro identificativo ({@link Operatore#getId()}, {@link Borsa#getId()}, {@link Azienda#getId()}),
+ * {@link #NESSUNO} quando l'operazione non ne usa una; il codice è il carattere dell'operazione testuale
+ * ({@link #ACQUISTO}, {@link #INSTRADATO}, {@link #VENDITA}, {@link #PRELIEVO}, {@link #DEPOSITO}).
+ * <p>
+ * Un'istanza è un contenitore riutilizzabile: {@link #leggi(ByteBuffer)} e {@link #imposta(byte, int, int, int, int)} ne
+ * sovrascrivono i campi, quindi codificare e decodificare un lotto di ordini con la stessa istanza non alloca memoria.
+ * Gli ordini decodificati si eseguono con {@link ManagerOperazioni#esegui(OrdineBinario)} o, un lotto alla volta,
+ * con {@link ManagerOperazioni#eseguiLotto(ByteBuffer)}.
+ * Un'istanza non è thread-safe: ogni thread usa la propria.
+ */
+public final class OrdineBinario {
+    /**Byte occupati da un ordine*/
+    public static final int DIMENSIONE = 20;
+    /**Identificativo di un'entità non usata dall'operazione*/
+    public static final int NESSUNO = -1;
+    /**Codice dell'acquisto ("b")*/
+    public static final byte ACQUISTO = 'b';
+    /**Codice dell'acquisto instradato sulle borse più convenienti ("r")*/
+    public static final byte INSTRADATO = 'r';
+    /**Codice della vendita ("s")*/
+    public static final byte VENDITA = 's';
+    /**Codice del prelievo ("w")*/
+    public static final byte PRELIEVO = 'w';
+    /**Codice del deposito ("d")*/
+    public static final byte DEPOSITO = 'd';
+
+    /**Codice dell'operazione*/
+    private byte codice;
+    /**Identificativo dell'operatore*/
+    private int operatore;
+    /**Identificativo della borsa o {@link #NESSUNO}*/
+    private int borsa;
+    /**Identificativo dell'azienda o {@link #NESSUNO}*/
+    private int azienda;
+    /**Numero dell'operazione (prezzo totale, azioni vendute o denaro)*/
+    private int numero;
+
+    /*
+     * AF:
+     *   Un'istanza di "OrdineBinario" rappresenta l'ordine "codice" dell'operatore con identificativo "operatore"
+     *   sull'azienda "azienda" nella borsa "borsa" per "numero", come sarebbe passato a ManagerOperazioni.operazione.
+     * RI:
+     *   Nessuno: i campi sono controllati quando l'ordine viene eseguito, così un ordine errato si può comunque
+     *   leggere e scrivere.
+     */
+
+    /**
+     * Costruttore della classe, crea un ordine vuoto da riempire con {@link #leggi(ByteBuffer)} o {@link #imposta(byte, int, int, int, int)}
+     */
+    public OrdineBinario() {
+        this.borsa = NESSUNO;
+        this.azienda = NESSUNO;
+    }
+
+    /**
+     * Imposta tutti i campi dell'ordine
+     * @param codice codice dell'operazione
+     * @param operatore identificativo dell'operatore
+     * @param borsa identificativo della borsa o {@link #NESSUNO}
+     * @param azienda identificativo dell'azienda o {@link #NESSUNO}
+     * @param numero numero dell'operazione
+     * @return questo ordine
+     */
+    public OrdineBinario imposta(byte codice, int operatore, int borsa, int azienda, int numero) {
+        this.codice = codice;
+        this.operatore = operatore;
+        this.borsa = borsa;
+        this.azienda = azienda;
+        this.numero = numero;
+        return this;
+    }
+
+    /**
+     * Imposta un acquisto, una vendita o un acquisto instradato (per il quale la borsa è ignorata e può essere null)
+     * @param codice {@link #ACQUISTO}, {@link #VENDITA} o {@link #INSTRADATO}
+     * @param op operatore (non null)
+     * @param borsa borsa
+     * @param azienda azienda (non null)
+     * @param numero prezzo totale o azioni vendute
+     * @return questo ordine
+     * @throws NullPointerException se l'operatore o l'azienda sono null
+     */
+    public OrdineBinario imposta(byte codice, Operatore op, Borsa borsa, Azienda azienda, int numero) {
+        return imposta(codice, op.getId(), borsa == null ? NESSUNO : borsa.getId(), azienda.getId(), numero);
+    }
+
+    /**
+     * Imposta un prelievo o un deposito
+     * @param codice {@link #PRELIEVO} o {@link #DEPOSITO}
+     * @param op operatore (non null)
+     * @param numero denaro prelevato o depositato
+     * @return questo ordine
+     * @throws NullPointerException se l'operatore è null
+     */
+    public OrdineBinario imposta(byte codice, Operatore op, int numero) {
+        return imposta(codice, op.getId(), NESSUNO, NESSUNO, numero);
+    }
+
+    /**
+     * Legge il prossimo ordine dal buffer, dalla sua posizione corrente, che avanza di {@link #DIMENSIONE}
+     * @param buffer buffer da leggere
+     * @return true se l'ordine è stato letto, false se nel buffer restano meno di {@link #DIMENSIONE} byte (la posizione non cambia)
+     */
+    public boolean leggi(ByteBuffer buffer) {
+        if (buffer.remaining() < DIMENSIONE) {
+            return false;
+        }
+        int inizio = buffer.position();
+        codice = buffer.get(inizio);
+        operatore = buffer.getInt(inizio + 4);
+        borsa = buffer.getInt(inizio + 8);
+        azienda = buffer.getInt(inizio + 12);
+        numero = buffer.getInt(inizio + 16);
+        buffer.position(inizio + DIMENSIONE);
+        return true;
+    }
+
+    /**
+     * Scrive l'ordine nel buffer, dalla sua posizione corrente, che avanza di {@link #DIMENSIONE}
+     * @param buffer buffer da scrivere
+     * @throws BufferOverflowException se nel buffer restano meno di {@link #DIMENSIONE} byte
+     */
+    public void scrivi(ByteBuffer buffer) {
+        if (buffer.remaining() < DIMENSIONE) {
+            throw new BufferOverflowException();
+        }
+        int inizio = buffer.position();
+        buffer.putInt(inizio, 0);
+        buffer.put(inizio, codice);
+        buffer.putInt(inizio + 4, operatore);
+        buffer.putInt(inizio + 8, borsa);
+        buffer.putInt(inizio + 12, azienda);
+        buffer.putInt(inizio + 16, numero);
+        buffer.position(inizio + DIMENSIONE);
+    }
+
+    /**
+     * Estrae il codice dell'operazione
+     * @return codice
+     */
+    public byte getCodice() {
+        return codice;
+    }
+
+    /**
+     * Estrae l'identificativo dell'operatore
+     * @return identificativo dell'operatore
+     */
+    public int getOperatore() {
+        return operatore;
+    }
+
+    /**
+     * Estrae l'identificativo della borsa
+     * @return identificativo della borsa o {@link #NESSUNO}
+     */
+    public int getBorsa() {
+        return borsa;
+    }
+
+    /**
+     * Estrae l'identificativo dell'azienda
+     * @return identificativo dell'azienda o {@link #NESSUNO}
+     */
+    public int getAzienda() {
+        return azienda;
+    }
+
+    /**
+     * Estrae il numero dell'operazione
+     * @return numero
+     */
+    public int getNumero() {
+        return numero;
+    }
+
+    @Override
+    public String toString() {
+        return (char) codice + " " + operatore + " " + borsa + " " + azienda + " " + numero;
+    }
+}
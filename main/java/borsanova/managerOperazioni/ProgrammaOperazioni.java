@@ -0,0 +1,160 @@
+package borsanova.managerOperazioni;
+
+import borsanova.Azienda;
+import borsanova.Borsa;
+import borsanova.Operatore;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * La classe {@code ProgrammaOperazioni} è un elenco di operazioni già compilato: le righe di testo
+ * (nel formato del terzo blocco dell'ingresso di {@code BorsaClient} e {@code OperatoreClient})
+ * vengono analizzate e i nomi risolti una volta sola da {@link #compila(String[])}, poi il programma può essere
+ * eseguito quante volte si vuole con {@link #esegui()} senza analizzare testo né cercare nomi.
+ * <p>
+ * Ogni operazione occupa {@link #CAMPI} interi consecutivi di un unico array: il codice dell'operazione già decodificato
+ * e gli identificativi di operatore, borsa e azienda ({@link Operatore#getId()}, {@link Borsa#getId()}, {@link Azienda#getId()}),
+ * seguiti dal numero. Gli identificativi restano validi anche in un altro processo in cui le entità siano state create
+ * nello stesso ordine (ad esempio ricostruite da un {@code Giornale} o da un'{@code Istantanea}), e il programma può
+ * essere scritto come lotto di {@link OrdineBinario} con {@link #scrivi(ByteBuffer)}.
+ * <p>
+ * Un programma non viene modificato dopo la compilazione e può essere eseguito da più thread.
+ */
+public final class ProgrammaOperazioni {
+    /**Posizione del codice dell'operazione*/
+    private static final int CODICE = 0;
+    /**Posizione dell'identificativo dell'operatore*/
+    private static final int OPERATORE = 1;
+    /**Posizione dell'identificativo della borsa*/
+    private static final int BORSA = 2;
+    /**Posizione dell'identificativo dell'azienda*/
+    private static final int AZIENDA = 3;
+    /**Posizione del numero dell'operazione*/
+    private static final int NUMERO = 4;
+    /**Interi occupati da un'operazione*/
+    private static final int CAMPI = 5;
+
+    /**Operazioni compilate, una ogni {@link #CAMPI} interi*/
+    private final int[] istruzioni;
+
+    /*
+     * AF:
+     *   Un'istanza di "ProgrammaOperazioni" rappresenta la sequenza di operazioni in cui l'operazione i ha codice
+     *   istruzioni[i * CAMPI + CODICE] e si applica all'operatore, alla borsa e all'azienda con gli identificativi nelle
+     *   posizioni successive, per il numero istruzioni[i * CAMPI + NUMERO].
+     * RI:
+     *   - "istruzioni" non è null, ha lunghezza multipla di CAMPI e non viene modificato dopo la costruzione.
+     *   - ogni codice è uno di quelli di OrdineBinario e ogni numero è maggiore di 0.
+     *   - gli identificativi sono di entità esistenti, o OrdineBinario.NESSUNO per borsa e azienda dei prelievi e dei depositi.
+     */
+
+    /**
+     * Costruttore della classe, usato da {@link #compila(String[])}
+     * @param istruzioni operazioni compilate
+     */
+    private ProgrammaOperazioni(int[] istruzioni) {
+        this.istruzioni = istruzioni;
+    }
+
+    /**
+     * Compila le righe di un elenco di operazioni, ciascuna nella forma
+     * {@code nome_operatore codice nome_borsa nome_azienda numero} oppure {@code nome_operatore codice numero}
+     * (per prelievi e depositi). I nomi sono risolti con {@code of}, quindi le entità non ancora esistenti vengono create;
+     * le righe vuote sono ignorate.
+     * @param righe righe da compilare (non null)
+     * @return il programma compilato
+     * @throws NullPointerException se l'array o una riga è null
+     * @throws IllegalArgumentException se una riga non ha 3 o 5 campi, ha un codice sconosciuto o un numero minore o uguale a 0
+     * @throws NumberFormatException se il numero di una riga non è un intero
+     */
+    public static ProgrammaOperazioni compila(String[] righe) {
+        int[] istruzioni = new int[righe.length * CAMPI];
+        int n = 0;
+        for (int r = 0; r < righe.length; r++) {
+            if (righe[r].isBlank()) {
+                continue;
+            }
+            String[] tokens = righe[r].trim().split("\\s+");
+            if (tokens.length != 3 && tokens.length != 5) {
+                throw new IllegalArgumentException("La riga " + (r + 1) + " deve avere 3 o 5 campi");
+            }
+            int codice = codice(tokens[1], tokens.length, r);
+            int numero = Integer.parseInt(tokens[tokens.length - 1]);
+            if (numero <= 0) {
+                throw new IllegalArgumentException("Il numero dell'operazione dev'essere maggiore di 0 (riga " + (r + 1) + ")");
+            }
+            istruzioni[n + CODICE] = codice;
+            istruzioni[n + OPERATORE] = Operatore.of(tokens[0]).getId();
+            istruzioni[n + BORSA] = tokens.length == 5 ? Borsa.of(tokens[2]).getId() : OrdineBinario.NESSUNO;
+            istruzioni[n + AZIENDA] = tokens.length == 5 ? Azienda.of(tokens[3]).getId() : OrdineBinario.NESSUNO;
+            istruzioni[n + NUMERO] = numero;
+            n += CAMPI;
+        }
+        return new ProgrammaOperazioni(n == istruzioni.length ? istruzioni : Arrays.copyOf(istruzioni, n));
+    }
+
+    /**
+     * Decodifica il simbolo di un'operazione e controlla che la riga abbia i campi che l'operazione richiede
+     * @param simbolo simbolo dell'operazione
+     * @param campi campi della riga
+     * @param riga indice della riga
+     * @return il codice {@link OrdineBinario} dell'operazione
+     * @throws IllegalArgumentException se il simbolo è sconosciuto o non corrisponde al numero di campi
+     */
+    private static int codice(String simbolo, int campi, int riga) {
+        byte codice = simbolo.length() == 1 ? (byte) simbolo.charAt(0) : 0;
+        boolean conEntita = switch (codice) {
+            case OrdineBinario.ACQUISTO, OrdineBinario.INSTRADATO, OrdineBinario.VENDITA -> true;
+            case OrdineBinario.PRELIEVO, OrdineBinario.DEPOSITO -> false;
+            default -> throw new IllegalArgumentException("Il simbolo dell'operazione è errato (riga " + (riga + 1) + ")");
+        };
+        if (conEntita != (campi == 5)) {
+            throw new IllegalArgumentException("Numero di campi errato per l'operazione " + simbolo + " (riga " + (riga + 1) + ")");
+        }
+        return codice;
+    }
+
+    /**
+     * Esegue in ordine tutte le operazioni del programma con {@link ManagerOperazioni#esegui(OrdineBinario)}.
+     * Se un'operazione lancia un'eccezione l'esecuzione si ferma e le operazioni precedenti restano eseguite.
+     * @return numero di operazioni eseguite
+     * @throws IllegalArgumentException se un'operazione non può essere eseguita (ad esempio azioni possedute insufficienti)
+     * @throws IllegalStateException se il budget non basta per un acquisto o un prelievo {@link borsanova.Operatore#prelievo(long)}
+     * @throws ArrayIndexOutOfBoundsException se un identificativo non corrisponde ad alcuna entità di questo processo
+     */
+    public int esegui() {
+        OrdineBinario ordine = new OrdineBinario();
+        int[] istruzioni = this.istruzioni;
+        for (int i = 0; i < istruzioni.length; i += CAMPI) {
+            ManagerOperazioni.esegui(ordine.imposta((byte) istruzioni[i + CODICE], istruzioni[i + OPERATORE],
+                    istruzioni[i + BORSA], istruzioni[i + AZIENDA], istruzioni[i + NUMERO]));
+        }
+        return istruzioni.length / CAMPI;
+    }
+
+    /**
+     * Scrive il programma nel buffer come lotto di {@link OrdineBinario}, eseguibile con {@link ManagerOperazioni#eseguiLotto(ByteBuffer)}
+     * @param buffer buffer da scrivere, con almeno {@code size() * OrdineBinario.DIMENSIONE} byte rimasti
+     * @throws BufferOverflowException se il buffer non ha spazio per tutto il programma (non viene scritto nulla)
+     */
+    public void scrivi(ByteBuffer buffer) {
+        if (buffer.remaining() < size() * OrdineBinario.DIMENSIONE) {
+            throw new BufferOverflowException();
+        }
+        OrdineBinario ordine = new OrdineBinario();
+        for (int i = 0; i < istruzioni.length; i += CAMPI) {
+            ordine.imposta((byte) istruzioni[i + CODICE], istruzioni[i + OPERATORE], istruzioni[i + BORSA],
+                    istruzioni[i + AZIENDA], istruzioni[i + NUMERO]).scrivi(buffer);
+        }
+    }
+
+    /**
+     * Numero di operazioni del programma
+     * @return numero di operazioni
+     */
+    public int size() {
+        return istruzioni.length / CAMPI;
+    }
+}
@@ -26,7 +26,11 @@ import borsanova.Quotazioni.Quotazione;
 import borsanova.managerOperazioni.ManagerOperazioni;
 import borsanova.Operatore;
 import borsanova.Borsa;
+import borsanova.RapportoChiusura;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 /** Client di test per alcune funzionalità relative alle <strong>borse</strong>. */
@@ -35,48 +39,35 @@ public class BorsaClient {
   /** . */
   private BorsaClient() {}
 
-  public static void main(String[] args) {
-    Scanner sc = new Scanner(System.in);
-    StringBuilder lines = new StringBuilder();
-
-    while (sc.hasNextLine()) {
-      lines.append(sc.nextLine()).append("\n");
-    }
-
-    String[] sections = lines.toString().split("--\\s");
+  public static void main(String[] args) throws IOException {
     Quotazione quotazioni = new Quotazione(null, null);
-    quotazioni.quotazioni(sections[0].split("\n"));
-
-    Comparator<Operatore> operatoreNome = Comparator.comparing(Operatore::getName);
-    List<Operatore> operatori = new ArrayList<>();
-
-    for (String line : sections[1].split("\n")) {
-      String[] tokens = line.split(" ");
-      operatori.add(Operatore.of(tokens[0], Integer.parseInt(tokens[1])));
-    }
+    Map<String, Operatore> operatori = new HashMap<>();
 
-    operatori.sort(operatoreNome);
+    try (LettoreFlusso in = LettoreFlusso.standard()) {
+      while (in.prossimaRiga()) {
+        if (in.campiRimasti() != 4) {
+          throw new IllegalArgumentException("I comandi ricevuti non sono formattati correttamente per la quotazione");
+        }
+        quotazioni.quotazione(Azienda.of(in.nome()), Borsa.of(in.nome()), in.intero(), in.intero());
+      }
+      in.prossimaSezione();
 
-    for (String line : sections[2].split("\n")) {
-      String[] tokens = line.split(" ");
-      Operatore op = operatori.get(operatori.indexOf(Operatore.of(tokens[0], 0)));
-      ManagerOperazioni.operazione(op, tokens[1], Borsa.of(tokens[2]), Azienda.of(tokens[3]), Integer.parseInt(tokens[4]));
-    }
+      while (in.prossimaRiga()) {
+        String nome = in.nome();
+        operatori.put(nome, Operatore.of(nome, in.intero()));
+      }
+      in.prossimaSezione();
 
-    for (Borsa borsa : quotazioni.getBorse()) {
-      System.out.println(borsa.getName());
-      for (Azienda azienda : borsa.getAziende()) {
-        System.out.println("- " + azienda.getName() + " " + borsa.getAzione(azienda, borsa).getNumero());
-        for (Map.Entry<Operatore, SortedSet<Borsa.Azione>> operatore : borsa.getAzioniOperatori().entrySet()) {
-          Operatore op = operatore.getKey();
-          for (Borsa.Azione azione : operatore.getValue()) {
-            if (azione.getBorsa().equals(borsa) && azione.getAzienda().equals(azienda)) {
-              System.out.println("= " + op.getName() + " " + azione.getNumero());
-            }
-          }
+      while (in.prossimaRiga()) {
+        Operatore op = operatori.get(in.nome());
+        if (op == null) {
+          throw new NoSuchElementException("Operatore non elencato alla riga " + in.getRiga());
         }
+        ManagerOperazioni.operazione(op, in.nome(), Borsa.of(in.nome()), Azienda.of(in.nome()), in.intero());
       }
     }
+
+    new RapportoChiusura(new FileOutputStream(FileDescriptor.out).getChannel()).scrivi(quotazioni.getBorse());
   }
 
 
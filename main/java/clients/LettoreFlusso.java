@@ -0,0 +1,438 @@
+package clients;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * La classe {@code LettoreFlusso} legge in streaming l'ingresso dei client, diviso in sezioni separate da linee
+ * contenenti solo {@code --}, una riga alla volta e un campo alla volta.
+ * <p>
+ * Se l'ingresso è un file il lettore lo mappa in memoria a finestre ({@link FileChannel#map}), altrimenti (ad esempio una pipe)
+ * legge dal canale in un unico buffer diretto riutilizzato: in entrambi i casi la memoria occupata non dipende dalla
+ * lunghezza dell'ingresso. Gli interi sono convertiti direttamente dai byte; i nomi sono cercati per byte in una tabella,
+ * quindi ogni nome distinto diventa una {@link String} una volta sola e le righe non producono stringhe intermedie.
+ * <p>
+ * Uso tipico:
+ * <pre>
+ *   while (lettore.prossimaRiga()) { ... lettore.nome() ... lettore.intero() ... }
+ *   lettore.prossimaSezione();
+ * </pre>
+ */
+final class LettoreFlusso implements Closeable {
+    /**Byte mappati per ogni finestra di un file*/
+    private static final int FINESTRA = 1 << 26;
+    /**Capacità iniziale del buffer di lettura da un canale*/
+    private static final int BLOCCO = 1 << 16;
+
+    /**Canale da cui si legge*/
+    private final ReadableByteChannel canale;
+    /**Il canale se è un file mappato, altrimenti null*/
+    private final FileChannel file;
+    /**Posizione nel file della fine dei dati (solo file mappati)*/
+    private final long fine;
+    /**Posizione nel file del primo byte di {@code buffer} (solo file mappati)*/
+    private long base;
+    /**Byte letti: la finestra mappata o il buffer di lettura*/
+    private ByteBuffer buffer;
+    /**Posizione del prossimo byte da leggere in {@code buffer}*/
+    private int pos;
+    /**Fine dei byte validi in {@code buffer}*/
+    private int limite;
+    /**Vero se l'ingresso è esaurito*/
+    private boolean esaurito;
+    /**Vero se la sezione corrente è terminata con un separatore non ancora superato da {@link #prossimaSezione()}*/
+    private boolean separatore;
+    /**Vero se una riga è in lettura*/
+    private boolean inRiga;
+    /**Fine riga già superati, per i messaggi di errore*/
+    private long riga;
+    /**Byte dell'ultimo campo letto*/
+    private byte[] campo = new byte[64];
+    /**Lunghezza dell'ultimo campo letto*/
+    private int lunghezza;
+    /**Byte dei nomi già visti (tabella a indirizzamento aperto)*/
+    private byte[][] chiavi = new byte[256][];
+    /**Hash dei nomi già visti*/
+    private int[] hash = new int[256];
+    /**Nomi già visti*/
+    private String[] nomi = new String[256];
+    /**Nomi presenti nella tabella*/
+    private int occupati;
+
+    /*
+     * AF:
+     *   Un'istanza di "LettoreFlusso" rappresenta la lettura dei byte di "canale" a partire da quello in posizione "pos" di "buffer".
+     *   - "inRiga" --> una riga è stata iniziata con prossimaRiga() e i suoi campi si leggono con nome() e intero().
+     *   - "separatore" --> la sezione corrente è finita, la lettura riprende dopo prossimaSezione().
+     *   - "chiavi", "hash", "nomi" --> i nomi già letti, ciascuno con la sua unica String.
+     * RI:
+     *   - "canale" e "buffer" non sono null, 0 <= "pos" <= "limite" <= capacità di "buffer".
+     *   - "file" è null oppure è "canale" e "base" + "limite" <= "fine".
+     *   - "chiavi", "hash" e "nomi" hanno la stessa lunghezza, potenza di due, e "occupati" è al più metà di essa.
+     */
+
+    /**
+     * Crea un lettore per il flusso d'ingresso standard
+     * @return il lettore
+     */
+    static LettoreFlusso standard() {
+        return new LettoreFlusso(new FileInputStream(FileDescriptor.in).getChannel());
+    }
+
+    /**
+     * Costruttore della classe: se il canale è un file non vuoto lo mappa in memoria dalla posizione corrente
+     * @param canale canale da leggere (non null)
+     * @throws UncheckedIOException se la mappatura fallisce
+     */
+    LettoreFlusso(ReadableByteChannel canale) {
+        this.canale = canale;
+        long inizio = 0;
+        long dimensione = 0;
+        if (canale instanceof FileChannel fc) {
+            try {
+                inizio = fc.position();
+                dimensione = fc.size();
+            } catch (IOException e) {
+                dimensione = 0;  // non è un file, ad esempio una pipe
+            }
+        }
+        if (dimensione > inizio) {
+            this.file = (FileChannel) canale;
+            this.fine = dimensione;
+            this.base = inizio;
+            this.buffer = mappa(inizio);
+            this.limite = buffer.limit();
+        } else {
+            this.file = null;
+            this.fine = 0;
+            this.buffer = ByteBuffer.allocateDirect(BLOCCO);
+            this.limite = 0;
+        }
+    }
+
+    /**
+     * Passa alla prossima riga non vuota della sezione corrente, saltando ciò che resta della riga in lettura
+     * @return true se c'è una riga da leggere, false se la sezione (o l'ingresso) è finita
+     * @throws UncheckedIOException se la lettura fallisce
+     */
+    boolean prossimaRiga() {
+        if (separatore) {
+            return false;
+        }
+        if (inRiga) {
+            int c;
+            while ((c = guarda(0)) >= 0 && c != '\n') {
+                pos++;
+            }
+            inRiga = false;
+        }
+        while (true) {
+            saltaSpazi();
+            int c = guarda(0);
+            if (c < 0) {
+                return false;
+            }
+            if (c == '\n') {
+                pos++;
+                riga++;
+                continue;
+            }
+            if (c == '-' && guarda(1) == '-' && soloSpazi(2)) {
+                while ((c = guarda(0)) >= 0 && c != '\n') {
+                    pos++;
+                }
+                if (c == '\n') {
+                    pos++;
+                    riga++;
+                }
+                separatore = true;
+                return false;
+            }
+            inRiga = true;
+            return true;
+        }
+    }
+
+    /**
+     * Salta le righe rimaste nella sezione corrente e il separatore che la chiude
+     * @return true se è iniziata una nuova sezione, false se l'ingresso è finito
+     * @throws UncheckedIOException se la lettura fallisce
+     */
+    boolean prossimaSezione() {
+        while (prossimaRiga()) {
+            // la riga viene saltata dalla chiamata successiva
+        }
+        if (separatore) {
+            separatore = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Conta i campi rimasti nella riga in lettura, senza leggerli
+     * @return numero di campi rimasti
+     * @throws IllegalStateException se nessuna riga è in lettura
+     * @throws UncheckedIOException se la lettura fallisce
+     */
+    int campiRimasti() {
+        inLettura();
+        int campi = 0;
+        boolean dentro = false;
+        for (int k = 0; ; k++) {
+            int c = guarda(k);
+            if (c < 0 || c == '\n') {
+                return campi;
+            }
+            boolean spazio = c == ' ' || c == '\t' || c == '\r';
+            if (!spazio && !dentro) {
+                campi++;
+            }
+            dentro = !spazio;
+        }
+    }
+
+    /**
+     * Legge il prossimo campo della riga come nome
+     * @return il nome, la stessa istanza per tutte le occorrenze dello stesso nome
+     * @throws IllegalStateException se nessuna riga è in lettura
+     * @throws NoSuchElementException se la riga non ha altri campi
+     * @throws UncheckedIOException se la lettura fallisce
+     */
+    String nome() {
+        leggiCampo();
+        int h = 1;
+        for (int i = 0; i < lunghezza; i++) {
+            h = 31 * h + campo[i];
+        }
+        h ^= h >>> 16;
+        int maschera = chiavi.length - 1;
+        int i = h & maschera;
+        for (byte[] chiave; (chiave = chiavi[i]) != null; i = (i + 1) & maschera) {
+            if (hash[i] == h && Arrays.equals(chiave, 0, chiave.length, campo, 0, lunghezza)) {
+                return nomi[i];
+            }
+        }
+        String nome = new String(campo, 0, lunghezza, StandardCharsets.UTF_8);
+        chiavi[i] = Arrays.copyOf(campo, lunghezza);
+        hash[i] = h;
+        nomi[i] = nome;
+        if (++occupati * 2 > chiavi.length) {
+            ingrandisciTabella();
+        }
+        return nome;
+    }
+
+    /**
+     * Legge il prossimo campo della riga come intero decimale (con segno opzionale)
+     * @return il valore
+     * @throws IllegalStateException se nessuna riga è in lettura
+     * @throws NoSuchElementException se la riga non ha altri campi
+     * @throws NumberFormatException se il campo non è un intero rappresentabile come {@code int}
+     * @throws UncheckedIOException se la lettura fallisce
+     */
+    int intero() {
+        leggiCampo();
+        boolean negativo = campo[0] == '-';
+        int i = negativo || campo[0] == '+' ? 1 : 0;
+        if (i == lunghezza) {
+            throw numeroErrato();
+        }
+        long valore = 0;
+        for (; i < lunghezza; i++) {
+            int cifra = campo[i] - '0';
+            if (cifra < 0 || cifra > 9) {
+                throw numeroErrato();
+            }
+            valore = valore * 10 + cifra;
+            if (valore > (long) Integer.MAX_VALUE + 1) {
+                throw numeroErrato();
+            }
+        }
+        if (negativo) {
+            valore = -valore;
+        }
+        if (valore > Integer.MAX_VALUE) {
+            throw numeroErrato();
+        }
+        return (int) valore;
+    }
+
+    /**
+     * Numero della riga in lettura (contando dalla prima dell'ingresso), per i messaggi di errore
+     * @return numero della riga
+     */
+    long getRiga() {
+        return riga + 1;
+    }
+
+    @Override
+    public void close() {
+        try {
+            canale.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Legge il prossimo campo della riga in {@code campo}
+     */
+    private void leggiCampo() {
+        inLettura();
+        saltaSpazi();
+        lunghezza = 0;
+        int c;
+        while ((c = guarda(0)) >= 0 && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+            if (lunghezza == campo.length) {
+                campo = Arrays.copyOf(campo, lunghezza * 2);
+            }
+            campo[lunghezza++] = (byte) c;
+            pos++;
+        }
+        if (lunghezza == 0) {
+            throw new NoSuchElementException("Campo mancante alla riga " + getRiga());
+        }
+    }
+
+    /**
+     * Verifica che una riga sia in lettura
+     */
+    private void inLettura() {
+        if (!inRiga) {throw new IllegalStateException("Nessuna riga in lettura");}
+    }
+
+    /**
+     * Salta gli spazi (esclusi i fine riga) a partire da {@code pos}
+     */
+    private void saltaSpazi() {
+        int c;
+        while ((c = guarda(0)) == ' ' || c == '\t' || c == '\r') {
+            pos++;
+        }
+    }
+
+    /**
+     * Verifica che dalla posizione {@code pos + k} alla fine della riga ci siano solo spazi
+     * @param k distanza da {@code pos}
+     * @return true se il resto della riga è vuoto
+     */
+    private boolean soloSpazi(int k) {
+        int c;
+        while ((c = guarda(k)) == ' ' || c == '\t' || c == '\r') {
+            k++;
+        }
+        return c < 0 || c == '\n';
+    }
+
+    /**
+     * Restituisce il byte in posizione {@code pos + k} senza consumarlo, leggendo altri byte se necessario
+     * @param k distanza da {@code pos}
+     * @return il byte (senza segno) o -1 se l'ingresso finisce prima
+     */
+    private int guarda(int k) {
+        while (pos + k >= limite) {
+            if (!riempi()) {
+                return -1;
+            }
+        }
+        return buffer.get(pos + k) & 0xFF;
+    }
+
+    /**
+     * Scarta i byte prima di {@code pos} e rende disponibili altri byte
+     * @return true se sono disponibili nuovi byte, false se l'ingresso è esaurito
+     */
+    private boolean riempi() {
+        if (esaurito) {
+            return false;
+        }
+        try {
+            if (file != null) {
+                if (base + limite >= fine) {
+                    esaurito = true;
+                    return false;
+                }
+                if (pos == 0 && limite == FINESTRA) {
+                    throw new IllegalStateException("Riga più lunga di " + FINESTRA + " byte alla riga " + getRiga());
+                }
+                base += pos;
+                buffer = mappa(base);
+                limite = buffer.limit();
+            } else {
+                buffer.limit(limite).position(pos);
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer grande = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                    grande.put(buffer.flip());
+                    buffer = grande;
+                }
+                int letti;
+                do {
+                    letti = canale.read(buffer);
+                } while (letti == 0);
+                limite = buffer.position();
+                esaurito = letti < 0;
+            }
+            pos = 0;
+            return !esaurito;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Mappa la finestra del file che inizia in {@code inizio}
+     * @param inizio posizione nel file
+     * @return la finestra mappata
+     */
+    private ByteBuffer mappa(long inizio) {
+        try {
+            return file.map(FileChannel.MapMode.READ_ONLY, inizio, Math.min(fine - inizio, FINESTRA));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Raddoppia la tabella dei nomi
+     */
+    private void ingrandisciTabella() {
+        byte[][] vecchieChiavi = chiavi;
+        int[] vecchiHash = hash;
+        String[] vecchiNomi = nomi;
+        chiavi = new byte[vecchieChiavi.length * 2][];
+        hash = new int[chiavi.length];
+        nomi = new String[chiavi.length];
+        int maschera = chiavi.length - 1;
+        for (int j = 0; j < vecchieChiavi.length; j++) {
+            if (vecchieChiavi[j] != null) {
+                int i = vecchiHash[j] & maschera;
+                while (chiavi[i] != null) {
+                    i = (i + 1) & maschera;
+                }
+                chiavi[i] = vecchieChiavi[j];
+                hash[i] = vecchiHash[j];
+                nomi[i] = vecchiNomi[j];
+            }
+        }
+    }
+
+    /**
+     * Crea l'eccezione per un campo che non è un intero valido
+     * @return l'eccezione
+     */
+    private NumberFormatException numeroErrato() {
+        return new NumberFormatException("For input string: \"" + new String(campo, 0, lunghezza, StandardCharsets.UTF_8)
+                + "\" alla riga " + getRiga());
+    }
+}
@@ -37,33 +37,40 @@ public class OperatoreClient {
 
   public static void main(String[] args) {
 
-    Scanner sc = new Scanner(System.in);
-    StringBuilder lines = new StringBuilder();
-    while (sc.hasNextLine()) {
-      lines.append(sc.nextLine()).append("\n");
-    }
-
-    String[] sections = lines.toString().split("--\\s");
     Quotazione quotazioni = new Quotazione(null, null);
-    quotazioni.quotazioni(sections[0].split("\n"));
     List<Operatore> operatori = new ArrayList<>();
+    Map<String, Operatore> perNome = new HashMap<>();
 
-    for (String line : sections[1].split("\n")) {
-      String[] tokens = line.split(" ");
-      operatori.add(Operatore.of(tokens[0], Integer.parseInt(tokens[1])));
-    }
-    Comparator<Operatore> operatoreNome = Comparator.comparing(Operatore::getName);
-    operatori.sort(operatoreNome);
-
-    for (String line : sections[2].split("\n")) {
-      String[] tokens = line.split(" ");
-
-      Operatore op = operatori.get(operatori.indexOf(Operatore.of(tokens[0])));
+    try (LettoreFlusso in = LettoreFlusso.standard()) {
+      while (in.prossimaRiga()) {
+        if (in.campiRimasti() != 4) {
+          throw new IllegalArgumentException("I comandi ricevuti non sono formattati correttamente per la quotazione");
+        }
+        quotazioni.quotazione(Azienda.of(in.nome()), Borsa.of(in.nome()), in.intero(), in.intero());
+      }
+      in.prossimaSezione();
 
-      if (tokens.length == 3) {
-        ManagerOperazioni.operazione(op, tokens[1], null, null, Integer.parseInt(tokens[2]));
-      } else {
-        ManagerOperazioni.operazione(op,tokens[1], Borsa.of(tokens[2]), Azienda.of(tokens[3]), Integer.parseInt(tokens[4]));
+      while (in.prossimaRiga()) {
+        String nome = in.nome();
+        Operatore op = Operatore.of(nome, in.intero());
+        operatori.add(op);
+        perNome.put(nome, op);
+      }
+      Comparator<Operatore> operatoreNome = Comparator.comparing(Operatore::getName);
+      operatori.sort(operatoreNome);
+      in.prossimaSezione();
+
+      while (in.prossimaRiga()) {
+        Operatore op = perNome.get(in.nome());
+        if (op == null) {
+          throw new NoSuchElementException("Operatore non elencato alla riga " + in.getRiga());
+        }
+        String operazione = in.nome();
+        if (in.campiRimasti() == 1) {
+          ManagerOperazioni.operazione(op, operazione, null, null, in.intero());
+        } else {
+          ManagerOperazioni.operazione(op, operazione, Borsa.of(in.nome()), Azienda.of(in.nome()), in.intero());
+        }
       }
     }
 
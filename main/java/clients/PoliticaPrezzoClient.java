@@ -26,8 +26,6 @@ import borsanova.managerOperazioni.ManagerOperazioni;
 import borsanova.Operatore;
 import borsanova.Borsa;
 
-import java.util.Scanner;
-
 /** Client di test per alcune funzionalità relative alle <strong>borse</strong>. */
 public class PoliticaPrezzoClient {
 
@@ -36,28 +34,20 @@ public class PoliticaPrezzoClient {
 
   public static void main(String[] args) {
 
-      Scanner sc = new Scanner(System.in);
-      StringBuilder lines = new StringBuilder();
-
-      while (sc.hasNextLine()) {
-          lines.append(sc.nextLine()).append("\n");
-      }
-
-      String[] sections = lines.toString().split("--\\s");
       Borsa borsa = Borsa.of(args[0]);
       borsa.setPoliticaCostante(Integer.parseInt(args[1]));
-
-      for (String line : sections[0].split("\n")) {
-          String[] parts = line.split(" ");
-          Azienda azienda = Azienda.of(parts[0]);
-          azienda.quotazione(borsa, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
-      }
-
-      for (String line : sections[1].split("\n")) {
-          String[] parts = line.split(" ");
-          Operatore op = Operatore.of(args[2], Integer.parseInt(args[3]));
-          ManagerOperazioni.operazione(op, parts[0], borsa, Azienda.of(parts[1]), Integer.parseInt(parts[2]));
-
+      Operatore op = Operatore.of(args[2], Integer.parseInt(args[3]));
+
+      try (LettoreFlusso in = LettoreFlusso.standard()) {
+        while (in.prossimaRiga()) {
+          Azienda azienda = Azienda.of(in.nome());
+          azienda.quotazione(borsa, in.intero(), in.intero());
+        }
+        in.prossimaSezione();
+
+        while (in.prossimaRiga()) {
+          ManagerOperazioni.operazione(op, in.nome(), borsa, Azienda.of(in.nome()), in.intero());
+        }
       }
 
       for (Borsa.Azione azione : borsa.getAzioni()) {